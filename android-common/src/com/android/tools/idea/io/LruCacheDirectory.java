@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.io;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ThrowableConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of cache files which is kept under a maximum size by deleting the least recently used files. A file is used when it is
+ * written or looked up with {@link #findFile(String)}.
+ * <p>
+ * Files are written to a temporary file first and then renamed, so a file found in the directory is always complete. Writes to the same
+ * directory must not happen concurrently.
+ */
+public final class LruCacheDirectory {
+  private static final Logger LOG = Logger.getInstance(LruCacheDirectory.class);
+
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  @NotNull private final File myDirectory;
+  private final long myMaxBytes;
+
+  public LruCacheDirectory(@NotNull File directory, long maxBytes) {
+    myDirectory = directory;
+    myMaxBytes = maxBytes;
+  }
+
+  @NotNull
+  public File getDirectory() {
+    return myDirectory;
+  }
+
+  /**
+   * Returns the file with the given name, marking it as recently used, or null if there is none.
+   */
+  @Nullable
+  public File findFile(@NotNull String name) {
+    File file = new File(myDirectory, name);
+    if (!file.isFile()) {
+      return null;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  /**
+   * Writes the file with the given name and then trims the directory to its maximum size. Returns false if the file could not be
+   * written, in which case the directory is left as it was.
+   */
+  public boolean write(@NotNull String name, @NotNull ThrowableConsumer<OutputStream, IOException> writer) {
+    if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+      return false;
+    }
+    File file = new File(myDirectory, name);
+    File tempFile = new File(myDirectory, name + TEMP_EXTENSION);
+    try {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+        writer.consume(out);
+      }
+      FileUtil.rename(tempFile, file);
+    }
+    catch (IOException e) {
+      LOG.debug("Unable to write cache file " + file, e);
+      FileUtil.delete(tempFile);
+      return false;
+    }
+    trim();
+    return true;
+  }
+
+  /**
+   * Deletes the file with the given name, if any.
+   */
+  public void delete(@NotNull String name) {
+    FileUtil.delete(new File(myDirectory, name));
+  }
+
+  /**
+   * Deletes the least recently used files until the directory fits in its maximum size.
+   */
+  public void trim() {
+    File[] files = myDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    long totalSize = 0;
+    for (File file : files) {
+      totalSize += file.length();
+    }
+    if (totalSize <= myMaxBytes) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (totalSize <= myMaxBytes) {
+        break;
+      }
+      long length = file.length();
+      if (FileUtil.delete(file)) {
+        totalSize -= length;
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LruCacheDirectory}.
+ */
+public class LruCacheDirectoryTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void trimsLeastRecentlyUsedFiles() throws IOException {
+    File dir = new File(myTemporaryFolder.getRoot(), "cache");
+    LruCacheDirectory cache = new LruCacheDirectory(dir, 20);
+    assertTrue(cache.write("a", out -> out.write(new byte[10])));
+    assertTrue(cache.write("b", out -> out.write(new byte[10])));
+    File a = cache.findFile("a");
+    assertNotNull(a);
+    assertTrue(a.setLastModified(System.currentTimeMillis() + 10_000));
+    File b = new File(dir, "b");
+    assertTrue(b.setLastModified(System.currentTimeMillis() - 10_000));
+
+    assertTrue(cache.write("c", out -> out.write(new byte[10])));
+    assertNotNull(cache.findFile("a"));
+    assertNull(cache.findFile("b"));
+    assertNotNull(cache.findFile("c"));
+  }
+
+  @Test
+  public void failedWriteLeavesNoFile() {
+    LruCacheDirectory cache = new LruCacheDirectory(myTemporaryFolder.getRoot(), Long.MAX_VALUE);
+    assertFalse(cache.write("a", out -> {
+      out.write(new byte[10]);
+      throw new IOException("Failed");
+    }));
+    assertNull(cache.findFile("a"));
+    assertArrayEquals(new String[0], myTemporaryFolder.getRoot().list());
+  }
+}
@@ -16,16 +16,20 @@
 package com.android.tools.idea.lang.roomSql.resolution
 
 import com.android.tools.idea.lang.roomSql.*
+import com.google.common.annotations.VisibleForTesting
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.*
 import com.intellij.psi.impl.ResolveScopeManager
+import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.searches.AnnotatedElementsSearch
-import com.intellij.psi.util.CachedValueProvider
-import com.intellij.psi.util.CachedValuesManager
-import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.psi.util.InheritanceUtil
 import com.intellij.psi.util.PsiUtil
+import java.util.concurrent.ConcurrentHashMap
 
 private val LOG = Logger.getInstance(RoomSchemaManager::class.java)
 
@@ -35,40 +39,243 @@ class RoomSchemaManager(val project: Project) {
     fun getInstance(project: Project): RoomSchemaManager? = ServiceManager.getService(project, RoomSchemaManager::class.java)
   }
 
+  /** Schemas shared by all the files with the same resolve scope, i.e. by the files of a module. */
+  private val schemas = ConcurrentHashMap<GlobalSearchScope, ModuleSchema>()
+  @Volatile private var rootsModificationCount = -1L
+
+  /** Called before each file is processed when building or updating a schema, lets tests cancel the work partway. */
+  @VisibleForTesting
+  internal var beforeFileProcessed: ((VirtualFile) -> Unit)? = null
+
+  init {
+    PsiManager.getInstance(project).addPsiTreeChangeListener(object : PsiTreeChangeAdapter() {
+      override fun childAdded(event: PsiTreeChangeEvent) = fileChanged(event)
+      override fun childRemoved(event: PsiTreeChangeEvent) = fileChanged(event)
+      override fun childReplaced(event: PsiTreeChangeEvent) = fileChanged(event)
+      override fun childMoved(event: PsiTreeChangeEvent) = fileChanged(event)
+      override fun childrenChanged(event: PsiTreeChangeEvent) = fileChanged(event)
+      override fun propertyChanged(event: PsiTreeChangeEvent) = fileChanged(event)
+    }, project)
+  }
+
   /**
    * Returns the [RoomSchema] visible from the given [PsiFile] or null if Room is not used in the project.
    *
-   * The schema is cached in the file and recomputed after a change to java structure.
-   *
-   * @see PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT
+   * The schema is shared by the files of a module. After a change to a file, only the Room classes declared in the file, and the
+   * entities reading their columns from classes in the file, are processed again.
    */
-  fun getSchema(psiFile: PsiFile): RoomSchema? = CachedValuesManager.getManager(project).getCachedValue(
-      psiFile, { CachedValueProvider.Result(buildSchema(psiFile), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT) })
+  fun getSchema(psiFile: PsiFile): RoomSchema? {
+    val rootsCount = ProjectRootModificationTracker.getInstance(project).modificationCount
+    if (rootsCount != rootsModificationCount) {
+      schemas.clear()
+      rootsModificationCount = rootsCount
+    }
+
+    val scope = ResolveScopeManager.getInstance(project).getResolveScope(psiFile)
+    return schemas.getOrPut(scope) { ModuleSchema(scope) }.getSchema(psiFile)
+  }
 
   private val constantEvaluationHelper = JavaPsiFacade.getInstance(project).constantEvaluationHelper
   private val pointerManager = SmartPointerManager.getInstance(project)
 
+  private fun fileChanged(event: PsiTreeChangeEvent) {
+    val file = event.file ?: event.child as? PsiFile ?: event.oldChild as? PsiFile ?: event.newChild as? PsiFile
+    val virtualFile = file?.viewProvider?.virtualFile
+    for (schema in schemas.values) {
+      if (virtualFile != null) schema.fileChanged(virtualFile) else schema.invalidate()
+    }
+  }
+
   /** Builds the schema using IJ indexes. */
-  private fun buildSchema(psiFile: PsiFile): RoomSchema? {
+  @VisibleForTesting
+  internal fun buildSchema(psiFile: PsiFile): RoomSchema? {
     LOG.debug("Recalculating Room schema for file ", psiFile)
     val scope = ResolveScopeManager.getInstance(project).getResolveScope(psiFile)
+    val annotations = findAnnotations(scope, psiFile) ?: return null
+
+    val entities = AnnotatedElementsSearch.searchPsiClasses(annotations.entity, scope)
+        .mapNotNullTo(HashSet()) { this.createEntity(it) }
+    val databases = AnnotatedElementsSearch.searchPsiClasses(annotations.database, scope)
+        .mapNotNullTo(HashSet()) { this.createDatabase(it, pointerManager) }
+    val daos = AnnotatedElementsSearch.searchPsiClasses(annotations.dao, scope)
+        .mapTo(HashSet()) { Dao(pointerManager.createSmartPsiElementPointer(it)) }
 
+    return RoomSchema(databases, entities, daos)
+  }
+
+  private class RoomAnnotations(val entity: PsiClass, val database: PsiClass, val dao: PsiClass) {
+    val isValid get() = entity.isValid && database.isValid && dao.isValid
+  }
+
+  private fun findAnnotations(scope: GlobalSearchScope, psiFile: PsiFile): RoomAnnotations? {
     val psiFacade = JavaPsiFacade.getInstance(project)
     val entityAnnotation = psiFacade.findClass(ENTITY_ANNOTATION_NAME, scope) ?: return annotationNotFound("Entity", psiFile)
     val databaseAnnotation = psiFacade.findClass(DATABASE_ANNOTATION_NAME, scope) ?: return annotationNotFound("Database", psiFile)
     val daoAnnotation = psiFacade.findClass(DAO_ANNOTATION_NAME, scope) ?: return annotationNotFound("Dao", psiFile)
+    return RoomAnnotations(entityAnnotation, databaseAnnotation, daoAnnotation)
+  }
 
-    val entities = AnnotatedElementsSearch.searchPsiClasses(entityAnnotation, scope)
-        .mapNotNullTo(HashSet()) { this.createEntity(it) }
-    val databases = AnnotatedElementsSearch.searchPsiClasses(databaseAnnotation, scope)
-        .mapNotNullTo(HashSet()) { this.createDatabase(it, pointerManager) }
-    val daos = AnnotatedElementsSearch.searchPsiClasses(daoAnnotation, scope)
-        .mapTo(HashSet()) { Dao(pointerManager.createSmartPsiElementPointer(it)) }
+  /** The Room classes declared in a file, and the files the columns of its entities were read from. */
+  private class FileContents(
+      val entities: List<Entity>,
+      val databases: List<RoomDatabase>,
+      val daos: List<Dao>,
+      val dependencies: Set<VirtualFile>
+  )
 
-    return RoomSchema(databases, entities, daos)
+  /**
+   * The schema of a module, updated file by file.
+   *
+   * Reads happen under a read action and PSI changes under a write action, so [fileChanged] never runs concurrently with an update.
+   * Updates run in read actions, possibly on several threads, so they are synchronized.
+   */
+  private inner class ModuleSchema(private val scope: GlobalSearchScope) {
+    private var annotations: RoomAnnotations? = null
+    private val files = HashMap<VirtualFile, FileContents>()
+    /** For each file, the files which have entities with columns read from it. */
+    private val dependents = HashMap<VirtualFile, MutableSet<VirtualFile>>()
+    private val changedFiles = ConcurrentHashMap.newKeySet<VirtualFile>()
+    @Volatile private var valid = false
+    private var schema: RoomSchema? = null
+
+    fun fileChanged(file: VirtualFile) {
+      changedFiles.add(file)
+    }
+
+    fun invalidate() {
+      valid = false
+    }
+
+    /**
+     * Returns the schema, rebuilding or updating it first if needed. The work is often cancelled (e.g. highlighting is restarted on each
+     * keystroke), so the schema is only marked valid, and the changed files forgotten, once the work is done.
+     */
+    @Synchronized
+    fun getSchema(psiFile: PsiFile): RoomSchema? {
+      if (!valid || annotations?.isValid != true) {
+        valid = false
+        changedFiles.clear()
+        valid = rebuild(psiFile)
+      }
+      else if (!changedFiles.isEmpty()) {
+        val changed = changedFiles.toList()
+        changedFiles.removeAll(changed)
+        try {
+          update(changed)
+        }
+        catch (e: Throwable) {
+          // Process them again on the next request
+          changedFiles.addAll(changed)
+          throw e
+        }
+      }
+      return schema
+    }
+
+    /** Builds the schema from scratch. Returns false if Room is not used from the scope. */
+    private fun rebuild(psiFile: PsiFile): Boolean {
+      LOG.debug("Recalculating Room schema for file ", psiFile)
+      files.clear()
+      dependents.clear()
+      schema = null
+      val annotations = findAnnotations(scope, psiFile)
+      this.annotations = annotations
+      if (annotations == null) {
+        // Room may be added later, without a change of the roots
+        return false
+      }
+
+      val classes = LinkedHashSet<PsiClass>()
+      AnnotatedElementsSearch.searchPsiClasses(annotations.entity, scope).forEach { classes.add(it) }
+      AnnotatedElementsSearch.searchPsiClasses(annotations.database, scope).forEach { classes.add(it) }
+      AnnotatedElementsSearch.searchPsiClasses(annotations.dao, scope).forEach { classes.add(it) }
+
+      for ((file, fileClasses) in classes.groupBy { it.containingFile?.viewProvider?.virtualFile }) {
+        if (file != null) {
+          checkCanceled(file)
+          processClasses(file, fileClasses)
+        }
+      }
+      schema = createSchema()
+      return true
+    }
+
+    private fun update(changed: List<VirtualFile>) {
+      val toProcess = LinkedHashSet<VirtualFile>()
+      for (file in changed) {
+        toProcess.add(file)
+        dependents[file]?.let { toProcess.addAll(it) }
+      }
+      LOG.debug("Updating Room schema for files ", toProcess)
+
+      val psiManager = PsiManager.getInstance(project)
+      for (file in toProcess) {
+        checkCanceled(file)
+        files.remove(file)
+        val psiFile = if (file.isValid && scope.contains(file)) psiManager.findFile(file) as? PsiClassOwner else null
+        if (psiFile != null) {
+          processClasses(file, psiFile.classes.flatMap { getAllClasses(it) }.filter { isRoomClass(it) })
+        }
+      }
+      schema = createSchema()
+    }
+
+    private fun processClasses(file: VirtualFile, classes: List<PsiClass>) {
+      if (classes.isEmpty()) {
+        return
+      }
+
+      val entities = ArrayList<Entity>()
+      val databases = ArrayList<RoomDatabase>()
+      val daos = ArrayList<Dao>()
+      val dependencies = HashSet<VirtualFile>()
+      for (psiClass in classes) {
+        val modifierList = psiClass.modifierList ?: continue
+        if (modifierList.findAnnotation(ENTITY_ANNOTATION_NAME) != null) {
+          createEntity(psiClass, dependencies)?.let { entities.add(it) }
+        }
+        if (modifierList.findAnnotation(DATABASE_ANNOTATION_NAME) != null) {
+          createDatabase(psiClass, pointerManager)?.let { databases.add(it) }
+        }
+        if (modifierList.findAnnotation(DAO_ANNOTATION_NAME) != null) {
+          daos.add(Dao(pointerManager.createSmartPsiElementPointer(psiClass)))
+        }
+      }
+
+      files[file] = FileContents(entities, databases, daos, dependencies)
+      for (dependency in dependencies) {
+        if (dependency != file) {
+          dependents.getOrPut(dependency) { HashSet() }.add(file)
+        }
+      }
+    }
+
+    private fun checkCanceled(file: VirtualFile) {
+      ProgressManager.checkCanceled()
+      beforeFileProcessed?.invoke(file)
+    }
+
+    private fun createSchema() = RoomSchema(
+        databases = files.values.flatMapTo(HashSet()) { it.databases },
+        entities = files.values.flatMapTo(HashSet()) { it.entities },
+        daos = files.values.flatMapTo(HashSet()) { it.daos })
+  }
+
+  private fun getAllClasses(psiClass: PsiClass): List<PsiClass> =
+      listOf(psiClass) + psiClass.innerClasses.flatMap { getAllClasses(it) }
+
+  private fun isRoomClass(psiClass: PsiClass): Boolean {
+    val modifierList = psiClass.modifierList ?: return false
+    return modifierList.findAnnotation(ENTITY_ANNOTATION_NAME) != null ||
+        modifierList.findAnnotation(DATABASE_ANNOTATION_NAME) != null ||
+        modifierList.findAnnotation(DAO_ANNOTATION_NAME) != null
   }
 
-  private fun createEntity(psiClass: PsiClass): Entity? {
+  /**
+   * Creates the [Entity] for the given class. The files of the classes the columns are read from (super classes and embedded
+   * classes) are added to [dependencies].
+   */
+  private fun createEntity(psiClass: PsiClass, dependencies: MutableSet<VirtualFile> = HashSet()): Entity? {
     val (tableName, tableNameElement) = getNameAndNameElement(
         psiClass, annotationName = ENTITY_ANNOTATION_NAME, annotationAttributeName = "tableName") ?: return null
 
@@ -76,11 +283,18 @@ class RoomSchemaManager(val project: Project) {
         pointerManager.createSmartPsiElementPointer(psiClass),
         tableName,
         pointerManager.createSmartPsiElementPointer(tableNameElement),
-        findColumns(psiClass).toSet()
+        findColumns(psiClass, dependencies = dependencies).toSet()
     )
   }
 
-  private fun findColumns(psiClass: PsiClass, namePrefix: String = ""): Sequence<EntityColumn> {
+  private fun findColumns(
+      psiClass: PsiClass,
+      namePrefix: String = "",
+      dependencies: MutableSet<VirtualFile>
+  ): Sequence<EntityColumn> {
+    addDependency(psiClass, dependencies)
+    InheritanceUtil.getSuperClasses(psiClass).forEach { addDependency(it, dependencies) }
+
     return psiClass.allFields
         .asSequence()
         .filterNot { it.modifierList?.hasModifierProperty(PsiModifier.STATIC) == true }
@@ -88,7 +302,7 @@ class RoomSchemaManager(val project: Project) {
         .flatMap{ psiField ->
           val embeddedAnnotation = psiField.modifierList?.findAnnotation(EMBEDDED_ANNOTATION_NAME)
           if (embeddedAnnotation != null) {
-            findEmbeddedFields(psiField, embeddedAnnotation, namePrefix)
+            findEmbeddedFields(psiField, embeddedAnnotation, namePrefix, dependencies)
           } else {
             val thisField = getNameAndNameElement(
                 psiField,
@@ -107,7 +321,12 @@ class RoomSchemaManager(val project: Project) {
         }
   }
 
-  private fun findEmbeddedFields(embeddedField: PsiField, embeddedAnnotation: PsiAnnotation, currentPrefix: String): Sequence<EntityColumn> {
+  private fun findEmbeddedFields(
+      embeddedField: PsiField,
+      embeddedAnnotation: PsiAnnotation,
+      currentPrefix: String,
+      dependencies: MutableSet<VirtualFile>
+  ): Sequence<EntityColumn> {
     val newPrefix = embeddedAnnotation.findAttributeValue("prefix")
         ?.let { constantEvaluationHelper.computeConstantExpression(it) }
         ?.toString()
@@ -115,7 +334,11 @@ class RoomSchemaManager(val project: Project) {
 
     val embeddedClass = PsiUtil.resolveClassInClassTypeOnly(embeddedField.type) ?: return emptySequence()
 
-    return findColumns(embeddedClass, currentPrefix + newPrefix)
+    return findColumns(embeddedClass, currentPrefix + newPrefix, dependencies)
+  }
+
+  private fun addDependency(psiClass: PsiClass, dependencies: MutableSet<VirtualFile>) {
+    psiClass.containingFile?.viewProvider?.virtualFile?.let { dependencies.add(it) }
   }
 
   private fun createDatabase(psiClass: PsiClass, pointerManager: SmartPointerManager): RoomDatabase? {
@@ -18,13 +18,47 @@ package com.android.tools.idea.lang.roomSql
 import com.android.tools.idea.lang.roomSql.resolution.*
 import com.google.common.truth.Truth.assertThat
 import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.psi.PsiDocumentManager
 import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
 
 class RoomSchemaManagerTest : RoomLightTestCase() {
 
   private fun getSchema(element: PsiElement) = RoomSchemaManager.getInstance(project)!!.getSchema(element.containingFile)!!
 
+  /** Checks that the incrementally updated schema is the same as the one built from scratch. */
+  private fun checkAgainstFullRebuild(psiFile: PsiFile): RoomSchema {
+    val schema = RoomSchemaManager.getInstance(project)!!.getSchema(psiFile)!!
+    assertThat(schema).isEqualTo(RoomSchemaManager.getInstance(project)!!.buildSchema(psiFile))
+    return schema
+  }
+
+  /** Gets the schema, cancelling the work before the file with the given index is processed. */
+  private fun getSchemaCancelled(psiFile: PsiFile, cancelledFileIndex: Int) {
+    val schemaManager = RoomSchemaManager.getInstance(project)!!
+    var processedFiles = 0
+    schemaManager.beforeFileProcessed = { if (processedFiles++ == cancelledFileIndex) throw ProcessCanceledException() }
+    try {
+      schemaManager.getSchema(psiFile)
+      fail("The schema should not have been computed")
+    }
+    catch (expected: ProcessCanceledException) {
+    }
+    finally {
+      schemaManager.beforeFileProcessed = null
+    }
+  }
+
+  private fun replaceText(psiFile: PsiFile, oldText: String, newText: String) {
+    val document = PsiDocumentManager.getInstance(project).getDocument(psiFile)!!
+    val offset = document.text.indexOf(oldText)
+    assertThat(offset).isAtLeast(0)
+    WriteCommandAction.runWriteCommandAction(project) { document.replaceString(offset, offset + oldText.length, newText) }
+    PsiDocumentManager.getInstance(project).commitAllDocuments()
+  }
+
   fun testEntities() {
     myFixture.addRoomEntity("User")
     myFixture.addRoomEntity("com.example.Address")
@@ -350,4 +384,138 @@ class RoomSchemaManagerTest : RoomLightTestCase() {
             databases = emptySet(),
             daos = emptySet()))
   }
+
+  fun testIncremental_addColumn() {
+    val user = myFixture.addClass(
+        """
+        package com.example;
+
+        import android.arch.persistence.room.Entity;
+
+        @Entity
+        public class User {
+          private String name;
+        }
+        """.trimIndent())
+    val other = myFixture.addRoomEntity("com.example.Address")
+    val file = other.containingFile
+
+    assertThat(checkAgainstFullRebuild(file).entities.map { it.name }).containsExactly("User", "Address")
+
+    replaceText(user.containingFile, "private String name;", "private String name; private int age;")
+
+    val entity = checkAgainstFullRebuild(file).entities.single { it.name == "User" }
+    assertThat(entity.columns.map { it.name }).containsExactly("name", "age")
+  }
+
+  fun testIncremental_changeBaseClass() {
+    val base = myFixture.addClass(
+        """
+        package com.example;
+
+        public abstract class NamedBase {
+          private String name;
+        }
+        """.trimIndent())
+
+    myFixture.addClass(
+        """
+        package com.example;
+
+        import android.arch.persistence.room.Entity;
+
+        @Entity
+        public class User extends NamedBase {
+          private int age;
+        }
+        """.trimIndent())
+
+    val file = base.containingFile
+    assertThat(checkAgainstFullRebuild(file).entities.single().columns.map { it.name }).containsExactly("name", "age")
+
+    replaceText(file, "private String name;", "private String name; private String email;")
+
+    assertThat(checkAgainstFullRebuild(file).entities.single().columns.map { it.name }).containsExactly("name", "email", "age")
+  }
+
+  fun testIncremental_changeEmbeddedClass() {
+    val address = myFixture.addClass(
+        """
+        package com.example;
+
+        public class Address {
+          private String street;
+        }
+        """.trimIndent())
+
+    myFixture.addClass(
+        """
+        package com.example;
+
+        import android.arch.persistence.room.Embedded;
+        import android.arch.persistence.room.Entity;
+
+        @Entity
+        public class User {
+          @Embedded(prefix = "home_") private Address home;
+        }
+        """.trimIndent())
+
+    val file = address.containingFile
+    assertThat(checkAgainstFullRebuild(file).entities.single().columns.map { it.name }).containsExactly("home_street")
+
+    replaceText(file, "private String street;", "private String street; private String city;")
+
+    assertThat(checkAgainstFullRebuild(file).entities.single().columns.map { it.name }).containsExactly("home_street", "home_city")
+  }
+
+  fun testIncremental_removeEntity() {
+    val user = myFixture.addRoomEntity("com.example.User")
+    val address = myFixture.addRoomEntity("com.example.Address")
+    val file = address.containingFile
+
+    assertThat(checkAgainstFullRebuild(file).entities.map { it.name }).containsExactly("User", "Address")
+
+    replaceText(address.containingFile, "@Entity", "")
+    assertThat(checkAgainstFullRebuild(file).entities.map { it.name }).containsExactly("User")
+
+    ApplicationManager.getApplication().runWriteAction { user.containingFile.virtualFile.delete(this) }
+    assertThat(checkAgainstFullRebuild(file).entities).isEmpty()
+  }
+
+  fun testIncremental_cancelledRebuild() {
+    myFixture.addRoomEntity("com.example.User")
+    val address = myFixture.addRoomEntity("com.example.Address")
+    val file = address.containingFile
+
+    getSchemaCancelled(file, 1)
+    assertThat(checkAgainstFullRebuild(file).entities.map { it.name }).containsExactly("User", "Address")
+  }
+
+  fun testIncremental_cancelledUpdate() {
+    val user = myFixture.addClass(
+        """
+        package com.example;
+
+        import android.arch.persistence.room.Entity;
+
+        @Entity
+        public class User {
+          private String name;
+        }
+        """.trimIndent())
+    val address = myFixture.addRoomEntity("com.example.Address")
+    val file = address.containingFile
+
+    assertThat(checkAgainstFullRebuild(file).entities.map { it.name }).containsExactly("User", "Address")
+
+    replaceText(user.containingFile, "private String name;", "private String name; private int age;")
+    replaceText(address.containingFile, "@Entity", "")
+    getSchemaCancelled(file, 1)
+
+    // The files changed before the cancellation are processed by the next request
+    val entity = checkAgainstFullRebuild(file).entities.single()
+    assertThat(entity.name).isEqualTo("User")
+    assertThat(entity.columns.map { it.name }).containsExactly("name", "age")
+  }
 }
@@ -48,7 +48,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.SdkConstants.DOT_PNG;
 import static com.android.SdkConstants.PREFIX_RESOURCE_REF;
@@ -80,6 +83,20 @@ public class ResourceResolverCache {
   @VisibleForTesting
   final Map<String, Map<ResourceType, ResourceValueMap>> myFrameworkResourceMap;
 
+  /**
+   * Resource types that have been modified since the corresponding entry in {@link #myAppResourceMap} was computed.
+   * The next time the configuration is used, a new map is built from the entries of the old one, with only the values
+   * of those types recomputed, and replaces it. Maps are never modified once cached, since resolvers created from
+   * them may be used by other threads.
+   */
+  private final Map<String, Set<ResourceType>> myStaleAppResourceTypes;
+
+  /**
+   * The configured app resources each resolver in {@link #myResolverMap} was created from. A resolver is recreated
+   * when the map of its configuration has been replaced.
+   */
+  private final Map<String, Map<ResourceType, ResourceValueMap>> myResolverAppResources;
+
   /** The generation timestamp of our most recently cached app resources, used to invalidate on edits */
   private long myCachedGeneration;
 
@@ -98,6 +115,8 @@ public class ResourceResolverCache {
     myResolverMap = Maps.newHashMap();
     myAppResourceMap = Maps.newHashMap();
     myFrameworkResourceMap = Maps.newHashMap();
+    myStaleAppResourceTypes = Maps.newHashMap();
+    myResolverAppResources = Maps.newHashMap();
   }
 
   @NotNull
@@ -109,14 +128,14 @@ public class ResourceResolverCache {
     if (resources == null) {
       return ResourceResolver.create(Collections.emptyMap(), Collections.emptyMap(), null, false);
     }
-    if (myCachedGeneration != resources.getModificationCount()) {
-      myResolverMap.clear();
-      myAppResourceMap.clear();
+    long generation = resources.getModificationCount();
+    if (myCachedGeneration != generation) {
+      invalidateModifiedTypes(resources);
     }
 
     // Store the modification count as soon as possible. This ensures that if there is any modification of resources while the
     // resolver is being created, it will be cleared subsequently.
-    myCachedGeneration = resources.getModificationCount();
+    myCachedGeneration = generation;
 
     // When looking up the configured project and framework resources, the theme doesn't matter, so we look up only
     // by the configuration qualifiers; for example, here's a sample key:
@@ -128,9 +147,26 @@ public class ResourceResolverCache {
     // @style/MyTheme-ldltr-sw384dp-w384dp-h640dp-normal-notlong-port-notnight-xhdpi-finger-keyssoft-nokeys-navhidden-nonav-1280x768-v17
     String configurationKey = fullConfiguration.getUniqueKey();
     String resolverKey = themeStyle + configurationKey;
+
+    // App resources
+    Map<ResourceType, ResourceValueMap> configuredAppRes = myAppResourceMap.get(configurationKey);
+    if (configuredAppRes == null) {
+      // Get the project resource values based on the current config
+      configuredAppRes = new EnumMap<>(ResourceType.class);
+      configuredAppRes.putAll(ReadAction.compute(() -> resources.getConfiguredResources(fullConfiguration)));
+      myAppResourceMap.put(configurationKey, configuredAppRes);
+      myStaleAppResourceTypes.remove(configurationKey);
+    }
+    else {
+      Set<ResourceType> staleTypes = myStaleAppResourceTypes.remove(configurationKey);
+      if (staleTypes != null) {
+        configuredAppRes = updateConfiguredResources(resources, fullConfiguration, configuredAppRes, staleTypes);
+        myAppResourceMap.put(configurationKey, configuredAppRes);
+      }
+    }
+
     ResourceResolver resolver = myResolverMap.get(resolverKey);
-    if (resolver == null) {
-      Map<ResourceType, ResourceValueMap> configuredAppRes;
+    if (resolver == null || myResolverAppResources.get(resolverKey) != configuredAppRes) {
       Map<ResourceType, ResourceValueMap> frameworkResources;
 
       // Framework resources
@@ -164,14 +200,6 @@ public class ResourceResolverCache {
         }
       }
 
-      // App resources
-      configuredAppRes = myAppResourceMap.get(configurationKey);
-      if (configuredAppRes == null) {
-        // Get the project resource values based on the current config.
-        configuredAppRes = ReadAction.compute(() -> resources.getConfiguredResources(fullConfiguration));
-        myAppResourceMap.put(configurationKey, configuredAppRes);
-      }
-
       // Resource Resolver
       assert themeStyle.startsWith(PREFIX_RESOURCE_REF) : themeStyle;
       boolean isProjectTheme = ResourceHelper.isProjectStyle(themeStyle);
@@ -205,11 +233,68 @@ public class ResourceResolverCache {
       }
 
       myResolverMap.put(resolverKey, resolver);
+      myResolverAppResources.put(resolverKey, configuredAppRes);
     }
 
     return resolver;
   }
 
+  /**
+   * Invalidates the cached data that depends on app resources modified since {@link #myCachedGeneration}. If only some resource types
+   * were modified, e.g. after editing a string value, only the configured maps of those types are recomputed.
+   */
+  private void invalidateModifiedTypes(@NotNull AppResourceRepository resources) {
+    Set<ResourceType> modifiedTypes = EnumSet.noneOf(ResourceType.class);
+    for (ResourceType type : ResourceType.values()) {
+      if (resources.getModificationCount(type) > myCachedGeneration) {
+        modifiedTypes.add(type);
+      }
+    }
+
+    if (modifiedTypes.size() == ResourceType.values().length) {
+      myResolverMap.clear();
+      myResolverAppResources.clear();
+      myAppResourceMap.clear();
+      myStaleAppResourceTypes.clear();
+      return;
+    }
+
+    if (!modifiedTypes.isEmpty()) {
+      for (String configurationKey : myAppResourceMap.keySet()) {
+        myStaleAppResourceTypes.merge(configurationKey, modifiedTypes, (staleTypes, types) -> {
+          Set<ResourceType> merged = EnumSet.copyOf(staleTypes);
+          merged.addAll(types);
+          return merged;
+        });
+      }
+    }
+  }
+
+  /**
+   * Returns a new map with the values of the given types recomputed and the values of the other types taken from {@code configuredAppRes},
+   * which is left unchanged.
+   */
+  @NotNull
+  private static Map<ResourceType, ResourceValueMap> updateConfiguredResources(@NotNull AppResourceRepository resources,
+                                                                               @NotNull FolderConfiguration fullConfiguration,
+                                                                               @NotNull Map<ResourceType, ResourceValueMap> configuredAppRes,
+                                                                               @NotNull Set<ResourceType> types) {
+    Map<ResourceType, ResourceValueMap> updated = new EnumMap<>(ResourceType.class);
+    updated.putAll(configuredAppRes);
+    ReadAction.run(() -> {
+      for (ResourceType type : types) {
+        ResourceValueMap values = resources.getConfiguredResources(type, fullConfiguration);
+        if (values != null) {
+          updated.put(type, values);
+        }
+        else {
+          updated.remove(type);
+        }
+      }
+    });
+    return updated;
+  }
+
   /**
    * Returns a {@link ResourceRepository} for the framework resources based on the current configuration selection.
    *
@@ -329,7 +414,9 @@ public class ResourceResolverCache {
   public void reset() {
     myCachedGeneration = 0;
     myAppResourceMap.clear();
+    myStaleAppResourceTypes.clear();
     myResolverMap.clear();
+    myResolverAppResources.clear();
   }
 
   /**
@@ -350,9 +437,11 @@ public class ResourceResolverCache {
     if (myCustomConfigurationKey != null) {
       myFrameworkResourceMap.remove(myCustomConfigurationKey);
       myAppResourceMap.remove(myCustomConfigurationKey);
+      myStaleAppResourceTypes.remove(myCustomConfigurationKey);
     }
     if (myCustomResolverKey != null) {
       myResolverMap.remove(myCustomResolverKey);
+      myResolverAppResources.remove(myCustomResolverKey);
     }
     myCustomConfigurationKey = newCustomConfigurationKey;
     myCustomResolverKey = newCustomResolverKey;
@@ -23,9 +23,11 @@ import com.google.common.collect.Maps;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiModificationTracker;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 public class CodeAnalysisMain {
@@ -36,6 +38,10 @@ public class CodeAnalysisMain {
 
   private PsiCFGScene mScene;
 
+  //The Java files and the structure modification count the current mScene was built from
+  private PsiFile[] mAnalyzedFiles = PsiFile.EMPTY_ARRAY;
+  private long mAnalyzedStructureModificationCount = -1;
+
   private CodeAnalysisMain(Project project) {
     mProject = project;
   }
@@ -55,15 +61,25 @@ public class CodeAnalysisMain {
   public void analyze(@NotNull AnalysisScope scope) {
 
 //    PsiDocumentManager.getInstance(mProject).commitAllDocuments();
-    //Create a mScene for this project.
-    //Each project has its own mScene.
-    mScene = PsiCFGScene.createFreshInstance(mProject);
-    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
-
     //Get list of java files available in this project
     int fileCount = scope.getFileCount();
     //LOG.info("File count in scope " + fileCount);
     PsiFile[] allFilesInScope = findAllJavaFiles(mProject, scope);
+
+    //If only code blocks changed since the last analysis, the classes in the scene are
+    //still valid and just the CFGs of the changed methods need to be rebuilt.
+    long structureModificationCount = PsiModificationTracker.SERVICE.getInstance(mProject).getJavaStructureModificationCount();
+    if (mScene != null && mScene == PsiCFGScene.getInstance(mProject) &&
+        structureModificationCount == mAnalyzedStructureModificationCount &&
+        Arrays.equals(allFilesInScope, mAnalyzedFiles) &&
+        mScene.analysisUtil.performIncrementalUpdate()) {
+      return;
+    }
+
+    //Create a mScene for this project.
+    //Each project has its own mScene.
+    mScene = PsiCFGScene.createFreshInstance(mProject);
+    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
     //LOG.info("File count in visitor " + allFilesInScope.length);
     //outputFileNames(allFilesInScope);
 
@@ -82,6 +98,9 @@ public class CodeAnalysisMain {
     //AnalysisUtil.summarizeStage();
     AnalysisUtil.performStage5();
     AnalysisUtil.performStage6();
+
+    mAnalyzedFiles = allFilesInScope;
+    mAnalyzedStructureModificationCount = structureModificationCount;
   }
 
   private void outputFileNames(PsiFile[] filesArray) {
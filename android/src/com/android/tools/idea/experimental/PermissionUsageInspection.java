@@ -18,6 +18,7 @@ package com.android.tools.idea.experimental;
 import com.android.tools.idea.experimental.actions.PermissionUsageQuickFix;
 import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
 import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.CompactCallgraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGPartialMethodSignature;
@@ -203,8 +204,9 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
     longestMethodStack = Lists.newArrayList();
     longestNodeStack = Lists.newArrayList();
 
-    if ((!mCG.calleeMethodToCallerMethodReturnMap.containsKey(method)) &&
-        (!mCG.callerMethodToCalleeMethodMap.containsKey(method))) {
+    CompactCallgraph compactGraph = mCG.getCompactGraph();
+    if (compactGraph.getCallerMethods(method).length == 0 &&
+        compactGraph.getCalleeMethods(method).length == 0) {
       return;
     }
     dfsFindCallChain(nodeStack,
@@ -251,8 +253,8 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
     methodStack.push(target);
     nodeStack.push(node);
 
-    if (mCG.calleeMethodToCallerGraphNodeMap.containsKey(target)) {
-      Collection<GraphNode> invocationSites = mCG.calleeMethodToCallerGraphNodeMap.get(target);
+    GraphNode[] invocationSites = mCG.getCompactGraph().getCallerNodes(target);
+    if (invocationSites.length > 0) {
       for (GraphNode nextTarget: invocationSites) {
         PsiCFGMethod targetMethod = mCG.getNodesParentMethod(nextTarget);
         if (targetMethod != null) {
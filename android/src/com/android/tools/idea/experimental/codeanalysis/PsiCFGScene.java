@@ -95,6 +95,17 @@ public class PsiCFGScene {
     mInvocationNodes.add(node);
   }
 
+  /**
+   * Remove the invocation nodes of a CFG that is about to be rebuilt.
+   * @param nodes The invocation nodes to remove
+   */
+  public void removeInvocationNodes(@NotNull Collection<GraphNode> nodes) {
+    if (!nodes.isEmpty()) {
+      Set<GraphNode> nodeSet = Sets.newHashSet(nodes);
+      mInvocationNodes.removeIf(nodeSet::contains);
+    }
+  }
+
   public GraphNode[] getAllInvocationNode() {
     return mInvocationNodes.toArray(GraphNode.EMPTY_ARRAY);
   }
@@ -19,11 +19,11 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.Graph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
-import com.google.common.base.Supplier;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.Set;
@@ -31,57 +31,43 @@ import java.util.Set;
 /**
  * Callgraph class which store the call graph
  * built from the Callgraph Builder
+ *
+ * While the call graph is being built or updated its edges are kept in hash multimaps. The
+ * first query replaces them with a {@link CompactCallgraph}, and the next update turns the
+ * compact graph back into multimaps, so only one of the two is held at a time. The edges to
+ * the EntryNode and ExitNode of the target methods are not stored, they are looked up from
+ * the current CFG of the target methods.
  */
 public class Callgraph {
 
   //A map from GraphNode that contains an invocation statement to the target PsiCFGMethods.
-  public Multimap<GraphNode, PsiCFGMethod> callerNodeToMethodsMap;
-
-  //A map from the taret PsiCFGMethod BACK to the invocation GraphNode.
-  public Multimap<PsiCFGMethod, GraphNode> calleeMethodToCallerGraphNodeMap;
-
-  //Callee GraphNode is the EntryNode
-  //A map from GraphNode that contains the invocation statement to the GraphNodes which are the
-  //EntryNode of target methods.
-  public Multimap<GraphNode, GraphNode> callerNodeToCalleeNodeMap;
-
-  //Callee GraphNode here is the ExitNode
-  //A map from GraphNode that is the ExitNode of the target method back to the GraphNodes that
-  //contains the invocation statements.
-  public Multimap<GraphNode, GraphNode> calleeNodeToCallerNodeMap;
+  //Null once the call graph is compacted.
+  private SetMultimap<GraphNode, PsiCFGMethod> mCallerNodeToMethodsMap;
 
   //A map from the method that contains the invocation statement to the target methods.
-  public Multimap<PsiCFGMethod, PsiCFGMethod> callerMethodToCalleeMethodMap;
-
-  //A map from the target method back to the methods that contains the invocation.
-  public Multimap<PsiCFGMethod, PsiCFGMethod> calleeMethodToCallerMethodReturnMap;
+  //Null once the call graph is compacted.
+  private SetMultimap<PsiCFGMethod, PsiCFGMethod> mCallerMethodToCalleeMethodMap;
 
+  //Built on demand from the maps above, and discarded when an edge is added or removed.
+  private CompactCallgraph mCompactGraph;
 
   public PsiCFGMethod[] findCalleeMethodForGraphNode(GraphNode node) {
-    if (callerNodeToMethodsMap.containsKey(node)) {
-      Collection<PsiCFGMethod> methodCollection = callerNodeToMethodsMap.get(node);
-      return methodCollection.toArray(PsiCFGMethod.EMPTY_ARRAY);
-    }
-
-    return PsiCFGMethod.EMPTY_ARRAY;
+    return getCompactGraph().getTargetMethods(node);
   }
 
   public GraphNode[] findCalleeGraphNodeForGraphNode(GraphNode node) {
-    if (callerNodeToCalleeNodeMap.containsKey(node)) {
-      Collection<GraphNode> graphNodeCollection = callerNodeToCalleeNodeMap.get(node);
-      return graphNodeCollection.toArray(GraphNode.EMPTY_ARRAY);
+    Set<GraphNode> entryNodes = Sets.newLinkedHashSet();
+    for (PsiCFGMethod calleeMethod : findCalleeMethodForGraphNode(node)) {
+      MethodGraph calleeGraph = calleeMethod.getControlFlowGraph();
+      if (calleeGraph != null) {
+        entryNodes.add(calleeGraph.getEntryNode());
+      }
     }
-
-    return GraphNode.EMPTY_ARRAY;
+    return entryNodes.toArray(GraphNode.EMPTY_ARRAY);
   }
 
   public PsiCFGMethod[] findCalleeForMethod(PsiCFGMethod method) {
-    if (calleeMethodToCallerMethodReturnMap.containsKey(method)) {
-      Collection<PsiCFGMethod> methodsCollection = calleeMethodToCallerMethodReturnMap.get(method);
-      return methodsCollection.toArray(PsiCFGMethod.EMPTY_ARRAY);
-    }
-
-    return PsiCFGMethod.EMPTY_ARRAY;
+    return getCompactGraph().getCallerMethods(method);
   }
 
   public PsiCFGMethod getNodesParentMethod(GraphNode node) {
@@ -100,64 +86,93 @@ public class Callgraph {
     return GraphNode.EMPTY_ARRAY;
   }
 
-  public Set<PsiCFGMethod> allMethodsInGraph;
-
-  protected Callgraph() {
-    this.callerNodeToMethodsMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<PsiCFGMethod>>() {
-        @Override
-        public Set<PsiCFGMethod> get() {
-          return Sets.newHashSet();
-        }
-      }
-    );
-
-    this.calleeMethodToCallerGraphNodeMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<GraphNode>>() {
-        @Override
-        public Set<GraphNode> get() {
-          return Sets.newHashSet();
-        }
-      }
-    );
-
-    this.callerNodeToCalleeNodeMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<GraphNode>>() {
-        @Override
-        public Set<GraphNode> get() {
-          return Sets.newHashSet();
-        }
-      }
-    );
-
-    this.calleeNodeToCallerNodeMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<GraphNode>>() {
-        @Override
-        public Set<GraphNode> get() {
-          return Sets.newHashSet();
-        }
+  /**
+   * Return the methods that call or are called by another method.
+   */
+  @NotNull
+  public Set<PsiCFGMethod> getAllMethods() {
+    CompactCallgraph compactGraph = getCompactGraph();
+    Set<PsiCFGMethod> methods = Sets.newHashSet();
+    for (int i = 0; i < compactGraph.getMethodCount(); i++) {
+      PsiCFGMethod method = compactGraph.getMethod(i);
+      if (compactGraph.getCalleeMethods(method).length > 0 || compactGraph.getCallerMethods(method).length > 0) {
+        methods.add(method);
       }
-    );
-
-    this.callerMethodToCalleeMethodMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<PsiCFGMethod>>() {
-        @Override
-        public Set<PsiCFGMethod> get() {
-          return Sets.newHashSet();
-        }
+    }
+    return methods;
+  }
+
+  /**
+   * Return an integer indexed copy of this call graph, which is cheaper to traverse for whole
+   * program queries such as reachability.
+   */
+  @NotNull
+  public CompactCallgraph getCompactGraph() {
+    if (mCompactGraph == null) {
+      mCompactGraph = CompactCallgraph.build(mCallerNodeToMethodsMap, mCallerMethodToCalleeMethodMap);
+      mCallerNodeToMethodsMap = null;
+      mCallerMethodToCalleeMethodMap = null;
+    }
+    return mCompactGraph;
+  }
+
+  /**
+   * Turn the compact graph back into multimaps before edges are added or removed.
+   */
+  private void ensureMutable() {
+    if (mCompactGraph == null) {
+      return;
+    }
+    mCallerNodeToMethodsMap = HashMultimap.create();
+    mCallerMethodToCalleeMethodMap = HashMultimap.create();
+    for (int i = 0; i < mCompactGraph.getCallSiteCount(); i++) {
+      GraphNode callSite = mCompactGraph.getCallSite(i);
+      for (PsiCFGMethod calleeMethod : mCompactGraph.getTargetMethods(callSite)) {
+        mCallerNodeToMethodsMap.put(callSite, calleeMethod);
       }
-    );
-
-    this.calleeMethodToCallerMethodReturnMap = Multimaps.newSetMultimap(
-      Maps.newHashMap(), new Supplier<Set<PsiCFGMethod>>() {
-        @Override
-        public Set<PsiCFGMethod> get() {
-          return Sets.newHashSet();
-        }
+    }
+    for (int i = 0; i < mCompactGraph.getMethodCount(); i++) {
+      PsiCFGMethod callerMethod = mCompactGraph.getMethod(i);
+      for (PsiCFGMethod calleeMethod : mCompactGraph.getCalleeMethods(callerMethod)) {
+        mCallerMethodToCalleeMethodMap.put(callerMethod, calleeMethod);
       }
-    );
-    allMethodsInGraph = Sets.newHashSet();
+    }
+    mCompactGraph = null;
+  }
+
+  /**
+   * Add a call graph edge from an invocation site to one of its target methods.
+   *
+   * @param callerNode   The node that contains invocation statement
+   * @param callerMethod The method that contains the callerNode, if known
+   * @param calleeMethod The target method of this invocation
+   */
+  public void addEdge(@NotNull GraphNode callerNode, @Nullable PsiCFGMethod callerMethod, @NotNull PsiCFGMethod calleeMethod) {
+    ensureMutable();
+    mCallerNodeToMethodsMap.put(callerNode, calleeMethod);
+    if (callerMethod != null) {
+      mCallerMethodToCalleeMethodMap.put(callerMethod, calleeMethod);
+    }
+  }
 
+  /**
+   * Remove the edges of all the invocation sites in a method, e.g. before the edges for its
+   * rebuilt CFG are added.
+   *
+   * @param callerMethod The method that contains the invocation sites
+   * @param callerNodes  All the GraphNodes in the method that contain an invocation statement
+   */
+  public void removeCallSites(@NotNull PsiCFGMethod callerMethod, @NotNull Collection<GraphNode> callerNodes) {
+    ensureMutable();
+    for (GraphNode callerNode : callerNodes) {
+      mCallerNodeToMethodsMap.removeAll(callerNode);
+    }
+    mCallerMethodToCalleeMethodMap.removeAll(callerMethod);
+  }
+
+  protected Callgraph() {
+    mCallerNodeToMethodsMap = HashMultimap.create();
+    mCallerMethodToCalleeMethodMap = HashMultimap.create();
   }
 
 }
@@ -27,23 +27,32 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.stmt.Stmt;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.value.*;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.Pair;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiType;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A call graph builder.
  * It based on the results of the intraprocedural CFG
  * generated in stage 3.
+ *
+ * The targets of the invocation sites are resolved concurrently, since CHA only reads the
+ * class hierarchy, and then added to the call graph in the order of the invocation nodes.
+ * The invocation nodes are remembered per method, so that the edges of a single method can
+ * be replaced by {@link #updateMethod} when only its CFG was rebuilt.
  */
 public class CallgraphBuilder {
 
@@ -53,31 +62,129 @@ public class CallgraphBuilder {
 
   protected Callgraph mCallGraphInstance;
 
-  protected Map<Pair<PsiCFGClass, PsiCFGPartialMethodSignature>, Set<PsiCFGMethod>> mMethodOrderTreeMap;
+  protected ConcurrentMap<Pair<PsiCFGClass, PsiCFGPartialMethodSignature>, Set<PsiCFGMethod>> mMethodOrderTreeMap;
+
+  //A map from the method to the invocation nodes in its CFG.
+  protected Map<PsiCFGMethod, List<GraphNode>> mInvocationNodesByMethod;
 
   public PsiCFGClass JAVA_LANG_OBJECT;
 
   public CallgraphBuilder(@NotNull PsiCFGScene scene, @NotNull PsiCFGAnalysisUtil analysisUtil) {
     this.mScene = scene;
     this.mAnalysisUtil = analysisUtil;
-    this.mMethodOrderTreeMap = Maps.newHashMap();
+    this.mMethodOrderTreeMap = Maps.newConcurrentMap();
+    this.mInvocationNodesByMethod = Maps.newHashMap();
     JAVA_LANG_OBJECT = mScene.getPsiCFGClass("java.lang.Object");
   }
 
   public void build() {
+    build(true);
+  }
+
+  /**
+   * Build the call graph, resolving the targets of the invocation sites either
+   * concurrently or one after the other. Both produce the same call graph.
+   */
+  @VisibleForTesting
+  void build(boolean concurrently) {
     //Initiate
 
     this.mCallGraphInstance = new Callgraph();
+    this.mInvocationNodesByMethod.clear();
 
     //Retrive all callsites
 
-    GraphNode[] invocationNodes = mScene.getAllInvocationNode();
+    List<GraphNode> invocationNodes = Arrays.asList(mScene.getAllInvocationNode());
     for (GraphNode invocationNode : invocationNodes) {
+      PsiCFGMethod parentMethod = retrieveParentMethod(invocationNode);
+      if (parentMethod != null) {
+        mInvocationNodesByMethod.computeIfAbsent(parentMethod, method -> Lists.newArrayList()).add(invocationNode);
+      }
+    }
 
+    Map<GraphNode, Set<PsiCFGMethod>> targets;
+    if (concurrently) {
+      targets = resolveInvocationTargets(invocationNodes);
+    }
+    else {
+      targets = Maps.newHashMap();
+      for (GraphNode invocationNode : invocationNodes) {
+        targets.put(invocationNode, resolveSingleInvocation(invocationNode));
+      }
+    }
+    for (GraphNode invocationNode : invocationNodes) {
+      Set<PsiCFGMethod> nodeTargets = targets.get(invocationNode);
+      if (nodeTargets != null) {
+        addToCallGraph(invocationNode, nodeTargets);
+      }
+    }
+  }
+
+  /**
+   * Replace the call graph edges of a method whose CFG has been rebuilt.
+   * The invocation nodes of the new CFG must already be registered in the scene.
+   *
+   * @param method The method whose CFG has been rebuilt
+   */
+  public void updateMethod(@NotNull PsiCFGMethod method) {
+    List<GraphNode> oldNodes = mInvocationNodesByMethod.remove(method);
+    if (oldNodes != null) {
+      mCallGraphInstance.removeCallSites(method, oldNodes);
+    }
+
+    List<GraphNode> newNodes = Lists.newArrayList();
+    for (GraphNode invocationNode : mScene.getAllInvocationNode()) {
+      if (method.equals(retrieveParentMethod(invocationNode))) {
+        newNodes.add(invocationNode);
+      }
+    }
+    if (!newNodes.isEmpty()) {
+      mInvocationNodesByMethod.put(method, newNodes);
+    }
+    for (GraphNode invocationNode : newNodes) {
       processSingleInvocation(invocationNode);
     }
   }
 
+  /**
+   * Return the invocation nodes of the method as of the last call graph update.
+   */
+  @NotNull
+  public List<GraphNode> getInvocationNodes(@NotNull PsiCFGMethod method) {
+    List<GraphNode> nodes = mInvocationNodesByMethod.get(method);
+    return nodes != null ? nodes : Collections.emptyList();
+  }
+
+  /**
+   * Discard the cached results of the class hierarchy queries, e.g. after
+   * new classes have been added to the scene.
+   */
+  public void invalidateHierarchyCache() {
+    mMethodOrderTreeMap.clear();
+  }
+
+  /**
+   * Resolve the target methods of the invocation sites concurrently.
+   * Nothing is added to the call graph here.
+   *
+   * @throws ProcessCanceledException if the resolution was canceled before all
+   *                                  the invocation sites were resolved
+   */
+  @NotNull
+  private Map<GraphNode, Set<PsiCFGMethod>> resolveInvocationTargets(@NotNull List<GraphNode> invocationNodes) {
+    ConcurrentMap<GraphNode, Set<PsiCFGMethod>> targets = Maps.newConcurrentMap();
+    boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+      invocationNodes, ProgressManager.getInstance().getProgressIndicator(), true /* fail fast */, node -> {
+        targets.put(node, ReadAction.compute(() -> resolveSingleInvocation(node)));
+        return true;
+      });
+    if (!completed) {
+      //A partial call graph would silently miss edges
+      throw new ProcessCanceledException();
+    }
+    return targets;
+  }
+
   /**
    * Create call graph edges for a single invocation site
    *
@@ -85,6 +192,19 @@ public class CallgraphBuilder {
    *             statement.
    */
   public void processSingleInvocation(GraphNode node) {
+    addToCallGraph(node, resolveSingleInvocation(node));
+  }
+
+  /**
+   * Find the target methods of a single invocation site
+   *
+   * @param node The node in CFG that contains an invocation
+   *             statement.
+   * @return The target methods, in the order they were found
+   */
+  @NotNull
+  public Set<PsiCFGMethod> resolveSingleInvocation(GraphNode node) {
+    Set<PsiCFGMethod> targets = Sets.newLinkedHashSet();
     Stmt[] stmtWithInvocationArray = node.getStatements();
 
     if (stmtWithInvocationArray.length != 1) {
@@ -92,7 +212,7 @@ public class CallgraphBuilder {
       //For all node that contains invocation
       //there should be only 1 statement
       PsiCFGDebugUtil.LOG.warning("Node contains more than 1 stmt" + node.getSimpleName());
-      return;
+      return targets;
     }
 
     Stmt stmtWithInvocation = stmtWithInvocationArray[0];
@@ -101,11 +221,11 @@ public class CallgraphBuilder {
       Value Rop = ((AssignStmt)stmtWithInvocation).getROp();
       if (Rop instanceof InvokeExpr) {
         //It is a invokeExpr
-        processSingleInvocationWithInvokeWxpr(node, (InvokeExpr)Rop);
+        processSingleInvocationWithInvokeWxpr(node, (InvokeExpr)Rop, targets);
       }
       else if (Rop instanceof NewExpr) {
         //It is a constructor invocation
-        processSingleInvocationWithConstructorInvoke(node, (NewExpr)Rop);
+        processSingleInvocationWithConstructorInvoke(node, (NewExpr)Rop, targets);
       }
       else {
         //Unhandled invocation
@@ -113,6 +233,7 @@ public class CallgraphBuilder {
                                     + Rop.getSimpleName());
       }
     }
+    return targets;
   }
 
   /**
@@ -136,6 +257,18 @@ public class CallgraphBuilder {
     }
   }
 
+  /**
+   * Add the target methods of an invocation site to the call graph
+   *
+   * @param callerNode    The node that contains invocation statement
+   * @param calleeMethods The target methods of this invocation
+   */
+  public void addToCallGraph(GraphNode callerNode, Collection<PsiCFGMethod> calleeMethods) {
+    for (PsiCFGMethod calleeMethod : calleeMethods) {
+      addToCallGraph(callerNode, calleeMethod);
+    }
+  }
+
   /**
    * Add a single target method to the call graph
    *
@@ -143,26 +276,11 @@ public class CallgraphBuilder {
    * @param calleeMethod The target method of this invocation
    */
   public void addToCallGraph(GraphNode callerNode, PsiCFGMethod calleeMethod) {
-    mCallGraphInstance.callerNodeToMethodsMap.put(callerNode, calleeMethod);
-    mCallGraphInstance.calleeMethodToCallerGraphNodeMap.put(calleeMethod, callerNode);
-    PsiCFGMethod callerMethod = retrieveParentMethod(callerNode);
-    if (callerMethod != null) {
-      mCallGraphInstance.callerMethodToCalleeMethodMap.put(callerMethod, calleeMethod);
-      mCallGraphInstance.calleeMethodToCallerMethodReturnMap.put(calleeMethod, callerMethod);
-      mCallGraphInstance.allMethodsInGraph.add(callerMethod);
-      mCallGraphInstance.allMethodsInGraph.add(calleeMethod);
-    }
-
-    if (calleeMethod.getControlFlowGraph() != null) {
-      GraphNode entryNode = calleeMethod.getControlFlowGraph().getEntryNode();
-      GraphNode exitNode = calleeMethod.getControlFlowGraph().getExitNode();
-
-      mCallGraphInstance.callerNodeToCalleeNodeMap.put(callerNode, entryNode);
-      mCallGraphInstance.calleeNodeToCallerNodeMap.put(exitNode, callerNode);
-    }
+    mCallGraphInstance.addEdge(callerNode, retrieveParentMethod(callerNode), calleeMethod);
   }
 
-  public void performCHAForInvocationSite(GraphNode node, PsiType receiverType, PsiCFGMethod targetMethod) {
+  public void performCHAForInvocationSite(GraphNode node, PsiType receiverType, PsiCFGMethod targetMethod,
+                                          Set<PsiCFGMethod> targets) {
     //Only Object can perform instance invoke
     if (!(receiverType instanceof PsiClassType)) {
       //The reciever type is not an object
@@ -185,27 +303,26 @@ public class CallgraphBuilder {
       PsiCFGPartialMethodSignature methodSignature = targetMethod.getSignature();
       PsiCFGMethod nearestConcreteMethodFromTop = getNearestConcreteMethod(receiverClass, methodSignature);
       if (nearestConcreteMethodFromTop != null) {
-        addToCallGraph(node, nearestConcreteMethodFromTop);
+        targets.add(nearestConcreteMethodFromTop);
       }
 
       //Find concrete method to the leaf
       ArrayList<PsiCFGMethod> methodList = Lists.newArrayList();
       recursivelyQueryConcreteMethodFromChildrenWithCache(methodList, receiverClass, methodSignature);
-      for (PsiCFGMethod concreteMethodFromSubClass : methodList) {
-        addToCallGraph(node, concreteMethodFromSubClass);
-      }
+      targets.addAll(methodList);
     }
   }
 
   public void recursivelyQueryConcreteMethodFromChildrenWithCache(
     ArrayList<PsiCFGMethod> methodList, PsiCFGClass receiverClass, PsiCFGPartialMethodSignature signature) {
     Pair<PsiCFGClass, PsiCFGPartialMethodSignature> keyPair = new Pair<>(receiverClass, signature);
-    if (mMethodOrderTreeMap.containsKey(keyPair)) {
-      methodList.addAll(mMethodOrderTreeMap.get(keyPair));
+    Set<PsiCFGMethod> cachedMethods = mMethodOrderTreeMap.get(keyPair);
+    if (cachedMethods != null) {
+      methodList.addAll(cachedMethods);
     }
     else {
       recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, receiverClass, signature);
-      mMethodOrderTreeMap.put(keyPair, Sets.newHashSet(methodList));
+      mMethodOrderTreeMap.putIfAbsent(keyPair, Sets.newLinkedHashSet(methodList));
     }
   }
 
@@ -219,8 +336,9 @@ public class CallgraphBuilder {
 
     //Go through sub classes and interfaces
     for (PsiCFGClass subClass : receiverClass.getSubClassSet()) {
-      if (mMethodOrderTreeMap.containsKey(keyPair)) {
-        methodList.addAll(mMethodOrderTreeMap.get(keyPair));
+      Set<PsiCFGMethod> cachedMethods = mMethodOrderTreeMap.get(keyPair);
+      if (cachedMethods != null) {
+        methodList.addAll(cachedMethods);
       }
       else {
         recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, subClass, signature);
@@ -228,9 +346,9 @@ public class CallgraphBuilder {
     }
   }
 
-  public void addInvokeExprWithThisRef(GraphNode node, PsiType thisBaseType, PsiCFGMethod method) {
+  public void addInvokeExprWithThisRef(GraphNode node, PsiType thisBaseType, PsiCFGMethod method, Set<PsiCFGMethod> targets) {
     if (!method.isAbstract()) {
-      addToCallGraph(node, method);
+      targets.add(method);
     }
     else {
       PsiClassType classType = null;
@@ -265,11 +383,11 @@ public class CallgraphBuilder {
     return null;
   }
 
-  public void processSingleInvocationWithInvokeWxpr(GraphNode node, InvokeExpr invokeExpr) {
+  public void processSingleInvocationWithInvokeWxpr(GraphNode node, InvokeExpr invokeExpr, Set<PsiCFGMethod> targets) {
 
     if (invokeExpr instanceof StaticInvokeExpr) {
       //Only 1 target
-      addToCallGraph(node, invokeExpr.getMethod());
+      targets.add(invokeExpr.getMethod());
     }
     else if (invokeExpr instanceof InstanceInvokeExpr) {
       InstanceInvokeExpr instanceInvokeExpr = (InstanceInvokeExpr)invokeExpr;
@@ -285,18 +403,18 @@ public class CallgraphBuilder {
       }
 
       if (base instanceof ThisRef) {
-        addInvokeExprWithThisRef(node, baseType, targetMethod);
+        addInvokeExprWithThisRef(node, baseType, targetMethod, targets);
       }
       else {
-        performCHAForInvocationSite(node, baseType, targetMethod);
+        performCHAForInvocationSite(node, baseType, targetMethod, targets);
       }
     }
   }
 
-  public void processSingleInvocationWithConstructorInvoke(GraphNode node, NewExpr newExpr) {
+  public void processSingleInvocationWithConstructorInvoke(GraphNode node, NewExpr newExpr, Set<PsiCFGMethod> targets) {
     PsiCFGMethod constructorMethod = newExpr.getConstructorInvocation();
     if (constructorMethod != null) {
-      addToCallGraph(node, constructorMethod);
+      targets.add(constructorMethod);
     }
     else {
       PsiCFGDebugUtil.LOG.warning("Constructor in New Expr is null: " + newExpr.getSimpleName());
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Multimap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An immutable, integer indexed copy of a {@link Callgraph}.
+ *
+ * Methods and invocation sites are numbered densely, and each kind of edge is stored in
+ * compressed sparse row form: the targets of element {@code i} are
+ * {@code targets[offsets[i]]} to {@code targets[offsets[i + 1] - 1]}. This avoids a hash
+ * lookup and a collection per edge, and lets whole program queries use {@link BitSet}s
+ * indexed by method number.
+ */
+public class CompactCallgraph {
+  private final PsiCFGMethod[] mMethods;
+  private final TObjectIntHashMap<PsiCFGMethod> mMethodIndex;
+  private final GraphNode[] mCallSites;
+  private final TObjectIntHashMap<GraphNode> mCallSiteIndex;
+
+  //Method to the methods it calls, and back
+  private final int[] mCalleeOffsets;
+  private final int[] mCallees;
+  private final int[] mCallerOffsets;
+  private final int[] mCallers;
+
+  //Invocation site to its target methods, and target method back to the invocation sites
+  private final int[] mSiteTargetOffsets;
+  private final int[] mSiteTargets;
+  private final int[] mCallerSiteOffsets;
+  private final int[] mCallerSites;
+
+  private CompactCallgraph(@NotNull PsiCFGMethod[] methods,
+                           @NotNull TObjectIntHashMap<PsiCFGMethod> methodIndex,
+                           @NotNull GraphNode[] callSites,
+                           @NotNull TObjectIntHashMap<GraphNode> callSiteIndex,
+                           @NotNull TIntArrayList callerMethods,
+                           @NotNull TIntArrayList calleeMethods,
+                           @NotNull TIntArrayList sites,
+                           @NotNull TIntArrayList siteTargets) {
+    mMethods = methods;
+    mMethodIndex = methodIndex;
+    mCallSites = callSites;
+    mCallSiteIndex = callSiteIndex;
+
+    mCalleeOffsets = new int[methods.length + 1];
+    mCallees = toCsr(mCalleeOffsets, callerMethods, calleeMethods);
+    mCallerOffsets = new int[methods.length + 1];
+    mCallers = toCsr(mCallerOffsets, calleeMethods, callerMethods);
+    mSiteTargetOffsets = new int[callSites.length + 1];
+    mSiteTargets = toCsr(mSiteTargetOffsets, sites, siteTargets);
+    mCallerSiteOffsets = new int[methods.length + 1];
+    mCallerSites = toCsr(mCallerSiteOffsets, siteTargets, sites);
+  }
+
+  @NotNull
+  static CompactCallgraph build(@NotNull Multimap<GraphNode, PsiCFGMethod> callerNodeToMethods,
+                                @NotNull Multimap<PsiCFGMethod, PsiCFGMethod> callerMethodToCalleeMethods) {
+    TObjectIntHashMap<PsiCFGMethod> methodIndex = new TObjectIntHashMap<>();
+    TObjectIntHashMap<GraphNode> callSiteIndex = new TObjectIntHashMap<>();
+
+    TIntArrayList sites = new TIntArrayList();
+    TIntArrayList siteTargets = new TIntArrayList();
+    for (Map.Entry<GraphNode, PsiCFGMethod> entry : callerNodeToMethods.entries()) {
+      sites.add(index(callSiteIndex, entry.getKey()));
+      siteTargets.add(index(methodIndex, entry.getValue()));
+    }
+
+    TIntArrayList callerMethods = new TIntArrayList();
+    TIntArrayList calleeMethods = new TIntArrayList();
+    for (Map.Entry<PsiCFGMethod, PsiCFGMethod> entry : callerMethodToCalleeMethods.entries()) {
+      callerMethods.add(index(methodIndex, entry.getKey()));
+      calleeMethods.add(index(methodIndex, entry.getValue()));
+    }
+
+    PsiCFGMethod[] methods = new PsiCFGMethod[methodIndex.size()];
+    methodIndex.forEachEntry((method, index) -> {
+      methods[index] = method;
+      return true;
+    });
+    GraphNode[] callSites = new GraphNode[callSiteIndex.size()];
+    callSiteIndex.forEachEntry((node, index) -> {
+      callSites[index] = node;
+      return true;
+    });
+    return new CompactCallgraph(methods, methodIndex, callSites, callSiteIndex, callerMethods, calleeMethods, sites, siteTargets);
+  }
+
+  private static <T> int index(@NotNull TObjectIntHashMap<T> indexMap, @NotNull T element) {
+    int index = indexMap.get(element);
+    if (index == 0 && !indexMap.containsKey(element)) {
+      index = indexMap.size();
+      indexMap.put(element, index);
+    }
+    return index;
+  }
+
+  /**
+   * Sort the edges by their source with a counting sort, filling in the offsets of each source.
+   *
+   * @return The edge targets, grouped by source
+   */
+  @NotNull
+  private static int[] toCsr(@NotNull int[] offsets, @NotNull TIntArrayList sources, @NotNull TIntArrayList targets) {
+    int edgeCount = sources.size();
+    for (int i = 0; i < edgeCount; i++) {
+      offsets[sources.getQuick(i) + 1]++;
+    }
+    for (int i = 1; i < offsets.length; i++) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] next = offsets.clone();
+    int[] result = new int[edgeCount];
+    for (int i = 0; i < edgeCount; i++) {
+      result[next[sources.getQuick(i)]++] = targets.getQuick(i);
+    }
+    return result;
+  }
+
+  public int getMethodCount() {
+    return mMethods.length;
+  }
+
+  @NotNull
+  public PsiCFGMethod getMethod(int index) {
+    return mMethods[index];
+  }
+
+  public int getCallSiteCount() {
+    return mCallSites.length;
+  }
+
+  @NotNull
+  public GraphNode getCallSite(int index) {
+    return mCallSites[index];
+  }
+
+  /**
+   * Return the number of the method, or -1 if it is not part of the call graph.
+   */
+  public int getMethodIndex(@Nullable PsiCFGMethod method) {
+    return method != null && mMethodIndex.containsKey(method) ? mMethodIndex.get(method) : -1;
+  }
+
+  public boolean containsMethod(@Nullable PsiCFGMethod method) {
+    return getMethodIndex(method) >= 0;
+  }
+
+  @NotNull
+  public PsiCFGMethod[] getCalleeMethods(@NotNull PsiCFGMethod method) {
+    return toMethods(getMethodIndex(method), mCalleeOffsets, mCallees);
+  }
+
+  @NotNull
+  public PsiCFGMethod[] getCallerMethods(@NotNull PsiCFGMethod method) {
+    return toMethods(getMethodIndex(method), mCallerOffsets, mCallers);
+  }
+
+  /**
+   * Return the target methods of an invocation site.
+   */
+  @NotNull
+  public PsiCFGMethod[] getTargetMethods(@NotNull GraphNode callSite) {
+    int index = mCallSiteIndex.containsKey(callSite) ? mCallSiteIndex.get(callSite) : -1;
+    return toMethods(index, mSiteTargetOffsets, mSiteTargets);
+  }
+
+  /**
+   * Return the invocation sites that may call the method.
+   */
+  @NotNull
+  public GraphNode[] getCallerNodes(@NotNull PsiCFGMethod method) {
+    int index = getMethodIndex(method);
+    if (index < 0 || mCallerSiteOffsets[index] == mCallerSiteOffsets[index + 1]) {
+      return GraphNode.EMPTY_ARRAY;
+    }
+    GraphNode[] result = new GraphNode[mCallerSiteOffsets[index + 1] - mCallerSiteOffsets[index]];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = mCallSites[mCallerSites[mCallerSiteOffsets[index] + i]];
+    }
+    return result;
+  }
+
+  /**
+   * Return the numbers of the methods that may be called, directly or transitively, from the
+   * given methods. The given methods are included.
+   */
+  @NotNull
+  public BitSet computeReachableMethods(@NotNull Collection<PsiCFGMethod> roots) {
+    return computeClosure(roots, mCalleeOffsets, mCallees);
+  }
+
+  /**
+   * Return the numbers of the methods that may call, directly or transitively, one of the given
+   * methods. The given methods are included.
+   */
+  @NotNull
+  public BitSet computeMethodsReaching(@NotNull Collection<PsiCFGMethod> targets) {
+    return computeClosure(targets, mCallerOffsets, mCallers);
+  }
+
+  @NotNull
+  private BitSet computeClosure(@NotNull Collection<PsiCFGMethod> roots, @NotNull int[] offsets, @NotNull int[] edges) {
+    BitSet visited = new BitSet(mMethods.length);
+    int[] stack = new int[mMethods.length];
+    int size = 0;
+    for (PsiCFGMethod root : roots) {
+      int index = getMethodIndex(root);
+      if (index >= 0 && !visited.get(index)) {
+        visited.set(index);
+        stack[size++] = index;
+      }
+    }
+    while (size > 0) {
+      int current = stack[--size];
+      for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+        int next = edges[i];
+        if (!visited.get(next)) {
+          visited.set(next);
+          stack[size++] = next;
+        }
+      }
+    }
+    return visited;
+  }
+
+  @NotNull
+  private PsiCFGMethod[] toMethods(int index, @NotNull int[] offsets, @NotNull int[] edges) {
+    if (index < 0 || offsets[index] == offsets[index + 1]) {
+      return PsiCFGMethod.EMPTY_ARRAY;
+    }
+    PsiCFGMethod[] result = new PsiCFGMethod[offsets[index + 1] - offsets[index]];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = mMethods[edges[offsets[index] + i]];
+    }
+    return result;
+  }
+}
@@ -180,9 +180,9 @@ public class CFGUtil {
 
       bw.write("\n");
 
-      for (PsiCFGMethod curMethod : cg.callerMethodToCalleeMethodMap.keySet()) {
+      for (PsiCFGMethod curMethod : allNodes.keySet()) {
         Integer sId = allNodes.get(curMethod);
-        for (PsiCFGMethod tgtMethod : cg.callerMethodToCalleeMethodMap.get(curMethod)) {
+        for (PsiCFGMethod tgtMethod : cg.getCompactGraph().getCalleeMethods(curMethod)) {
           Integer tId = allNodes.get(tgtMethod);
           String line = String.format("n%d -> n%d;\n", sId, tId);
           bw.write(line);
@@ -213,7 +213,7 @@ public class CFGUtil {
 
   private static Map<PsiCFGMethod, Integer> getAllMethodNodesFromCallGraph(Callgraph cg) {
     Map<PsiCFGMethod, Integer> retMap = Maps.newHashMap();
-    Set<PsiCFGMethod> allMethods = cg.allMethodsInGraph;
+    Set<PsiCFGMethod> allMethods = cg.getAllMethods();
     int i = 0;
     for (PsiCFGMethod curMethod : allMethods) {
       retMap.put(curMethod, i);
@@ -23,16 +23,26 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGField;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class PsiCFGAnalysisUtil {
   private PsiCFGScene mScene;
   private PsiClass mLangOjectClass;
+  private CallgraphBuilder mCallgraphBuilder;
+
+  //The code blocks each method CFG was built from, used to find the CFGs that are out of date.
+  private final Map<PsiCFGMethod, MethodGraphStamp> mMethodGraphStamps = Maps.newHashMap();
 
   public PsiCFGAnalysisUtil(PsiCFGScene scene) {
     this.mScene = scene;
@@ -111,6 +121,7 @@ public class PsiCFGAnalysisUtil {
 
           MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
           currentMethod.setControlFlowGraph(cfg);
+          mMethodGraphStamps.put(currentMethod, new MethodGraphStamp(codeBlock));
         }
       }
     }
@@ -151,11 +162,68 @@ public class PsiCFGAnalysisUtil {
     CallgraphBuilder cgBuilder = new CallgraphBuilder(mScene, this);
     cgBuilder.build();
     Callgraph cg = cgBuilder.getCallGraph();
+    mCallgraphBuilder = cgBuilder;
 
     mScene.setCallGraph(cg);
     CFGUtil.outputCallGraphDotFile(cg);
   }
 
+  /**
+   * Instead of performing stage 3 to 5 again, rebuild the CFGs of the methods whose body
+   * changed since their CFG was built, and replace their call graph edges.
+   *
+   * The caller is responsible for checking that the classes and method signatures have not
+   * changed. Methods that declare nested classes or lambdas also register classes in the scene,
+   * so a change to one of them requires a full rebuild.
+   *
+   * @return false if the scene has to be built from scratch instead
+   */
+  public boolean performIncrementalUpdate() {
+    if (mCallgraphBuilder == null) {
+      return false;
+    }
+
+    List<PsiCFGMethod> changedMethods = Lists.newArrayList();
+    for (Map.Entry<PsiCFGMethod, MethodGraphStamp> entry : mMethodGraphStamps.entrySet()) {
+      PsiMethod methodRef = entry.getKey().getMethodRef();
+      if (!methodRef.isValid()) {
+        return false;
+      }
+      PsiCodeBlock codeBlock = methodRef.getBody();
+      MethodGraphStamp stamp = entry.getValue();
+      if (stamp.isUpToDate(codeBlock)) {
+        continue;
+      }
+      if (codeBlock == null || stamp.myDeclaresClasses || declaresClasses(codeBlock)) {
+        return false;
+      }
+      changedMethods.add(entry.getKey());
+    }
+
+    int libraryClassCount = mScene.getAllLibraryClasses().length;
+    for (PsiCFGMethod method : changedMethods) {
+      mScene.removeInvocationNodes(mCallgraphBuilder.getInvocationNodes(method));
+
+      PsiCodeBlock codeBlock = method.getMethodRef().getBody();
+      MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, method);
+      method.setControlFlowGraph(cfg);
+      mMethodGraphStamps.put(method, new MethodGraphStamp(codeBlock));
+
+      //The new CFG may refer to library classes that were not seen before
+      if (libraryClassCount != mScene.getAllLibraryClasses().length) {
+        performStage4();
+        mCallgraphBuilder.invalidateHierarchyCache();
+        libraryClassCount = mScene.getAllLibraryClasses().length;
+      }
+      mCallgraphBuilder.updateMethod(method);
+    }
+    return true;
+  }
+
+  private static boolean declaresClasses(@NotNull PsiCodeBlock codeBlock) {
+    return PsiTreeUtil.findChildOfAnyType(codeBlock, PsiClass.class, PsiLambdaExpression.class) != null;
+  }
+
   /**
    * Analysis Stage
    * Run analysis on CFG and Call Graph
@@ -265,4 +333,37 @@ public class PsiCFGAnalysisUtil {
       clazz.addMethod(curCFGMethod);
     }
   }
+
+  /**
+   * Identifies the state of the code block a method CFG was built from.
+   * The text is only compared when the file has been modified since.
+   */
+  private static class MethodGraphStamp {
+    private final PsiCodeBlock myCodeBlock;
+    private final int myTextHash;
+    private final boolean myDeclaresClasses;
+    private long myFileModificationStamp;
+
+    MethodGraphStamp(@NotNull PsiCodeBlock codeBlock) {
+      myCodeBlock = codeBlock;
+      myTextHash = codeBlock.getText().hashCode();
+      myDeclaresClasses = declaresClasses(codeBlock);
+      myFileModificationStamp = codeBlock.getContainingFile().getModificationStamp();
+    }
+
+    boolean isUpToDate(@Nullable PsiCodeBlock codeBlock) {
+      if (codeBlock != myCodeBlock || !codeBlock.isValid()) {
+        return false;
+      }
+      long fileModificationStamp = codeBlock.getContainingFile().getModificationStamp();
+      if (fileModificationStamp == myFileModificationStamp) {
+        return true;
+      }
+      if (codeBlock.getText().hashCode() != myTextHash) {
+        return false;
+      }
+      myFileModificationStamp = fileModificationStamp;
+      return true;
+    }
+  }
 }
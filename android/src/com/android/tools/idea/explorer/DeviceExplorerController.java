@@ -679,6 +679,58 @@ public class DeviceExplorerController {
       }
 
       ListenableFuture<Long> futureEntrySize = downloadFileEntry(treeNode, localPath, tracker);
+      return addDownloadedFile(treeNode, futureEntrySize, tracker);
+    }
+
+    /**
+     * Downloads files of the same directory, which the device may transfer in batches.
+     */
+    @NotNull
+    private ListenableFuture<Void> downloadFiles(@NotNull List<DeviceFileEntryNode> treeNodes,
+                                                 @NotNull Path localDirectoryPath,
+                                                 @NotNull FileTransferOperationTracker tracker) {
+      List<ListenableFuture<Void>> futureResults = new ArrayList<>();
+      List<DeviceFileEntryNode> downloadNodes = new ArrayList<>();
+      List<AtomicReference<Long>> sizeRefs = new ArrayList<>();
+      List<DeviceFileDownload> downloads = new ArrayList<>();
+      for (DeviceFileEntryNode treeNode : treeNodes) {
+        assert !treeNode.getEntry().isDirectory();
+
+        if (treeNode.isTransferring()) {
+          tracker.addProblem(new Exception(String.format("File %s is already downloading or uploading", getUserFacingNodeName(treeNode))));
+          continue;
+        }
+        if (tracker.isCancelled()) {
+          futureResults.add(addDownloadedFile(treeNode, Futures.immediateCancelledFuture(), tracker));
+          continue;
+        }
+
+        AtomicReference<Long> sizeRef = new AtomicReference<>();
+        FileTransferProgress progress = startFileEntryDownload(treeNode, tracker, sizeRef);
+        downloadNodes.add(treeNode);
+        sizeRefs.add(sizeRef);
+        downloads.add(new DeviceFileDownload(treeNode.getEntry(), localDirectoryPath.resolve(treeNode.getEntry().getName()), progress));
+      }
+
+      if (!downloads.isEmpty()) {
+        List<ListenableFuture<Void>> futureDownloads = myFileManager.downloadFileEntries(downloads);
+        for (int i = 0; i < downloads.size(); i++) {
+          DeviceFileEntryNode treeNode = downloadNodes.get(i);
+          ListenableFuture<Long> futureEntrySize = finishFileEntryDownload(treeNode, futureDownloads.get(i), sizeRefs.get(i));
+          futureResults.add(addDownloadedFile(treeNode, futureEntrySize, tracker));
+        }
+      }
+      return myEdtExecutor.transform(Futures.allAsList(futureResults), results -> null);
+    }
+
+    /**
+     * Adds a downloaded file to the summary of the transfer, or its error to the problems of the transfer.
+     * The returned future completes successfully in both cases.
+     */
+    @NotNull
+    private ListenableFuture<Void> addDownloadedFile(@NotNull DeviceFileEntryNode treeNode,
+                                                     @NotNull ListenableFuture<Long> futureEntrySize,
+                                                     @NotNull FileTransferOperationTracker tracker) {
       SettableFuture<Void> futureResult = SettableFuture.create();
       myEdtExecutor.addConsumer(futureEntrySize, (byteCount, throwable) -> {
         if (throwable != null) {
@@ -719,9 +771,23 @@ public class DeviceExplorerController {
       myEdtExecutor.addCallback(futureLoadChildren, new FutureCallback<Void>() {
         @Override
         public void onSuccess(@Nullable Void result) {
-          ListenableFuture<Void> futureDownloadChildren = executeFuturesInSequence(treeNode.getChildEntryNodes().iterator(), node -> {
-            Path nodePath = localDirectoryPath.resolve(node.getEntry().getName());
-            return downloadSingleNode(node, nodePath, tracker);
+          // Consecutive files are downloaded together, so that the device can transfer them in batches
+          List<List<DeviceFileEntryNode>> childGroups = new ArrayList<>();
+          for (DeviceFileEntryNode node : treeNode.getChildEntryNodes()) {
+            List<DeviceFileEntryNode> lastGroup = childGroups.isEmpty() ? null : childGroups.get(childGroups.size() - 1);
+            if (lastGroup != null && !node.getEntry().isDirectory() && !lastGroup.get(0).getEntry().isDirectory()) {
+              lastGroup.add(node);
+            }
+            else {
+              childGroups.add(new ArrayList<>(Collections.singletonList(node)));
+            }
+          }
+          ListenableFuture<Void> futureDownloadChildren = executeFuturesInSequence(childGroups.iterator(), nodes -> {
+            if (nodes.get(0).getEntry().isDirectory()) {
+              Path nodePath = localDirectoryPath.resolve(nodes.get(0).getEntry().getName());
+              return downloadSingleDirectory(nodes.get(0), nodePath, tracker);
+            }
+            return downloadFiles(nodes, localDirectoryPath, tracker);
           });
           myEdtExecutor.addConsumer(futureDownloadChildren, (aVoid, throwable) -> {
             if (throwable != null) {
@@ -1356,14 +1422,27 @@ public class DeviceExplorerController {
       if (tracker.isCancelled()) {
         return Futures.immediateCancelledFuture();
       }
+      AtomicReference<Long> sizeRef = new AtomicReference<>();
+      FileTransferProgress progress = startFileEntryDownload(treeNode, tracker, sizeRef);
+
+      // Download the entry to the local path
+      ListenableFuture<Void> futureDownload = myFileManager.downloadFileEntry(treeNode.getEntry(), localPath, progress);
+      return finishFileEntryDownload(treeNode, futureDownload, sizeRef);
+    }
+
+    /**
+     * Marks a file as being downloaded, and returns the {@link FileTransferProgress} that reports the progress of its download
+     * and stores its size in {@code sizeRef}.
+     */
+    @NotNull
+    private FileTransferProgress startFileEntryDownload(@NotNull DeviceFileEntryNode treeNode,
+                                                        @NotNull FileTransferOperationTracker tracker,
+                                                        @NotNull AtomicReference<Long> sizeRef) {
       tracker.processFile();
       tracker.setDownloadFileText(treeNode.getEntry(), 0, 0);
 
-      // Download the entry to the local path
-      DeviceFileEntry entry = treeNode.getEntry();
       startNodeDownload(treeNode);
-      AtomicReference<Long> sizeRef = new AtomicReference<>();
-      ListenableFuture<Void> futureDownload = myFileManager.downloadFileEntry(entry, localPath, new FileTransferProgress() {
+      return new FileTransferProgress() {
         private long previousBytes;
 
         @Override
@@ -1382,7 +1461,14 @@ public class DeviceExplorerController {
         public boolean isCancelled() {
           return tracker.isCancelled();
         }
-      });
+      };
+    }
+
+    @NotNull
+    private ListenableFuture<Long> finishFileEntryDownload(@NotNull DeviceFileEntryNode treeNode,
+                                                           @NotNull ListenableFuture<Void> futureDownload,
+                                                           @NotNull AtomicReference<Long> sizeRef) {
+      DeviceFileEntry entry = treeNode.getEntry();
       myEdtExecutor.addListener(futureDownload, () -> stopNodeDownload(treeNode));
       logFuture(futureDownload, millis -> String.format("Downloaded file in %,d msec: %s", millis, entry.getFullPath()));
       return myEdtExecutor.transform(futureDownload, aVoid -> sizeRef.get());
@@ -15,13 +15,16 @@
  */
 package com.android.tools.idea.explorer;
 
+import com.android.tools.idea.explorer.fs.DeviceFileDownload;
 import com.android.tools.idea.explorer.fs.DeviceFileEntry;
+import com.android.tools.idea.explorer.fs.DeviceFileSystem;
 import com.android.tools.idea.explorer.fs.FileTransferProgress;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.intellij.openapi.util.Key;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Manage files synchronized between devices and the local file system
@@ -44,6 +47,16 @@ public interface DeviceExplorerFileManager {
   @NotNull
   ListenableFuture<Void> downloadFileEntry(@NotNull DeviceFileEntry entry, @NotNull Path localPath, @NotNull FileTransferProgress progress);
 
+  /**
+   * Download asynchronously the content of several {@link DeviceFileEntry} of the same device onto the local file system.
+   * Returns one {@link ListenableFuture} per download, in the same order, that completes when the download
+   * of that entry has completed. The device may transfer the files in batches, see {@link DeviceFileSystem#downloadFiles}.
+   */
+  @NotNull
+  default List<ListenableFuture<Void>> downloadFileEntries(@NotNull List<DeviceFileDownload> downloads) {
+    return DeviceFileDownload.downloadInSequence(downloads, x -> downloadFileEntry(x.getEntry(), x.getLocalPath(), x.getProgress()));
+  }
+
   /**
    * Opens a previously downloaded file in an editor window. If the file contents is
    * not recognized, the implementation may open a dialog box asking the user to pick
@@ -17,6 +17,7 @@ package com.android.tools.idea.explorer;
 
 import com.android.tools.idea.concurrent.FutureCallbackExecutor;
 import com.android.tools.idea.device.fs.DeviceFileId;
+import com.android.tools.idea.explorer.fs.DeviceFileDownload;
 import com.android.tools.idea.explorer.fs.DeviceFileEntry;
 import com.android.tools.idea.explorer.fs.DeviceFileSystem;
 import com.android.tools.idea.explorer.fs.FileTransferProgress;
@@ -98,9 +99,7 @@ public class DeviceExplorerFileManagerImpl implements DeviceExplorerFileManager
     SettableFuture<Void> futureResult = SettableFuture.create();
 
     try {
-      // Ensure parent directories are created and file is not present
-      FileUtils.mkdirs(localPath.getParent().toFile());
-      FileUtils.deleteIfExists(localPath.toFile());
+      prepareLocalPath(localPath);
     }
     catch (IOException e) {
       futureResult.setException(e);
@@ -109,6 +108,51 @@ public class DeviceExplorerFileManagerImpl implements DeviceExplorerFileManager
 
     // Download the local file
     ListenableFuture<Void> result = entry.downloadFile(localPath, progress);
+    forwardDownloadResult(result, futureResult, localPath);
+    return futureResult;
+  }
+
+  @NotNull
+  @Override
+  public List<ListenableFuture<Void>> downloadFileEntries(@NotNull List<DeviceFileDownload> downloads) {
+    List<ListenableFuture<Void>> futureResults = new ArrayList<>();
+    List<DeviceFileDownload> preparedDownloads = new ArrayList<>();
+    List<SettableFuture<Void>> preparedResults = new ArrayList<>();
+    for (DeviceFileDownload download : downloads) {
+      SettableFuture<Void> futureResult = SettableFuture.create();
+      futureResults.add(futureResult);
+      try {
+        prepareLocalPath(download.getLocalPath());
+      }
+      catch (IOException e) {
+        futureResult.setException(e);
+        continue;
+      }
+      preparedDownloads.add(download);
+      preparedResults.add(futureResult);
+    }
+    if (preparedDownloads.isEmpty()) {
+      return futureResults;
+    }
+
+    // Download the local files, all the entries belong to the same device
+    DeviceFileSystem fileSystem = preparedDownloads.get(0).getEntry().getFileSystem();
+    List<ListenableFuture<Void>> results = fileSystem.downloadFiles(preparedDownloads);
+    for (int i = 0; i < results.size(); i++) {
+      forwardDownloadResult(results.get(i), preparedResults.get(i), preparedDownloads.get(i).getLocalPath());
+    }
+    return futureResults;
+  }
+
+  private static void prepareLocalPath(@NotNull Path localPath) throws IOException {
+    // Ensure parent directories are created and file is not present
+    FileUtils.mkdirs(localPath.getParent().toFile());
+    FileUtils.deleteIfExists(localPath.toFile());
+  }
+
+  private void forwardDownloadResult(@NotNull ListenableFuture<Void> result,
+                                     @NotNull SettableFuture<Void> futureResult,
+                                     @NotNull Path localPath) {
     myEdtExecutor.addCallback(result, new FutureCallback<Void>() {
       @Override
       public void onSuccess(@Nullable Void result) {
@@ -121,8 +165,6 @@ public class DeviceExplorerFileManagerImpl implements DeviceExplorerFileManager
         deleteTemporaryFile(localPath);
       }
     });
-
-    return futureResult;
   }
 
   @Override
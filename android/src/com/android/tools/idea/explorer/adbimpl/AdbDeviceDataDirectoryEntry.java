@@ -232,6 +232,12 @@ public class AdbDeviceDataDirectoryEntry extends AdbDeviceForwardingFileEntry {
       });
     }
 
+    @NotNull
+    @Override
+    String getDownloadRunAs() {
+      return myPackageName;
+    }
+
     @NotNull
     @Override
     public ListenableFuture<Void> downloadFile(@NotNull Path localPath, @NotNull FileTransferProgress progress) {
@@ -101,6 +101,15 @@ public abstract class AdbDeviceFileEntry implements DeviceFileEntry {
     return myEntry.isSymbolicLink();
   }
 
+  /**
+   * The package to "run-as" to read this file, if it can only be downloaded by copying it to a temp. location first
+   * (see {@link AdbFileTransfer#downloadFileViaTempLocation}), or {@code null} if it can be downloaded directly.
+   */
+  @Nullable
+  String getDownloadRunAs() {
+    return null;
+  }
+
   @Nullable
   @Override
   public String getSymbolicLinkTarget() {
@@ -18,6 +18,7 @@ package com.android.tools.idea.explorer.adbimpl;
 import com.android.ddmlib.FileListingService;
 import com.android.ddmlib.IDevice;
 import com.android.tools.idea.concurrent.FutureCallbackExecutor;
+import com.android.tools.idea.explorer.fs.DeviceFileDownload;
 import com.android.tools.idea.explorer.fs.DeviceFileEntry;
 import com.android.tools.idea.explorer.fs.DeviceFileSystem;
 import com.android.tools.idea.explorer.fs.DeviceState;
@@ -28,9 +29,7 @@ import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
 
 public class AdbDeviceFileSystem implements DeviceFileSystem {
   @NotNull private final AdbDeviceFileSystemService myService;
@@ -150,6 +149,49 @@ public class AdbDeviceFileSystem implements DeviceFileSystem {
     return resultFuture;
   }
 
+  @NotNull
+  @Override
+  public List<ListenableFuture<Void>> downloadFiles(@NotNull List<DeviceFileDownload> downloads) {
+    // Files read with "run-as" are copied to a temp. location before being pulled, which takes several round trips
+    // per file, so they are transferred in batches, grouped by package. The other files are pulled one at a time.
+    List<ListenableFuture<Void>> results = new ArrayList<>(Collections.nCopies(downloads.size(), null));
+    Map<String, List<Integer>> runAsDownloads = new LinkedHashMap<>();
+    List<Integer> otherDownloads = new ArrayList<>();
+    for (int i = 0; i < downloads.size(); i++) {
+      DeviceFileEntry entry = downloads.get(i).getEntry();
+      String runAs = entry instanceof AdbDeviceFileEntry ? ((AdbDeviceFileEntry)entry).getDownloadRunAs() : null;
+      if (runAs != null) {
+        runAsDownloads.computeIfAbsent(runAs, x -> new ArrayList<>()).add(i);
+      }
+      else {
+        otherDownloads.add(i);
+      }
+    }
+
+    runAsDownloads.forEach((runAs, indices) -> {
+      List<AdbFileTransfer.FileDownload> fileDownloads = new ArrayList<>();
+      for (int i : indices) {
+        DeviceFileDownload download = downloads.get(i);
+        fileDownloads.add(new AdbFileTransfer.FileDownload(download.getEntry().getFullPath(),
+                                                           download.getEntry().getSize(),
+                                                           download.getLocalPath(),
+                                                           download.getProgress()));
+      }
+      List<ListenableFuture<Void>> futures = myFileTransfer.downloadFilesViaTempLocation(fileDownloads, runAs);
+      for (int i = 0; i < indices.size(); i++) {
+        results.set(indices.get(i), futures.get(i));
+      }
+    });
+
+    List<DeviceFileDownload> sequentialDownloads = new ArrayList<>();
+    otherDownloads.forEach(i -> sequentialDownloads.add(downloads.get(i)));
+    List<ListenableFuture<Void>> futures = DeviceFileSystem.super.downloadFiles(sequentialDownloads);
+    for (int i = 0; i < otherDownloads.size(); i++) {
+      results.set(otherDownloads.get(i), futures.get(i));
+    }
+    return results;
+  }
+
   private void resolvePathSegments(@NotNull SettableFuture<DeviceFileEntry> future,
                                    @NotNull DeviceFileEntry currentEntry,
                                    @NotNull String[] segments,
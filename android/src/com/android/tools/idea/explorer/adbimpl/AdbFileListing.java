@@ -23,12 +23,13 @@ import com.android.tools.idea.concurrent.FutureCallbackExecutor;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
@@ -41,11 +42,29 @@ import static com.android.ddmlib.FileListingService.LS_L_PATTERN;
 public class AdbFileListing {
   @NotNull public static final Logger LOGGER = Logger.getInstance(AdbFileListing.class);
   @NotNull private static final Pattern BACKSLASH = Pattern.compile("\\", Pattern.LITERAL);
+  @NotNull private static final String LINK_LINE_MARKER = "LS-LD-LS-LD:";
+  /**
+   * Symbolic links are resolved by as many links as fit in a shell command of this length,
+   * which is well under the limit of the shell of older devices.
+   */
+  private static final int MAX_LINK_COMMAND_LENGTH = 4_000;
+  private static final int MAX_CACHED_DIRECTORIES = 200;
 
   @NotNull private final IDevice myDevice;
   @NotNull private AdbDeviceCapabilities myDeviceCapabilities;
   @NotNull private final FutureCallbackExecutor myExecutor;
   @NotNull private final AdbFileListingEntry myRoot;
+  /**
+   * The last listing of the directories of the device, by "run-as" package and path, with the
+   * symbolic links of each directory resolved so far.
+   */
+  @NotNull private final Map<String, CachedDirectory> myDirectoryCache =
+    new LinkedHashMap<String, CachedDirectory>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedDirectory> eldest) {
+        return size() > MAX_CACHED_DIRECTORIES;
+      }
+    };
 
   public AdbFileListing(@NotNull IDevice device, @NotNull AdbDeviceCapabilities deviceCapabilities, @NotNull Executor taskExecutor) {
     myDevice = device;
@@ -82,6 +101,7 @@ public class AdbFileListing {
       if (entries.isEmpty() && commandResult.isError()) {
         commandResult.throwIfError();
       }
+      updateCachedDirectory(parentEntry, runAs, entries);
       return entries;
     });
   }
@@ -91,6 +111,9 @@ public class AdbFileListing {
    * as the target of the symlink might not be accessible, in which case the future value
    * is {@code false}. The future may still complete with an exception in case of ADB
    * specific errors, such as device disconnected, etc.
+   *
+   * <p>The symbolic links of a directory returned by {@link #getChildren} are resolved together
+   * the first time one of them is queried, and are remembered until the directory is modified.
    */
   @NotNull
   public ListenableFuture<Boolean> isDirectoryLink(@NotNull AdbFileListingEntry entry) {
@@ -105,31 +128,139 @@ public class AdbFileListing {
     }
 
     return myExecutor.executeAsync(() -> {
-      // We simply need to determine whether the referent is a directory or not.
-      // We do this by running `ls -ld ${link}/`.  If the referent exists and is a
-      // directory, we'll see the normal directory listing.  Otherwise, we'll see an
-      // error of some sort.
-      String command = getCommand(runAs, "ls -l -d ").withDirectoryEscapedPath(entry.getFullPath()).build();
-      AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommandNoErrorCheck(myDevice, command);
-
-      // Look for at least one line matching the expected output
-      int lineCount = 0;
-      for (String line : commandResult.getOutput()) {
-        Matcher m = LS_LD_PATTERN.matcher(line);
-        if (m.matches()) {
-          if (lineCount > 0) {
-            // It is odd to have more than one line matching "ls -l -d"
-            LOGGER.warn(String.format("Unexpected additional output line matching result of ld -l -d: %s", line));
+      // The symbolic links of a listed directory are resolved all at once, since the device explorer
+      // asks for each of them in turn
+      CachedDirectory directory = getCachedDirectory(AdbPathUtil.getParentPath(entry.getFullPath()), runAs);
+      if (directory == null) {
+        return resolveDirectoryLinks(Collections.singletonList(entry), runAs).contains(entry.getFullPath());
+      }
+      synchronized (directory) {
+        Boolean isDirectory = directory.getLinkResolution(entry);
+        if (isDirectory == null) {
+          List<AdbFileListingEntry> links = directory.getUnresolvedLinks();
+          if (links.stream().noneMatch(x -> x.getFullPath().equals(entry.getFullPath()))) {
+            links.add(entry);
+          }
+          Set<String> directoryLinks = resolveDirectoryLinks(links, runAs);
+          for (AdbFileListingEntry link : links) {
+            directory.setLinkResolution(link, directoryLinks.contains(link.getFullPath()));
           }
-          lineCount++;
+          isDirectory = directoryLinks.contains(entry.getFullPath());
         }
+        return isDirectory;
       }
-
-      // All done
-      return lineCount > 0;
     });
   }
 
+  /**
+   * Returns the paths of the symbolic links that point to a directory, running as few shell
+   * commands as possible.
+   */
+  @NotNull
+  private Set<String> resolveDirectoryLinks(@NotNull List<AdbFileListingEntry> links, @Nullable String runAs)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    Set<String> directoryLinks = new HashSet<>();
+    int start = 0;
+    while (start < links.size()) {
+      int end = start + 1;
+      int length = getLinkCommandLength(links.get(start));
+      while (end < links.size() && length + getLinkCommandLength(links.get(end)) <= MAX_LINK_COMMAND_LENGTH) {
+        length += getLinkCommandLength(links.get(end));
+        end++;
+      }
+      directoryLinks.addAll(resolveDirectoryLinkBatch(links.subList(start, end), runAs));
+      start = end;
+    }
+    return directoryLinks;
+  }
+
+  @NotNull
+  private Set<String> resolveDirectoryLinkBatch(@NotNull List<AdbFileListingEntry> links, @Nullable String runAs)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    // We simply need to determine whether the referent is a directory or not.
+    // We do this by running `ls -ld ${link}/`.  If the referent exists and is a
+    // directory, we'll see the normal directory listing.  Otherwise, we'll see an
+    // error of some sort. When there are several links, the output of each command
+    // is preceded by a marker line with the index of the link.
+    AdbShellCommandBuilder command = getCommand(runAs, "");
+    for (int i = 0; i < links.size(); i++) {
+      if (links.size() > 1) {
+        command.withText(i > 0 ? "; " : "").withText("echo " + LINK_LINE_MARKER + i + "; ");
+      }
+      command.withText("ls -l -d ").withDirectoryEscapedPath(links.get(i).getFullPath());
+    }
+    AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommandNoErrorCheck(myDevice, command.build());
+
+    // Look for at least one line matching the expected output for each link
+    Set<String> directoryLinks = new HashSet<>();
+    int index = links.size() > 1 ? -1 : 0;
+    for (String line : commandResult.getOutput()) {
+      if (line.startsWith(LINK_LINE_MARKER)) {
+        index = StringUtil.parseInt(line.substring(LINK_LINE_MARKER.length()).trim(), -1);
+        if (index < 0 || index >= links.size()) {
+          throw AdbShellCommandException.create("Unexpected output resolving symbolic links: %s", line);
+        }
+        continue;
+      }
+      Matcher m = LS_LD_PATTERN.matcher(line);
+      if (m.matches() && index >= 0) {
+        if (!directoryLinks.add(links.get(index).getFullPath())) {
+          // It is odd to have more than one line matching "ls -l -d"
+          LOGGER.warn(String.format("Unexpected additional output line matching result of ld -l -d: %s", line));
+        }
+      }
+    }
+    return directoryLinks;
+  }
+
+  private static int getLinkCommandLength(@NotNull AdbFileListingEntry link) {
+    return AdbPathUtil.getEscapedPath(link.getFullPath()).length() + LINK_LINE_MARKER.length() + 32;
+  }
+
+  /**
+   * Keeps the new listing of a directory, along with the symbolic links resolved for its previous
+   * listing if the directory has not been modified since, i.e. if the modification time reported
+   * for the directory is the same and the links have the same targets.
+   */
+  private void updateCachedDirectory(@NotNull AdbFileListingEntry directoryEntry,
+                                     @Nullable String runAs,
+                                     @NotNull List<AdbFileListingEntry> entries) {
+    String key = getCacheKey(directoryEntry.getFullPath(), runAs);
+    String stamp = getModificationStamp(directoryEntry);
+    synchronized (myDirectoryCache) {
+      CachedDirectory previous = myDirectoryCache.get(key);
+      CachedDirectory directory = new CachedDirectory(stamp, entries);
+      if (previous != null && stamp != null && stamp.equals(previous.myStamp)) {
+        directory.copyLinkResolutions(previous);
+      }
+      myDirectoryCache.put(key, directory);
+    }
+  }
+
+  @Nullable
+  private CachedDirectory getCachedDirectory(@NotNull String path, @Nullable String runAs) {
+    synchronized (myDirectoryCache) {
+      return myDirectoryCache.get(getCacheKey(path, runAs));
+    }
+  }
+
+  @NotNull
+  private static String getCacheKey(@NotNull String path, @Nullable String runAs) {
+    return runAs == null ? path : runAs + ":" + path;
+  }
+
+  /**
+   * Returns the modification time of a directory, as reported by the listing of its parent, or null
+   * if it is not known (e.g. for the root directory).
+   */
+  @Nullable
+  private static String getModificationStamp(@NotNull AdbFileListingEntry directoryEntry) {
+    if (directoryEntry.getDate() == null || directoryEntry.getTime() == null) {
+      return null;
+    }
+    return directoryEntry.getDate() + " " + directoryEntry.getTime();
+  }
+
   @Nullable
   private static AdbFileListingEntry processLsOutputLine(@NotNull String line, boolean escaping, @NotNull AdbFileListingEntry parentEntry) {
     // no need to handle empty lines.
@@ -229,4 +360,48 @@ public class AdbFileListing {
     }
     return command.withText(text);
   }
-}
\ No newline at end of file
+
+  private static class CachedDirectory {
+    @Nullable private final String myStamp;
+    @NotNull private final List<AdbFileListingEntry> myEntries;
+    /**
+     * Whether each symbolic link resolved so far points to a directory, by link path and target.
+     */
+    @NotNull private final Map<String, Boolean> myLinkResolutions = new ConcurrentHashMap<>();
+
+    CachedDirectory(@Nullable String stamp, @NotNull List<AdbFileListingEntry> entries) {
+      myStamp = stamp;
+      myEntries = entries;
+    }
+
+    @Nullable
+    Boolean getLinkResolution(@NotNull AdbFileListingEntry link) {
+      return myLinkResolutions.get(getLinkKey(link));
+    }
+
+    void setLinkResolution(@NotNull AdbFileListingEntry link, boolean isDirectory) {
+      myLinkResolutions.put(getLinkKey(link), isDirectory);
+    }
+
+    @NotNull
+    List<AdbFileListingEntry> getUnresolvedLinks() {
+      return myEntries.stream()
+        .filter(x -> x.isSymbolicLink() && !myLinkResolutions.containsKey(getLinkKey(x)))
+        .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    void copyLinkResolutions(@NotNull CachedDirectory previous) {
+      for (AdbFileListingEntry entry : myEntries) {
+        Boolean isDirectory = entry.isSymbolicLink() ? previous.getLinkResolution(entry) : null;
+        if (isDirectory != null) {
+          setLinkResolution(entry, isDirectory);
+        }
+      }
+    }
+
+    @NotNull
+    private static String getLinkKey(@NotNull AdbFileListingEntry link) {
+      return link.getFullPath() + " " + link.getInfo();
+    }
+  }
+}
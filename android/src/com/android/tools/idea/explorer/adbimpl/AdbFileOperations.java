@@ -23,12 +23,16 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 public class AdbFileOperations {
+  @NotNull private static final String COPY_ERROR_LINE_MARKER = "CP-ERR-CP-ERR:";
+
   @NotNull private final IDevice myDevice;
   @NotNull private final FutureCallbackExecutor myExecutor;
   @NotNull private final AdbDeviceCapabilities myDeviceCapabilities;
@@ -199,6 +203,24 @@ public class AdbFileOperations {
     });
   }
 
+  /**
+   * Deletes several files as the default user, using a single shell command.
+   */
+  @NotNull
+  public ListenableFuture<Void> deleteFiles(@NotNull List<String> paths) {
+    return myExecutor.executeAsync(() -> {
+      AdbShellCommandBuilder command = getCommand(null, myDeviceCapabilities.supportsRmForceFlag() ? "rm -f" : "rm");
+      for (String path : paths) {
+        command.withText(" ").withEscapedPath(path);
+      }
+      AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommand(myDevice, command.build());
+      commandResult.throwIfError();
+
+      // All done
+      return null;
+    });
+  }
+
   @NotNull
   public ListenableFuture<Void> deleteRecursive(@NotNull String path) {
     return deleteRecursiveRunAs(path, null);
@@ -224,19 +246,57 @@ public class AdbFileOperations {
   @NotNull
   public ListenableFuture<Void> copyFileRunAs(@NotNull String source, @NotNull String destination, @Nullable String runAs) {
     return myExecutor.executeAsync(() -> {
-      String command;
-      if (myDeviceCapabilities.supportsCpCommand()) {
-        command = getCommand(runAs, "cp ").withEscapedPath(source).withText(" ").withEscapedPath(destination).build();
-      }
-      else {
-        command = getCommand(runAs, "cat ").withEscapedPath(source).withText(" >").withEscapedPath(destination).build();
-      }
+      String command = getCopyCommand(runAs, source, destination);
       AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommand(myDevice, command);
       commandResult.throwIfError();
       return null;
     });
   }
 
+  /**
+   * Copies each of the {@code sources} files to the temporary file at the same index in {@code tempFiles}, using a
+   * single shell command for all the files. As with {@link #createTempFile(String)} followed by
+   * {@link #copyFileRunAs(String, String, String)}, each temporary file is created by the default user, then
+   * written by the "run-as" user.
+   *
+   * <p>Returns the temporary files that could not be created or written. All the temporary files should be deleted
+   * afterwards, see {@link #deleteFiles(List)}.
+   */
+  @NotNull
+  public ListenableFuture<Set<String>> copyFilesToTempFilesRunAs(@NotNull List<String> sources,
+                                                                 @NotNull List<String> tempFiles,
+                                                                 @Nullable String runAs) {
+    assert sources.size() == tempFiles.size();
+    return myExecutor.executeAsync(() -> {
+      // Each copy reports its own failure, so that a failed copy does not prevent the other ones
+      StringBuilder command = new StringBuilder();
+      for (int i = 0; i < sources.size(); i++) {
+        if (i > 0) {
+          command.append("; ");
+        }
+        command.append(getTouchCommand(null, tempFiles.get(i)))
+          .append(" && ")
+          .append(getCopyCommand(runAs, sources.get(i), tempFiles.get(i)))
+          .append(" || echo ")
+          .append(COPY_ERROR_LINE_MARKER)
+          .append(i);
+      }
+      AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommandNoErrorCheck(myDevice, command.toString());
+
+      Set<String> failedTempFiles = new HashSet<>();
+      for (String line : commandResult.getOutput()) {
+        if (line.startsWith(COPY_ERROR_LINE_MARKER)) {
+          int index = StringUtil.parseInt(line.substring(COPY_ERROR_LINE_MARKER.length()).trim(), -1);
+          if (index < 0 || index >= tempFiles.size()) {
+            throw AdbShellCommandException.create("Unexpected output copying files: %s", line);
+          }
+          failedTempFiles.add(tempFiles.get(index));
+        }
+      }
+      return failedTempFiles;
+    });
+  }
+
   @NotNull
   public ListenableFuture<String> createTempFile(@NotNull String tempPath) {
     return createTempFileRunAs(tempPath, null);
@@ -278,17 +338,33 @@ public class AdbFileOperations {
 
   private void touchFileRunAs(@NotNull String remotePath, @Nullable String runAs)
     throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, AdbShellCommandException {
-    String command;
+    String command = getTouchCommand(runAs, remotePath);
+    AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommand(myDevice, command);
+    commandResult.throwIfError();
+  }
+
+  @NotNull
+  private String getTouchCommand(@Nullable String runAs, @NotNull String remotePath)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
     if (myDeviceCapabilities.supportsTouchCommand()) {
       // Touch creates an empty file if the file does not exist.
       // Touch fails if there are permissions errors.
-      command = getCommand(runAs, "touch ").withEscapedPath(remotePath).build();
+      return getCommand(runAs, "touch ").withEscapedPath(remotePath).build();
     }
     else {
-      command = getCommand(runAs, "echo -n >").withEscapedPath(remotePath).build();
+      return getCommand(runAs, "echo -n >").withEscapedPath(remotePath).build();
+    }
+  }
+
+  @NotNull
+  private String getCopyCommand(@Nullable String runAs, @NotNull String source, @NotNull String destination)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, SyncException {
+    if (myDeviceCapabilities.supportsCpCommand()) {
+      return getCommand(runAs, "cp ").withEscapedPath(source).withText(" ").withEscapedPath(destination).build();
+    }
+    else {
+      return getCommand(runAs, "cat ").withEscapedPath(source).withText(" >").withEscapedPath(destination).build();
     }
-    AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommand(myDevice, command);
-    commandResult.throwIfError();
   }
 
   @NotNull
@@ -24,18 +24,33 @@ import com.android.tools.idea.explorer.fs.FileTransferProgress;
 import com.android.tools.idea.explorer.fs.ThrottledProgress;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 import static com.android.tools.idea.explorer.adbimpl.AdbPathUtil.DEVICE_TEMP_DIRECTORY;
 
 public class AdbFileTransfer {
   @NotNull private static Logger LOGGER = Logger.getInstance(AdbFileTransfer.class);
+  /**
+   * The maximum number of files copied to the temp. location by a single shell command. Each file adds about 200
+   * characters to the command, on top of the length of its path, and older devices limit the length of shell
+   * commands to 4KB.
+   */
+  private static final int MAX_BATCH_FILE_COUNT = 16;
+  private static final int MAX_BATCH_COMMAND_LENGTH = 4_000;
+  private static final int BATCH_COMMAND_LENGTH_PER_FILE = 200;
 
   @NotNull private final IDevice myDevice;
   @NotNull private final AdbFileOperations myFileOperations;
@@ -93,6 +108,165 @@ public class AdbFileTransfer {
     });
   }
 
+  /**
+   * Downloads several files the same way as {@link #downloadFileViaTempLocation}, with fewer round trips to the device:
+   * the files are copied to the temp. location in batches, with a single shell command per batch, the copies of a batch
+   * are pulled through a single sync connection while the next batch is being copied, and the temporary files of a batch
+   * are deleted with a single shell command. Copying is much faster than pulling, so a batch is only copied once the
+   * temporary files of the batch before the previous one are deleted: at most two batches use space in the temp. location.
+   *
+   * <p>Returns one {@link ListenableFuture} per download, in the same order, that completes when the file has been pulled.
+   * A download is cancelled if its {@link FileTransferProgress#isCancelled() progress} is cancelled before it is pulled.
+   */
+  @NotNull
+  public List<ListenableFuture<Void>> downloadFilesViaTempLocation(@NotNull List<FileDownload> downloads, @Nullable String runAs) {
+    List<ListenableFuture<Void>> results = new ArrayList<>();
+    ListenableFuture<?> previousCopy = Futures.immediateFuture(null);
+    ListenableFuture<?> previousPull = Futures.immediateFuture(null);
+    ListenableFuture<?> previousDelete = Futures.immediateFuture(null);
+    ListenableFuture<?> secondPreviousDelete = Futures.immediateFuture(null);
+    for (List<FileDownload> batch : splitIntoBatches(downloads)) {
+      List<SettableFuture<Void>> batchResults = batch.stream().map(x -> SettableFuture.<Void>create()).collect(Collectors.toList());
+      results.addAll(batchResults);
+      List<String> tempFiles = batch.stream()
+        .map(x -> AdbPathUtil.resolve(DEVICE_TEMP_DIRECTORY, UniqueFileNameGenerator.getInstance().getUniqueFileName("temp", "")))
+        .collect(Collectors.toList());
+
+      // Copy the batch once the previous batch is copied, while the previous batch is being pulled, and once the temporary
+      // files of the batch before it are deleted
+      SettableFuture<Set<String>> futureCopy = SettableFuture.create();
+      ListenableFuture<?> copyAfter = secondPreviousDelete;
+      myTaskExecutor.addListener(previousCopy, () -> myTaskExecutor.addListener(copyAfter, () -> {
+        if (batch.stream().allMatch(x -> x.getProgress().isCancelled())) {
+          futureCopy.cancel(false);
+        }
+        else {
+          futureCopy.setFuture(myFileOperations.copyFilesToTempFilesRunAs(
+            batch.stream().map(FileDownload::getRemotePath).collect(Collectors.toList()), tempFiles, runAs));
+        }
+      }));
+
+      // Pull the batch once it is copied and the previous batch is pulled, then delete its temporary files
+      SettableFuture<Void> futurePull = SettableFuture.create();
+      ListenableFuture<?> pullAfter = previousPull;
+      myTaskExecutor.addListener(futureCopy, () -> myTaskExecutor.addListener(pullAfter, () -> {
+        futurePull.setFuture(myTaskExecutor.executeAsync(() -> {
+          pullBatch(batch, tempFiles, futureCopy, batchResults);
+          return null;
+        }));
+      }));
+      ListenableFuture<Void> futureDelete = myTaskExecutor.finallyAsync(futurePull, () -> futureCopy.isCancelled()
+                                                                                            ? Futures.immediateFuture(null)
+                                                                                            : myFileOperations.deleteFiles(tempFiles));
+      myTaskExecutor.addConsumer(futureDelete, (aVoid, throwable) -> {
+        if (throwable != null) {
+          LOGGER.warn(String.format("Error deleting temporary files %s", tempFiles), throwable);
+        }
+      });
+
+      previousCopy = futureCopy;
+      previousPull = futurePull;
+      secondPreviousDelete = previousDelete;
+      previousDelete = futureDelete;
+    }
+    return results;
+  }
+
+  @NotNull
+  private static List<List<FileDownload>> splitIntoBatches(@NotNull List<FileDownload> downloads) {
+    List<List<FileDownload>> batches = new ArrayList<>();
+    List<FileDownload> batch = new ArrayList<>();
+    int commandLength = 0;
+    for (FileDownload download : downloads) {
+      int length = BATCH_COMMAND_LENGTH_PER_FILE + download.getRemotePath().length();
+      if (!batch.isEmpty() && (batch.size() >= MAX_BATCH_FILE_COUNT || commandLength + length > MAX_BATCH_COMMAND_LENGTH)) {
+        batches.add(batch);
+        batch = new ArrayList<>();
+        commandLength = 0;
+      }
+      batch.add(download);
+      commandLength += length;
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  /**
+   * Pulls the temporary files of a batch, using a single sync connection, and completes the result of each download.
+   */
+  private void pullBatch(@NotNull List<FileDownload> batch,
+                         @NotNull List<String> tempFiles,
+                         @NotNull ListenableFuture<Set<String>> futureCopy,
+                         @NotNull List<SettableFuture<Void>> results) {
+    Set<String> failedTempFiles;
+    try {
+      failedTempFiles = Futures.getDone(futureCopy);
+    }
+    catch (CancellationException e) {
+      results.forEach(x -> x.cancel(false));
+      return;
+    }
+    catch (ExecutionException e) {
+      results.forEach(x -> x.setException(e.getCause()));
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    SyncService syncService = null;
+    try {
+      for (int i = 0; i < batch.size(); i++) {
+        FileDownload download = batch.get(i);
+        SettableFuture<Void> result = results.get(i);
+        if (failedTempFiles.contains(tempFiles.get(i))) {
+          result.setException(AdbShellCommandException.create("Error copying file \"%s\" to temporary location", download.getRemotePath()));
+          continue;
+        }
+        if (download.getProgress().isCancelled()) {
+          result.cancel(false);
+          continue;
+        }
+
+        try {
+          if (syncService == null) {
+            syncService = myDevice.getSyncService();
+            if (syncService == null) {
+              throw new IOException("Unable to open synchronization service to device");
+            }
+          }
+          syncService.pullFile(tempFiles.get(i),
+                               download.getLocalPath().toString(),
+                               new SingleFileProgressMonitor(myProgressExecutor, download.getProgress(), download.getRemotePathSize()));
+          result.set(null);
+        }
+        catch (SyncException syncError) {
+          if (syncError.wasCanceled()) {
+            // Simply forward cancellation as the cancelled exception
+            result.cancel(false);
+          }
+          else {
+            LOGGER.info(String.format("Error pulling file from \"%s\" to \"%s\"", download.getRemotePath(), download.getLocalPath()),
+                        syncError);
+            result.setException(syncError);
+          }
+          // The connection may be left in the middle of a transfer, so the next file uses a new one
+          syncService.close();
+          syncService = null;
+        }
+        catch (Throwable t) {
+          result.setException(t);
+        }
+      }
+    }
+    finally {
+      if (syncService != null) {
+        syncService.close();
+      }
+    }
+    long endTime = System.nanoTime();
+    LOGGER.info(String.format("Pull of %,d files took %,d ms to execute", batch.size(), (endTime - startTime) / 1_000_000));
+  }
 
   @NotNull
   public ListenableFuture<Void> uploadFile(@NotNull Path localPath,
@@ -205,6 +379,42 @@ public class AdbFileTransfer {
     });
   }
 
+  /**
+   * A file to download with {@link #downloadFilesViaTempLocation(List, String)}.
+   */
+  public static class FileDownload {
+    @NotNull private final String myRemotePath;
+    private final long myRemotePathSize;
+    @NotNull private final Path myLocalPath;
+    @NotNull private final FileTransferProgress myProgress;
+
+    public FileDownload(@NotNull String remotePath, long remotePathSize, @NotNull Path localPath, @NotNull FileTransferProgress progress) {
+      myRemotePath = remotePath;
+      myRemotePathSize = remotePathSize;
+      myLocalPath = localPath;
+      myProgress = progress;
+    }
+
+    @NotNull
+    public String getRemotePath() {
+      return myRemotePath;
+    }
+
+    public long getRemotePathSize() {
+      return myRemotePathSize;
+    }
+
+    @NotNull
+    public Path getLocalPath() {
+      return myLocalPath;
+    }
+
+    @NotNull
+    public FileTransferProgress getProgress() {
+      return myProgress;
+    }
+  }
+
   /**
    * Forward callbacks from a {@link SyncService.ISyncProgressMonitor}, running on a pooled thread,
    * to a {@link FileTransferProgress}, using the provided {@link Executor}, typically the
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.fs;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The download of a {@link DeviceFileEntry} to a local file, as part of a
+ * {@link DeviceFileSystem#downloadFiles(List) multi-file download}.
+ */
+public class DeviceFileDownload {
+  @NotNull private final DeviceFileEntry myEntry;
+  @NotNull private final Path myLocalPath;
+  @NotNull private final FileTransferProgress myProgress;
+
+  public DeviceFileDownload(@NotNull DeviceFileEntry entry, @NotNull Path localPath, @NotNull FileTransferProgress progress) {
+    myEntry = entry;
+    myLocalPath = localPath;
+    myProgress = progress;
+  }
+
+  @NotNull
+  public DeviceFileEntry getEntry() {
+    return myEntry;
+  }
+
+  @NotNull
+  public Path getLocalPath() {
+    return myLocalPath;
+  }
+
+  @NotNull
+  public FileTransferProgress getProgress() {
+    return myProgress;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s -> %s", myEntry.getFullPath(), myLocalPath);
+  }
+
+  /**
+   * Runs the {@code download} function for each download, starting each one when the previous one has completed,
+   * successfully or not, and returns the future of each download, in the same order.
+   */
+  @NotNull
+  public static List<ListenableFuture<Void>> downloadInSequence(@NotNull List<DeviceFileDownload> downloads,
+                                                                @NotNull Function<DeviceFileDownload, ListenableFuture<Void>> download) {
+    List<ListenableFuture<Void>> results = new ArrayList<>();
+    ListenableFuture<Void> previous = Futures.immediateFuture(null);
+    for (DeviceFileDownload fileDownload : downloads) {
+      SettableFuture<Void> result = SettableFuture.create();
+      previous.addListener(() -> {
+        try {
+          result.setFuture(download.apply(fileDownload));
+        }
+        catch (Throwable t) {
+          result.setException(t);
+        }
+      }, MoreExecutors.directExecutor());
+      results.add(result);
+      previous = result;
+    }
+    return results;
+  }
+}
@@ -18,6 +18,8 @@ package com.android.tools.idea.explorer.fs;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 /**
  * Abstraction over the file system of a single device.
  */
@@ -48,4 +50,17 @@ public interface DeviceFileSystem {
    */
   @NotNull
   ListenableFuture<DeviceFileEntry> getEntry(@NotNull String path);
-}
\ No newline at end of file
+
+  /**
+   * Downloads the contents of several {@link DeviceFileEntry files} of this device to local files.
+   * Returns one {@link ListenableFuture} per download, in the same order, that completes when
+   * the download of that file has completed.
+   *
+   * <p>The default implementation downloads the files one after another. Implementations may
+   * transfer the files in batches, when that saves round trips to the device.
+   */
+  @NotNull
+  default List<ListenableFuture<Void>> downloadFiles(@NotNull List<DeviceFileDownload> downloads) {
+    return DeviceFileDownload.downloadInSequence(downloads, x -> x.getEntry().downloadFile(x.getLocalPath(), x.getProgress()));
+  }
+}
@@ -98,6 +98,16 @@ public class AndroidGradleClassJarProvider extends ClassJarProvider {
     return listBuilder.build();
   }
 
+  @Override
+  @NotNull
+  public List<VirtualFile> getModuleClassOutputRoots(@NotNull Module module) {
+    AndroidModuleModel model = AndroidModuleModel.get(module);
+    if (model == null) {
+      return ImmutableList.of();
+    }
+    return ImmutableList.copyOf(getCompilerOutputRoots(model));
+  }
+
   @Override
   @NotNull
   public List<File> getModuleExternalLibraries(@NotNull Module module) {
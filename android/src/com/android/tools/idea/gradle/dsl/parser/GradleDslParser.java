@@ -24,6 +24,7 @@ import com.intellij.psi.PsiElement;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -48,6 +49,25 @@ public interface GradleDslParser {
    */
   void parse();
 
+  /**
+   * Returns the top-level statements that {@link #parse()} sets properties from, in the order they appear in the file.
+   * This method REQUIRES read access.
+   */
+  @NotNull
+  List<PsiElement> getTopLevelStatements();
+
+  /**
+   * Returns the names of the {@link GradleDslFile} properties and variables that the given top-level statement sets, or null if it can set
+   * any of them. This method REQUIRES read access.
+   */
+  @Nullable
+  Collection<String> getTopLevelNames(@NotNull PsiElement statement);
+
+  /**
+   * Sets the properties obtained from the given top-level statement onto the {@link GradleDslFile}. This method REQUIRES read access.
+   */
+  void parse(@NotNull PsiElement statement);
+
   /**
    * Converts a given {@link Object} to the language specific {@link PsiElement}, this method is used to convert newly set or parsed values.
    * This method does NOT REQUIRE read access.
@@ -79,6 +99,21 @@ public interface GradleDslParser {
     @Override
     public void parse() { }
 
+    @Override
+    @NotNull
+    public List<PsiElement> getTopLevelStatements() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    @Nullable
+    public Collection<String> getTopLevelNames(@NotNull PsiElement statement) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void parse(@NotNull PsiElement statement) { }
+
     @Override
     @Nullable
     public PsiElement convertToPsiElement(@NotNull Object literal) {
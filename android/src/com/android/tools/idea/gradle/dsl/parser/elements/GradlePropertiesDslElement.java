@@ -474,4 +474,47 @@ public abstract class GradlePropertiesDslElement extends GradleDslElement {
     myProperties.clear();
     myVariables.clear();
   }
+
+  /**
+   * Returns the names of the parsed properties, in the order they were first set.
+   */
+  @NotNull
+  protected Set<String> getParsedPropertyNames() {
+    return Collections.unmodifiableSet(myProperties.keySet());
+  }
+
+  /**
+   * Returns the names of the parsed properties and variables, in the order they were first set.
+   */
+  @NotNull
+  protected Set<String> getParsedVariableNames() {
+    return Collections.unmodifiableSet(myVariables.keySet());
+  }
+
+  /**
+   * Removes the parsed properties and variables with the given names, so that they can be parsed again.
+   */
+  protected void removeParsedElements(@NotNull Collection<String> names) {
+    for (String name : names) {
+      removePropertyInternal(name);
+    }
+  }
+
+  /**
+   * Reorders the parsed properties and variables, keeping the current order of those the given orders consider equal.
+   */
+  protected void sortParsedElements(@NotNull Comparator<String> propertyOrder, @NotNull Comparator<String> variableOrder) {
+    sortByName(myProperties, propertyOrder);
+    sortByName(myVariables, variableOrder);
+  }
+
+  private static void sortByName(@NotNull Map<String, GradleDslElement> elements, @NotNull Comparator<String> order) {
+    List<String> names = new ArrayList<>(elements.keySet());
+    names.sort(order);
+    Map<String, GradleDslElement> unsortedElements = new HashMap<>(elements);
+    elements.clear();
+    for (String name : names) {
+      elements.put(name, unsortedElements.get(name));
+    }
+  }
 }
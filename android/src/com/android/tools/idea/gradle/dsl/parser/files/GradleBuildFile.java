@@ -22,10 +22,12 @@ import com.android.tools.idea.gradle.dsl.parser.elements.GradleDslExpressionMap;
 import com.android.tools.idea.gradle.dsl.parser.elements.GradleDslLiteral;
 import com.android.tools.idea.gradle.dsl.parser.elements.GradleDslReference;
 import com.android.tools.idea.gradle.dsl.parser.java.JavaDslElement;
+import com.google.common.collect.ImmutableList;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
 import java.util.Map;
 
 import static com.android.tools.idea.gradle.dsl.parser.apply.ApplyDslElement.APPLY_BLOCK_NAME;
@@ -68,4 +70,14 @@ public class GradleBuildFile extends GradleDslFile {
     }
     super.setParsedElement(property, element);
   }
+
+  @Override
+  @NotNull
+  protected Collection<String> getParsedElementNames(@NotNull String property) {
+    if (SOURCE_COMPATIBILITY_ATTRIBUTE_NAME.equals(property) || TARGET_COMPATIBILITY_ATTRIBUTE_NAME.equals(property)) {
+      // See setParsedElement
+      return ImmutableList.of(property, JAVA_BLOCK_NAME);
+    }
+    return super.getParsedElementNames(property);
+  }
 }
@@ -17,15 +17,19 @@ package com.android.tools.idea.gradle.dsl.parser.files;
 
 import com.android.tools.idea.gradle.dsl.parser.GradleDslParser;
 import com.android.tools.idea.gradle.dsl.parser.GradleDslWriter;
+import com.android.tools.idea.gradle.dsl.parser.build.SubProjectsDslElement;
 import com.android.tools.idea.gradle.dsl.parser.elements.GradlePropertiesDslElement;
 import com.android.tools.idea.gradle.dsl.parser.groovy.GroovyDslParser;
 import com.android.tools.idea.gradle.dsl.parser.groovy.GroovyDslWriter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import org.jetbrains.annotations.NotNull;
@@ -33,9 +37,9 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.plugins.groovy.lang.psi.GroovyFile;
 
 import java.io.File;
-import java.util.Collection;
-import java.util.Set;
+import java.util.*;
 
+import static com.android.tools.idea.gradle.dsl.parser.build.SubProjectsDslElement.SUBPROJECTS_BLOCK_NAME;
 import static com.intellij.openapi.vfs.VfsUtilCore.virtualToIoFile;
 
 /**
@@ -51,6 +55,9 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
   @Nullable private GradleDslFile myParentModuleDslFile;
   @Nullable private GradleDslFile mySiblingDslFile;
 
+  // The top-level statements of the last parse, in the order they appear in the file.
+  @NotNull private final Map<PsiElement, ParsedStatement> myParsedStatements = new LinkedHashMap<>();
+
   protected GradleDslFile(@NotNull VirtualFile file, @NotNull Project project, @NotNull String moduleName) {
     super(null, null, moduleName);
     myFile = file;
@@ -80,14 +87,146 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
   /**
    * Parses the gradle file again. This is a convenience method when an already parsed gradle file needs to be parsed again
    * (for example, after making changes to the PSI elements.)
+   *
+   * <p>Only the top-level blocks and properties set by statements that were added, removed or changed since the last parse are parsed
+   * again, the elements of the others are kept. Any change that was not applied is discarded.
    */
   public void reparse() {
-    clear();
-    parse();
+    if (!reparseChangedStatements()) {
+      clear();
+      parse();
+    }
   }
 
   public void parse() {
-    myGradleDslParser.parse();
+    myParsedStatements.clear();
+    for (PsiElement statement : myGradleDslParser.getTopLevelStatements()) {
+      myParsedStatements.put(statement, parseStatement(statement));
+    }
+  }
+
+  /**
+   * Parses again the statements setting the same top-level properties as the statements that changed since the last parse.
+   *
+   * @return false if the whole file needs to be parsed again instead
+   */
+  private boolean reparseChangedStatements() {
+    List<PsiElement> statements = myGradleDslParser.getTopLevelStatements();
+    Set<String> changedNames = new HashSet<>();
+    Set<PsiElement> unchangedStatements = new HashSet<>();
+    for (PsiElement statement : statements) {
+      ParsedStatement parsedStatement = myParsedStatements.get(statement);
+      if (parsedStatement != null && parsedStatement.myText.equals(statement.getText())) {
+        unchangedStatements.add(statement);
+        continue;
+      }
+      Set<String> names = getTopLevelNames(statement);
+      if (names == null) {
+        return false;
+      }
+      changedNames.addAll(names);
+    }
+    for (Map.Entry<PsiElement, ParsedStatement> entry : myParsedStatements.entrySet()) {
+      Set<String> names = entry.getValue().myNames;
+      if (names == null) {
+        // The statement may have set any property, they can't be told apart from the ones set by the other statements.
+        return false;
+      }
+      if (!unchangedStatements.contains(entry.getKey())) {
+        changedNames.addAll(names);
+      }
+    }
+    for (PsiElement statement : unchangedStatements) {
+      ParsedStatement parsedStatement = myParsedStatements.get(statement);
+      if (Collections.disjoint(parsedStatement.myNames, changedNames) && !parsedStatement.isDisjoint(changedNames)) {
+        // The statement added one of the properties to parse again without being expected to, so it would be lost.
+        return false;
+      }
+    }
+    if (!Collections.disjoint(changedNames, getInheritedNames())) {
+      // The properties set by the parent module would be lost, as they are when parsing the whole file.
+      return false;
+    }
+
+    reset();
+    removeParsedElements(changedNames);
+    Map<PsiElement, ParsedStatement> parsedStatements = new LinkedHashMap<>();
+    for (PsiElement statement : statements) {
+      ParsedStatement parsedStatement = myParsedStatements.get(statement);
+      if (!unchangedStatements.contains(statement) || !Collections.disjoint(parsedStatement.myNames, changedNames)) {
+        parsedStatement = parseStatement(statement);
+      }
+      parsedStatements.put(statement, parsedStatement);
+    }
+    myParsedStatements.clear();
+    myParsedStatements.putAll(parsedStatements);
+
+    // Keep the order of a full parse, where each property comes at the position of the first statement setting it.
+    Map<String, Integer> propertyPositions = new HashMap<>();
+    Map<String, Integer> variablePositions = new HashMap<>();
+    int position = 0;
+    for (ParsedStatement parsedStatement : myParsedStatements.values()) {
+      for (String name : parsedStatement.myAddedProperties) {
+        propertyPositions.putIfAbsent(name, position);
+      }
+      for (String name : parsedStatement.myAddedVariables) {
+        variablePositions.putIfAbsent(name, position);
+      }
+      position++;
+    }
+    // The properties of the parent module are set before the statements are parsed.
+    sortParsedElements(Comparator.comparingInt(name -> propertyPositions.getOrDefault(name, -1)),
+                       Comparator.comparingInt(name -> variablePositions.getOrDefault(name, -1)));
+    return true;
+  }
+
+  @NotNull
+  private ParsedStatement parseStatement(@NotNull PsiElement statement) {
+    int propertyCount = getParsedPropertyNames().size();
+    int variableCount = getParsedVariableNames().size();
+    myGradleDslParser.parse(statement);
+    return new ParsedStatement(statement.getText(), getTopLevelNames(statement),
+                               ImmutableSet.copyOf(Iterables.skip(getParsedPropertyNames(), propertyCount)),
+                               ImmutableSet.copyOf(Iterables.skip(getParsedVariableNames(), variableCount)));
+  }
+
+  @Nullable
+  private Set<String> getTopLevelNames(@NotNull PsiElement statement) {
+    Collection<String> names = myGradleDslParser.getTopLevelNames(statement);
+    if (names == null) {
+      return null;
+    }
+    Set<String> topLevelNames = new HashSet<>();
+    for (String name : names) {
+      topLevelNames.addAll(getParsedElementNames(name));
+    }
+    return topLevelNames;
+  }
+
+  /**
+   * Returns the names of the properties that the parsed elements of the given top-level property can be stored under.
+   */
+  @NotNull
+  protected Collection<String> getParsedElementNames(@NotNull String property) {
+    return Collections.singletonList(property);
+  }
+
+  /**
+   * Returns the names of the properties that are copied from the {@code subprojects} block of the parent module before parsing.
+   */
+  @NotNull
+  private Set<String> getInheritedNames() {
+    if (myParentModuleDslFile == null) {
+      return Collections.emptySet();
+    }
+    SubProjectsDslElement subProjectsDslElement =
+      myParentModuleDslFile.getPropertyElement(SUBPROJECTS_BLOCK_NAME, SubProjectsDslElement.class);
+    if (subProjectsDslElement == null) {
+      return Collections.emptySet();
+    }
+    Set<String> names = new HashSet<>(subProjectsDslElement.getPropertyElements().keySet());
+    names.add(SUBPROJECTS_BLOCK_NAME);
+    return names;
   }
 
   @NotNull
@@ -148,4 +287,25 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
   public GradleDslParser getParser() {
     return myGradleDslParser;
   }
+
+  private static class ParsedStatement {
+    @NotNull private final String myText;
+    @Nullable private final Set<String> myNames;
+    @NotNull private final Set<String> myAddedProperties;
+    @NotNull private final Set<String> myAddedVariables;
+
+    ParsedStatement(@NotNull String text,
+                    @Nullable Set<String> names,
+                    @NotNull Set<String> addedProperties,
+                    @NotNull Set<String> addedVariables) {
+      myText = text;
+      myNames = names;
+      myAddedProperties = addedProperties;
+      myAddedVariables = addedVariables;
+    }
+
+    boolean isDisjoint(@NotNull Collection<String> names) {
+      return Collections.disjoint(myAddedProperties, names) && Collections.disjoint(myAddedVariables, names);
+    }
+  }
 }
@@ -132,35 +132,91 @@ public class GroovyDslParser implements GradleDslParser {
 
   @Override
   public void parse() {
+    for (PsiElement statement : getTopLevelStatements()) {
+      parse(statement);
+    }
+  }
+
+  @Override
+  @NotNull
+  public List<PsiElement> getTopLevelStatements() {
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
+    List<PsiElement> statements = new ArrayList<>();
     myPsiFile.acceptChildren(new GroovyPsiElementVisitor(new GroovyElementVisitor() {
       @Override
       public void visitMethodCallExpression(@NotNull GrMethodCallExpression e) {
-        process(e);
+        statements.add(e);
       }
 
       @Override
       public void visitAssignmentExpression(@NotNull GrAssignmentExpression e) {
-        process(e);
+        statements.add(e);
       }
 
       @Override
       public void visitApplicationStatement(@NotNull GrApplicationStatement e) {
-        process(e);
+        statements.add(e);
       }
 
       @Override
       public void visitVariableDeclaration(@NotNull GrVariableDeclaration e) {
-        process(e);
+        statements.add(e);
       }
+    }));
+    return statements;
+  }
 
-      void process(GroovyPsiElement e) {
-        if (!parse(e, myDslFile)) {
-          Logger.getInstance(this.getClass()).info("GroovyDslParser failed at parsing file: " + myPsiFile.getName());
+  @Override
+  @Nullable
+  public Collection<String> getTopLevelNames(@NotNull PsiElement statement) {
+    ApplicationManager.getApplication().assertReadAccessAllowed();
+
+    if (statement instanceof GrVariableDeclaration) {
+      List<String> names = new ArrayList<>();
+      for (GrVariable variable : ((GrVariableDeclaration)statement).getVariables()) {
+        if (variable != null) {
+          names.add(variable.getName());
         }
       }
-    }));
+      return names;
+    }
+
+    // The name is found the same way as the parse methods below do.
+    GrReferenceExpression referenceExpression = null;
+    if (statement instanceof GrMethodCallExpression) {
+      referenceExpression = findChildOfType(statement, GrReferenceExpression.class);
+    }
+    else if (statement instanceof GrApplicationStatement) {
+      referenceExpression = getChildOfType(statement, GrReferenceExpression.class);
+    }
+    String name = null;
+    if (referenceExpression != null) {
+      name = referenceExpression.getText();
+    }
+    else if (statement instanceof GrAssignmentExpression) {
+      name = ((GrAssignmentExpression)statement).getLValue().getText();
+    }
+    if (isEmpty(name)) {
+      return Collections.emptyList();
+    }
+
+    String topLevelName = Splitter.on('.').splitToList(name).get(0).trim();
+    if (topLevelName.equals("allprojects")) {
+      // The "allprojects" closure is also applied to this project, so it can set any property of the file.
+      return null;
+    }
+    String projectKey = ProjectPropertiesDslElement.getStandardProjectKey(topLevelName);
+    return Collections.singletonList(projectKey != null ? projectKey : topLevelName);
+  }
+
+  @Override
+  public void parse(@NotNull PsiElement statement) {
+    ApplicationManager.getApplication().assertReadAccessAllowed();
+
+    if (!parse(statement, myDslFile)) {
+      Logger.getInstance(getClass()).info("GroovyDslParser failed at parsing file: " + myPsiFile.getName());
+    }
   }
 
   @Override
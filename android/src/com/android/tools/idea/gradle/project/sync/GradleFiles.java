@@ -20,10 +20,14 @@ import com.android.annotations.concurrency.GuardedBy;
 import com.android.tools.idea.gradle.project.model.NdkModuleModel;
 import com.android.tools.idea.gradle.util.GradleWrapper;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.intellij.concurrency.JobLauncher;
 import com.intellij.lang.properties.PropertiesFileType;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.*;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.fileEditor.FileEditorManagerListener;
 import com.intellij.openapi.module.Module;
@@ -33,6 +37,9 @@ import com.intellij.openapi.startup.StartupManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.psi.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,14 +47,25 @@ import org.jetbrains.plugins.groovy.GroovyFileType;
 import org.jetbrains.plugins.groovy.lang.lexer.GroovyTokenTypes;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.android.SdkConstants.*;
 import static com.android.tools.idea.Projects.getBaseDirPath;
 import static com.android.tools.idea.gradle.util.GradleUtil.getGradleBuildFile;
 import static com.intellij.openapi.vfs.VfsUtil.findFileByIoFile;
 
-public class GradleFiles {
+/**
+ * Keeps track of the Gradle files modified since the last successful sync, by comparing a digest of their contents with the one taken
+ * when that sync started. While a sync is in progress the files are compared with the digests taken when it started, and if it fails
+ * the digests of the last successful sync are used again. Those are stored with the project, so that the files modified or deleted
+ * while the project was closed (e.g. by switching branches) are still known after it is reopened.
+ */
+@State(name = "GradleFiles", storages = @Storage(StoragePathMacros.WORKSPACE_FILE))
+public class GradleFiles implements PersistentStateComponent<GradleFiles.SyncedFileHashes> {
   @NotNull private final Project myProject;
 
   @NotNull private final Object myLock = new Object();
@@ -62,7 +80,39 @@ public class GradleFiles {
 
   @GuardedBy("myLock")
   @NotNull
-  private final Map<VirtualFile, Integer> myFileHashes = new HashMap<>();
+  private final Map<VirtualFile, String> myFileHashes = new HashMap<>();
+
+  /**
+   * The URLs of the files of the last successful sync that no longer exist.
+   */
+  @GuardedBy("myLock")
+  @NotNull
+  private final Set<String> myDeletedFileUrls = new HashSet<>();
+
+  /**
+   * The digests the files were compared with before the sync in progress started, restored if it does not succeed.
+   */
+  @GuardedBy("myLock")
+  @Nullable
+  private Map<VirtualFile, String> myFileHashesBeforeSync;
+
+  @GuardedBy("myLock")
+  @Nullable
+  private Set<String> myDeletedFileUrlsBeforeSync;
+
+  /**
+   * The digests taken when the sync in progress started, by file URL.
+   */
+  @GuardedBy("myLock")
+  @Nullable
+  private Map<String, String> myStartedSyncFileHashes;
+
+  /**
+   * The digests taken when the last successful sync started, by file URL.
+   */
+  @GuardedBy("myLock")
+  @NotNull
+  private final Map<String, String> mySyncedFileHashes = new HashMap<>();
 
   @GuardedBy("myLock")
   @NotNull
@@ -77,7 +127,8 @@ public class GradleFiles {
     return ServiceManager.getService(project, GradleFiles.class);
   }
 
-  private GradleFiles(@NotNull Project project) {
+  @VisibleForTesting
+  GradleFiles(@NotNull Project project) {
     myProject = project;
 
     GradleFileChangeListener fileChangeListener = new GradleFileChangeListener(this);
@@ -106,11 +157,42 @@ public class GradleFiles {
     // Add a listener to see when gradle files are being edited.
     myProject.getMessageBus().connect().subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, myFileEditorListener);
 
+    // Add a listener to see when gradle files are changed on disk, e.g. when switching branches.
+    myProject.getMessageBus().connect().subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          VirtualFile file = event.getFile();
+          if (file != null && (hasHashForFile(file) || isGradleFileInProject(file))) {
+            addChangedFile(file, isExternalBuildFile(file));
+          }
+        }
+      }
+    });
+
 
     GradleSyncState.subscribe(myProject, mySyncListener);
     // Populate build file hashes on creation.
     if (!myProject.isDefault()) {
-      StartupManager.getInstance(myProject).runWhenProjectIsInitialized(this::updateFileHashes);
+      StartupManager.getInstance(myProject).runWhenProjectIsInitialized(this::initializeFileHashes);
+    }
+  }
+
+  @NotNull
+  @Override
+  public SyncedFileHashes getState() {
+    SyncedFileHashes state = new SyncedFileHashes();
+    synchronized (myLock) {
+      state.fileHashes.putAll(mySyncedFileHashes);
+    }
+    return state;
+  }
+
+  @Override
+  public void loadState(@NotNull SyncedFileHashes state) {
+    synchronized (myLock) {
+      mySyncedFileHashes.clear();
+      mySyncedFileHashes.putAll(state.fileHashes);
     }
   }
 
@@ -127,7 +209,6 @@ public class GradleFiles {
     return myFileEditorListener;
   }
 
-  @VisibleForTesting
   boolean hasHashForFile(@NotNull VirtualFile file) {
     synchronized (myLock) {
       return myFileHashes.containsKey(file);
@@ -138,6 +219,7 @@ public class GradleFiles {
     synchronized (myLock) {
       myChangedFiles.clear();
       myChangedExternalFiles.clear();
+      myDeletedFileUrls.clear();
     }
   }
 
@@ -152,14 +234,14 @@ public class GradleFiles {
     }
   }
 
-  private void putHashForFile(@NotNull Map<VirtualFile, Integer> map, @NotNull VirtualFile file) {
-    Integer hash = computeHash(file);
+  private static void putHashForFile(@NotNull Map<VirtualFile, String> map, @NotNull VirtualFile file) {
+    String hash = computeHash(file);
     if (hash != null) {
       map.put(file, hash);
     }
   }
 
-  private void storeHashesForFiles(@NotNull Map<VirtualFile, Integer> files) {
+  private void storeHashesForFiles(@NotNull Map<VirtualFile, String> files) {
     synchronized (myLock) {
       myFileHashes.clear();
       myFileHashes.putAll(files);
@@ -167,12 +249,10 @@ public class GradleFiles {
   }
 
   /**
-   * Gets the hash value for a given file from the map and stores the value as the first element
-   * in hashValue. If this method returns false then the file was not in the map and the value
-   * in hashValue should be ignored.
+   * Gets the hash value stored for a given file, or {@code null} if the file has no stored hash.
    */
   @Nullable
-  private Integer getStoredHashForFile(@NotNull VirtualFile file) {
+  private String getStoredHashForFile(@NotNull VirtualFile file) {
     synchronized (myLock) {
       return myFileHashes.get(file);
     }
@@ -197,23 +277,58 @@ public class GradleFiles {
   }
 
   /**
-   * Computes a hash for a given {@code VirtualFile} by using the string obtained from its {@code PsiFile},
-   * and stores it as the first element in hashValue. If this method returns false the hash was not computed
-   * and its value should not be used.
+   * Computes a SHA-256 digest of the text of a given {@code VirtualFile}, reading it from its document if the file is being edited, or
+   * else streaming it from the file, with line separators converted the way the document would. Returns {@code null} if the file
+   * cannot be read.
    */
   @Nullable
-  private Integer computeHash(@NotNull VirtualFile file) {
-    PsiFile psiFile = PsiManager.getInstance(myProject).findFile(file);
-
-    if (psiFile != null && psiFile.isValid()) {
-      return psiFile.getText().hashCode();
+  @VisibleForTesting
+  static String computeHash(@NotNull VirtualFile file) {
+    if (!file.isValid()) {
+      return null;
+    }
+    Hasher hasher = Hashing.sha256().newHasher();
+    Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+    if (document != null) {
+      CharSequence text = document.getImmutableCharSequence();
+      for (int i = 0; i < text.length(); i++) {
+        hasher.putChar(text.charAt(i));
+      }
+      return hasher.hash().toString();
+    }
+
+    try (Reader reader = new InputStreamReader(file.getInputStream(), file.getCharset())) {
+      char[] buffer = new char[8192];
+      boolean first = true;
+      boolean afterCarriageReturn = false;
+      int count;
+      while ((count = reader.read(buffer)) > 0) {
+        for (int i = 0; i < count; i++) {
+          char c = buffer[i];
+          if (first) {
+            first = false;
+            if (c == '\uFEFF') {
+              // Byte order marks are not part of the document text
+              continue;
+            }
+          }
+          if (c == '\n' && afterCarriageReturn) {
+            afterCarriageReturn = false;
+            continue;
+          }
+          afterCarriageReturn = c == '\r';
+          hasher.putChar(afterCarriageReturn ? '\n' : c);
+        }
+      }
     }
-
-    return null;
+    catch (IOException e) {
+      return null;
+    }
+    return hasher.hash().toString();
   }
 
   private boolean areHashesEqual(@NotNull VirtualFile file) {
-    Integer oldHash = getStoredHashForFile(file);
+    String oldHash = getStoredHashForFile(file);
     return oldHash != null && oldHash.equals(computeHash(file));
   }
 
@@ -224,10 +339,32 @@ public class GradleFiles {
    */
   private boolean checkHashesOfChangedFiles() {
     synchronized (myLock) {
-      return filterHashes(myChangedFiles) && filterHashes(myChangedExternalFiles);
+      return filterHashes(myChangedFiles) && filterHashes(myChangedExternalFiles) && filterDeletedFiles();
     }
   }
 
+  /**
+   * Records the deleted files that exist again as changed, so that their contents are compared with the digests of the last successful
+   * sync. Returns true if none of the files of that sync are still deleted, false otherwise.
+   */
+  @GuardedBy("myLock")
+  private boolean filterDeletedFiles() {
+    Iterator<String> iterator = myDeletedFileUrls.iterator();
+    while (iterator.hasNext()) {
+      String url = iterator.next();
+      VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(url);
+      if (file != null && file.isValid()) {
+        String syncedHash = mySyncedFileHashes.get(url);
+        if (syncedHash != null) {
+          myFileHashes.put(file, syncedHash);
+        }
+        addChangedFile(file, isExternalBuildFile(file));
+        iterator.remove();
+      }
+    }
+    return myDeletedFileUrls.isEmpty();
+  }
+
   /**
    * Filters the files given removing any that have a hash matching the last one stored. Returns true if
    * the filtered collection is empty, false otherwise.
@@ -251,8 +388,61 @@ public class GradleFiles {
    * Updates the currently stored hashes for each of the gradle build files.
    */
   private void updateFileHashes() {
-    // Local map to minimize time holding myLock
-    Map<VirtualFile, Integer> fileHashes = new HashMap<>();
+    storeHashesForFiles(computeFileHashes());
+  }
+
+  /**
+   * Stores the hashes of the gradle build files when the project is opened. If the hashes of the last successful sync were stored with
+   * the project, the files whose contents changed since then are recorded as changed, and the files that no longer exist as deleted.
+   */
+  @VisibleForTesting
+  void initializeFileHashes() {
+    Map<VirtualFile, String> fileHashes = computeFileHashes();
+    Map<String, String> syncedFileHashes;
+    synchronized (myLock) {
+      syncedFileHashes = new HashMap<>(mySyncedFileHashes);
+    }
+    if (syncedFileHashes.isEmpty()) {
+      storeHashesForFiles(fileHashes);
+      return;
+    }
+
+    Map<VirtualFile, String> storedHashes = new HashMap<>();
+    for (Map.Entry<VirtualFile, String> entry : fileHashes.entrySet()) {
+      VirtualFile file = entry.getKey();
+      String syncedHash = syncedFileHashes.remove(file.getUrl());
+      if (syncedHash != null) {
+        storedHashes.put(file, syncedHash);
+      }
+      if (!entry.getValue().equals(syncedHash)) {
+        addChangedFile(file, isExternalBuildFile(file));
+      }
+    }
+    // The remaining files of the last successful sync are no longer Gradle files of the project, or no longer exist
+    Set<String> deletedFileUrls = new HashSet<>();
+    for (Map.Entry<String, String> entry : syncedFileHashes.entrySet()) {
+      VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(entry.getKey());
+      if (file != null && file.isValid()) {
+        storedHashes.put(file, entry.getValue());
+        addChangedFile(file, isExternalBuildFile(file));
+      }
+      else {
+        deletedFileUrls.add(entry.getKey());
+      }
+    }
+    synchronized (myLock) {
+      storeHashesForFiles(storedHashes);
+      myDeletedFileUrls.addAll(deletedFileUrls);
+    }
+  }
+
+  /**
+   * Computes the hashes of each of the gradle build files.
+   */
+  @NotNull
+  private Map<VirtualFile, String> computeFileHashes() {
+    // Local map to minimize time holding myLock, filled concurrently
+    Map<VirtualFile, String> fileHashes = new ConcurrentHashMap<>();
     GradleWrapper gradleWrapper = GradleWrapper.find(myProject);
     if (gradleWrapper != null) {
       File propertiesFilePath = gradleWrapper.getPropertiesFilePath();
@@ -266,7 +456,7 @@ public class GradleFiles {
 
     // Clean external build files before they are repopulated.
     removeExternalBuildFiles();
-    List<VirtualFile> externalBuildFiles = new ArrayList<>();
+    List<VirtualFile> externalBuildFiles = Collections.synchronizedList(new ArrayList<>());
 
     List<Module> modules = Lists.newArrayList(ModuleManager.getInstance(myProject).getModules());
     JobLauncher jobLauncher = JobLauncher.getInstance();
@@ -310,7 +500,7 @@ public class GradleFiles {
       }
     }
 
-    storeHashesForFiles(fileHashes);
+    return fileHashes;
   }
 
   /**
@@ -330,6 +520,38 @@ public class GradleFiles {
     return ApplicationManager.getApplication().runReadAction((Computable<Boolean>)() -> !checkHashesOfChangedFiles());
   }
 
+  /**
+   * Returns the Gradle files and external build files whose contents changed since last sync, including the ones changed while the
+   * project was closed. The files of the last successful sync that no longer exist are returned by {@link #getDeletedFileUrls()}.
+   */
+  @NotNull
+  public Set<VirtualFile> getModifiedFiles() {
+    return ApplicationManager.getApplication().runReadAction((Computable<Set<VirtualFile>>)() -> {
+      synchronized (myLock) {
+        filterDeletedFiles();
+        filterHashes(myChangedFiles);
+        filterHashes(myChangedExternalFiles);
+        Set<VirtualFile> modifiedFiles = new HashSet<>(myChangedFiles);
+        modifiedFiles.addAll(myChangedExternalFiles);
+        return modifiedFiles;
+      }
+    });
+  }
+
+  /**
+   * Returns the URLs of the Gradle files and external build files of the last successful sync that were deleted while the project was
+   * closed and do not exist again.
+   */
+  @NotNull
+  public Set<String> getDeletedFileUrls() {
+    return ApplicationManager.getApplication().runReadAction((Computable<Set<String>>)() -> {
+      synchronized (myLock) {
+        filterDeletedFiles();
+        return new HashSet<>(myDeletedFileUrls);
+      }
+    });
+  }
+
   public boolean areExternalBuildFilesModified() {
     return ApplicationManager.getApplication().runReadAction((Computable<Boolean>)() -> {
       synchronized (myLock) {
@@ -356,9 +578,34 @@ public class GradleFiles {
   }
 
   public boolean isExternalBuildFile(@NotNull PsiFile psiFile) {
+    return isExternalBuildFile(psiFile.getVirtualFile());
+  }
+
+  private boolean isExternalBuildFile(@Nullable VirtualFile file) {
     synchronized (myLock) {
-      return myExternalBuildFiles.contains(psiFile.getVirtualFile());
+      return myExternalBuildFiles.contains(file);
+    }
+  }
+
+  /**
+   * Indicates whether the given file is, by its name, a Gradle file of this project. Unlike {@link #isGradleFile(PsiFile)}, this
+   * does not need the PSI of the file, which may not exist any more.
+   */
+  private boolean isGradleFileInProject(@NotNull VirtualFile file) {
+    String name = file.getName();
+    if (!EXT_GRADLE.equals(file.getExtension()) && !FN_GRADLE_PROPERTIES.equals(name) && !FN_GRADLE_WRAPPER_PROPERTIES.equals(name)) {
+      return false;
     }
+    VirtualFile baseDir = myProject.getBaseDir();
+    return baseDir != null && VfsUtilCore.isAncestor(baseDir, file, true);
+  }
+
+  /**
+   * The digests of the Gradle files taken when the last successful sync started, stored with the project.
+   */
+  public static class SyncedFileHashes {
+    // Key: file URL. Value: SHA-256 digest of the text of the file.
+    @NotNull public Map<String, String> fileHashes = new HashMap<>();
   }
 
   /**
@@ -376,6 +623,13 @@ public class GradleFiles {
         return;
       }
 
+      synchronized (myLock) {
+        if (myFileHashesBeforeSync == null) {
+          myFileHashesBeforeSync = new HashMap<>(myFileHashes);
+          myDeletedFileUrlsBeforeSync = new HashSet<>(myDeletedFileUrls);
+        }
+      }
+
       if (ApplicationManager.getApplication().isReadAccessAllowed()) {
         updateFileHashes();
         removeChangedFiles();
@@ -386,6 +640,66 @@ public class GradleFiles {
           removeChangedFiles();
         });
       }
+
+      synchronized (myLock) {
+        myStartedSyncFileHashes = new HashMap<>();
+        myFileHashes.forEach((file, hash) -> myStartedSyncFileHashes.put(file.getUrl(), hash));
+      }
+    }
+
+    @Override
+    public void syncSucceeded(@NotNull Project project) {
+      if (!project.equals(myProject)) {
+        return;
+      }
+      // Only keep the hashes of a successful sync, so that reopening the project after a failed sync still shows it needs a sync
+      synchronized (myLock) {
+        if (myStartedSyncFileHashes != null) {
+          mySyncedFileHashes.clear();
+          mySyncedFileHashes.putAll(myStartedSyncFileHashes);
+          myStartedSyncFileHashes = null;
+        }
+        myFileHashesBeforeSync = null;
+        myDeletedFileUrlsBeforeSync = null;
+      }
+    }
+
+    @Override
+    public void syncFailed(@NotNull Project project, @NotNull String errorMessage) {
+      if (project.equals(myProject)) {
+        restoreFileHashesBeforeSync();
+      }
+    }
+
+    @Override
+    public void syncSkipped(@NotNull Project project) {
+      // The models were loaded from the cache of the last successful sync
+      if (project.equals(myProject)) {
+        restoreFileHashesBeforeSync();
+      }
+    }
+
+    /**
+     * Compares the files with the digests used before the sync that did not succeed again, recording as changed both the files it
+     * started with and the ones compared before.
+     */
+    private void restoreFileHashesBeforeSync() {
+      synchronized (myLock) {
+        myStartedSyncFileHashes = null;
+        if (myFileHashesBeforeSync == null || myDeletedFileUrlsBeforeSync == null) {
+          return;
+        }
+        Set<VirtualFile> files = new HashSet<>(myFileHashes.keySet());
+        files.addAll(myFileHashesBeforeSync.keySet());
+        myFileHashes.clear();
+        myFileHashes.putAll(myFileHashesBeforeSync);
+        myDeletedFileUrls.addAll(myDeletedFileUrlsBeforeSync);
+        for (VirtualFile file : files) {
+          addChangedFile(file, isExternalBuildFile(file));
+        }
+        myFileHashesBeforeSync = null;
+        myDeletedFileUrlsBeforeSync = null;
+      }
     }
   }
 
@@ -26,6 +26,7 @@ import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.xml.*;
+import com.intellij.xml.util.XmlTagUtil;
 import com.intellij.util.containers.HashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -38,9 +39,10 @@ import java.util.Map;
 /**
  * Converter which takes a PSI hierarchy for an XML file or document, and
  * creates a corresponding W3C DOM tree. It attempts to delegate as much
- * as possible to the original PSI tree. Note also that the {@link #getTextRange(Node)}}
- * method allows us to look up source offsets for the DOM nodes (which plain XML
- * DOM parsers do not).
+ * as possible to the original PSI tree: DOM nodes are only created when lint traverses
+ * into them and read their names and values from PSI on demand. Note also that the
+ * {@link #getTextRange(Node)}} method allows us to look up source offsets for the DOM
+ * nodes (which plain XML DOM parsers do not).
  * <p>
  * NOTE: The tree may not be semantically equivalent to the XML PSI structure; this
  * converter only attempts to make the DOM correct as far as Lint cares (meaning that it
@@ -159,13 +161,7 @@ class DomPsiConverter {
     // For elements and attributes, don't highlight the entire element range; instead, just
     // highlight the element name
     if (node.getNodeType() == Node.ELEMENT_NODE && element instanceof XmlTag) {
-      String tag = node.getNodeName();
-      int index = element.getText().indexOf(tag);
-      if (index != -1) {
-        TextRange textRange = element.getTextRange();
-        int start = textRange.getStartOffset() + index;
-        return new TextRange(start, start + tag.length());
-      }
+      return ((DomElement)domNode).getNameRange();
     } else if (node.getNodeType() == Node.ATTRIBUTE_NODE && element instanceof XmlAttribute) {
       XmlElement nameElement = ((XmlAttribute)element).getNameElement();
       if (nameElement != null) {
@@ -297,62 +293,92 @@ class DomPsiConverter {
     }
   }
 
+  /**
+   * Read-only attribute map. The DOM attributes are only created for the attributes that are looked up, and the maps used for
+   * looking them up by name are only built the first time they are needed.
+   */
   private static class DomNamedNodeMap implements NamedNodeMap {
-    @NotNull protected final Map<String, DomNode> myMap;
-    @NotNull protected final Map<String, Map<String, DomNode>> myNsMap;
-    @NotNull protected final List<DomNode> mItems;
+    @NotNull private final DomElement myElement;
+    @NotNull private final XmlAttribute[] myPsiAttributes;
+    @NotNull private final DomAttr[] myAttributes;
+    @Nullable private Map<String, Integer> myMap;
+    @Nullable private Map<String, Map<String, Integer>> myNsMap;
 
     private DomNamedNodeMap(@NotNull DomElement element, @NotNull XmlAttribute[] attributes) {
-      int count = attributes.length;
-      int namespaceCount = 0;
-      for (XmlAttribute attribute : attributes) {
-        if (!attribute.getNamespace().isEmpty()) {
-          namespaceCount++;
-        }
+      assert element.myOwner != null; // True for elements, not true for non-Element nodes
+      myElement = element;
+      myPsiAttributes = attributes;
+      myAttributes = new DomAttr[attributes.length];
+    }
+
+    private void initMaps() {
+      Application application = ApplicationManager.getApplication();
+      if (!application.isReadAccessAllowed()) {
+        application.runReadAction(this::initMaps);
+        return;
       }
-      myMap = new HashMap<>(count - namespaceCount);
-      myNsMap = new HashMap<>(namespaceCount);
-      mItems = new ArrayList<>(count);
 
-      assert element.myOwner != null; // True for elements, not true for non-Element nodes
-      for (XmlAttribute attribute : attributes) {
-        DomAttr attr = new DomAttr(element.myOwner, element, attribute);
-        mItems.add(attr);
+      Map<String, Integer> map = new HashMap<>();
+      Map<String, Map<String, Integer>> nsMap = new HashMap<>();
+      for (int i = 0; i < myPsiAttributes.length; i++) {
+        XmlAttribute attribute = myPsiAttributes[i];
         String namespace = attribute.getNamespace();
         if (!namespace.isEmpty()) {
-          Map<String, DomNode> map = myNsMap.get(namespace);
-          if (map == null) {
-            map = new HashMap<>();
-            myNsMap.put(namespace, map);
-          }
-          map.put(attribute.getLocalName(), attr);
+          nsMap.computeIfAbsent(namespace, key -> new HashMap<>()).put(attribute.getLocalName(), i);
         } else {
-          myMap.put(attribute.getName(), attr);
+          map.put(attribute.getName(), i);
         }
       }
+      myNsMap = nsMap;
+      myMap = map;
+    }
+
+    @Nullable
+    private DomAttr getAttribute(@Nullable Integer index) {
+      if (index == null) {
+        return null;
+      }
+      DomAttr attr = myAttributes[index];
+      if (attr == null) {
+        assert myElement.myOwner != null;
+        attr = new DomAttr(myElement.myOwner, myElement, myPsiAttributes[index]);
+        myAttributes[index] = attr;
+      }
+      return attr;
     }
 
     @Override
     public Node item(int i) {
-      return mItems.get(i);
+      if (i < 0 || i >= myPsiAttributes.length) {
+        return null;
+      }
+      return getAttribute(i);
     }
 
     @Override
     public int getLength() {
-      return mItems.size();
+      return myPsiAttributes.length;
     }
 
     @Override
     public Node getNamedItem(@NotNull String s) {
-      return myMap.get(s);
+      if (myMap == null) {
+        initMaps();
+      }
+      assert myMap != null;
+      return getAttribute(myMap.get(s));
     }
 
     @Nullable
     @Override
     public Node getNamedItemNS(@NotNull String namespace, @NotNull String name) throws DOMException {
-      Map<String, DomNode> map = myNsMap.get(namespace);
+      if (myNsMap == null) {
+        initMaps();
+      }
+      assert myNsMap != null;
+      Map<String, Integer> map = myNsMap.get(namespace);
       if (map != null) {
-        return map.get(name);
+        return getAttribute(map.get(name));
       }
       return null;
     }
@@ -390,6 +416,7 @@ class DomPsiConverter {
     @Nullable protected DomNodeList myChildren;
     @Nullable protected DomNode myNext;
     @Nullable protected DomNode myPrevious;
+    @Nullable private TextRange myTextRange;
 
     protected DomNode(@Nullable Document owner, @Nullable DomNode parent, @NotNull XmlElement element) {
       myOwner = owner;
@@ -656,8 +683,12 @@ class DomPsiConverter {
       throw new UnsupportedOperationException(); // Read-only bridge
     }
 
+    /** Returns the range of the PSI element. The range is computed once, the PSI does not change while lint looks at the DOM. */
     public TextRange getTextRange() {
-      return myElement.getTextRange();
+      if (myTextRange == null) {
+        myTextRange = myElement.getTextRange();
+      }
+      return myTextRange;
     }
   }
 
@@ -900,6 +931,7 @@ class DomPsiConverter {
   private static class DomElement extends DomNode implements Element {
     private final XmlTag myTag;
     @Nullable private NamedNodeMap myAttributes;
+    @Nullable private TextRange myNameRange;
 
     private DomElement(@NotNull Document owner, @NotNull DomNode parent, @NotNull XmlTag tag) {
       super(owner, parent, tag);
@@ -955,6 +987,18 @@ class DomPsiConverter {
       return myAttributes;
     }
 
+    /**
+     * Returns the range of the tag name in the start tag, or the range of the whole tag if it has no name.
+     */
+    @NotNull
+    private TextRange getNameRange() {
+      if (myNameRange == null) {
+        XmlElement nameElement = XmlTagUtil.getStartTagNameElement(myTag);
+        myNameRange = nameElement != null ? nameElement.getTextRange() : getTextRange();
+      }
+      return myNameRange;
+    }
+
     // From org.w3c.dom.Element:
 
     @NotNull
@@ -83,6 +83,18 @@ public class LintIdeProject extends Project {
   /** Creates a set of projects for the given IntelliJ modules */
   @NonNull
   public static List<Project> create(@NonNull LintIdeClient client, @Nullable List<VirtualFile> files, @NonNull Module... modules) {
+    return create(client, files, Collections.emptySet(), modules);
+  }
+
+  /**
+   * Creates a set of projects for the given IntelliJ modules. The modules in {@code analyzedSeparately} that the given modules depend
+   * on are only included as libraries to reference: their sources and resources are not analyzed and their issues are not reported.
+   */
+  @NonNull
+  public static List<Project> create(@NonNull LintIdeClient client,
+                                     @Nullable List<VirtualFile> files,
+                                     @NonNull Set<Module> analyzedSeparately,
+                                     @NonNull Module... modules) {
     List<Project> projects = Lists.newArrayList();
 
     Map<Project,Module> projectMap = Maps.newHashMap();
@@ -93,7 +105,7 @@ public class LintIdeProject extends Project {
       files = Lists.newArrayList(files);
     }
     for (Module module : modules) {
-      addProjects(client, module, files, moduleMap, libraryMap, projectMap, projects);
+      addProjects(client, module, files, analyzedSeparately, moduleMap, libraryMap, projectMap, projects);
     }
 
     client.setModuleMap(projectMap);
@@ -210,6 +222,7 @@ public class LintIdeProject extends Project {
   private static void addProjects(@NonNull LintClient client,
                                   @NonNull Module module,
                                   @Nullable List<VirtualFile> files,
+                                  @NonNull Set<Module> analyzedSeparately,
                                   @NonNull Map<Module,Project> moduleMap,
                                   @NonNull Map<AndroidLibrary, Project> libraryMap,
                                   @NonNull Map<Project,Module> projectMap,
@@ -225,11 +238,14 @@ public class LintIdeProject extends Project {
       // project there will be a top-level non-Android module
       List<AndroidFacet> dependentFacets = AndroidUtils.getAllAndroidDependencies(module, false);
       for (AndroidFacet dependentFacet : dependentFacets) {
-        addProjects(client, dependentFacet.getModule(), files, moduleMap, libraryMap, projectMap, projects);
+        addProjects(client, dependentFacet.getModule(), files, analyzedSeparately, moduleMap, libraryMap, projectMap, projects);
       }
       return;
     }
 
+    if (analyzedSeparately.contains(module)) {
+      project.setAnalyzedSeparately();
+    }
     projects.add(project);
     moduleMap.put(module, project);
     projectMap.put(project, module);
@@ -248,7 +264,7 @@ public class LintIdeProject extends Project {
       if (p != null) {
         dependencies.add(p);
       } else {
-        addProjects(client, dependentFacet.getModule(), files, moduleMap, libraryMap, projectMap, dependencies);
+        addProjects(client, dependentFacet.getModule(), files, analyzedSeparately, moduleMap, libraryMap, projectMap, dependencies);
       }
     }
 
@@ -423,6 +439,19 @@ public class LintIdeProject extends Project {
       directLibraries = libraries;
     }
 
+    /**
+     * Marks this module as a library whose sources and resources are analyzed by another lint driver, such that the driver of a module
+     * using it only references it (e.g. for its manifest) instead of analyzing it again.
+     */
+    public void setAnalyzedSeparately() {
+      library = true;
+      reportIssues = false;
+      javaSourceFolders = Collections.emptyList();
+      generatedSourceFolders = Collections.emptyList();
+      testSourceFolders = Collections.emptyList();
+      resourceFolders = Collections.emptyList();
+    }
+
     private LintModuleProject(@NonNull LintClient client, @NonNull File dir, @NonNull File referenceDir, Module module) {
       super(client, dir, referenceDir);
       myModule = module;
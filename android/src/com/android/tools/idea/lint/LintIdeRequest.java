@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 public class LintIdeRequest extends LintRequest {
   @NonNull private final Project myProject;
@@ -36,6 +37,7 @@ public class LintIdeRequest extends LintRequest {
   @Nullable private final List<VirtualFile> myFileList;
   @Nullable private com.android.tools.lint.detector.api.Project myMainProject;
   private final boolean myIncremental;
+  @NonNull private Set<Module> myModulesAnalyzedSeparately = Collections.emptySet();
 
   /**
    * Creates a new {@linkplain LintIdeRequest}.
@@ -63,6 +65,14 @@ public class LintIdeRequest extends LintRequest {
     return myProject;
   }
 
+  /**
+   * Sets the modules analyzed by other lint drivers. When the modules of this request depend on them they are not analyzed again,
+   * only referenced as libraries.
+   */
+  public void setModulesAnalyzedSeparately(@NonNull Set<Module> modules) {
+    myModulesAnalyzedSeparately = modules;
+  }
+
   @Nullable
   @Override
   public EnumSet<Scope> getScope() {
@@ -100,7 +110,8 @@ public class LintIdeRequest extends LintRequest {
         // Make one project for each module, mark each one as a library,
         // and add projects for the gradle libraries and set error reporting to
         // false on those
-        projects = LintIdeProject.create(mLintClient, myFileList, myModules.toArray(new Module[myModules.size()]));
+        projects = LintIdeProject.create(mLintClient, myFileList, myModulesAnalyzedSeparately,
+                                        myModules.toArray(new Module[myModules.size()]));
       } else {
         projects = super.getProjects();
       }
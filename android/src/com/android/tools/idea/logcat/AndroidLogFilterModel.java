@@ -93,9 +93,17 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   }
 
   public final void updateLogcatFilter(@Nullable AndroidLogcatFilter filter) {
+    setLogcatFilter(filter);
+    fireTextFilterChange();
+  }
+
+  /**
+   * Like {@link #updateLogcatFilter(AndroidLogcatFilter)}, but without reprocessing the console
+   * contents, for callers which replay the matching messages themselves.
+   */
+  final void setLogcatFilter(@Nullable AndroidLogcatFilter filter) {
     saveConfiguredFilterName(filter != null ? filter.getName() : "");
     myConfiguredFilter = filter;
-    fireTextFilterChange();
   }
 
   protected abstract void saveConfiguredFilterName(String filterName);
@@ -32,7 +32,8 @@ import org.jetbrains.annotations.Nullable;
  * logcat console.
  *
  * This class expects the logcat format to be 'logcat -v long' (which prints out a header and then
- * 1+ lines of log text below, for each log message).
+ * 1+ lines of log text below, for each log message), or whole entries passed to
+ * {@link #processLogEntry(LogCatHeader, String)}.
  */
 public final class AndroidLogcatReceiver extends AndroidOutputReceiver implements Disposable {
 
@@ -77,7 +78,9 @@ public final class AndroidLogcatReceiver extends AndroidOutputReceiver implement
     // both external to Android Studio. In fact, the latest adb/logcat versions have already fixed
     // this issue! But we still need to run properly with older versions. Also, putting this fix in
     // MultilineReceiver isn't right either because it is used for more than just receiving logcat.
-    line = line.replaceAll("\\r", "");
+    if (line.indexOf('\r') >= 0) {
+      line = StringUtil.replace(line, "\r", "");
+    }
 
     if (line.isEmpty()) {
       myDelayedNewlineCount++;
@@ -109,6 +112,54 @@ public final class AndroidLogcatReceiver extends AndroidOutputReceiver implement
     }
   }
 
+  /**
+   * Processes a whole log entry that was already decoded, for example by a {@link BinaryLogcatReceiver}. The message is split into
+   * lines which go through the same newline handling and stack trace expansion as the text output.
+   */
+  void processLogEntry(@NotNull LogCatHeader header, @NotNull String message) {
+    myStackTraceExpander.reset();
+    myActiveHeader = header;
+    myLineIndex = 0;
+    myDelayedNewlineCount = 0;
+
+    // Like for the text output, drop leading and trailing newlines
+    int start = 0;
+    int end = message.length();
+    while (start < end && isNewline(message.charAt(start))) {
+      start++;
+    }
+    while (end > start && isNewline(message.charAt(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return;
+    }
+
+    while (start <= end) {
+      int lineEnd = message.indexOf('\n', start);
+      if (lineEnd < 0 || lineEnd > end) {
+        lineEnd = end;
+      }
+      String line = message.substring(start, lineEnd);
+      if (line.indexOf('\r') >= 0) {
+        line = StringUtil.replace(line, "\r", "");
+      }
+      if (line.isEmpty()) {
+        notifyLine(header, line);
+      }
+      else {
+        for (String processedLine : myStackTraceExpander.process(line)) {
+          notifyLine(header, processedLine);
+        }
+      }
+      start = lineEnd + 1;
+    }
+  }
+
+  private static boolean isNewline(char c) {
+    return c == '\n' || c == '\r';
+  }
+
   // This method is package protected so other Logcat components can feed receiver processed log lines if they need to
   void notifyLine(@NotNull LogCatHeader header, @NotNull String line) {
     myLogcatListener.onLogLineReceived(new LogCatMessage(header, line));
@@ -19,6 +19,7 @@ import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellEnabledDevice;
 import com.android.ddmlib.Log.LogLevel;
+import com.android.sdklib.AndroidVersion;
 import com.android.ddmlib.logcat.LogCatHeader;
 import com.android.ddmlib.logcat.LogCatMessage;
 import com.android.ddmlib.logcat.LogCatTimestamp;
@@ -57,26 +58,6 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     return Logger.getInstance(AndroidLogcatService.class);
   }
 
-  private static class LogcatBuffer {
-    private int myBufferSize;
-    private final LinkedList<LogCatMessage> myMessages = new LinkedList<>();
-
-    public void addMessage(@NotNull LogCatMessage message) {
-      myMessages.add(message);
-      myBufferSize += message.getMessage().length();
-      if (ConsoleBuffer.useCycleBuffer()) {
-        while (myBufferSize > ConsoleBuffer.getCycleBufferSize()) {
-          myBufferSize -= myMessages.removeFirst().getMessage().length();
-        }
-      }
-    }
-
-    @NotNull
-    public List<LogCatMessage> getMessages() {
-      return myMessages;
-    }
-  }
-
   public interface LogcatListener {
     default void onLogLineReceived(@NotNull LogCatMessage line) {
     }
@@ -91,11 +72,14 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
   private final Map<IDevice, List<LogcatListener>> myListeners = new HashMap<>();
 
   @GuardedBy("myLock")
-  private final Map<IDevice, LogcatBuffer> myLogBuffers = new HashMap<>();
+  private final Map<IDevice, LogcatRingBuffer> myLogBuffers = new HashMap<>();
 
   @GuardedBy("myLock")
   private final Map<IDevice, AndroidLogcatReceiver> myLogReceivers = new HashMap<>();
 
+  @GuardedBy("myLock")
+  private final Map<IDevice, LogcatMessageQueue> myMessageQueues = new HashMap<>();
+
   /**
    * This is a list of commands to execute per device. We use a newSingleThreadExecutor
    * to model a single queue of tasks to run, but that is poorly reflected in the
@@ -122,14 +106,32 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
       connect(device);
       final AndroidLogcatReceiver receiver = createReceiver(device);
       myLogReceivers.put(device, receiver);
-      myLogBuffers.put(device, new LogcatBuffer());
-      myExecutors.get(device).submit(() -> executeLogcatWithLongOutputFormat(device, receiver));
+      myLogBuffers.put(device, createBuffer());
+      myExecutors.get(device).submit(() -> executeLogcat(device, receiver));
     }
   }
 
-  private static void executeLogcatWithLongOutputFormat(@NotNull IShellEnabledDevice device, @NotNull AndroidLogcatReceiver receiver) {
+  @NotNull
+  private static LogcatRingBuffer createBuffer() {
+    // The cycle buffer size is a number of characters, which take two bytes each
+    return new LogcatRingBuffer(ConsoleBuffer.useCycleBuffer() ? 2L * ConsoleBuffer.getCycleBufferSize() : -1);
+  }
+
+  private static void executeLogcat(@NotNull IDevice device, @NotNull AndroidLogcatReceiver receiver) {
     try {
-      execute(device, "logcat -v long", receiver, Duration.ZERO);
+      if (supportsBinaryOutput(device)) {
+        BinaryLogcatReceiver binaryReceiver = new BinaryLogcatReceiver(device, receiver);
+        device.executeShellCommand("logcat -B", binaryReceiver, 0, TimeUnit.MILLISECONDS);
+        if (!binaryReceiver.isCorrupted() || receiver.isCancelled()) {
+          return;
+        }
+        // Fall back to the text output, skipping what was already received
+        getLog().info("Could not decode the binary logcat output of " + device.getName() + ", falling back to text output");
+        execute(device, binaryReceiver.getEntryCount() == 0 ? "logcat -v long" : "logcat -v long -T 1", receiver, Duration.ZERO);
+      }
+      else {
+        execute(device, "logcat -v long", receiver, Duration.ZERO);
+      }
     }
     catch (Exception exception) {
       String message = "Caught an exception when capturing logcat output from the device " + device.getName() + ". Receiving output from " +
@@ -140,24 +142,55 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     }
   }
 
+  /**
+   * The binary output of 'logcat -B' is only passed through unchanged by adb when the shell does not use a pty, which is the case
+   * for commands starting with Android N.
+   */
+  private static boolean supportsBinaryOutput(@NotNull IDevice device) {
+    AndroidVersion version = device.getVersion();
+    //noinspection ConstantConditions
+    return version != null && version.isGreaterOrEqualThan(AndroidVersion.VersionCodes.N);
+  }
+
   @NotNull
   private AndroidLogcatReceiver createReceiver(@NotNull final IDevice device) {
-    final LogcatListener logcatListener = new LogcatListener() {
-      @Override
-      public void onLogLineReceived(@NotNull LogCatMessage line) {
-        synchronized (myLock) {
-          if (myListeners.containsKey(device)) {
-            for (LogcatListener listener : myListeners.get(device)) {
+    // The thread reading logcat only queues the lines. They are added to the buffer and sent to the listeners in batches, from
+    // another thread, as long as this receiver is still the active one for the device.
+    AndroidLogcatReceiver[] receiver = new AndroidLogcatReceiver[1];
+    LogcatMessageQueue queue = new LogcatMessageQueue(lines -> {
+      synchronized (myLock) {
+        if (myLogReceivers.get(device) != receiver[0]) {
+          return;
+        }
+        List<LogcatListener> listeners = myListeners.get(device);
+        LogcatRingBuffer buffer = myLogBuffers.get(device);
+        for (LogCatMessage line : lines) {
+          if (listeners != null) {
+            for (LogcatListener listener : listeners) {
               listener.onLogLineReceived(line);
             }
           }
-          if (myLogBuffers.containsKey(device)) {
-            myLogBuffers.get(device).addMessage(line);
+          if (buffer != null) {
+            buffer.addMessage(line);
           }
         }
       }
+    });
+    myMessageQueues.put(device, queue);
+
+    final LogcatListener logcatListener = new LogcatListener() {
+      private boolean myReportedDrop;
+
+      @Override
+      public void onLogLineReceived(@NotNull LogCatMessage line) {
+        if (!queue.offer(line) && !myReportedDrop) {
+          myReportedDrop = true;
+          getLog().warn("Logcat listeners are falling behind, dropping lines: " + queue.getStatistics());
+        }
+      }
     };
-    return new AndroidLogcatReceiver(device, logcatListener);
+    receiver[0] = new AndroidLogcatReceiver(device, logcatListener);
+    return receiver[0];
   }
 
   private void connect(@NotNull IDevice device) {
@@ -185,6 +218,10 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
         myLogReceivers.get(device).cancel();
         myLogReceivers.remove(device);
         myLogBuffers.remove(device);
+        LogcatMessageQueue queue = myMessageQueues.remove(device);
+        if (queue != null && queue.getReceivedCount() > 0) {
+          getLog().info("Stopped receiving logcat: " + queue.getStatistics());
+        }
       }
     }
   }
@@ -249,9 +286,7 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
   public void addListener(@NotNull IDevice device, @NotNull LogcatListener listener, boolean addOldLogs) {
     synchronized (myLock) {
       if (addOldLogs && myLogBuffers.containsKey(device)) {
-        for (LogCatMessage line : myLogBuffers.get(device).getMessages()) {
-          listener.onLogLineReceived(line);
-        }
+        myLogBuffers.get(device).forEach(listener::onLogLineReceived);
       }
 
       if (!myListeners.containsKey(device)) {
@@ -266,6 +301,24 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     }
   }
 
+  /**
+   * Notify a listener already added with {@link #addListener(IDevice, LogcatListener, boolean)} of the log messages received so far
+   * which are accepted by {@code filter}. {@code beforeReplay} runs first, and no new message is sent to the listeners until the replay
+   * is done, so callers can drop what they have shown without missing or duplicating any message.
+   * This uses the indexes of the device's buffer, and is much faster than filtering every message again.
+   */
+  public void replayLogs(@NotNull IDevice device,
+                         @NotNull LogcatListener listener,
+                         @NotNull AndroidLogcatFilter filter,
+                         @NotNull Runnable beforeReplay) {
+    synchronized (myLock) {
+      beforeReplay.run();
+      if (myLogBuffers.containsKey(device)) {
+        myLogBuffers.get(device).forEachMatching(filter, listener::onLogLineReceived);
+      }
+    }
+  }
+
   /**
    * @see #addListener(IDevice, LogcatListener, boolean)
    */
@@ -318,6 +371,20 @@ public final class AndroidLogcatService implements AndroidDebugBridge.IDeviceCha
     }
   }
 
+  /**
+   * Waits until the lines received so far from the device were sent to the listeners.
+   */
+  @TestOnly
+  void waitForPendingMessages(@NotNull IDevice device) throws Exception {
+    LogcatMessageQueue queue;
+    synchronized (myLock) {
+      queue = myMessageQueues.get(device);
+    }
+    if (queue != null) {
+      queue.waitForPendingMessages();
+    }
+  }
+
   /**
    * Same as {@link #dispose()} but waits for background threads to terminate
    * before returning to the caller. This is useful to prevent thread leaks
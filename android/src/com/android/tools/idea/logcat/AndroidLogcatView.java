@@ -367,7 +367,20 @@ public class AndroidLogcatView implements Disposable {
       ProgressManager.getInstance().run(new Task.Backgroundable(myProject, "Applying Filter...") {
         @Override
         public void run(@NotNull ProgressIndicator indicator) {
-          myLogFilterModel.updateLogcatFilter((AndroidLogcatFilter)filter);
+          IDevice device = myDevice;
+          if (device == null) {
+            myLogFilterModel.updateLogcatFilter((AndroidLogcatFilter)filter);
+            return;
+          }
+          // Only replay the matching messages from the service's indexed buffer instead of reparsing and
+          // filtering every line of the console
+          myLogFilterModel.setLogcatFilter((AndroidLogcatFilter)filter);
+          AndroidLogcatService.getInstance().replayLogs(device, myLogcatReceiver, (AndroidLogcatFilter)filter, () -> {
+            // We check for null, because myLogConsole.clear() depends on myLogConsole.getConsole() not being null
+            if (myLogConsole.getConsole() != null) {
+              myLogConsole.clear();
+            }
+          });
         }
       });
     }
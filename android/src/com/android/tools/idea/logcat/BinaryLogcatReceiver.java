@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import com.google.common.annotations.VisibleForTesting;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * An {@link IShellOutputReceiver} which decodes the output of 'logcat -B', the binary log entries
+ * as the device stores them, and hands each entry to an {@link AndroidLogcatReceiver}.
+ *
+ * Unlike the text output, this needs no header parsing: each entry is a small little endian
+ * header (payload length, header size, pid, tid, seconds and nanoseconds, followed by more fields
+ * in newer versions) and a payload made of the priority, the NUL terminated tag and the NUL
+ * terminated message.
+ *
+ * The binary output only survives the trip through adb when the shell does not use a pty, so
+ * this should only be used with devices running Android N or later. If the stream does not look
+ * like log entries, the receiver stops and reports it with {@link #isCorrupted()}.
+ */
+final class BinaryLogcatReceiver implements IShellOutputReceiver {
+  /** The size of the header of the first version of the entries, which leaves the header size field set to 0. */
+  private static final int V1_HEADER_SIZE = 20;
+  private static final int MAX_HEADER_SIZE = 100;
+  /** Larger than LOGGER_ENTRY_MAX_PAYLOAD in all Android versions. */
+  private static final int MAX_PAYLOAD_SIZE = 5 * 1024;
+  private static final LogLevel[] LOG_LEVELS = LogLevel.values();
+
+  @NotNull private final IDevice myDevice;
+  @NotNull private final AndroidLogcatReceiver myReceiver;
+  @Nullable private ZoneId myZone;
+
+  private byte[] myPending = new byte[16 * 1024];
+  private int myPendingLength;
+  private boolean myCorrupted;
+  private long myEntryCount;
+
+  BinaryLogcatReceiver(@NotNull IDevice device, @NotNull AndroidLogcatReceiver receiver) {
+    myDevice = device;
+    myReceiver = receiver;
+  }
+
+  @Override
+  public void addOutput(byte[] data, int offset, int length) {
+    if (isCancelled()) {
+      return;
+    }
+    if (myPendingLength + length > myPending.length) {
+      byte[] pending = new byte[Math.max(myPending.length * 2, myPendingLength + length)];
+      System.arraycopy(myPending, 0, pending, 0, myPendingLength);
+      myPending = pending;
+    }
+    System.arraycopy(data, offset, myPending, myPendingLength, length);
+    myPendingLength += length;
+
+    int position = 0;
+    while (!myCorrupted && myPendingLength - position >= 4) {
+      int payloadSize = readShort(myPending, position);
+      int headerSize = readShort(myPending, position + 2);
+      if (headerSize == 0) {
+        headerSize = V1_HEADER_SIZE;
+      }
+      if (headerSize < V1_HEADER_SIZE || headerSize > MAX_HEADER_SIZE || payloadSize > MAX_PAYLOAD_SIZE) {
+        myCorrupted = true;
+        break;
+      }
+      if (myPendingLength - position < headerSize + payloadSize) {
+        break; // Wait for the rest of the entry
+      }
+      decodeEntry(myPending, position, headerSize, payloadSize);
+      position += headerSize + payloadSize;
+    }
+
+    myPendingLength -= position;
+    System.arraycopy(myPending, position, myPending, 0, myPendingLength);
+  }
+
+  private void decodeEntry(@NotNull byte[] data, int offset, int headerSize, int payloadSize) {
+    if (payloadSize == 0) {
+      return;
+    }
+    int pid = readInt(data, offset + 4);
+    int tid = readInt(data, offset + 8);
+    long seconds = readInt(data, offset + 12) & 0xFFFFFFFFL;
+    int nanos = readInt(data, offset + 16);
+
+    int payload = offset + headerSize;
+    int payloadEnd = payload + payloadSize;
+    LogLevel level = getLogLevel(data[payload]);
+    int tagEnd = indexOfNul(data, payload + 1, payloadEnd);
+    String tag = new String(data, payload + 1, tagEnd - payload - 1, StandardCharsets.UTF_8);
+    int messageStart = Math.min(tagEnd + 1, payloadEnd);
+    int messageEnd = indexOfNul(data, messageStart, payloadEnd);
+    String message = new String(data, messageStart, messageEnd - messageStart, StandardCharsets.UTF_8);
+
+    String appName = myDevice.getClientName(pid);
+    LogCatHeader header =
+      new LogCatHeader(level, pid, tid, appName != null ? appName : "?", tag, toTimestamp(seconds, nanos));
+    myEntryCount++;
+    myReceiver.processLogEntry(header, message);
+  }
+
+  @NotNull
+  private LogCatTimestamp toTimestamp(long seconds, int nanos) {
+    // Like 'logcat -v long', show the time in the device's time zone
+    if (myZone == null) {
+      myZone = getDeviceZone(myDevice);
+    }
+    ZonedDateTime time = Instant.ofEpochSecond(seconds, nanos).atZone(myZone);
+    return new LogCatTimestamp(time.getMonthValue(), time.getDayOfMonth(), time.getHour(), time.getMinute(), time.getSecond(),
+                               time.getNano() / 1_000_000);
+  }
+
+  @NotNull
+  private static ZoneId getDeviceZone(@NotNull IDevice device) {
+    String zone = device.getProperty("persist.sys.timezone");
+    if (zone != null && !zone.isEmpty()) {
+      try {
+        return ZoneId.of(zone);
+      }
+      catch (DateTimeException ignored) {
+      }
+    }
+    return ZoneId.systemDefault();
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static LogLevel getLogLevel(byte priority) {
+    // Priorities below VERBOSE (unknown, default) and above ASSERT (silent) are never really logged
+    for (LogLevel level : LOG_LEVELS) {
+      if (level.getPriority() >= priority) {
+        return level;
+      }
+    }
+    return LOG_LEVELS[LOG_LEVELS.length - 1];
+  }
+
+  private static int indexOfNul(@NotNull byte[] data, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (data[i] == 0) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static int readShort(@NotNull byte[] data, int offset) {
+    return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+  }
+
+  private static int readInt(@NotNull byte[] data, int offset) {
+    return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+  }
+
+  /**
+   * Returns true if the output could not be decoded, in which case the receiver stopped.
+   */
+  boolean isCorrupted() {
+    return myCorrupted;
+  }
+
+  /**
+   * Returns the number of log entries decoded so far.
+   */
+  long getEntryCount() {
+    return myEntryCount;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return myCorrupted || myReceiver.isCancelled();
+  }
+}
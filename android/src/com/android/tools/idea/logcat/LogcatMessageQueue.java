@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands the log lines read from a device over to a pooled thread, which passes them on in
+ * batches. The thread reading logcat never waits for a lock or for slow listeners: if too many
+ * lines are pending, new lines are dropped and counted instead.
+ */
+final class LogcatMessageQueue {
+  private static final int MAX_PENDING_MESSAGES = 100_000;
+  private static final int MAX_BATCH_SIZE = 1_000;
+
+  private final ConcurrentLinkedQueue<LogCatMessage> myMessages = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger myPendingCount = new AtomicInteger();
+  private final AtomicBoolean myDrainScheduled = new AtomicBoolean();
+  private final ExecutorService myExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Logcat dispatcher", 1);
+  @NotNull private final Consumer<List<LogCatMessage>> myConsumer;
+
+  private final AtomicLong myReceivedCount = new AtomicLong();
+  private final AtomicLong myDroppedCount = new AtomicLong();
+  private volatile long myFirstMessageNanos;
+
+  /**
+   * @param consumer receives the lines, in order, from a single thread at a time
+   */
+  LogcatMessageQueue(@NotNull Consumer<List<LogCatMessage>> consumer) {
+    myConsumer = consumer;
+  }
+
+  /**
+   * Queues a line, or drops it if the consumer is too far behind.
+   *
+   * @return whether the line was queued
+   */
+  boolean offer(@NotNull LogCatMessage message) {
+    if (myReceivedCount.getAndIncrement() == 0) {
+      myFirstMessageNanos = System.nanoTime();
+    }
+    if (myPendingCount.incrementAndGet() > MAX_PENDING_MESSAGES) {
+      myPendingCount.decrementAndGet();
+      myDroppedCount.incrementAndGet();
+      return false;
+    }
+    myMessages.offer(message);
+    if (myDrainScheduled.compareAndSet(false, true)) {
+      myExecutor.execute(this::drain);
+    }
+    return true;
+  }
+
+  private void drain() {
+    List<LogCatMessage> batch = new ArrayList<>();
+    while (true) {
+      LogCatMessage message;
+      while (batch.size() < MAX_BATCH_SIZE && (message = myMessages.poll()) != null) {
+        batch.add(message);
+      }
+      if (batch.isEmpty()) {
+        myDrainScheduled.set(false);
+        // A line offered after the last poll but before the flag was cleared did not schedule a drain
+        if (myMessages.isEmpty() || !myDrainScheduled.compareAndSet(false, true)) {
+          return;
+        }
+        continue;
+      }
+      myPendingCount.addAndGet(-batch.size());
+      myConsumer.accept(batch);
+      batch = new ArrayList<>();
+    }
+  }
+
+  long getReceivedCount() {
+    return myReceivedCount.get();
+  }
+
+  long getDroppedCount() {
+    return myDroppedCount.get();
+  }
+
+  /**
+   * Returns the average number of lines received per second since the first one.
+   */
+  double getLinesPerSecond() {
+    long count = myReceivedCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long elapsed = System.nanoTime() - myFirstMessageNanos;
+    return elapsed <= 0 ? 0 : count * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+
+  @NotNull
+  String getStatistics() {
+    return String.format("%1$d lines received (%2$.0f lines/s), %3$d dropped", getReceivedCount(), getLinesPerSecond(), getDroppedCount());
+  }
+
+  /**
+   * Waits until the lines queued so far were passed to the consumer.
+   */
+  @TestOnly
+  void waitForPendingMessages() throws InterruptedException, ExecutionException {
+    // The executor runs one task at a time, in order, so this runs after any drain already scheduled
+    myExecutor.submit(() -> {}).get();
+  }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import com.google.common.annotations.VisibleForTesting;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * The log lines received from a single device, bounded by an approximate size in bytes. Once the
+ * limit is reached, the oldest lines are dropped.
+ *
+ * Lines are stored in parallel primitive arrays used as a ring, and their text in a single ring of
+ * chars. Tags and app names are interned to ints; the interned strings count against the limit, and
+ * the table is rebuilt from the stored lines each time all the lines stored at the previous rebuild
+ * have been dropped, so it does not keep the names of lines that are long gone. Each level, pid and tag also keeps the sequence
+ * numbers of its lines, so a {@link DefaultAndroidLogcatFilter} only visits the lines that can
+ * match it and evaluates its tag and package patterns once per distinct value instead of once per
+ * line.
+ *
+ * This class is not thread safe.
+ */
+final class LogcatRingBuffer {
+  /**
+   * The bytes used by a line besides its text: the per line arrays and one index entry for each of
+   * the level, pid and tag indexes.
+   */
+  private static final int LINE_BYTES = 38 + 3 * 8;
+  /**
+   * The bytes used by an interned string besides its chars: the String and its char array headers,
+   * its slot in the string list and its entry in the id map.
+   */
+  private static final int STRING_BYTES = 40 + 4 + 16;
+  private static final int INITIAL_LINE_CAPACITY = 256;
+  private static final int INITIAL_TEXT_CAPACITY = 16 * 1024;
+  private static final LogLevel[] LOG_LEVELS = LogLevel.values();
+
+  private final long myMaxBytes;
+  private long myBytes;
+
+  /**
+   * Every line gets the next sequence number; the lines still stored are the ones from
+   * {@link #myFirst} (inclusive) to {@link #myEnd} (exclusive), line {@code n} being in slot
+   * {@code n & (capacity - 1)} of the per line arrays.
+   */
+  private long myFirst;
+  private long myEnd;
+
+  private byte[] myLevels = new byte[INITIAL_LINE_CAPACITY];
+  /** True for the first line of each message, the following lines sharing its header. */
+  private boolean[] myHeaderStarts = new boolean[INITIAL_LINE_CAPACITY];
+  private int[] myPids = new int[INITIAL_LINE_CAPACITY];
+  private int[] myTids = new int[INITIAL_LINE_CAPACITY];
+  private int[] myTagIds = new int[INITIAL_LINE_CAPACITY];
+  private int[] myAppNameIds = new int[INITIAL_LINE_CAPACITY];
+  private LogCatTimestamp[] myTimestamps = new LogCatTimestamp[INITIAL_LINE_CAPACITY];
+  private long[] myTextStarts = new long[INITIAL_LINE_CAPACITY];
+  private int[] myTextLengths = new int[INITIAL_LINE_CAPACITY];
+
+  /** Char {@code n} of the text of all lines is at index {@code n & (capacity - 1)}. */
+  private char[] myText = new char[INITIAL_TEXT_CAPACITY];
+  private long myTextEnd;
+
+  private List<String> myStrings = new ArrayList<>();
+  private TObjectIntHashMap<String> myStringIds = new TObjectIntHashMap<>();
+  /** The value of {@link #myEnd} when the string table was last rebuilt. */
+  private long myStringsRebuiltAt;
+
+  private final SequenceList[] myLevelIndex = new SequenceList[LOG_LEVELS.length];
+  private final TIntObjectHashMap<SequenceList> myPidIndex = new TIntObjectHashMap<>();
+  private TIntObjectHashMap<SequenceList> myTagIndex = new TIntObjectHashMap<>();
+
+  @Nullable private LogCatHeader myLastHeader;
+
+  /**
+   * @param maxBytes the approximate number of bytes the lines may use, or a negative value for no limit
+   */
+  LogcatRingBuffer(long maxBytes) {
+    myMaxBytes = maxBytes < 0 ? Long.MAX_VALUE : maxBytes;
+    for (int i = 0; i < myLevelIndex.length; i++) {
+      myLevelIndex[i] = new SequenceList();
+    }
+  }
+
+  void addMessage(@NotNull LogCatMessage message) {
+    LogCatHeader header = message.getHeader();
+    String text = message.getMessage();
+
+    if (myEnd - myFirst == myLevels.length) {
+      growLines();
+    }
+    ensureTextCapacity(text.length());
+
+    int slot = slot(myEnd);
+    myLevels[slot] = (byte)header.getLogLevel().ordinal();
+    myHeaderStarts[slot] = header != myLastHeader;
+    myPids[slot] = header.getPid();
+    myTids[slot] = header.getTid();
+    myTagIds[slot] = intern(header.getTag());
+    myAppNameIds[slot] = intern(header.getAppName());
+    myTimestamps[slot] = header.getTimestamp();
+    myTextStarts[slot] = myTextEnd;
+    myTextLengths[slot] = text.length();
+    writeText(text);
+
+    myLevelIndex[myLevels[slot]].add(myEnd);
+    getOrCreate(myPidIndex, myPids[slot]).add(myEnd);
+    getOrCreate(myTagIndex, myTagIds[slot]).add(myEnd);
+
+    myLastHeader = header;
+    myEnd++;
+    myBytes += lineBytes(text.length());
+
+    // Always keep the latest line, even if it does not fit on its own
+    while (myBytes > myMaxBytes && myEnd - myFirst > 1) {
+      removeFirst();
+    }
+    if (myFirst > myStringsRebuiltAt) {
+      rebuildStrings();
+    }
+  }
+
+  int size() {
+    return (int)(myEnd - myFirst);
+  }
+
+  long getBytes() {
+    return myBytes;
+  }
+
+  /**
+   * Send all the stored lines, oldest first, to the consumer.
+   */
+  void forEach(@NotNull Consumer<LogCatMessage> consumer) {
+    long end = myEnd;
+    for (long line = myFirst; line < end; ) {
+      long messageEnd = findMessageEnd(line);
+      emit(line, messageEnd, consumer);
+      line = messageEnd;
+    }
+  }
+
+  /**
+   * Send the stored lines accepted by the filter, oldest first, to the consumer. Like
+   * {@link AndroidLogFilterModel}, all the lines of a message are accepted as soon as one of them is.
+   */
+  void forEachMatching(@NotNull AndroidLogcatFilter filter, @NotNull Consumer<LogCatMessage> consumer) {
+    if (filter instanceof DefaultAndroidLogcatFilter) {
+      forEachMatchingIndexed((DefaultAndroidLogcatFilter)filter, consumer);
+      return;
+    }
+
+    long end = myEnd;
+    for (long line = myFirst; line < end; ) {
+      long messageEnd = findMessageEnd(line);
+      for (long i = line; i < messageEnd; i++) {
+        int slot = slot(i);
+        if (filter.isApplicable(getText(slot), myStrings.get(myTagIds[slot]), myStrings.get(myAppNameIds[slot]), myPids[slot],
+                                LOG_LEVELS[myLevels[slot]])) {
+          emit(line, messageEnd, consumer);
+          break;
+        }
+      }
+      line = messageEnd;
+    }
+  }
+
+  private void forEachMatchingIndexed(@NotNull DefaultAndroidLogcatFilter filter, @NotNull Consumer<LogCatMessage> consumer) {
+    LogLevel minLevel = filter.getLogLevel();
+    int minPriority = minLevel != null ? minLevel.getPriority() : Integer.MIN_VALUE;
+    String pidString = filter.getPid();
+    boolean hasPid = pidString != null && !pidString.isEmpty();
+    int pid = hasPid ? parsePid(pidString) : 0;
+    if (hasPid && pid < 0) {
+      return;
+    }
+    byte[] tagMatches = new byte[myStrings.size()];
+    byte[] appNameMatches = new byte[myStrings.size()];
+    Pattern tagPattern = filter.getTagPattern();
+    Pattern appNamePattern = filter.getPkgNamePattern();
+    Pattern messagePattern = filter.getMessagePattern();
+
+    // Only walk the lines of the most selective index
+    long[] candidates = null;
+    if (hasPid) {
+      SequenceList lines = myPidIndex.get(pid);
+      candidates = lines != null ? lines.toArray() : new long[0];
+    }
+    if (minLevel != null) {
+      List<SequenceList> lists = new ArrayList<>();
+      for (int i = 0; i < LOG_LEVELS.length; i++) {
+        if (LOG_LEVELS[i].getPriority() >= minPriority) {
+          lists.add(myLevelIndex[i]);
+        }
+      }
+      candidates = selectSmaller(candidates, lists);
+    }
+    if (tagPattern != null) {
+      List<SequenceList> lists = new ArrayList<>();
+      myTagIndex.forEachEntry((tagId, lines) -> {
+        if (matches(tagPattern, tagId, tagMatches)) {
+          lists.add(lines);
+        }
+        return true;
+      });
+      candidates = selectSmaller(candidates, lists);
+    }
+
+    long end = myEnd;
+    long messageEnd = myFirst;
+    int count = candidates != null ? candidates.length : (int)(end - myFirst);
+    for (int i = 0; i < count; i++) {
+      long line = candidates != null ? candidates[i] : myFirst + i;
+      if (line < messageEnd) {
+        continue; // Part of a message that was already handled
+      }
+      messageEnd = findMessageEnd(line);
+
+      int slot = slot(line);
+      if (LOG_LEVELS[myLevels[slot]].getPriority() < minPriority ||
+          hasPid && myPids[slot] != pid ||
+          tagPattern != null && !matches(tagPattern, myTagIds[slot], tagMatches) ||
+          appNamePattern != null && !matches(appNamePattern, myAppNameIds[slot], appNameMatches)) {
+        continue;
+      }
+      if (messagePattern != null && !anyLineMatches(messagePattern, line, messageEnd)) {
+        continue;
+      }
+      emit(line, messageEnd, consumer);
+    }
+  }
+
+  /**
+   * Return the pid as a number, or -1 if no pid is written like that. The filter compares the
+   * pids as strings.
+   */
+  private static int parsePid(@NotNull String pid) {
+    try {
+      int value = Integer.parseInt(pid);
+      return value >= 0 && Integer.toString(value).equals(pid) ? value : -1;
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Return the lines of the given index lists if there are fewer of them than candidates, where
+   * null candidates stand for all the lines.
+   */
+  @Nullable
+  private long[] selectSmaller(@Nullable long[] candidates, @NotNull List<SequenceList> lists) {
+    int size = 0;
+    for (SequenceList list : lists) {
+      size += list.size();
+    }
+    if (candidates == null ? size >= size() : candidates.length <= size) {
+      return candidates;
+    }
+
+    long[] result = new long[size];
+    int offset = 0;
+    for (SequenceList list : lists) {
+      offset = list.copyTo(result, offset);
+    }
+    if (lists.size() > 1) {
+      Arrays.sort(result);
+    }
+    return result;
+  }
+
+  private boolean matches(@NotNull Pattern pattern, int stringId, @NotNull byte[] cache) {
+    if (stringId >= cache.length) {
+      return pattern.matcher(myStrings.get(stringId)).find();
+    }
+    if (cache[stringId] == 0) {
+      cache[stringId] = pattern.matcher(myStrings.get(stringId)).find() ? (byte)1 : (byte)2;
+    }
+    return cache[stringId] == 1;
+  }
+
+  private boolean anyLineMatches(@NotNull Pattern pattern, long start, long end) {
+    for (long line = start; line < end; line++) {
+      if (pattern.matcher(getText(slot(line))).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private long findMessageEnd(long line) {
+    long end = line + 1;
+    while (end < myEnd && !myHeaderStarts[slot(end)]) {
+      end++;
+    }
+    return end;
+  }
+
+  private void emit(long start, long end, @NotNull Consumer<LogCatMessage> consumer) {
+    int slot = slot(start);
+    LogCatHeader header = new LogCatHeader(LOG_LEVELS[myLevels[slot]], myPids[slot], myTids[slot], myStrings.get(myAppNameIds[slot]),
+                                           myStrings.get(myTagIds[slot]), myTimestamps[slot]);
+    for (long line = start; line < end; line++) {
+      consumer.accept(new LogCatMessage(header, getText(slot(line))));
+    }
+  }
+
+  private void removeFirst() {
+    int slot = slot(myFirst);
+    myLevelIndex[myLevels[slot]].removeFirst();
+    removeFirst(myPidIndex, myPids[slot]);
+    removeFirst(myTagIndex, myTagIds[slot]);
+    myTimestamps[slot] = null;
+    myBytes -= lineBytes(myTextLengths[slot]);
+    myFirst++;
+    if (myFirst < myEnd) {
+      // The header of a message that lost its first line is now stored with its next line
+      myHeaderStarts[slot(myFirst)] = true;
+    }
+  }
+
+  private static void removeFirst(@NotNull TIntObjectHashMap<SequenceList> index, int key) {
+    SequenceList lines = index.get(key);
+    lines.removeFirst();
+    if (lines.size() == 0) {
+      index.remove(key);
+    }
+  }
+
+  @NotNull
+  private static SequenceList getOrCreate(@NotNull TIntObjectHashMap<SequenceList> index, int key) {
+    SequenceList lines = index.get(key);
+    if (lines == null) {
+      lines = new SequenceList();
+      index.put(key, lines);
+    }
+    return lines;
+  }
+
+  private int intern(@NotNull String string) {
+    if (myStringIds.containsKey(string)) {
+      return myStringIds.get(string);
+    }
+    int id = myStrings.size();
+    myStrings.add(string);
+    myStringIds.put(string, id);
+    myBytes += stringBytes(string);
+    return id;
+  }
+
+  /**
+   * Replace the string table with one that only has the tags and app names of the stored lines,
+   * renumbering them in the lines and the tag index.
+   */
+  private void rebuildStrings() {
+    List<String> strings = new ArrayList<>();
+    TObjectIntHashMap<String> stringIds = new TObjectIntHashMap<>();
+    int[] newIds = new int[myStrings.size()];
+    Arrays.fill(newIds, -1);
+    for (String string : myStrings) {
+      myBytes -= stringBytes(string);
+    }
+    for (long line = myFirst; line < myEnd; line++) {
+      int slot = slot(line);
+      myTagIds[slot] = renumber(myTagIds[slot], newIds, strings, stringIds);
+      myAppNameIds[slot] = renumber(myAppNameIds[slot], newIds, strings, stringIds);
+    }
+    TIntObjectHashMap<SequenceList> tagIndex = new TIntObjectHashMap<>();
+    myTagIndex.forEachEntry((tagId, lines) -> {
+      tagIndex.put(newIds[tagId], lines);
+      return true;
+    });
+
+    myTagIndex = tagIndex;
+    myStrings = strings;
+    myStringIds = stringIds;
+    myStringsRebuiltAt = myEnd;
+  }
+
+  private int renumber(int id, @NotNull int[] newIds, @NotNull List<String> strings, @NotNull TObjectIntHashMap<String> stringIds) {
+    if (newIds[id] < 0) {
+      String string = myStrings.get(id);
+      newIds[id] = strings.size();
+      strings.add(string);
+      stringIds.put(string, newIds[id]);
+      myBytes += stringBytes(string);
+    }
+    return newIds[id];
+  }
+
+  @VisibleForTesting
+  int getStringCount() {
+    return myStrings.size();
+  }
+
+  private static long stringBytes(@NotNull String string) {
+    return STRING_BYTES + 2L * string.length();
+  }
+
+  private static long lineBytes(int textLength) {
+    return LINE_BYTES + 2L * textLength;
+  }
+
+  private int slot(long line) {
+    return (int)line & (myLevels.length - 1);
+  }
+
+  @NotNull
+  private String getText(int slot) {
+    int length = myTextLengths[slot];
+    int start = (int)myTextStarts[slot] & (myText.length - 1);
+    int firstPart = Math.min(length, myText.length - start);
+    if (firstPart == length) {
+      return new String(myText, start, length);
+    }
+    char[] chars = new char[length];
+    System.arraycopy(myText, start, chars, 0, firstPart);
+    System.arraycopy(myText, 0, chars, firstPart, length - firstPart);
+    return new String(chars);
+  }
+
+  private void writeText(@NotNull String text) {
+    int start = (int)myTextEnd & (myText.length - 1);
+    int firstPart = Math.min(text.length(), myText.length - start);
+    text.getChars(0, firstPart, myText, start);
+    text.getChars(firstPart, text.length(), myText, 0);
+    myTextEnd += text.length();
+  }
+
+  private void ensureTextCapacity(int length) {
+    long used = myFirst < myEnd ? myTextEnd - myTextStarts[slot(myFirst)] : 0;
+    if (used + length <= myText.length) {
+      return;
+    }
+    int capacity = myText.length;
+    while (used + length > capacity) {
+      capacity *= 2;
+    }
+    // Copy the live text in order; its absolute positions now map to new indexes
+    char[] text = new char[capacity];
+    long firstChar = myTextEnd - used;
+    for (long i = firstChar; i < myTextEnd; i++) {
+      text[(int)i & (capacity - 1)] = myText[(int)i & (myText.length - 1)];
+    }
+    myText = text;
+  }
+
+  private void growLines() {
+    int oldCapacity = myLevels.length;
+    int capacity = oldCapacity * 2;
+    byte[] levels = new byte[capacity];
+    boolean[] headerStarts = new boolean[capacity];
+    int[] pids = new int[capacity];
+    int[] tids = new int[capacity];
+    int[] tagIds = new int[capacity];
+    int[] appNameIds = new int[capacity];
+    LogCatTimestamp[] timestamps = new LogCatTimestamp[capacity];
+    long[] textStarts = new long[capacity];
+    int[] textLengths = new int[capacity];
+    for (long line = myFirst; line < myEnd; line++) {
+      int from = (int)line & (oldCapacity - 1);
+      int to = (int)line & (capacity - 1);
+      levels[to] = myLevels[from];
+      headerStarts[to] = myHeaderStarts[from];
+      pids[to] = myPids[from];
+      tids[to] = myTids[from];
+      tagIds[to] = myTagIds[from];
+      appNameIds[to] = myAppNameIds[from];
+      timestamps[to] = myTimestamps[from];
+      textStarts[to] = myTextStarts[from];
+      textLengths[to] = myTextLengths[from];
+    }
+    myLevels = levels;
+    myHeaderStarts = headerStarts;
+    myPids = pids;
+    myTids = tids;
+    myTagIds = tagIds;
+    myAppNameIds = appNameIds;
+    myTimestamps = timestamps;
+    myTextStarts = textStarts;
+    myTextLengths = textLengths;
+  }
+
+  /**
+   * The increasing sequence numbers of some lines. Lines are only ever added at the end and
+   * dropped from the start.
+   */
+  private static final class SequenceList {
+    private long[] myLines = new long[16];
+    private int myStart;
+    private int mySize;
+
+    void add(long line) {
+      if (myStart + mySize == myLines.length) {
+        if (myStart >= myLines.length / 2) {
+          System.arraycopy(myLines, myStart, myLines, 0, mySize);
+        }
+        else {
+          long[] lines = new long[myLines.length * 2];
+          System.arraycopy(myLines, myStart, lines, 0, mySize);
+          myLines = lines;
+        }
+        myStart = 0;
+      }
+      myLines[myStart + mySize++] = line;
+    }
+
+    void removeFirst() {
+      myStart++;
+      mySize--;
+      if (mySize == 0) {
+        myStart = 0;
+      }
+    }
+
+    int size() {
+      return mySize;
+    }
+
+    int copyTo(@NotNull long[] destination, int offset) {
+      System.arraycopy(myLines, myStart, destination, offset, mySize);
+      return offset + mySize;
+    }
+
+    @NotNull
+    long[] toArray() {
+      return Arrays.copyOfRange(myLines, myStart, myStart + mySize);
+    }
+  }
+}
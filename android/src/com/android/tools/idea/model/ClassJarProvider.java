@@ -48,4 +48,10 @@ public abstract class ClassJarProvider {
 
   @NotNull
   public abstract List<File> getModuleExternalLibraries(@NotNull Module module);
+
+  /**
+   * Returns the folders with the class files compiled from the sources of the given module.
+   */
+  @NotNull
+  public abstract List<VirtualFile> getModuleClassOutputRoots(@NotNull Module module);
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the time spent creating render sessions with and without extended view info (margins and baselines) so we can
+ * estimate how much time is saved by not requesting it when it's not needed.
+ */
+public final class ExtendedViewInfoMetrics {
+  private static final AtomicLong ourExtendedCount = new AtomicLong();
+  private static final AtomicLong ourExtendedTotalNanos = new AtomicLong();
+  private static final AtomicLong ourBasicCount = new AtomicLong();
+  private static final AtomicLong ourBasicTotalNanos = new AtomicLong();
+
+  private ExtendedViewInfoMetrics() {
+  }
+
+  /**
+   * Records the time it took to create a new render session.
+   *
+   * @param extendedViewInfo whether the session was created with extended view info
+   * @param durationNanos the time taken to create the session
+   */
+  static void recordSessionCreated(boolean extendedViewInfo, long durationNanos) {
+    if (extendedViewInfo) {
+      ourExtendedCount.incrementAndGet();
+      ourExtendedTotalNanos.addAndGet(durationNanos);
+    }
+    else {
+      ourBasicCount.incrementAndGet();
+      ourBasicTotalNanos.addAndGet(durationNanos);
+    }
+  }
+
+  /**
+   * Returns the number of render sessions created without extended view info.
+   */
+  public static long getSessionsWithoutExtendedViewInfo() {
+    return ourBasicCount.get();
+  }
+
+  /**
+   * Returns the number of render sessions created with extended view info.
+   */
+  public static long getSessionsWithExtendedViewInfo() {
+    return ourExtendedCount.get();
+  }
+
+  /**
+   * Returns the average time, in milliseconds, spent creating a render session with or without extended view info or -1 if no
+   * sessions of that kind have been created yet.
+   */
+  public static double getAverageSessionTimeMs(boolean extendedViewInfo) {
+    long count = extendedViewInfo ? ourExtendedCount.get() : ourBasicCount.get();
+    if (count == 0) {
+      return -1;
+    }
+    long totalNanos = extendedViewInfo ? ourExtendedTotalNanos.get() : ourBasicTotalNanos.get();
+    return (double)totalNanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Returns the estimated time, in milliseconds, saved for every render session created without extended view info. This is the
+   * difference between the average session creation times or 0 if there is not enough data yet.
+   */
+  public static double getEstimatedSavedTimePerSessionMs() {
+    double extended = getAverageSessionTimeMs(true);
+    double basic = getAverageSessionTimeMs(false);
+    if (extended < 0 || basic < 0) {
+      return 0;
+    }
+    return extended - basic;
+  }
+
+  @VisibleForTesting
+  static void reset() {
+    ourExtendedCount.set(0);
+    ourExtendedTotalNanos.set(0);
+    ourBasicCount.set(0);
+    ourBasicTotalNanos.set(0);
+  }
+}
@@ -3,20 +3,21 @@ package com.android.tools.idea.rendering;
 import com.android.annotations.VisibleForTesting;
 import com.google.common.base.FinalizablePhantomReference;
 import com.google.common.base.FinalizableReferenceQueue;
-import com.google.common.collect.EvictingQueue;
-import com.google.common.collect.ForwardingQueue;
 import com.google.common.collect.Sets;
+import gnu.trove.TLongObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.concurrent.GuardedBy;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.awt.image.WritableRaster;
 import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -57,47 +58,61 @@ public class ImagePool {
     public void dispose() {}
   };
   private static final boolean DEBUG = false;
+  /** Maximum number of bytes held by the images waiting in all the pools that are not in use */
+  private static final long DEFAULT_MAX_POOLED_BYTES = 200_000_000L;
+  /** Budget shared by all the pools, so the limit does not grow with the number of pools (one per {@link RenderService}) */
+  private static final MemoryBudget GLOBAL_BUDGET = new MemoryBudget(DEFAULT_MAX_POOLED_BYTES);
   private static final Bucket NULL_BUCKET = new Bucket(0, 0, 0);
   private final int[] myBucketSizes;
-  private final HashMap<String, Bucket> myPool = new HashMap<>();
+  private final TLongObjectHashMap<Bucket> myPool = new TLongObjectHashMap<>();
   private final BiFunction<Integer, Integer, Function<Integer, Integer>> myBucketSizingPolicy;
   @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
   private final FinalizableReferenceQueue myFinalizableReferenceQueue = new FinalizableReferenceQueue();
   private final Set<Reference<?>> myReferences = Sets.newConcurrentHashSet();
+  @NotNull private final MemoryBudget myBudget;
+  private final AtomicLong myHitCount = new AtomicLong();
+  private final AtomicLong myMissCount = new AtomicLong();
+  private final AtomicLong myEvictionCount = new AtomicLong();
 
   /**
    * Constructs a new {@link ImagePool} with a custom queue sizing policy. The passed bucketSizingPolicy will be called
    * every time that a new cache is needed for a given (width, height) -> (imageType).
-   * The return value from calling that function will be the size of the EvictingQueue used for caching the pooled
-   * images.
+   * The return value from calling that function will be the maximum number of pooled images in that bucket.
    * @param bucketSizes Array containing a list of the allowed bucket sizes. The images will be allocated into a bucket that fits its two
    *                    dimensions. If an image contains one dimension bigger than the biggest given bucket size, the image won't be
    *                    allocated into the pool.
    * @param bucketSizingPolicy Function that returns the maximum size for a given bucket. The bucket is defined by width, height and image
    *                           type. If the returned size is 0, no pooling will be done for that bucket size.
+   * @param budget Memory budget shared with other pools. When the images waiting in the pools exceed it, the least recently returned
+   *               images are evicted.
    */
-  public ImagePool(@NotNull int[] bucketSizes, @NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> bucketSizingPolicy) {
+  @VisibleForTesting
+  ImagePool(@NotNull int[] bucketSizes,
+            @NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> bucketSizingPolicy,
+            @NotNull MemoryBudget budget) {
     if (DEBUG) {
       System.out.println("New ImagePool");
     }
     myBucketSizes = bucketSizes;
     Arrays.sort(myBucketSizes);
     myBucketSizingPolicy = bucketSizingPolicy;
+    myBudget = budget;
+  }
+
+  /**
+   * Constructs a new {@link ImagePool} with a custom queue sizing policy that shares the memory budget of all the pools.
+   * See {@link #ImagePool(int[], BiFunction, MemoryBudget)}.
+   */
+  public ImagePool(@NotNull int[] bucketSizes, @NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> bucketSizingPolicy) {
+    this(bucketSizes, bucketSizingPolicy, GLOBAL_BUDGET);
   }
   private boolean isDisposed = false;
 
   /**
-   * Returns the key to be used for indexing the {@link EvictingQueue}.
+   * Returns the key to be used for indexing the bucket. Bucket sizes are limited to 24 bits and the image type to 8 bits.
    */
-  @NotNull
-  private static String getPoolKey(int w, int h, int type) {
-    return new StringBuilder()
-      .append(w)
-      .append('x')
-      .append(h)
-      .append('-')
-      .append(type)
-      .toString();
+  private static long getPoolKey(int w, int h, int type) {
+    return ((long)w << 32) | ((long)(h & 0xFFFFFF) << 8) | (type & 0xFF);
   }
 
   public ImagePool() {
@@ -148,20 +163,70 @@ public class ImagePool {
       return NULL_BUCKET;
     }
 
-    String poolKey = getPoolKey(widthBucket, heightBucket, type);
+    long poolKey = getPoolKey(widthBucket, heightBucket, type);
 
-    int finalWidthBucket = widthBucket;
-    int finalHeightBucket = heightBucket;
-    return myPool.computeIfAbsent(poolKey, (k) -> {
-      int size = myBucketSizingPolicy.apply(finalWidthBucket, finalHeightBucket).apply(type);
+    synchronized (myPool) {
+      Bucket bucket = myPool.get(poolKey);
+      if (bucket == null) {
+        int size = myBucketSizingPolicy.apply(widthBucket, heightBucket).apply(type);
 
-      if (size == 0) {
-        // For size 0, do not allocate extra memory for a new EvictingQueue.
-        return NULL_BUCKET;
+        // For size 0, do not allocate a new bucket.
+        bucket = size == 0 ? NULL_BUCKET : new Bucket(widthBucket, heightBucket, size);
+        myPool.put(poolKey, bucket);
       }
+      return bucket;
+    }
+  }
 
-      return new Bucket(finalWidthBucket, finalHeightBucket, size);
-    });
+  /**
+   * Returns the size in bytes of the given image. This is an estimation based on the size of the image data buffer.
+   */
+  private static long getImageBytes(@NotNull BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+  }
+
+  /**
+   * Removes and returns the most recently returned image in the given bucket or null if the bucket is empty.
+   */
+  @Nullable
+  private BufferedImage takeFromBucket(@NotNull Bucket bucket) {
+    synchronized (myBudget) {
+      myBudget.removeCleared();
+      PooledBuffer buffer;
+      while ((buffer = bucket.myBuffers.pollLast()) != null) {
+        myBudget.remove(buffer);
+        BufferedImage image = buffer.get();
+        if (image != null) {
+          return image;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the given image to the bucket. If the bucket is full, the image is discarded. If the pools exceed the memory budget, the
+   * least recently used images across all buckets are evicted.
+   *
+   * @return whether the image was accepted in the pool
+   */
+  private boolean returnToBucket(@NotNull Bucket bucket, @NotNull BufferedImage image) {
+    if (bucket.myMaxSize == 0) {
+      return false;
+    }
+    long bytes = getImageBytes(image);
+    synchronized (myBudget) {
+      myBudget.removeCleared();
+      if (isDisposed || bucket.myBuffers.size() >= bucket.myMaxSize || bytes > myBudget.myMaxBytes) {
+        myEvictionCount.incrementAndGet();
+        return false;
+      }
+      PooledBuffer buffer = new PooledBuffer(bucket, image, bytes, myEvictionCount, myBudget.myClearedBuffers);
+      bucket.myBuffers.addLast(buffer);
+      myBudget.add(buffer);
+      return true;
+    }
   }
 
   @VisibleForTesting
@@ -169,19 +234,15 @@ public class ImagePool {
   ImageImpl create(final int w, final int h, final int type, @Nullable Consumer<BufferedImage> freedCallback) {
     assert !isDisposed : "ImagePool already disposed";
 
-    // To avoid creating a large number of EvictingQueues, we distribute the images in buckets and use that
+    // To avoid creating a large number of buckets, we distribute the images in buckets and use that
     Bucket bucket = getTypeBucket(w, h, type);
     if (DEBUG) {
       System.out.printf("create(%dx%d-%d) in bucket (%dx%d)\n", w, h, type, bucket.myMinWidth, bucket.myMinHeight);
     }
 
-    BufferedImage image;
-    SoftReference<BufferedImage> imageRef;
-    try {
-      imageRef = bucket.remove();
-      while ((image = imageRef.get()) == null) {
-        imageRef = bucket.remove();
-      }
+    BufferedImage image = bucket.myMaxSize != 0 ? takeFromBucket(bucket) : null;
+    if (image != null) {
+      myHitCount.incrementAndGet();
       if (DEBUG) {
         long totalSize = image.getWidth() * image.getHeight();
         double wasted = (totalSize - w * h);
@@ -196,7 +257,8 @@ public class ImagePool {
       g.fillRect(0, 0, w, h);
       g.dispose();
     }
-    catch (NoSuchElementException e) {
+    else {
+      myMissCount.incrementAndGet();
       if (DEBUG) {
         System.out.printf("  New image %dx%d - %d\n", w, h, type);
       }
@@ -211,7 +273,7 @@ public class ImagePool {
       public void finalizeReferent() {
         // This method might be called twice if the user has manually called the free() method. The second call will have no effect.
         if (myReferences.remove(this)) {
-          boolean accepted = bucket.offer(new SoftReference<>(imagePointer));
+          boolean accepted = returnToBucket(bucket, imagePointer);
           if (DEBUG) {
             System.out.printf("%s image (%dx%d-%d) in bucket (%dx%d)\n",
                               accepted ? "Released" : "Rejected",
@@ -229,24 +291,118 @@ public class ImagePool {
     return pooledImage;
   }
 
-  private static class Bucket extends ForwardingQueue<SoftReference<BufferedImage>> {
-    private final Queue<SoftReference<BufferedImage>> myDelegate;
-    private final AtomicLong myLastAccess = new AtomicLong(System.currentTimeMillis());
+  private static class Bucket {
+    /** Images available in this bucket, the last one is the most recently returned */
+    @GuardedBy("MemoryBudget")
+    private final ArrayDeque<PooledBuffer> myBuffers = new ArrayDeque<>();
     private final int myMinWidth;
     private final int myMinHeight;
+    private final int myMaxSize;
 
     public Bucket(int minWidth, int minHeight, int maxSize) {
       myMinWidth = minWidth;
       myMinHeight = minHeight;
-      myDelegate = maxSize == 0 ?
-                   EvictingQueue.create(0)
-                   : new ArrayBlockingQueue<SoftReference<BufferedImage>>(maxSize);
+      myMaxSize = maxSize;
     }
+  }
 
-    @Override
-    protected Queue<SoftReference<BufferedImage>> delegate() {
-      myLastAccess.set(System.currentTimeMillis());
-      return myDelegate;
+  /**
+   * An image waiting in the pool to be reused. The image is softly referenced and, once it has been collected, the buffer is enqueued in
+   * the {@link MemoryBudget#myClearedBuffers} queue so it can be removed from its bucket and the budget.
+   */
+  private static class PooledBuffer extends SoftReference<BufferedImage> {
+    private final Bucket myBucket;
+    private final long myBytes;
+    /** Eviction counter of the pool the buffer belongs to */
+    private final AtomicLong myEvictionCount;
+
+    private PooledBuffer(@NotNull Bucket bucket,
+                         @NotNull BufferedImage image,
+                         long bytes,
+                         @NotNull AtomicLong evictionCount,
+                         @NotNull ReferenceQueue<BufferedImage> clearedBuffers) {
+      super(image, clearedBuffers);
+      myBucket = bucket;
+      myBytes = bytes;
+      myEvictionCount = evictionCount;
+    }
+  }
+
+  /**
+   * Maximum number of bytes that the images waiting in a group of pools can use. All the operations must be done while holding the
+   * budget lock, which also guards the buckets of the pools using the budget.
+   */
+  @VisibleForTesting
+  static class MemoryBudget {
+    private final long myMaxBytes;
+    /**
+     * All the images available in the pools, across all buckets, in the order they were returned. The first element is the least
+     * recently used one and will be the first one to be evicted when the budget is exceeded.
+     */
+    private final LinkedHashSet<PooledBuffer> myLruBuffers = new LinkedHashSet<>();
+    private final ReferenceQueue<BufferedImage> myClearedBuffers = new ReferenceQueue<>();
+    private long myBytes;
+
+    @VisibleForTesting
+    MemoryBudget(long maxBytes) {
+      myMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds the given buffer, that has just been added to its bucket, and evicts the least recently used ones until the budget is met.
+     */
+    private void add(@NotNull PooledBuffer buffer) {
+      myLruBuffers.add(buffer);
+      myBytes += buffer.myBytes;
+
+      Iterator<PooledBuffer> lruIterator = myLruBuffers.iterator();
+      while (myBytes > myMaxBytes && lruIterator.hasNext()) {
+        PooledBuffer evicted = lruIterator.next();
+        lruIterator.remove();
+        evicted.myBucket.myBuffers.remove(evicted);
+        myBytes -= evicted.myBytes;
+        evicted.myEvictionCount.incrementAndGet();
+      }
+    }
+
+    /**
+     * Removes the given buffer, that has already been removed from its bucket.
+     */
+    private void remove(@NotNull PooledBuffer buffer) {
+      if (myLruBuffers.remove(buffer)) {
+        myBytes -= buffer.myBytes;
+      }
+    }
+
+    /**
+     * Removes the buffers whose images have been garbage collected from their buckets and from the budget.
+     */
+    private void removeCleared() {
+      Reference<? extends BufferedImage> reference;
+      while ((reference = myClearedBuffers.poll()) != null) {
+        PooledBuffer buffer = (PooledBuffer)reference;
+        buffer.myBucket.myBuffers.remove(buffer);
+        remove(buffer);
+      }
+    }
+
+    /**
+     * Returns the number of bytes held by the images waiting in the pools that have not been garbage collected.
+     */
+    synchronized long getBytes() {
+      removeCleared();
+      return myBytes;
+    }
+
+    /**
+     * Clears the references to all the pooled images, as the garbage collector would do when running low on memory.
+     */
+    @VisibleForTesting
+    synchronized void clearPooledImages() {
+      for (PooledBuffer buffer : myLruBuffers) {
+        buffer.clear();
+        buffer.enqueue();
+      }
     }
   }
 
@@ -277,6 +433,47 @@ public class ImagePool {
     return image;
   }
 
+  /**
+   * Returns the number of {@link #create} calls that were served with an image from the pool.
+   */
+  public long getHitCount() {
+    return myHitCount.get();
+  }
+
+  /**
+   * Returns the number of {@link #create} calls that required allocating a new image.
+   */
+  public long getMissCount() {
+    return myMissCount.get();
+  }
+
+  /**
+   * Returns the number of images that were discarded instead of being kept in the pool, either because their bucket was full or
+   * because the pools exceeded their shared memory budget.
+   */
+  public long getEvictionCount() {
+    return myEvictionCount.get();
+  }
+
+  /**
+   * Returns the number of bytes held by the images waiting in this pool that have not been garbage collected.
+   */
+  public long getPooledBytes() {
+    long[] bytes = {0};
+    synchronized (myPool) {
+      synchronized (myBudget) {
+        myBudget.removeCleared();
+        myPool.forEachValue(bucket -> {
+          for (PooledBuffer buffer : bucket.myBuffers) {
+            bytes[0] += buffer.myBytes;
+          }
+          return true;
+        });
+      }
+    }
+    return bytes[0];
+  }
+
   /**
    * Disposes the image pool
    */
@@ -284,7 +481,18 @@ public class ImagePool {
     isDisposed = true;
     myFinalizableReferenceQueue.close();
     myReferences.clear();
-    myPool.clear();
+    synchronized (myPool) {
+      synchronized (myBudget) {
+        myPool.forEachValue(bucket -> {
+          for (PooledBuffer buffer : bucket.myBuffers) {
+            myBudget.remove(buffer);
+          }
+          bucket.myBuffers.clear();
+          return true;
+        });
+      }
+      myPool.clear();
+    }
   }
 
   /**
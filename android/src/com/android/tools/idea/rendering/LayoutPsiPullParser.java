@@ -28,6 +28,7 @@ import com.google.common.collect.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
@@ -749,10 +750,30 @@ public class LayoutPsiPullParser extends LayoutPullParser implements AaptAttrPar
         return createSnapshotForMerge(tag, honorMergeParentTag, tagDecorator);
 
       default:
-        return TagSnapshot.createTagSnapshot(tag, tagDecorator);
+        return createTagSnapshot(tag, tagDecorator);
     }
   }
 
+  /**
+   * Creates a {@link TagSnapshot} for the given root tag, reusing the unchanged parts of the snapshot created by the previous
+   * render of the same file when possible.
+   */
+  @NotNull
+  private static TagSnapshot createTagSnapshot(@NotNull XmlTag tag, @NotNull Consumer<TagSnapshot> tagDecorator) {
+    PsiFile file = tag.getContainingFile();
+    // Only the default decorator is guaranteed to produce the same result every time it's applied to an unchanged tag
+    if (tagDecorator != TAG_SNAPSHOT_DECORATOR || !(file instanceof XmlFile) || !file.isPhysical()) {
+      return TagSnapshot.createTagSnapshot(tag, tagDecorator);
+    }
+
+    XmlFile xmlFile = (XmlFile)file;
+    TagSnapshotModificationTracker tracker = TagSnapshotModificationTracker.getInstance(xmlFile.getProject());
+    TagSnapshot snapshot = TagSnapshot.createTagSnapshot(tag, tagDecorator, tracker.getPreviousSnapshot(xmlFile),
+                                                         TagSnapshotModificationTracker::getModificationStamp);
+    tracker.setPreviousSnapshot(xmlFile, snapshot);
+    return snapshot;
+  }
+
   @NotNull
   private static TagSnapshot createSnapshotForViewFragment(@NotNull XmlTag rootTag) {
     XmlAttribute[] psiAttributes = rootTag.getAttributes();
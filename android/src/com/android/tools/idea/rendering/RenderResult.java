@@ -129,6 +129,27 @@ public class RenderResult {
       Collections.emptyMap());
   }
 
+  /**
+   * Creates a new {@link RenderResult} from a render found in the {@link RenderResultCache}. The result has no render task and its views
+   * do not have cookies so it can only be used to display the image until the real render completes.
+   */
+  @NotNull
+  public static RenderResult createFromCache(@NotNull PsiFile file,
+                                             @NotNull Module module,
+                                             @NotNull RenderResultCache.CachedRender cachedRender,
+                                             @NotNull ImagePool imagePool) {
+    return new RenderResult(
+      file,
+      module,
+      new RenderLogger(null, module),
+      null,
+      Result.Status.SUCCESS.createResult(),
+      cachedRender.getRootViews(),
+      Collections.emptyList(),
+      imagePool.copyOf(cachedRender.getImage()),
+      Collections.emptyMap());
+  }
+
   @NotNull
   public Result getRenderResult() {
     return myRenderResult;
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.sdklib.IAndroidTarget;
+import com.android.sdklib.devices.Device;
+import com.android.sdklib.devices.State;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.io.LruCacheDirectory;
+import com.android.tools.idea.layoutlib.LayoutLibrary;
+import com.android.tools.idea.model.AndroidModel;
+import com.android.tools.idea.res.AppResourceRepository;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.ide.plugins.IdeaPluginDescriptor;
+import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.extensions.PluginId;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.CompilerModuleExtension;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Content addressed cache of rendered layouts. Renders are stored, both in memory and on disk, under a key computed from the contents
+ * of the layout file, the {@link Configuration} used to render it, a digest of the app resources and of the compiled project classes, and
+ * the versions of layoutlib and of the plugin. The cached images can be displayed immediately while the real render happens, for example
+ * when switching back to a layout or configuration that was rendered before.
+ * <p>
+ * Renders are only written to disk when they are evicted from the heap cache or when the cache is disposed, so encoding the images never
+ * happens while rendering.
+ * <p>
+ * The key does not cover everything a render depends on, for example the SDK files or the state of custom views, so cached renders must
+ * only be used as placeholders until the real render completes.
+ */
+public class RenderResultCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance(RenderResultCache.class);
+
+  private static final String CACHE_DIRECTORY = "render_result_cache";
+  private static final String IMAGE_EXTENSION = ".png";
+  private static final String VIEWS_EXTENSION = ".views";
+  private static final int VIEWS_FORMAT_VERSION = 1;
+  private static final long MAX_HEAP_BYTES = 64 * 1024 * 1024;
+  private static final long MAX_DISK_BYTES = 256 * 1024 * 1024;
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final String ANDROID_PLUGIN_ID = "org.jetbrains.android";
+
+  private static final Key<ContentHash> CONTENT_HASH_KEY = Key.create("RenderResultCache.ContentHash");
+  private static final Key<ProjectDigest> PROJECT_DIGEST_KEY = Key.create("RenderResultCache.ProjectDigest");
+
+  /**
+   * Hash of the contents of a file at the given modification stamps of the file and of its unsaved document (or -1).
+   */
+  private static class ContentHash {
+    private final long fileStamp;
+    private final long documentStamp;
+    @NotNull private final HashCode hash;
+
+    ContentHash(long fileStamp, long documentStamp, @NotNull HashCode hash) {
+      this.fileStamp = fileStamp;
+      this.documentStamp = documentStamp;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Digest of the resources and class files of a facet, valid until any of the given modification counts change.
+   */
+  private static class ProjectDigest {
+    private final long resourceGeneration;
+    private final long psiModificationCount;
+    private final long vfsModificationCount;
+    @NotNull private final HashCode hash;
+
+    ProjectDigest(long resourceGeneration, long psiModificationCount, long vfsModificationCount, @NotNull HashCode hash) {
+      this.resourceGeneration = resourceGeneration;
+      this.psiModificationCount = psiModificationCount;
+      this.vfsModificationCount = vfsModificationCount;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * A cached render: the rendered image and the bounds of the rendered views. The views do not have cookies or view objects.
+   */
+  public static class CachedRender {
+    @NotNull private final BufferedImage myImage;
+    @NotNull private final List<ViewInfo> myRootViews;
+
+    CachedRender(@NotNull BufferedImage image, @NotNull List<ViewInfo> rootViews) {
+      myImage = image;
+      myRootViews = rootViews;
+    }
+
+    @NotNull
+    public BufferedImage getImage() {
+      return myImage;
+    }
+
+    @NotNull
+    public List<ViewInfo> getRootViews() {
+      return myRootViews;
+    }
+  }
+
+  @NotNull private final Cache<String, CachedRender> myHeapCache;
+  @Nullable private final LruCacheDirectory myDiskCache;
+  @NotNull private final ExecutorService myDiskExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("RenderResultCache disk writer", 1);
+
+  @NotNull
+  public static RenderResultCache getInstance() {
+    return ServiceManager.getService(RenderResultCache.class);
+  }
+
+  public RenderResultCache() {
+    this(new File(PathManager.getSystemPath(), CACHE_DIRECTORY));
+  }
+
+  @VisibleForTesting
+  RenderResultCache(@Nullable File diskCacheDir) {
+    myDiskCache = diskCacheDir != null ? new LruCacheDirectory(diskCacheDir, MAX_DISK_BYTES) : null;
+    myHeapCache = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_HEAP_BYTES)
+      .weigher((String key, CachedRender render) -> render.getImage().getWidth() * render.getImage().getHeight() * 4)
+      .softValues()
+      .<String, CachedRender>removalListener(notification -> {
+        CachedRender render = notification.getValue();
+        if (notification.getCause() == RemovalCause.SIZE && render != null && myDiskCache != null) {
+          myDiskExecutor.execute(() -> writeToDisk(notification.getKey(), render));
+        }
+      })
+      .build();
+  }
+
+  /**
+   * Computes the cache key for rendering the given layout file with the given configuration. The key only depends on the contents of the
+   * project files and not on anything created by the render, so it can be computed, and the cached render displayed, before inflating
+   * the layout. Returns null if the key can not be computed, for example because the file is not backed by a {@link VirtualFile}.
+   */
+  @Nullable
+  public static String computeKey(@NotNull AndroidFacet facet, @NotNull XmlFile file, @NotNull Configuration configuration) {
+    return ApplicationManager.getApplication().runReadAction((Computable<String>)() -> {
+      VirtualFile virtualFile = file.getVirtualFile();
+      if (facet.isDisposed() || virtualFile == null) {
+        return null;
+      }
+      Module module = facet.getModule();
+      Hasher hasher = HASH_FUNCTION.newHasher();
+      hasher.putString(getToolVersion(), UTF_8);
+      hasher.putString(getLayoutlibVersion(module, configuration.getTarget()), UTF_8);
+
+      putNullableString(hasher, module.getProject().getBasePath());
+      hasher.putString(module.getName(), UTF_8);
+      hasher.putString(virtualFile.getPath(), UTF_8);
+      hasher.putBytes(getContentHash(virtualFile).asBytes());
+      hasher.putBytes(getProjectDigest(facet).asBytes());
+
+      Device device = configuration.getDevice();
+      putNullableString(hasher, device != null ? device.getId() : null);
+      State state = configuration.getDeviceState();
+      putNullableString(hasher, state != null ? state.getName() : null);
+      putNullableString(hasher, configuration.getTheme());
+      hasher.putString(configuration.getLocale().toLocaleId(), UTF_8);
+      IAndroidTarget target = configuration.getTarget();
+      putNullableString(hasher, target != null ? target.hashString() : null);
+      hasher.putString(configuration.getFullConfig().getQualifierString(), UTF_8);
+
+      return hasher.hash().toString();
+    });
+  }
+
+  /**
+   * Returns the versions of the IDE and of the Android plugin, so renders cached by other versions of the rendering code are not reused.
+   */
+  @NotNull
+  private static String getToolVersion() {
+    ApplicationInfo applicationInfo = ApplicationInfo.getInstance();
+    IdeaPluginDescriptor plugin = PluginManager.getPlugin(PluginId.getId(ANDROID_PLUGIN_ID));
+    String pluginVersion = plugin != null ? plugin.getVersion() : "";
+    return applicationInfo.getFullVersion() + ":" + applicationInfo.getBuild().asString() + ":" + pluginVersion;
+  }
+
+  @NotNull
+  private static String getLayoutlibVersion(@NotNull Module module, @Nullable IAndroidTarget target) {
+    LayoutLibrary layoutLibrary = RenderService.getLayoutLibrary(module, target);
+    return layoutLibrary != null ? layoutLibrary.getApiLevel() + ":" + layoutLibrary.getRevision() : "";
+  }
+
+  /**
+   * Returns a digest of the resources available to the given facet, including the library resources, and of the class files compiled
+   * for the module and its module dependencies. The digest is computed again when the resources, the PSI or the VFS change, and only the
+   * files modified since they were last hashed are read again.
+   */
+  @NotNull
+  private static HashCode getProjectDigest(@NotNull AndroidFacet facet) {
+    AppResourceRepository resources = AppResourceRepository.getOrCreateInstance(facet);
+    long resourceGeneration = resources.getModificationCount();
+    long psiModificationCount = PsiModificationTracker.SERVICE.getInstance(facet.getModule().getProject()).getModificationCount();
+    long vfsModificationCount = VirtualFileManager.getInstance().getModificationCount();
+    ProjectDigest digest = facet.getUserData(PROJECT_DIGEST_KEY);
+    if (digest != null && digest.resourceGeneration == resourceGeneration && digest.psiModificationCount == psiModificationCount &&
+        digest.vfsModificationCount == vfsModificationCount) {
+      return digest.hash;
+    }
+
+    List<VirtualFile> projectResourceDirs = new ArrayList<>();
+    List<VirtualFile> libraryResourceDirs = new ArrayList<>();
+    for (Map.Entry<String, VirtualFile> entry : resources.getAllResourceDirs().entries()) {
+      // Resource folders of the project modules do not have a library name
+      if (entry.getKey() == null) {
+        projectResourceDirs.add(entry.getValue());
+      }
+      else {
+        libraryResourceDirs.add(entry.getValue());
+      }
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    // The files of the project can be edited and saved again with the same contents, so they are hashed by content. Library resources
+    // are extracted from archives and class files are written by the build, for those the timestamps and lengths are enough.
+    for (VirtualFile file : getFiles(projectResourceDirs)) {
+      hasher.putString(file.getPath(), UTF_8);
+      hasher.putBytes(getContentHash(file).asBytes());
+    }
+    List<VirtualFile> generatedFiles = getFiles(libraryResourceDirs);
+    generatedFiles.addAll(getFiles(getClassOutputRoots(facet.getModule())));
+    for (VirtualFile file : generatedFiles) {
+      hasher.putString(file.getPath(), UTF_8);
+      hasher.putLong(file.getTimeStamp());
+      hasher.putLong(file.getLength());
+    }
+    HashCode hash = hasher.hash();
+    facet.putUserData(PROJECT_DIGEST_KEY, new ProjectDigest(resourceGeneration, psiModificationCount, vfsModificationCount, hash));
+    return hash;
+  }
+
+  /**
+   * Returns the class output folders of the given module and of the modules it depends on.
+   */
+  @NotNull
+  private static List<VirtualFile> getClassOutputRoots(@NotNull Module module) {
+    List<VirtualFile> roots = new ArrayList<>();
+    addClassOutputRoots(module, roots, new HashSet<>());
+    return roots;
+  }
+
+  private static void addClassOutputRoots(@NotNull Module module, @NotNull List<VirtualFile> roots, @NotNull Set<Module> visited) {
+    if (module.isDisposed() || !visited.add(module)) {
+      return;
+    }
+    CompilerModuleExtension extension = CompilerModuleExtension.getInstance(module);
+    VirtualFile outputPath = extension != null ? extension.getCompilerOutputPath() : null;
+    if (outputPath != null) {
+      roots.add(outputPath);
+    }
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet != null && facet.requiresAndroidModel()) {
+      AndroidModel androidModel = facet.getAndroidModel();
+      if (androidModel != null) {
+        roots.addAll(androidModel.getClassJarProvider().getModuleClassOutputRoots(module));
+      }
+    }
+    for (Module dependency : ModuleRootManager.getInstance(module).getDependencies(false)) {
+      addClassOutputRoots(dependency, roots, visited);
+    }
+  }
+
+  /**
+   * Returns the files under the given folders sorted by path, so the digests do not depend on the order the folders are listed in.
+   */
+  @NotNull
+  private static List<VirtualFile> getFiles(@NotNull Collection<VirtualFile> roots) {
+    Map<String, VirtualFile> files = new TreeMap<>();
+    for (VirtualFile root : roots) {
+      if (!root.isValid()) {
+        continue;
+      }
+      VfsUtilCore.iterateChildrenRecursively(root, null, file -> {
+        if (!file.isDirectory()) {
+          files.put(file.getPath(), file);
+        }
+        return true;
+      });
+    }
+    return new ArrayList<>(files.values());
+  }
+
+  /**
+   * Returns the hash of the contents of the given file, or of its document if it has unsaved changes. The hash is kept with the file and
+   * is only computed again once the file or the document are modified.
+   */
+  @NotNull
+  private static HashCode getContentHash(@NotNull VirtualFile file) {
+    FileDocumentManager documentManager = FileDocumentManager.getInstance();
+    Document document = documentManager.getCachedDocument(file);
+    boolean unsaved = document != null && documentManager.isDocumentUnsaved(document);
+    long fileStamp = file.getModificationStamp();
+    long documentStamp = unsaved ? document.getModificationStamp() : -1;
+    ContentHash contentHash = file.getUserData(CONTENT_HASH_KEY);
+    if (contentHash != null && contentHash.fileStamp == fileStamp && contentHash.documentStamp == documentStamp) {
+      return contentHash.hash;
+    }
+
+    HashCode hash;
+    if (unsaved) {
+      hash = HASH_FUNCTION.hashString(document.getImmutableCharSequence(), file.getCharset());
+    }
+    else {
+      try {
+        hash = HASH_FUNCTION.hashBytes(file.contentsToByteArray());
+      }
+      catch (IOException e) {
+        LOG.debug("Unable to read " + file.getPath(), e);
+        return HASH_FUNCTION.newHasher().putLong(file.getTimeStamp()).putLong(file.getLength()).hash();
+      }
+    }
+    file.putUserData(CONTENT_HASH_KEY, new ContentHash(fileStamp, documentStamp, hash));
+    return hash;
+  }
+
+  private static void putNullableString(@NotNull Hasher hasher, @Nullable String value) {
+    if (value == null) {
+      hasher.putBoolean(false);
+    }
+    else {
+      hasher.putBoolean(true);
+      hasher.putString(value, UTF_8);
+    }
+  }
+
+  /**
+   * Returns the render cached for the given key or null if there is none. This method might read from disk so it should not be called
+   * from the UI thread.
+   */
+  @Nullable
+  public CachedRender get(@NotNull String key) {
+    CachedRender render = myHeapCache.getIfPresent(key);
+    if (render != null || myDiskCache == null) {
+      return render;
+    }
+
+    File imageFile = myDiskCache.findFile(key + IMAGE_EXTENSION);
+    File viewsFile = myDiskCache.findFile(key + VIEWS_EXTENSION);
+    if (imageFile == null || viewsFile == null) {
+      return null;
+    }
+    try {
+      BufferedImage image = ImageIO.read(imageFile);
+      if (image == null) {
+        return null;
+      }
+      List<ViewInfo> rootViews;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(viewsFile)))) {
+        if (in.readInt() != VIEWS_FORMAT_VERSION) {
+          return null;
+        }
+        rootViews = readViews(in);
+      }
+      render = new CachedRender(image, rootViews);
+      myHeapCache.put(key, render);
+      return render;
+    }
+    catch (IOException e) {
+      LOG.debug("Unable to read cached render " + key, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the image and views of the given result under the given key. The render is written to the disk cache once it is evicted from
+   * the heap.
+   */
+  public void put(@NotNull String key, @NotNull RenderResult result) {
+    if (!result.getRenderResult().isSuccess() || !result.hasImage()) {
+      return;
+    }
+    BufferedImage image = result.getRenderedImage().getCopy();
+    if (image == null) {
+      return;
+    }
+    myHeapCache.put(key, new CachedRender(image, copyViews(result.getRootViews())));
+  }
+
+  @Override
+  public void dispose() {
+    try {
+      // Let the evicted renders be written first
+      myDiskExecutor.submit(() -> {}).get(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    catch (ExecutionException | TimeoutException e) {
+      LOG.debug("Unable to write evicted renders", e);
+    }
+    finally {
+      myDiskExecutor.shutdown();
+    }
+    flushToDisk();
+  }
+
+  /**
+   * Writes all the renders in the heap cache to disk.
+   */
+  void flushToDisk() {
+    if (myDiskCache == null) {
+      return;
+    }
+    for (Map.Entry<String, CachedRender> entry : myHeapCache.asMap().entrySet()) {
+      writeToDisk(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void writeToDisk(@NotNull String key, @NotNull CachedRender render) {
+    assert myDiskCache != null;
+    if (new File(myDiskCache.getDirectory(), key + IMAGE_EXTENSION).isFile() &&
+        new File(myDiskCache.getDirectory(), key + VIEWS_EXTENSION).isFile()) {
+      // Keys are content addressed, the render on disk is the same
+      return;
+    }
+    if (!myDiskCache.write(key + IMAGE_EXTENSION, out -> ImageIO.write(render.getImage(), "PNG", out))) {
+      return;
+    }
+    boolean written = myDiskCache.write(key + VIEWS_EXTENSION, out -> {
+      DataOutputStream dataOut = new DataOutputStream(out);
+      dataOut.writeInt(VIEWS_FORMAT_VERSION);
+      writeViews(dataOut, render.getRootViews());
+    });
+    if (!written) {
+      myDiskCache.delete(key + IMAGE_EXTENSION);
+    }
+  }
+
+  /**
+   * Returns a copy of the given views without the cookies and view objects since those are only valid for the session that created them.
+   */
+  @NotNull
+  private static List<ViewInfo> copyViews(@NotNull List<ViewInfo> views) {
+    if (views.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<ViewInfo> copy = new ArrayList<>(views.size());
+    for (ViewInfo view : views) {
+      ViewInfo viewCopy = new ViewInfo(view.getClassName(), null, view.getLeft(), view.getTop(), view.getRight(), view.getBottom());
+      viewCopy.setChildren(copyViews(view.getChildren()));
+      copy.add(viewCopy);
+    }
+    return copy;
+  }
+
+  private static void writeViews(@NotNull DataOutputStream out, @NotNull List<ViewInfo> views) throws IOException {
+    out.writeInt(views.size());
+    for (ViewInfo view : views) {
+      out.writeUTF(view.getClassName() != null ? view.getClassName() : "");
+      out.writeInt(view.getLeft());
+      out.writeInt(view.getTop());
+      out.writeInt(view.getRight());
+      out.writeInt(view.getBottom());
+      writeViews(out, view.getChildren());
+    }
+  }
+
+  @NotNull
+  private static List<ViewInfo> readViews(@NotNull DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count == 0) {
+      return Collections.emptyList();
+    }
+    List<ViewInfo> views = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ViewInfo view = new ViewInfo(in.readUTF(), null, in.readInt(), in.readInt(), in.readInt(), in.readInt());
+      view.setChildren(readViews(in));
+      views.add(view);
+    }
+    return views;
+  }
+
+  @VisibleForTesting
+  void clearHeapCache() {
+    myHeapCache.invalidateAll();
+  }
+}
@@ -324,6 +324,14 @@ public class RenderService extends AndroidFacetScopedService {
     return getModule().getProject();
   }
 
+  /**
+   * Returns the {@link ImagePool} used to allocate the images of the renders of this service.
+   */
+  @NotNull
+  public ImagePool getImagePool() {
+    return myImagePool;
+  }
+
   @Nullable
   public AndroidPlatform getPlatform() {
     return AndroidPlatform.getInstance(getModule());
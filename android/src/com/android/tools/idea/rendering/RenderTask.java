@@ -140,6 +140,7 @@ public class RenderTask implements IImageFactory {
   private ResourceFolderType myFolderType;
 
   private boolean myProvideCookiesForIncludedViews = false;
+  private boolean myEnableExtendedViewInfo = false;
   private RenderSession myRenderSession;
   private IImageFactory myImageFactoryDelegate;
   private SoftReference<BufferedImage> myCachedImageReference;
@@ -408,6 +409,26 @@ public class RenderTask implements IImageFactory {
     return this;
   }
 
+  /**
+   * Sets whether layoutlib should collect the margins and baselines of the views (see {@link ViewInfo#getBaseLine()}).
+   * Collecting them makes inflating more expensive and most renders (thumbnails, icons, previews) do not need them, so they are not
+   * collected by default. The change takes effect the next time the layout is inflated.
+   *
+   * @param enableExtendedViewInfo true if the margins and baselines should be collected
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  @NotNull
+  public RenderTask setEnableExtendedViewInfo(boolean enableExtendedViewInfo) {
+    myEnableExtendedViewInfo = enableExtendedViewInfo;
+    return this;
+  }
+
+  /** Returns whether layoutlib will collect the margins and baselines of the views. */
+  public boolean isExtendedViewInfoEnabled() {
+    return myEnableExtendedViewInfo;
+  }
+
   /** Returns whether this parser will provide view cookies for included views. */
   public boolean getProvideCookiesForIncludedViews() {
     return myProvideCookiesForIncludedViews;
@@ -468,12 +489,10 @@ public class RenderTask implements IImageFactory {
     params.setFlag(RenderParamsFlags.FLAG_KEY_DISABLE_BITMAP_CACHING, true);
     params.setFlag(RenderParamsFlags.FLAG_DO_NOT_RENDER_ON_CREATE, true);
 
-    // Request margin and baseline information.
-    // TODO: Be smarter about setting this; start without it, and on the first request
-    // for an extended view info, re-render in the same session, and then set a flag
-    // which will cause this to create extended view info each time from then on in the
-    // same session
-    params.setExtendedViewInfoMode(true);
+    // Only request margin and baseline information when needed; users of the task that need it
+    // will enable it and re-inflate (see setEnableExtendedViewInfo)
+    boolean extendedViewInfo = myEnableExtendedViewInfo;
+    params.setExtendedViewInfoMode(extendedViewInfo);
 
     MergedManifest manifestInfo = MergedManifest.get(module);
 
@@ -542,7 +561,13 @@ public class RenderTask implements IImageFactory {
       }
 
       try {
+        long startTime = System.nanoTime();
         RenderSession session = myLayoutLib.createSession(params);
+        ExtendedViewInfoMetrics.recordSessionCreated(extendedViewInfo, System.nanoTime() - startTime);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("Session created (extended view info: %1$b); estimated time saved without extended view info: %2$.2fms",
+                                  extendedViewInfo, ExtendedViewInfoMetrics.getEstimatedSavedTimePerSessionMs()));
+        }
 
         if (session.getResult().isSuccess()) {
           long now = System.nanoTime();
@@ -24,8 +24,11 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import static com.android.SdkConstants.*;
 import static com.google.common.base.Charsets.UTF_8;
@@ -50,6 +53,16 @@ public class TagSnapshot {
   @NotNull public List<AttributeSnapshot> attributes;
   /** Whether this element or any of its children has any aapt:attr definitions */
   public boolean hasDeclaredAaptAttrs = false;
+  /**
+   * Modification stamp of {@link #tag} at the time this snapshot was created. Used by
+   * {@link #createTagSnapshot(XmlTag, Consumer, TagSnapshot, ToLongFunction)} to decide whether the snapshot can be reused.
+   */
+  private long myModificationStamp;
+  /**
+   * The namespace declarations of the ancestors of {@link #tag} at the time this snapshot was created. The namespaces and prefixes of the
+   * tag and of its attributes are resolved against them, so the snapshot can only be reused while they are unchanged.
+   */
+  @NotNull private String myInheritedNamespaces = "";
 
   private TagSnapshot(@Nullable XmlTag tag, @Nullable String tagName, @Nullable String prefix, @Nullable String namespace,
                       @NotNull List<AttributeSnapshot> attributes, @NotNull List<TagSnapshot> children, boolean hasDeclaredAaptAttrs) {
@@ -75,6 +88,58 @@ public class TagSnapshot {
    */
   @NotNull
   public static TagSnapshot createTagSnapshot(@NotNull XmlTag tag, @Nullable Consumer<TagSnapshot> afterCreate) {
+    return createTagSnapshot(tag, afterCreate, null, t -> 0L);
+  }
+
+  /**
+   * Creates a new tag snapshot starting at the given tag, reusing the unchanged subtrees of a previous snapshot of the same hierarchy.
+   * <p>
+   * A child snapshot of {@code previous} is reused (without calling {@code afterCreate} again) when it was created for the same
+   * {@link XmlTag}, the modification stamp returned by {@code modificationStamps} for that tag has not changed since, and the namespace
+   * declarations of its ancestors are the same. The stamps
+   * must change for a tag whenever the tag or anything below it is modified (see {@link TagSnapshotModificationTracker}).
+   * The root snapshot is always recreated.
+   * <p>
+   * Snapshots of {@code previous} are never modified, so it remains valid for any existing users.
+   *
+   * @param tag The root tag to create the snapshot from
+   * @param afterCreate If not null, this will be called for every new {@link TagSnapshot} created by this call. Since reused snapshots are
+   *                    not passed to it, it must produce the same result every time it is called for the same unchanged tag
+   * @param previous A snapshot previously created for {@code tag} using the same {@code afterCreate}, or null
+   * @param modificationStamps Returns the modification stamp of a given tag
+   */
+  @NotNull
+  public static TagSnapshot createTagSnapshot(@NotNull XmlTag tag,
+                                              @Nullable Consumer<TagSnapshot> afterCreate,
+                                              @Nullable TagSnapshot previous,
+                                              @NotNull ToLongFunction<XmlTag> modificationStamps) {
+    StringBuilder inheritedNamespaces = new StringBuilder();
+    List<XmlTag> ancestors = Lists.newArrayList();
+    for (XmlTag parent = tag.getParentTag(); parent != null; parent = parent.getParentTag()) {
+      ancestors.add(parent);
+    }
+    for (XmlTag ancestor : Lists.reverse(ancestors)) {
+      appendNamespaceDeclarations(ancestor, inheritedNamespaces);
+    }
+    return createTagSnapshot(tag, afterCreate, previous, modificationStamps, inheritedNamespaces.toString());
+  }
+
+  @NotNull
+  private static TagSnapshot createTagSnapshot(@NotNull XmlTag tag,
+                                               @Nullable Consumer<TagSnapshot> afterCreate,
+                                               @Nullable TagSnapshot previous,
+                                               @NotNull ToLongFunction<XmlTag> modificationStamps,
+                                               @NotNull String inheritedNamespaces) {
+    Map<XmlTag, TagSnapshot> previousChildren = Collections.emptyMap();
+    if (previous != null && previous.tag == tag && !previous.children.isEmpty()) {
+      previousChildren = new HashMap<>(previous.children.size());
+      for (TagSnapshot previousChild : previous.children) {
+        if (previousChild.tag != null) {
+          previousChildren.put(previousChild.tag, previousChild);
+        }
+      }
+    }
+
     // Attributes
     List<AttributeSnapshot> attributes = AttributeSnapshot.createAttributesForTag(tag);
 
@@ -83,7 +148,10 @@ public class TagSnapshot {
     XmlTag[] subTags = tag.getSubTags();
     boolean hasDeclaredAaptAttrs = false;
     if (subTags.length > 0) {
+      StringBuilder childNamespaces = new StringBuilder(inheritedNamespaces);
+      String namespacesForChildren = appendNamespaceDeclarations(tag, childNamespaces) ? childNamespaces.toString() : inheritedNamespaces;
       TagSnapshot last = null;
+      boolean lastReused = false;
       children = Lists.newArrayListWithCapacity(subTags.length);
       for (XmlTag subTag : subTags) {
         if (AAPT_URI.equals(subTag.getNamespace())) {
@@ -98,13 +166,28 @@ public class TagSnapshot {
           continue;
         }
 
-        TagSnapshot child = createTagSnapshot(subTag, afterCreate);
+        TagSnapshot child = previousChildren.get(subTag);
+        boolean reused = child != null &&
+                         child.myModificationStamp == modificationStamps.applyAsLong(subTag) &&
+                         child.myInheritedNamespaces.equals(namespacesForChildren);
+        if (!reused) {
+          child = createTagSnapshot(subTag, afterCreate, child, modificationStamps, namespacesForChildren);
+        }
         hasDeclaredAaptAttrs |= child.hasDeclaredAaptAttrs;
-        children.add(child);
         if (last != null) {
+          if (lastReused && last.myNext != child) {
+            // The sibling link of a reused snapshot belongs to the previous hierarchy; use a shallow copy instead of modifying it
+            last = last.copyWithoutSiblings();
+            children.set(children.size() - 1, last);
+          }
           last.myNext = child;
         }
+        children.add(child);
         last = child;
+        lastReused = reused;
+      }
+      if (lastReused && last.myNext != null) {
+        children.set(children.size() - 1, last.copyWithoutSiblings());
       }
     } else {
       children = Collections.emptyList();
@@ -112,6 +195,8 @@ public class TagSnapshot {
 
     TagSnapshot newSnapshot =
       new TagSnapshot(tag, tag.getName(), tag.getNamespacePrefix(), tag.getNamespace(), attributes, children, hasDeclaredAaptAttrs);
+    newSnapshot.myModificationStamp = modificationStamps.applyAsLong(tag);
+    newSnapshot.myInheritedNamespaces = inheritedNamespaces;
     if (afterCreate != null) {
       afterCreate.accept(newSnapshot);
     }
@@ -119,6 +204,24 @@ public class TagSnapshot {
     return newSnapshot;
   }
 
+  /**
+   * Appends the namespace declarations of the given tag to {@code builder}.
+   *
+   * @return whether the tag declares any namespace
+   */
+  private static boolean appendNamespaceDeclarations(@NotNull XmlTag tag, @NotNull StringBuilder builder) {
+    Map<String, String> declarations = tag.getLocalNamespaceDeclarations();
+    if (declarations == null || declarations.isEmpty()) {
+      return false;
+    }
+    for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+      builder.append(declaration.getKey()).append('=').append(declaration.getValue()).append(';');
+    }
+    // Separates the declarations of nested tags, which may redeclare the same prefixes
+    builder.append('/');
+    return true;
+  }
+
   @NotNull
   public static TagSnapshot createTagSnapshotWithoutChildren(@NotNull XmlTag tag) {
     List<AttributeSnapshot> attributes = AttributeSnapshot.createAttributesForTag(tag);
@@ -212,6 +315,18 @@ public class TagSnapshot {
     return myNext;
   }
 
+  /**
+   * Returns a copy of this snapshot without a next sibling. The children are shared with this snapshot.
+   */
+  @NotNull
+  private TagSnapshot copyWithoutSiblings() {
+    TagSnapshot copy = new TagSnapshot(tag, tagName, prefix, namespace, attributes.isEmpty() ? attributes : Lists.newArrayList(attributes),
+                                       children, hasDeclaredAaptAttrs);
+    copy.myModificationStamp = myModificationStamp;
+    copy.myInheritedNamespaces = myInheritedNamespaces;
+    return copy;
+  }
+
   @Override
   public String toString() {
     return "TagSnapshot{" + tagName + ", attributes=" + attributes + ", children=\n" + children + "\n}";
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps per-{@link XmlTag} modification stamps for XML files so that {@link TagSnapshot} hierarchies can be rebuilt incrementally,
+ * reusing the snapshots of the tags that have not changed since the last render.
+ * <p>
+ * Whenever a tag, or anything below it, is modified, the stamps of the tag and all its parent tags are updated. Changes that can not be
+ * attributed to a tag (for example, a change of the XML prolog or a full reparse) drop the previous snapshot of the file altogether.
+ */
+public class TagSnapshotModificationTracker extends PsiTreeChangeAdapter {
+  private static final Key<Long> MODIFICATION_STAMP = Key.create("TagSnapshotModificationTracker.modificationStamp");
+  private static final Key<TagSnapshot> PREVIOUS_SNAPSHOT = Key.create("TagSnapshotModificationTracker.previousSnapshot");
+
+  private final AtomicLong myModificationCount = new AtomicLong();
+
+  @NotNull
+  public static TagSnapshotModificationTracker getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, TagSnapshotModificationTracker.class);
+  }
+
+  public TagSnapshotModificationTracker(@NotNull Project project) {
+    PsiManager.getInstance(project).addPsiTreeChangeListener(this, project);
+  }
+
+  /**
+   * Returns the modification stamp of the given tag. The stamp changes every time the tag or any of its children is modified.
+   */
+  public static long getModificationStamp(@NotNull XmlTag tag) {
+    Long stamp = tag.getUserData(MODIFICATION_STAMP);
+    return stamp != null ? stamp : 0L;
+  }
+
+  /**
+   * Returns the last snapshot recorded for the given file via {@link #setPreviousSnapshot(XmlFile, TagSnapshot)}, or null if there
+   * is none or the file has been modified in a way that prevents reusing it.
+   */
+  @Nullable
+  public TagSnapshot getPreviousSnapshot(@NotNull XmlFile file) {
+    return file.getUserData(PREVIOUS_SNAPSHOT);
+  }
+
+  public void setPreviousSnapshot(@NotNull XmlFile file, @Nullable TagSnapshot snapshot) {
+    file.putUserData(PREVIOUS_SNAPSHOT, snapshot);
+  }
+
+  private void elementChanged(@Nullable PsiElement element) {
+    if (element == null) {
+      return;
+    }
+    PsiFile file = element.getContainingFile();
+    if (!(file instanceof XmlFile) || file.getUserData(PREVIOUS_SNAPSHOT) == null) {
+      // No one is going to look at the stamps of a file without a snapshot
+      return;
+    }
+
+    XmlTag tag = PsiTreeUtil.getParentOfType(element, XmlTag.class, false);
+    if (tag == null) {
+      file.putUserData(PREVIOUS_SNAPSHOT, null);
+      return;
+    }
+
+    long stamp = myModificationCount.incrementAndGet();
+    while (tag != null) {
+      tag.putUserData(MODIFICATION_STAMP, stamp);
+      tag = tag.getParentTag();
+    }
+  }
+
+  @Override
+  public void childAdded(@NotNull PsiTreeChangeEvent event) {
+    elementChanged(event.getParent());
+  }
+
+  @Override
+  public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+    elementChanged(event.getParent());
+  }
+
+  @Override
+  public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+    elementChanged(event.getParent());
+  }
+
+  @Override
+  public void childMoved(@NotNull PsiTreeChangeEvent event) {
+    elementChanged(event.getOldParent());
+    elementChanged(event.getNewParent());
+  }
+
+  @Override
+  public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+    elementChanged(event.getParent());
+  }
+
+  @Override
+  public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+    PsiElement element = event.getElement();
+    if (element instanceof PsiFile) {
+      element.putUserData(PREVIOUS_SNAPSHOT, null);
+    }
+    else {
+      elementChanged(element);
+    }
+  }
+}
@@ -50,6 +50,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.SdkConstants.ATTR_ID;
@@ -158,6 +159,12 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
 
   private volatile long myGeneration;
 
+  /** The generation at which resources of all types were last modified */
+  private volatile long myFullGeneration;
+
+  /** The generation at which resources of each type were last modified, indexed by {@link ResourceType#ordinal()} */
+  private final AtomicLongArray myTypeGenerations = new AtomicLongArray(ResourceType.values().length);
+
   private final Object RESOURCE_DIRS_LOCK = new Object();
   @Nullable private Set<VirtualFile> myResourceDirs;
 
@@ -288,8 +295,33 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
     return myGeneration;
   }
 
+  /**
+   * Returns the generation at which resources of the given type were last modified, which is at most
+   * {@link #getModificationCount()}. Clients that cache data per resource type can compare this with the
+   * {@link #getModificationCount()} they last saw, to only recompute the data for the types that changed.
+   */
+  public long getModificationCount(@NotNull ResourceType type) {
+    return Math.max(myFullGeneration, myTypeGenerations.get(type.ordinal()));
+  }
+
+  /**
+   * Sets the generation after a modification that may affect resources of any type.
+   */
   protected void setModificationCount(long count) {
     myGeneration = count;
+    myFullGeneration = count;
+  }
+
+  /**
+   * Sets the generation after a modification that only affects resources of the given types. If no types
+   * are given, the modification does not affect any resources by itself, e.g. because it is already
+   * accounted for by the generations of other repositories.
+   */
+  protected void setModificationCount(long count, @NotNull ResourceType... types) {
+    for (ResourceType type : types) {
+      myTypeGenerations.set(type.ordinal(), count);
+    }
+    myGeneration = count;
   }
 
   @Nullable
@@ -129,13 +129,25 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       }
 
       if (changed) {
-        setModificationCount(ourModificationCounter.incrementAndGet());
+        // The children know which resource types they modified
+        setModificationCount(ourModificationCounter.incrementAndGet(), new ResourceType[0]);
       }
 
       return super.getModificationCount();
     }
   }
 
+  @Override
+  public long getModificationCount(@NotNull ResourceType type) {
+    synchronized (ITEM_MAP_LOCK) {
+      long count = super.getModificationCount(type);
+      for (int i = myChildren.size() - 1; i >= 0; i--) {
+        count = Math.max(count, myChildren.get(i).getModificationCount(type));
+      }
+      return count;
+    }
+  }
+
   @Nullable
   @Override
   public DataBindingInfo getDataBindingInfoForLayout(String layoutName) {
@@ -342,7 +354,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       }
 
       myFullTable = null;
-      setModificationCount(ourModificationCounter.incrementAndGet());
+      setModificationCount(ourModificationCounter.incrementAndGet(), types);
 
       invalidateParentCaches(namespace, types);
     }
@@ -1304,7 +1304,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       ResourceItem item = new PsiResourceItem(name, type, myNamespace, tag, psiFile);
                       map.put(name, item);
                       resourceFile.addItems(Collections.singletonList(item));
-                      setModificationCount(ourModificationCounter.incrementAndGet());
+                      setModificationCount(ourModificationCounter.incrementAndGet(), type);
                       invalidateParentCaches(myNamespace, type);
                       return;
                     }
@@ -1322,7 +1322,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                 ResourceItem parentItem = findValueResourceItem(parentTag, psiFile);
                 if (parentItem instanceof PsiResourceItem) {
                   if (((PsiResourceItem)parentItem).recomputeValue()) {
-                    setModificationCount(ourModificationCounter.incrementAndGet());
+                    setModificationCount(ourModificationCounter.incrementAndGet(), parentItem.getType());
                   }
                   return;
                 }
@@ -1367,7 +1367,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                     assert resFile instanceof PsiResourceFile;
                     PsiResourceFile resourceFile = (PsiResourceFile)resFile;
                     resourceFile.addItems(ids);
-                    setModificationCount(ourModificationCounter.incrementAndGet());
+                    setModificationCount(ourModificationCounter.incrementAndGet(), ResourceType.ID);
                     invalidateParentCaches(myNamespace, ResourceType.ID);
                   }
                 }
@@ -1468,7 +1468,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                   if (resourceItem instanceof PsiResourceItem) {
                     if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                      setModificationCount(ourModificationCounter.incrementAndGet());
+                      setModificationCount(ourModificationCounter.incrementAndGet(), resourceItem.getType());
                     }
 
                     if (resourceItem.getType() == ResourceType.ATTR) {
@@ -1477,7 +1477,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                         ResourceItem declareStyleable = findValueResourceItem(parentTag, psiFile);
                         if (declareStyleable instanceof PsiResourceItem) {
                           if (((PsiResourceItem)declareStyleable).recomputeValue()) {
-                            setModificationCount(ourModificationCounter.incrementAndGet());
+                            setModificationCount(ourModificationCounter.incrementAndGet(), declareStyleable.getType());
                           }
                         }
                       }
@@ -1515,7 +1515,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                         return;
                       }
                       if (removeItems(resourceFile, type, name, true)) {
-                        setModificationCount(ourModificationCounter.incrementAndGet());
+                        setModificationCount(ourModificationCounter.incrementAndGet(), type);
                         invalidateParentCaches(myNamespace, type);
                       }
                     }
@@ -1698,7 +1698,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                               map.put(newName, newItem);
                               resourceFile.addItem(newItem);
                             }
-                            setModificationCount(ourModificationCounter.incrementAndGet());
+                            setModificationCount(ourModificationCounter.incrementAndGet(), ResourceType.ID);
                             invalidateParentCaches(myNamespace, ResourceType.ID);
                             return;
                           }
@@ -1746,7 +1746,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                             map.put(newName, newItem);
                             resourceFile.addItem(newItem);
                           }
-                          setModificationCount(ourModificationCounter.incrementAndGet());
+                          setModificationCount(ourModificationCounter.incrementAndGet(), ResourceType.ID);
                           invalidateParentCaches(myNamespace, ResourceType.ID);
                           return;
                         }
@@ -1809,7 +1809,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                   if (resourceItem instanceof PsiResourceItem) {
                     if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                      setModificationCount(ourModificationCounter.incrementAndGet());
+                      setModificationCount(ourModificationCounter.incrementAndGet(), resourceItem.getType());
                     }
                     return;
                   }
@@ -1876,7 +1876,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                             assert false : item;
                           }
                         }
-                        setModificationCount(ourModificationCounter.incrementAndGet());
+                        setModificationCount(ourModificationCounter.incrementAndGet(), type);
                         invalidateParentCaches(myNamespace, type);
 
                         // Invalidate surrounding declare styleable if any
@@ -1904,7 +1904,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                       if (resourceItem instanceof PsiResourceItem) {
                         if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                          setModificationCount(ourModificationCounter.incrementAndGet());
+                          setModificationCount(ourModificationCounter.incrementAndGet(), resourceItem.getType());
                         }
                         return;
                       }
@@ -2001,7 +2001,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
           if (item instanceof PsiResourceItem) {
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
-              setModificationCount(ourModificationCounter.incrementAndGet());
+              setModificationCount(ourModificationCounter.incrementAndGet(), item.getType());
             }
           }
           return;
@@ -2020,7 +2020,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             // Edited XML value
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
-              setModificationCount(ourModificationCounter.incrementAndGet());
+              setModificationCount(ourModificationCounter.incrementAndGet(), item.getType());
             }
           }
           break;
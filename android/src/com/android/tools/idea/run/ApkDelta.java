@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The zip entries that differ between an installed APK and a new build of it, grouped by the kind
+ * of content they hold.
+ */
+public final class ApkDelta {
+  public enum Kind {
+    DEX,
+    RESOURCES,
+    NATIVE_LIBRARIES,
+    OTHER;
+
+    @NotNull
+    static Kind of(@NotNull String entryName) {
+      if (entryName.endsWith(".dex") && entryName.indexOf('/') < 0) {
+        return DEX;
+      }
+      if (entryName.equals("resources.arsc") || entryName.equals("AndroidManifest.xml") || entryName.startsWith("res/") ||
+          entryName.startsWith("assets/")) {
+        return RESOURCES;
+      }
+      if (entryName.startsWith("lib/")) {
+        return NATIVE_LIBRARIES;
+      }
+      return OTHER;
+    }
+  }
+
+  @NotNull private final List<String> myAdded;
+  @NotNull private final List<String> myChanged;
+  @NotNull private final List<String> myRemoved;
+
+  private ApkDelta(@NotNull List<String> added, @NotNull List<String> changed, @NotNull List<String> removed) {
+    myAdded = ImmutableList.copyOf(added);
+    myChanged = ImmutableList.copyOf(changed);
+    myRemoved = ImmutableList.copyOf(removed);
+  }
+
+  @NotNull
+  static ApkDelta compute(@NotNull Map<String, ApkFingerprint.Entry> installed, @NotNull Map<String, ApkFingerprint.Entry> current) {
+    List<String> added = new ArrayList<>();
+    List<String> changed = new ArrayList<>();
+    for (Map.Entry<String, ApkFingerprint.Entry> entry : current.entrySet()) {
+      ApkFingerprint.Entry installedEntry = installed.get(entry.getKey());
+      if (installedEntry == null) {
+        added.add(entry.getKey());
+      }
+      else if (!installedEntry.equals(entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    List<String> removed = new ArrayList<>(Sets.difference(installed.keySet(), current.keySet()));
+    return new ApkDelta(added, changed, removed);
+  }
+
+  @NotNull
+  public List<String> getAddedEntries() {
+    return myAdded;
+  }
+
+  @NotNull
+  public List<String> getChangedEntries() {
+    return myChanged;
+  }
+
+  @NotNull
+  public List<String> getRemovedEntries() {
+    return myRemoved;
+  }
+
+  public boolean isEmpty() {
+    return myAdded.isEmpty() && myChanged.isEmpty() && myRemoved.isEmpty();
+  }
+
+  /**
+   * Returns whether only entries of the given kinds were added, changed or removed.
+   */
+  public boolean onlyAffects(@NotNull Kind... kinds) {
+    Map<Kind, Integer> counts = getChangeCounts();
+    for (Kind kind : kinds) {
+      counts.remove(kind);
+    }
+    return counts.isEmpty();
+  }
+
+  /**
+   * Returns the number of entries added, changed or removed, for each kind of entry that has any.
+   */
+  @NotNull
+  public Map<Kind, Integer> getChangeCounts() {
+    Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+    for (List<String> entries : ImmutableList.of(myAdded, myChanged, myRemoved)) {
+      for (String entry : entries) {
+        counts.merge(Kind.of(entry), 1, Integer::sum);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Returns a short description of the changes, such as "2 dex and 14 resources entries changed".
+   */
+  @NotNull
+  public String getDescription() {
+    Map<Kind, Integer> counts = getChangeCounts();
+    if (counts.isEmpty()) {
+      return "No entries changed";
+    }
+    List<String> parts = new ArrayList<>();
+    for (Map.Entry<Kind, Integer> entry : counts.entrySet()) {
+      parts.add(entry.getValue() + " " + StringUtil.toLowerCase(entry.getKey().name()).replace('_', ' '));
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < parts.size(); i++) {
+      if (i > 0) {
+        sb.append(i == parts.size() - 1 ? " and " : ", ");
+      }
+      sb.append(parts.get(i));
+    }
+    return sb.append(" entries changed").toString();
+  }
+}
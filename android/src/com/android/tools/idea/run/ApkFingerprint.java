@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Identifies the contents of an APK from its zip central directory, which records the CRC and size
+ * of every entry, and from its APK Signing Block if it has one. Computing it only reads the end of
+ * the file, so it is much cheaper than hashing a large APK, and two fingerprints tell which entries
+ * changed.
+ *
+ * Files which are not zip files this can read (for example zip64 archives) are identified by a
+ * hash of their whole contents instead.
+ */
+public final class ApkFingerprint {
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+  private static final byte[] APK_SIGNING_BLOCK_MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+  private static final int MAX_SIGNING_BLOCK_SIZE = 16 * 1024 * 1024;
+
+  /** Entry name to its CRC and uncompressed size. */
+  @NotNull private final Map<String, Entry> myEntries;
+  @NotNull private final HashCode myHash;
+
+  private ApkFingerprint(@NotNull Map<String, Entry> entries, @NotNull HashCode hash) {
+    myEntries = entries;
+    myHash = hash;
+  }
+
+  @NotNull
+  public static ApkFingerprint compute(@NotNull File apk) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(apk, "r")) {
+      ApkFingerprint fingerprint = readCentralDirectory(file);
+      if (fingerprint != null) {
+        return fingerprint;
+      }
+    }
+    return new ApkFingerprint(ImmutableMap.of(), Files.hash(apk, Hashing.goodFastHash(32)));
+  }
+
+  @Nullable
+  private static ApkFingerprint readCentralDirectory(@NotNull RandomAccessFile file) throws IOException {
+    long fileSize = file.length();
+    if (fileSize < EOCD_SIZE) {
+      return null;
+    }
+
+    // The end of central directory record is followed by a comment of up to 64K
+    int tailSize = (int)Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(file, fileSize - tailSize, tailSize);
+    int eocd = -1;
+    for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+        eocd = i;
+        break;
+      }
+    }
+    if (eocd < 0) {
+      return null;
+    }
+    int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+    long centralDirectorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+    long centralDirectoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+    if (entryCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL ||
+        centralDirectoryOffset + centralDirectorySize > fileSize - tailSize + eocd) {
+      return null; // zip64, or not a valid archive
+    }
+
+    Hasher hasher = Hashing.goodFastHash(32).newHasher();
+    Map<String, Entry> entries = new TreeMap<>();
+    ByteBuffer directory = read(file, centralDirectoryOffset, (int)centralDirectorySize);
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (position + CENTRAL_DIRECTORY_ENTRY_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY_SIGNATURE) {
+        return null;
+      }
+      long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+      long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+      int nameLength = directory.getShort(position + 28) & 0xFFFF;
+      int extraLength = directory.getShort(position + 30) & 0xFFFF;
+      int commentLength = directory.getShort(position + 32) & 0xFFFF;
+      if (position + CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength > directory.limit()) {
+        return null;
+      }
+      String name = new String(directory.array(), position + CENTRAL_DIRECTORY_ENTRY_SIZE, nameLength, StandardCharsets.UTF_8);
+      entries.put(name, new Entry(crc, size));
+      position += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+    }
+    // The central directory includes the names, CRCs and sizes, in the order of the archive
+    hasher.putBytes(directory.array(), 0, directory.limit());
+
+    // APK Signature Scheme v2 and later sign the APK in a block right before the central directory. Re-signing an APK with another
+    // key only changes that block.
+    if (centralDirectoryOffset >= 24) {
+      ByteBuffer footer = read(file, centralDirectoryOffset - 24, 24);
+      byte[] magic = new byte[APK_SIGNING_BLOCK_MAGIC.length];
+      footer.position(8);
+      footer.get(magic);
+      long blockSize = footer.getLong(0);
+      if (Arrays.equals(magic, APK_SIGNING_BLOCK_MAGIC) && blockSize > 0 && blockSize <= MAX_SIGNING_BLOCK_SIZE &&
+          blockSize + 8 <= centralDirectoryOffset) {
+        ByteBuffer block = read(file, centralDirectoryOffset - blockSize - 8, (int)blockSize + 8);
+        hasher.putBytes(block.array());
+      }
+    }
+
+    return new ApkFingerprint(ImmutableMap.copyOf(entries), hasher.hash());
+  }
+
+  @NotNull
+  private static ByteBuffer read(@NotNull RandomAccessFile file, long offset, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    file.seek(offset);
+    file.readFully(bytes);
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns the entries of the archive, or an empty map if it could not be read as a zip file.
+   */
+  @NotNull
+  public Map<String, Entry> getEntries() {
+    return myEntries;
+  }
+
+  /**
+   * Returns the changes needed to go from the {@code installed} APK to this one.
+   */
+  @NotNull
+  public ApkDelta diff(@NotNull ApkFingerprint installed) {
+    return ApkDelta.compute(installed.myEntries, myEntries);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ApkFingerprint)) {
+      return false;
+    }
+    ApkFingerprint other = (ApkFingerprint)o;
+    return myHash.equals(other.myHash) && myEntries.equals(other.myEntries);
+  }
+
+  @Override
+  public int hashCode() {
+    return myHash.hashCode();
+  }
+
+  public static final class Entry {
+    private final long myCrc;
+    private final long mySize;
+
+    Entry(long crc, long size) {
+      myCrc = crc;
+      mySize = size;
+    }
+
+    public long getCrc() {
+      return myCrc;
+    }
+
+    public long getSize() {
+      return mySize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry other = (Entry)o;
+      return myCrc == other.myCrc && mySize == other.mySize;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(myCrc) * 31 + Long.hashCode(mySize);
+    }
+  }
+}
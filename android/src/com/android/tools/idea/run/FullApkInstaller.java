@@ -105,7 +105,12 @@ public class FullApkInstaller {
 
     try {
       Integer userId = LaunchUtils.getUserIdFromFlags(myLaunchOptions.getPmInstallOptions());
-      if (!myInstalledApkCache.isInstalled(device, localFile, packageName, userId)) {
+      InstalledApkCache.InstallCheck check = myInstalledApkCache.check(device, localFile, packageName, userId);
+      if (!check.isInstalled()) {
+        ApkDelta delta = check.getDelta();
+        if (delta != null && !delta.isEmpty()) {
+          myPrinter.stdout(delta.getDescription() + " since last installation of " + localFile.getPath());
+        }
         return true;
       }
     } catch (IOException e) {
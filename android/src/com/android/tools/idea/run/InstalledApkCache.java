@@ -19,9 +19,6 @@ import com.android.annotations.VisibleForTesting;
 import com.android.ddmlib.*;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
@@ -53,16 +50,28 @@ public class InstalledApkCache implements Disposable {
       @NotNull File apk,
       @NotNull String pkgName,
       @Nullable Integer userId) throws IOException {
+    return check(device, apk, pkgName, userId).isInstalled();
+  }
+
+  /**
+   * Compares {@code apk} with the APK last recorded with {@link #setInstalled}, querying the package manager of the device and reading
+   * the APK only once.
+   */
+  @NotNull
+  public InstallCheck check(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName, @Nullable Integer userId)
+    throws IOException {
     CacheData state = myCache.get(device, pkgName);
     if (state == null) {
-      return false;
+      return InstallCheck.UNKNOWN;
     }
 
     InstallState currentState = getInstallState(device, pkgName);
-    return currentState != null &&
-           state.installState.lastUpdateTime.equals(currentState.lastUpdateTime) &&
-           state.hash.equals(hash(apk)) &&
-           (userId == null || currentState.users.contains(userId));
+    if (currentState == null || !state.installState.lastUpdateTime.equals(currentState.lastUpdateTime)) {
+      return InstallCheck.UNKNOWN;
+    }
+    ApkFingerprint fingerprint = ApkFingerprint.compute(apk);
+    boolean installed = state.fingerprint.equals(fingerprint) && (userId == null || currentState.users.contains(userId));
+    return new InstallCheck(installed, fingerprint.diff(state.fingerprint));
   }
 
   public void setInstalled(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
@@ -80,12 +89,16 @@ public class InstalledApkCache implements Disposable {
       return;
     }
 
-    myCache.put(device, pkgName, new CacheData(installState, hash(apk)));
+    myCache.put(device, pkgName, new CacheData(installState, ApkFingerprint.compute(apk)));
   }
 
-  @NotNull
-  private static HashCode hash(@NotNull File apk) throws IOException {
-    return Files.hash(apk, Hashing.goodFastHash(32));
+  /**
+   * Returns the zip entries of {@code apk} which differ from the APK last recorded with {@link #setInstalled}, or null if the
+   * installed APK is not known, for example because the package was reinstalled from outside of the IDE.
+   */
+  @Nullable
+  public ApkDelta getDelta(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
+    return check(device, apk, pkgName, null).getDelta();
   }
 
   @VisibleForTesting
@@ -173,13 +186,43 @@ public class InstalledApkCache implements Disposable {
     }
   }
 
+  /**
+   * The result of comparing an APK with the one last installed on a device.
+   */
+  public static class InstallCheck {
+    private static final InstallCheck UNKNOWN = new InstallCheck(false, null);
+
+    private final boolean myInstalled;
+    @Nullable private final ApkDelta myDelta;
+
+    private InstallCheck(boolean installed, @Nullable ApkDelta delta) {
+      myInstalled = installed;
+      myDelta = delta;
+    }
+
+    /**
+     * Returns whether the APK is the one installed, for the requested user if any.
+     */
+    public boolean isInstalled() {
+      return myInstalled;
+    }
+
+    /**
+     * Returns the zip entries of the APK which differ from the installed one, or null if the installed APK is not known.
+     */
+    @Nullable
+    public ApkDelta getDelta() {
+      return myDelta;
+    }
+  }
+
   private static class CacheData {
     @NotNull private final InstallState installState;
-    @NotNull private final HashCode hash;
+    @NotNull private final ApkFingerprint fingerprint;
 
-    private CacheData(@NotNull InstallState installState, @NotNull HashCode hash) {
+    private CacheData(@NotNull InstallState installState, @NotNull ApkFingerprint fingerprint) {
       this.installState = installState;
-      this.hash = hash;
+      this.fingerprint = fingerprint;
     }
   }
 }
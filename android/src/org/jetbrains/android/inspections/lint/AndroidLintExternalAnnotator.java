@@ -178,6 +178,15 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
         return state; // Lint cannot run in dumb mode.
       }
 
+      // Reuse the problems found by a previous run, in the editor or in batch mode, on the same contents and inputs
+      LintResultCache cache = LintResultCache.getInstance();
+      LintResultCache.CacheKey key = cache.computeKey(state.getModule(), mainFile, state.getMainFileContent(), state.getIssues());
+      List<ProblemData> cachedProblems = cache.get(key);
+      if (cachedProblems != null) {
+        state.getProblems().addAll(cachedProblems);
+        return state;
+      }
+
       List<VirtualFile> files = Collections.singletonList(mainFile);
       LintRequest request = new LintIdeRequest(client, project, files,
                                                Collections.singletonList(state.getModule()), true /* incremental */);
@@ -185,6 +194,9 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
 
       LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client, request);
       lint.analyze();
+      if (!state.isDirty()) {
+        cache.put(key, state.getProblems());
+      }
     }
     finally {
       Disposer.dispose(client);
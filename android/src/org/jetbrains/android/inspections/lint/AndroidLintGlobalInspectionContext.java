@@ -11,7 +11,9 @@ import com.android.tools.lint.client.api.LintRequest;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.LintUtils;
 import com.android.tools.lint.detector.api.Scope;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInspection.GlobalInspectionContext;
 import com.intellij.codeInspection.ex.InspectionToolWrapper;
@@ -28,18 +30,25 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.module.impl.scopes.ModuleWithDependenciesScope;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.util.ProgressWrapper;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementVisitor;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
 import com.intellij.psi.search.LocalSearchScope;
 import com.intellij.psi.search.SearchScope;
+import com.intellij.util.PathUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.HashMap;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
@@ -47,11 +56,21 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static org.jetbrains.android.inspections.lint.AndroidLintInspectionBase.LINT_INSPECTION_PREFIX;
 
 class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExtension<AndroidLintGlobalInspectionContext> {
+  private static final Logger LOG = Logger.getInstance(AndroidLintGlobalInspectionContext.class);
   static final Key<AndroidLintGlobalInspectionContext> ID = Key.create("AndroidLintGlobalInspectionContext");
+  /** Maximum number of lint drivers running at the same time in batch mode */
+  private static final int MAX_PARALLEL_DRIVERS = 4;
   private Map<Issue, Map<File, List<ProblemData>>> myResults;
   private LintBaseline myBaseline;
   private Issue myEnabledIssue;
@@ -233,46 +252,38 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
       }
     }
 
-    LintRequest request = new LintIdeRequest(client, project, files, modules, false);
-    request.setScope(lintScope);
-    final LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client, request);
-
     // Baseline analysis?
-    myBaseline = null;
-    for (Module module : modules) {
-      AndroidModuleModel model = AndroidModuleModel.get(module);
-      if (model != null) {
-        GradleVersion version = model.getModelVersion();
-        if (version != null && version.isAtLeast(2, 3, 0, "beta", 2, true)) {
-          LintOptions options = model.getAndroidProject().getLintOptions();
-          try {
-            File baselineFile = options.getBaselineFile();
-            if (baselineFile != null && !AndroidLintLintBaselineInspection.ourSkipBaselineNextRun) {
-              if (!baselineFile.isAbsolute()) {
-                String path = module.getProject().getBasePath();
-                if (path != null) {
-                  baselineFile = new File(FileUtil.toSystemDependentName(path), baselineFile.getPath());
-                }
-              }
-              myBaseline = new LintBaseline(client, baselineFile);
-              lint.setBaseline(myBaseline);
-              if (!baselineFile.isFile()) {
-                myBaseline.setWriteOnClose(true);
-              } else if (AndroidLintLintBaselineInspection.ourUpdateBaselineNextRun) {
-                myBaseline.setRemoveFixed(true);
-                myBaseline.setWriteOnClose(true);
-              }
+    myBaseline = createBaseline(client, modules);
+
+    // Files analyzed before with the same contents and inputs, in the editor or in batch mode, are not analyzed again. Cached problems
+    // would bypass the baseline, so they are only used without one.
+    Map<File, LintResultCache.CacheKey> cacheKeys = Collections.emptyMap();
+    if (files != null && myBaseline == null) {
+      cacheKeys = new HashMap<>();
+      files = addCachedProblems(project, files, issues, problemMap, cacheKeys);
+    }
 
-            }
-          } catch (Throwable unsupported) {
-            // During 2.3 development some builds may have this method, others may not
-          }
-        }
-        break;
+    long start = System.currentTimeMillis();
+    if (files != null && files.isEmpty()) {
+      LOG.debug("All the files in the scope have cached lint results");
+    }
+    else if (files != null || modules.size() <= 1 || myBaseline != null && myBaseline.isWriteOnClose()) {
+      // A baseline that is written when the analysis completes has to see every problem, and it is not thread safe, so creating or
+      // updating one analyzes everything with a single driver.
+      LintRequest request = new LintIdeRequest(client, project, files, modules, false);
+      request.setScope(lintScope);
+      final LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client, request);
+      if (myBaseline != null) {
+        lint.setBaseline(myBaseline);
       }
+      lint.analyze();
     }
-
-    lint.analyze();
+    else {
+      analyzeInParallel(project, modules, problemMap, scope, issues, lintScope, myBaseline != null ? myBaseline.getFile() : null,
+                        indicator);
+    }
+    LOG.debug(String.format("Lint analysis of %1$d modules took %2$d ms", modules.size(), System.currentTimeMillis() - start));
+    cacheProblems(problemMap, cacheKeys);
 
     List<Tools> tools = AndroidLintInspectionBase.getDynamicTools();
     AndroidLintInspectionBase.resetDynamicTools();
@@ -299,6 +310,365 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
     myResults = problemMap;
   }
 
+  /**
+   * Returns the baseline configured for the first Gradle module among the given ones, or null if there is none.
+   */
+  @Nullable
+  private static LintBaseline createBaseline(@NotNull LintIdeClient client, @NotNull List<Module> modules) {
+    for (Module module : modules) {
+      if (AndroidModuleModel.get(module) != null) {
+        File baselineFile = getBaselineFile(module);
+        if (baselineFile != null && !AndroidLintLintBaselineInspection.ourSkipBaselineNextRun) {
+          LintBaseline baseline = new LintBaseline(client, baselineFile);
+          if (!baselineFile.isFile()) {
+            baseline.setWriteOnClose(true);
+          } else if (AndroidLintLintBaselineInspection.ourUpdateBaselineNextRun) {
+            baseline.setRemoveFixed(true);
+            baseline.setWriteOnClose(true);
+          }
+          return baseline;
+        }
+        break;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the baseline file configured for the given Gradle module, or null if there is none.
+   */
+  @Nullable
+  static File getBaselineFile(@NotNull Module module) {
+    AndroidModuleModel model = AndroidModuleModel.get(module);
+    if (model != null) {
+      GradleVersion version = model.getModelVersion();
+      if (version != null && version.isAtLeast(2, 3, 0, "beta", 2, true)) {
+        LintOptions options = model.getAndroidProject().getLintOptions();
+        try {
+          File baselineFile = options.getBaselineFile();
+          if (baselineFile != null && !baselineFile.isAbsolute()) {
+            String path = module.getProject().getBasePath();
+            if (path != null) {
+              baselineFile = new File(FileUtil.toSystemDependentName(path), baselineFile.getPath());
+            }
+          }
+          return baselineFile;
+        } catch (Throwable unsupported) {
+          // During 2.3 development some builds may have this method, others may not
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds the cached problems of the given files to {@code problemMap} and returns the files that still have to be analyzed. The cache
+   * keys of those are added to {@code cacheKeys} so that their problems can be cached by {@link #cacheProblems(Map, Map)}.
+   */
+  @NotNull
+  private static List<VirtualFile> addCachedProblems(@NotNull Project project,
+                                                     @NotNull List<VirtualFile> files,
+                                                     @NotNull Set<Issue> issues,
+                                                     @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
+                                                     @NotNull Map<File, LintResultCache.CacheKey> cacheKeys) {
+    LintResultCache cache = LintResultCache.getInstance();
+    List<VirtualFile> remaining = new ArrayList<>();
+    for (VirtualFile file : files) {
+      Pair<Module, String> moduleAndText = ReadAction.compute(() -> {
+        Module module = ModuleUtilCore.findModuleForFile(file, project);
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        return module != null && psiFile != null ? Pair.create(module, psiFile.getText()) : null;
+      });
+      if (moduleAndText == null) {
+        remaining.add(file);
+        continue;
+      }
+
+      LintResultCache.CacheKey key = cache.computeKey(moduleAndText.getFirst(), file, moduleAndText.getSecond(), issues);
+      File ioFile = new File(PathUtil.getCanonicalPath(file.getPath()));
+      List<ProblemData> problems = cache.get(key);
+      if (problems != null) {
+        for (ProblemData problem : problems) {
+          problemMap.computeIfAbsent(problem.getIssue(), issue -> new HashMap<>()).computeIfAbsent(ioFile, f -> new ArrayList<>()).add(problem);
+        }
+      }
+      else {
+        cacheKeys.put(ioFile, key);
+        remaining.add(file);
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Stores the problems found in the files with the given cache keys in the {@link LintResultCache}.
+   */
+  private static void cacheProblems(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
+                                    @NotNull Map<File, LintResultCache.CacheKey> cacheKeys) {
+    if (cacheKeys.isEmpty()) {
+      return;
+    }
+    Map<File, List<ProblemData>> problemsByFile = new HashMap<>();
+    for (File file : cacheKeys.keySet()) {
+      problemsByFile.put(file, new ArrayList<>());
+    }
+    for (Map<File, List<ProblemData>> file2ProblemList : problemMap.values()) {
+      for (Map.Entry<File, List<ProblemData>> entry : file2ProblemList.entrySet()) {
+        List<ProblemData> problems = problemsByFile.get(entry.getKey());
+        if (problems != null) {
+          problems.addAll(entry.getValue());
+        }
+      }
+    }
+    LintResultCache cache = LintResultCache.getInstance();
+    for (Map.Entry<File, LintResultCache.CacheKey> entry : cacheKeys.entrySet()) {
+      cache.put(entry.getValue(), problemsByFile.get(entry.getKey()));
+    }
+  }
+
+  /**
+   * Analyzes each module with its own lint client and driver, on a bounded pool, and merges the problems found into
+   * {@code problemMap}. The modules in the scope that a module depends on are analyzed by their own drivers, so its driver only
+   * references them as libraries. A module is only analyzed once the modules in the scope it depends on have been analyzed, and each
+   * problem is kept only from the analysis of the module that owns its file. Each driver filters its problems with its own copy of
+   * the baseline read from {@code baselineFile}, if any.
+   */
+  private static void analyzeInParallel(@NotNull Project project,
+                                        @NotNull List<Module> modules,
+                                        @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
+                                        @NotNull AnalysisScope scope,
+                                        @NotNull Set<Issue> issues,
+                                        @Nullable EnumSet<Scope> lintScope,
+                                        @Nullable File baselineFile,
+                                        @Nullable ProgressIndicator indicator) {
+    int maxThreads = Math.min(MAX_PARALLEL_DRIVERS, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Android Lint batch analysis", maxThreads);
+    try {
+      Map<Module, Collection<Module>> dependencies = ReadAction.compute(() -> {
+        Map<Module, Collection<Module>> result = new HashMap<>();
+        Deque<Module> queue = new ArrayDeque<>(modules);
+        while (!queue.isEmpty()) {
+          Module module = queue.removeFirst();
+          if (!result.containsKey(module)) {
+            Collection<Module> moduleDependencies = getModuleDependencies(module);
+            result.put(module, moduleDependencies);
+            queue.addAll(moduleDependencies);
+          }
+        }
+        return result;
+      });
+
+      Set<Module> scopeModules = new HashSet<>(modules);
+      List<Future<Map<Issue, Map<File, List<ProblemData>>>>> jobs =
+        runInDependencyOrder(modules, module -> dependencies.getOrDefault(module, Collections.emptyList()), executor, module -> {
+          Map<Issue, Map<File, List<ProblemData>>> moduleProblemMap = new HashMap<>();
+          ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+            LintIdeClient client = LintIdeClient.forBatch(project, moduleProblemMap, scope, issues);
+            LintIdeRequest request = new LintIdeRequest(client, project, null, Collections.singletonList(module), false);
+            request.setScope(lintScope);
+            Set<Module> analyzedSeparately = new HashSet<>(scopeModules);
+            analyzedSeparately.remove(module);
+            request.setModulesAnalyzedSeparately(analyzedSeparately);
+            LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client, request);
+            if (baselineFile != null) {
+              lint.setBaseline(new LintBaseline(client, baselineFile));
+            }
+            lint.analyze();
+          }, indicator != null ? ProgressWrapper.wrap(indicator) : null);
+          return moduleProblemMap;
+        });
+
+      Map<File, Module> owners = new HashMap<>();
+      Map<File, Module> reporters = new HashMap<>();
+      for (int i = 0; i < modules.size(); i++) {
+        Module module = modules.get(i);
+        Map<Issue, Map<File, List<ProblemData>>> moduleProblemMap;
+        try {
+          moduleProblemMap = jobs.get(i).get();
+        }
+        catch (ExecutionException e) {
+          if (e.getCause() instanceof ProcessCanceledException) {
+            throw (ProcessCanceledException)e.getCause();
+          }
+          LOG.error(e.getCause());
+          continue;
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ProcessCanceledException(e);
+        }
+
+        for (Map<File, List<ProblemData>> file2ProblemList : moduleProblemMap.values()) {
+          file2ProblemList.keySet().removeIf(file -> {
+            if (!owners.containsKey(file)) {
+              owners.put(file, ReadAction.compute(() -> {
+                VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByIoFile(file);
+                return virtualFile != null ? ModuleUtilCore.findModuleForFile(virtualFile, project) : null;
+              }));
+            }
+            Module owner = owners.get(file);
+            if (owner != null && scopeModules.contains(owner)) {
+              return owner != module;
+            }
+            // Files outside of the analyzed modules are reported by the first module that finds problems in them
+            Module reporter = reporters.putIfAbsent(file, module);
+            return reporter != null && reporter != module;
+          });
+        }
+        mergeProblems(problemMap, moduleProblemMap);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void mergeProblems(@NotNull Map<Issue, Map<File, List<ProblemData>>> target,
+                                    @NotNull Map<Issue, Map<File, List<ProblemData>>> source) {
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> issueEntry : source.entrySet()) {
+      if (issueEntry.getValue().isEmpty()) {
+        continue;
+      }
+      Map<File, List<ProblemData>> file2ProblemList = target.computeIfAbsent(issueEntry.getKey(), issue -> new HashMap<>());
+      for (Map.Entry<File, List<ProblemData>> fileEntry : issueEntry.getValue().entrySet()) {
+        file2ProblemList.computeIfAbsent(fileEntry.getKey(), file -> new ArrayList<>()).addAll(fileEntry.getValue());
+      }
+    }
+  }
+
+  @NotNull
+  private static Collection<Module> getModuleDependencies(@NotNull Module module) {
+    return Arrays.asList(ModuleRootManager.getInstance(module).getDependencies());
+  }
+
+  /**
+   * Runs {@code task} for each of the given modules on {@code executor}, starting a module only once the tasks of the modules in the
+   * list it depends on, directly or through modules not in the list, have completed. Dependencies that close a cycle are ignored. A
+   * module still runs if the task of one of its dependencies failed. The returned futures are in the order of the list.
+   */
+  @VisibleForTesting
+  @NotNull
+  static <T, R> List<Future<R>> runInDependencyOrder(@NotNull List<T> modules,
+                                                     @NotNull Function<T, Collection<T>> getDependencies,
+                                                     @NotNull Executor executor,
+                                                     @NotNull Function<T, R> task) {
+    Set<T> inScope = new HashSet<>(modules);
+    Map<T, Set<T>> dependencies = new LinkedHashMap<>();
+    for (T module : modules) {
+      dependencies.put(module, findDependenciesInScope(module, inScope, getDependencies));
+    }
+    Set<T> visited = new HashSet<>();
+    for (T module : modules) {
+      removeCycles(module, dependencies, visited, new HashSet<>());
+    }
+    return new DependencyScheduler<>(dependencies, executor, task).start();
+  }
+
+  /**
+   * Returns the modules in {@code inScope} that {@code module} depends on, directly or through modules not in {@code inScope}.
+   */
+  @NotNull
+  private static <T> Set<T> findDependenciesInScope(@NotNull T module,
+                                                    @NotNull Set<T> inScope,
+                                                    @NotNull Function<T, Collection<T>> getDependencies) {
+    Set<T> result = new LinkedHashSet<>();
+    Set<T> visited = new HashSet<>();
+    Deque<T> queue = new ArrayDeque<>(getDependencies.apply(module));
+    while (!queue.isEmpty()) {
+      T dependency = queue.removeFirst();
+      if (dependency.equals(module) || !visited.add(dependency)) {
+        continue;
+      }
+      if (inScope.contains(dependency)) {
+        result.add(dependency);
+      }
+      else {
+        queue.addAll(getDependencies.apply(dependency));
+      }
+    }
+    return result;
+  }
+
+  private static <T> void removeCycles(@NotNull T module, @NotNull Map<T, Set<T>> dependencies, @NotNull Set<T> visited,
+                                       @NotNull Set<T> path) {
+    if (!visited.add(module)) {
+      return;
+    }
+    path.add(module);
+    Set<T> moduleDependencies = dependencies.get(module);
+    for (T dependency : new ArrayList<>(moduleDependencies)) {
+      if (path.contains(dependency)) {
+        moduleDependencies.remove(dependency);
+      }
+      else {
+        removeCycles(dependency, dependencies, visited, path);
+      }
+    }
+    path.remove(module);
+  }
+
+  /**
+   * Submits the task of each module once the tasks of all its dependencies have completed. The dependency graph must be acyclic.
+   */
+  private static class DependencyScheduler<T, R> {
+    private final Executor myExecutor;
+    private final Function<T, R> myTask;
+    private final Map<T, SettableFuture<R>> myFutures = new LinkedHashMap<>();
+    private final Map<T, AtomicInteger> myPendingDependencies = new HashMap<>();
+    private final Map<T, List<T>> myDependents = new HashMap<>();
+
+    DependencyScheduler(@NotNull Map<T, Set<T>> dependencies, @NotNull Executor executor, @NotNull Function<T, R> task) {
+      myExecutor = executor;
+      myTask = task;
+      for (Map.Entry<T, Set<T>> entry : dependencies.entrySet()) {
+        myFutures.put(entry.getKey(), SettableFuture.create());
+        myPendingDependencies.put(entry.getKey(), new AtomicInteger(entry.getValue().size()));
+        for (T dependency : entry.getValue()) {
+          myDependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(entry.getKey());
+        }
+      }
+    }
+
+    @NotNull
+    List<Future<R>> start() {
+      for (T module : myFutures.keySet()) {
+        if (myPendingDependencies.get(module).get() == 0) {
+          submit(module);
+        }
+      }
+      return new ArrayList<>(myFutures.values());
+    }
+
+    private void submit(@NotNull T module) {
+      SettableFuture<R> future = myFutures.get(module);
+      try {
+        myExecutor.execute(() -> {
+          try {
+            future.set(myTask.apply(module));
+          }
+          catch (Throwable t) {
+            future.setException(t);
+          }
+          finally {
+            completed(module);
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        future.cancel(false);
+        completed(module);
+      }
+    }
+
+    private void completed(@NotNull T module) {
+      for (T dependent : myDependents.getOrDefault(module, Collections.emptyList())) {
+        if (myPendingDependencies.get(dependent).decrementAndGet() == 0) {
+          submit(dependent);
+        }
+      }
+    }
+  }
+
   @Nullable
   public Map<Issue, Map<File, List<ProblemData>>> getResults() {
     return myResults;
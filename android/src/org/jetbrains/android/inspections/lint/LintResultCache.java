@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.gradle.project.sync.GradleSyncState;
+import com.android.tools.idea.io.LruCacheDirectory;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.res.AppResourceRepository;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.ide.plugins.IdeaPluginDescriptor;
+import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.extensions.PluginId;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.facet.AndroidRootUtil;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Content addressed cache of the lint problems found in a single file. Results are stored under a key computed from the path and
+ * contents of the file, the set of enabled issues, the versions of the IDE and of the Android plugin, which bundles lint, and a
+ * generation of the inputs of the file's module (its resources and manifest, and those of the modules it depends on, lint.xml and the
+ * baseline). The cache is shared by the editor annotator ({@link AndroidLintExternalAnnotator}) and
+ * batch runs on a set of files ({@link AndroidLintGlobalInspectionContext}), which both only run the single file detectors.
+ * <p>
+ * Results for Java and Kotlin files also depend on the other source files, which are tracked with a generation that is only valid for
+ * the current session, so they are only kept in memory. Problems with quick fix data are also only kept in memory since {@code LintFix}
+ * can not be serialized.
+ */
+public class LintResultCache {
+  private static final Logger LOG = Logger.getInstance(LintResultCache.class);
+
+  private static final String CACHE_DIRECTORY = "lint_result_cache";
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_HEAP_ENTRIES = 2000;
+  private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+  private static final String LINT_XML = "lint.xml";
+  private static final String ANDROID_PLUGIN_ID = "org.jetbrains.android";
+
+  /**
+   * Key of a cached result. Keys that are not persistent depend on state that is only valid for the current session.
+   */
+  public static class CacheKey {
+    @NotNull private final String myHash;
+    private final boolean myPersistent;
+
+    CacheKey(@NotNull String hash, boolean persistent) {
+      myHash = hash;
+      myPersistent = persistent;
+    }
+
+    @NotNull
+    public String getHash() {
+      return myHash;
+    }
+
+    public boolean isPersistent() {
+      return myPersistent;
+    }
+  }
+
+  /**
+   * Fingerprint of the resources, manifests and lint configuration visible from a module, recomputed only when those change.
+   */
+  private static class ModuleInputs {
+    private final long myModificationCount;
+    @NotNull private final String myFingerprint;
+
+    private ModuleInputs(long modificationCount, @NotNull String fingerprint) {
+      myModificationCount = modificationCount;
+      myFingerprint = fingerprint;
+    }
+  }
+
+  @NotNull private final Cache<String, List<ProblemData>> myHeapCache;
+  @Nullable private final LruCacheDirectory myDiskCache;
+  @NotNull private final Map<Module, ModuleInputs> myModuleInputs = Collections.synchronizedMap(new WeakHashMap<>());
+  @NotNull private final Map<String, Issue> myIssues = new ConcurrentHashMap<>();
+  /** Versions of the tools producing the results, results found by other versions are not reused */
+  @NotNull private final String myToolVersion;
+  @NotNull private final ExecutorService myDiskExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("LintResultCache disk writer", 1);
+
+  @NotNull
+  public static LintResultCache getInstance() {
+    return ServiceManager.getService(LintResultCache.class);
+  }
+
+  public LintResultCache() {
+    this(new File(PathManager.getSystemPath(), CACHE_DIRECTORY), getToolVersion());
+  }
+
+  @VisibleForTesting
+  LintResultCache(@Nullable File diskCacheDir, @NotNull String toolVersion) {
+    myToolVersion = toolVersion;
+    myDiskCache = diskCacheDir != null ? new LruCacheDirectory(diskCacheDir, MAX_DISK_BYTES) : null;
+    myHeapCache = CacheBuilder.newBuilder().maximumSize(MAX_HEAP_ENTRIES).softValues().build();
+  }
+
+  /**
+   * Computes the cache key for the result of running the given issues on a file, with the given contents, of the given module.
+   */
+  @NotNull
+  public CacheKey computeKey(@NotNull Module module, @NotNull VirtualFile file, @NotNull String content, @NotNull Set<Issue> issues) {
+    FileType fileType = file.getFileType();
+    boolean persistent = fileType != StdFileTypes.JAVA && !AndroidLintExternalAnnotator.isKotlin(fileType);
+    long sessionGeneration = persistent ? 0 : PsiModificationTracker.getInstance(module.getProject()).getJavaStructureModificationCount();
+    return computeKey(module, file.getPath(), content, issues, myToolVersion, getModuleFingerprint(module), sessionGeneration, persistent);
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static CacheKey computeKey(@NotNull Module module,
+                             @NotNull String path,
+                             @NotNull String content,
+                             @NotNull Set<Issue> issues,
+                             @NotNull String toolVersion,
+                             @NotNull String moduleFingerprint,
+                             long sessionGeneration,
+                             boolean persistent) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(toolVersion, UTF_8);
+    String basePath = module.getProject().getBasePath();
+    hasher.putString(basePath != null ? basePath : "", UTF_8);
+    hasher.putString(module.getName(), UTF_8);
+    hasher.putString(path, UTF_8);
+    hasher.putString(content, UTF_8);
+    List<String> issueIds = new ArrayList<>(issues.size());
+    for (Issue issue : issues) {
+      issueIds.add(issue.getId());
+    }
+    Collections.sort(issueIds);
+    for (String id : issueIds) {
+      hasher.putString(id, UTF_8);
+    }
+    hasher.putString(moduleFingerprint, UTF_8);
+    hasher.putLong(sessionGeneration);
+    return new CacheKey(hasher.hash().toString(), persistent);
+  }
+
+  /**
+   * Returns the versions of the IDE and of the Android plugin. Lint is bundled with the plugin, and its IDE client reports the IDE
+   * version as its revision.
+   */
+  @NotNull
+  private static String getToolVersion() {
+    ApplicationInfo applicationInfo = ApplicationInfo.getInstance();
+    IdeaPluginDescriptor plugin = PluginManager.getPlugin(PluginId.getId(ANDROID_PLUGIN_ID));
+    String pluginVersion = plugin != null ? plugin.getVersion() : "";
+    return applicationInfo.getFullVersion() + ":" + applicationInfo.getBuild().asString() + ":" + pluginVersion;
+  }
+
+  @NotNull
+  private String getModuleFingerprint(@NotNull Module module) {
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet == null) {
+      return "";
+    }
+    List<AndroidFacet> facets = new ArrayList<>();
+    facets.add(facet);
+    facets.addAll(AndroidUtils.getAllAndroidDependencies(module, false));
+    List<VirtualFile> configFiles = getConfigFiles(module, facets);
+    long syncTimestamp = GradleSyncState.getInstance(module.getProject()).getSummary().getSyncTimestamp();
+    long resourceModificationCount = AppResourceRepository.getOrCreateInstance(facet).getModificationCount();
+    // Cheap check for changes in the session, the fingerprint itself only depends on what is on disk
+    long modificationCount = 31 * syncTimestamp + resourceModificationCount;
+    for (VirtualFile file : configFiles) {
+      modificationCount = 31 * modificationCount + file.getModificationStamp();
+    }
+
+    ModuleInputs inputs = myModuleInputs.get(module);
+    if (inputs != null && inputs.myModificationCount == modificationCount) {
+      return inputs.myFingerprint;
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putLong(syncTimestamp);
+    for (VirtualFile file : configFiles) {
+      putFileStamp(hasher, file);
+    }
+    ManagingFS fs = ManagingFS.getInstance();
+    boolean unsavedResources = false;
+    for (AndroidFacet f : facets) {
+      for (VirtualFile resourceDir : f.getAllResourceDirectories()) {
+        // The VFS modification count of a directory changes with any change below it, and is kept across sessions
+        hasher.putString(resourceDir.getPath(), UTF_8);
+        hasher.putInt(fs.getModificationCount(resourceDir));
+        unsavedResources |= hasUnsavedDocuments(resourceDir);
+      }
+    }
+    if (unsavedResources) {
+      // Unsaved changes are not reflected in the VFS
+      hasher.putLong(resourceModificationCount);
+    }
+    inputs = new ModuleInputs(modificationCount, hasher.hash().toString());
+    myModuleInputs.put(module, inputs);
+    return inputs.myFingerprint;
+  }
+
+  /**
+   * Returns the manifests of the given facets and the lint configuration files (lint.xml and the baseline) that apply to the module.
+   */
+  @NotNull
+  private static List<VirtualFile> getConfigFiles(@NotNull Module module, @NotNull List<AndroidFacet> facets) {
+    List<VirtualFile> files = new ArrayList<>();
+    for (AndroidFacet f : facets) {
+      VirtualFile manifest = AndroidRootUtil.getPrimaryManifestFile(f);
+      if (manifest != null) {
+        files.add(manifest);
+      }
+      VirtualFile contentRoot = AndroidRootUtil.getMainContentRoot(f);
+      VirtualFile lintXml = contentRoot != null ? contentRoot.findChild(LINT_XML) : null;
+      if (lintXml != null) {
+        files.add(lintXml);
+      }
+    }
+    VirtualFile baseDir = module.getProject().getBaseDir();
+    VirtualFile projectLintXml = baseDir != null ? baseDir.findChild(LINT_XML) : null;
+    if (projectLintXml != null && !files.contains(projectLintXml)) {
+      files.add(projectLintXml);
+    }
+    File baselineFile = AndroidLintGlobalInspectionContext.getBaselineFile(module);
+    VirtualFile baseline = baselineFile != null ? LocalFileSystem.getInstance().findFileByIoFile(baselineFile) : null;
+    if (baseline != null) {
+      files.add(baseline);
+    }
+    return files;
+  }
+
+  private static boolean hasUnsavedDocuments(@NotNull VirtualFile dir) {
+    FileDocumentManager manager = FileDocumentManager.getInstance();
+    for (Document document : manager.getUnsavedDocuments()) {
+      VirtualFile file = manager.getFile(document);
+      if (file != null && VfsUtilCore.isAncestor(dir, file, false)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void putFileStamp(@NotNull Hasher hasher, @NotNull VirtualFile file) {
+    hasher.putString(file.getPath(), UTF_8);
+    hasher.putLong(file.getTimeStamp());
+    hasher.putLong(file.getLength());
+    if (FileDocumentManager.getInstance().isFileModified(file)) {
+      // Unsaved changes are not reflected in the time stamp
+      hasher.putLong(file.getModificationStamp());
+    }
+  }
+
+  /**
+   * Returns the problems cached for the given key or null if there are none. This method might read from disk so it should not be
+   * called from the UI thread.
+   */
+  @Nullable
+  public List<ProblemData> get(@NotNull CacheKey key) {
+    List<ProblemData> problems = myHeapCache.getIfPresent(key.getHash());
+    if (problems != null || myDiskCache == null || !key.isPersistent()) {
+      return problems;
+    }
+
+    File file = myDiskCache.findFile(key.getHash());
+    if (file == null) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      problems = readProblems(in);
+    }
+    catch (IOException e) {
+      LOG.debug("Unable to read cached lint result " + key.getHash(), e);
+      return null;
+    }
+    if (problems == null) {
+      return null;
+    }
+    myHeapCache.put(key.getHash(), problems);
+    return problems;
+  }
+
+  /**
+   * Stores the problems found for the given key. The disk cache is updated asynchronously.
+   */
+  public void put(@NotNull CacheKey key, @NotNull List<ProblemData> problems) {
+    List<ProblemData> copy = Collections.unmodifiableList(new ArrayList<>(problems));
+    myHeapCache.put(key.getHash(), copy);
+
+    if (myDiskCache != null && key.isPersistent() && copy.stream().allMatch(problem -> problem.getQuickfixData() == null)) {
+      myDiskExecutor.execute(() -> myDiskCache.write(key.getHash(), out -> {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(FORMAT_VERSION);
+        writeProblems(dataOut, copy);
+      }));
+    }
+  }
+
+  private static void writeProblems(@NotNull DataOutputStream out, @NotNull List<ProblemData> problems) throws IOException {
+    out.writeInt(problems.size());
+    for (ProblemData problem : problems) {
+      out.writeUTF(problem.getIssue().getId());
+      out.writeUTF(problem.getMessage());
+      out.writeInt(problem.getTextRange().getStartOffset());
+      out.writeInt(problem.getTextRange().getEndOffset());
+      Severity severity = problem.getConfiguredSeverity();
+      out.writeUTF(severity != null ? severity.name() : "");
+    }
+  }
+
+  /**
+   * Reads the problems written by {@link #writeProblems(DataOutputStream, List)} or returns null if any of the issues is not known
+   * anymore.
+   */
+  @Nullable
+  private List<ProblemData> readProblems(@NotNull DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<ProblemData> problems = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Issue issue = findIssue(in.readUTF());
+      String message = in.readUTF();
+      TextRange range = new TextRange(in.readInt(), in.readInt());
+      String severity = in.readUTF();
+      if (issue == null) {
+        return null;
+      }
+      problems.add(new ProblemData(issue, message, range, severity.isEmpty() ? null : Severity.valueOf(severity), null));
+    }
+    return Collections.unmodifiableList(problems);
+  }
+
+  @Nullable
+  private Issue findIssue(@NotNull String id) {
+    Issue issue = myIssues.get(id);
+    if (issue == null) {
+      issue = new LintIdeIssueRegistry().getIssue(id);
+      if (issue != null) {
+        myIssues.put(id, issue);
+      }
+    }
+    return issue;
+  }
+
+  @VisibleForTesting
+  void waitForPendingWrites() throws Exception {
+    myDiskExecutor.submit(() -> {}).get();
+  }
+
+  @VisibleForTesting
+  void clearHeapCache() {
+    myHeapCache.invalidateAll();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DexFileCacheTest {
+  private static final int DEX_FILE_COUNT = 12;
+
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+  private FileSystem myApk;
+  private Path[] myDexPaths;
+
+  @Before
+  public void setUp() throws IOException {
+    DexFileCache.clear();
+    File apk = createMultidexApk(myTemporaryFolder.newFile("multidex.apk"), DEX_FILE_COUNT);
+    myApk = FileSystems.newFileSystem(apk.toPath(), (ClassLoader)null);
+    myDexPaths = new Path[DEX_FILE_COUNT];
+    for (int i = 0; i < DEX_FILE_COUNT; i++) {
+      myDexPaths[i] = myApk.getPath(getDexName(i));
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    myApk.close();
+    DexFileCache.clear();
+  }
+
+  @Test
+  public void loadsFilesInOrder() throws Exception {
+    Map<Path, DexBackedDexFile> files = DexFileCache.getDexFiles(myDexPaths).get();
+
+    assertThat(files.keySet()).containsExactly((Object[])myDexPaths).inOrder();
+    assertThat(DexFileCache.size()).isEqualTo(DEX_FILE_COUNT);
+    for (DexBackedDexFile file : files.values()) {
+      assertThat(file.getClasses()).isNotEmpty();
+    }
+  }
+
+  @Test
+  public void sharesParsedFiles() throws Exception {
+    Map<Path, DexBackedDexFile> files = DexFileCache.getDexFiles(myDexPaths).get();
+    Map<Path, DexBackedDexFile> again = DexFileCache.getDexFiles(myDexPaths).get();
+
+    for (Path path : myDexPaths) {
+      assertThat(again.get(path)).isSameAs(files.get(path));
+    }
+    assertThat(DexFileCache.getDexFile(myDexPaths[0])).isSameAs(files.get(myDexPaths[0]));
+  }
+
+  @Test
+  public void identifiesFilesByContents() throws Exception {
+    File copy = myTemporaryFolder.newFile("classes.dex");
+    Files.copy(myDexPaths[0], copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    assertThat(DexFileCache.getZipEntryKey(myDexPaths[0])).isNotNull();
+    assertThat(DexFileCache.getZipEntryKey(copy.toPath())).isNull();
+    DexBackedDexFile file = DexFileCache.getDexFile(myDexPaths[0]);
+    assertThat(DexFileCache.getDexFile(copy.toPath())).isSameAs(file);
+    assertThat(DexFileCache.getContentKey(copy.toPath())).isEqualTo(DexFileCache.getContentKey(myDexPaths[0]));
+    assertThat(DexFileCache.getContentKey(myDexPaths[1])).isNotEqualTo(DexFileCache.getContentKey(myDexPaths[0]));
+  }
+
+  @Test
+  public void sharesFilesAcrossArchives() throws Exception {
+    DexBackedDexFile file = DexFileCache.getDexFile(myDexPaths[0]);
+
+    // A rebuilt APK with the same dex files
+    File copy = myTemporaryFolder.newFile("copy.apk");
+    Files.copy(myTemporaryFolder.getRoot().toPath().resolve("multidex.apk"), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    try (FileSystem copyApk = FileSystems.newFileSystem(copy.toPath(), (ClassLoader)null)) {
+      Path copyPath = copyApk.getPath(getDexName(0));
+      assertThat(DexFileCache.getZipEntryKey(copyPath)).isNotEqualTo(DexFileCache.getZipEntryKey(myDexPaths[0]));
+      assertThat(DexFileCache.getDexFile(copyPath)).isSameAs(file);
+      assertThat(DexFileCache.size()).isEqualTo(1);
+    }
+  }
+
+  /**
+   * Loads the dex files of a synthetic multidex APK through an empty cache, in parallel, and then
+   * from the cache.
+   */
+  @Test
+  public void benchmarkMultidexApk() {
+    PlatformTestUtil.startPerformanceTest("loading the dex files of a multidex APK", 2000, () -> {
+      DexFileCache.clear();
+      Map<Path, DexBackedDexFile> files = DexFileCache.getDexFiles(myDexPaths).get();
+      assertThat(DexFileCache.getDexFiles(myDexPaths).get()).isEqualTo(files);
+    }).attempts(3).usesAllCPUCores().assertTiming();
+  }
+
+  @NotNull
+  private static String getDexName(int index) {
+    return index == 0 ? "classes.dex" : "classes" + (index + 1) + ".dex";
+  }
+
+  /**
+   * Writes an APK with copies of Test.dex which only differ in their checksum, so that each entry
+   * has its own contents.
+   */
+  @NotNull
+  private static File createMultidexApk(@NotNull File apk, int dexFileCount) throws IOException {
+    byte[] dex = Files.readAllBytes(GenerateProguardKeepRuleActionTest.getDexPath("Test.dex"));
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk))) {
+      for (int i = 0; i < dexFileCount; i++) {
+        byte[] contents = dex.clone();
+        // The adler32 checksum is at offset 8 of the header
+        contents[8] = (byte)i;
+        zip.putNextEntry(new ZipEntry(getDexName(i)));
+        zip.write(contents);
+        zip.closeEntry();
+      }
+    }
+    return apk;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.android.tools.apk.analyzer.dex.DexReferences;
+import com.android.tools.apk.analyzer.dex.tree.DexElementNode;
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.immutable.reference.ImmutableReference;
+import org.jf.dexlib2.immutable.reference.ImmutableReferenceFactory;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DexReferenceIndexTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+  private DexBackedDexFile myDexFile;
+  private DexReferenceIndex myIndex;
+
+  @Before
+  public void setUp() throws IOException {
+    DexReferenceIndex.clearHeapCache();
+    myDexFile = GenerateProguardKeepRuleActionTest.getTestDexFile(GenerateProguardKeepRuleActionTest.getDexPath("Test.dex"));
+    myIndex = DexReferenceIndex.build(ImmutableList.of(myDexFile));
+  }
+
+  @After
+  public void tearDown() {
+    DexReferenceIndex.clearHeapCache();
+  }
+
+  @Test
+  public void matchesDexReferences() {
+    DexReferences dexReferences = new DexReferences(new DexBackedDexFile[]{myDexFile});
+    Set<Reference> referenced = findReferencedItems(myDexFile);
+    assertThat(referenced).isNotEmpty();
+    for (Reference reference : referenced) {
+      DexElementNode tree = dexReferences.getReferenceTreeFor(reference, true);
+      List<ImmutableReference> expected = new ArrayList<>();
+      for (int i = 0; i < tree.getChildCount(); i++) {
+        Reference referrer = ((DexElementNode)tree.getChildAt(i)).getReference();
+        assertThat(referrer).isNotNull();
+        expected.add(ImmutableReferenceFactory.of(referrer));
+      }
+      assertThat(myIndex.getReferrers(reference)).containsExactlyElementsIn(expected);
+    }
+  }
+
+  @Test
+  public void findsClassReferences() {
+    ClassDef testClass = findClass(myDexFile, "LTest;");
+    assertThat(testClass.getSuperclass()).isNotNull();
+
+    assertThat(myIndex.getReferrers(new ImmutableTypeReference(testClass.getSuperclass())))
+      .contains(new ImmutableTypeReference("LTest;"));
+    // Arrays of a type count as references to the type, primitive types are not indexed
+    assertThat(myIndex.getReferrers(new ImmutableTypeReference("[" + testClass.getSuperclass())))
+      .isEqualTo(myIndex.getReferrers(new ImmutableTypeReference(testClass.getSuperclass())));
+    assertThat(myIndex.hasReferrers(new ImmutableTypeReference("I"))).isFalse();
+  }
+
+  @Test
+  public void readsWhatItWrites() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      myIndex.write(out);
+    }
+    DexReferenceIndex read = DexReferenceIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    for (Reference reference : findReferencedItems(myDexFile)) {
+      assertThat(read.getReferrers(reference)).containsExactlyElementsIn(myIndex.getReferrers(reference)).inOrder();
+    }
+  }
+
+  @Test
+  public void storesIndexOnDisk() throws Exception {
+    File cacheDir = myTemporaryFolder.newFolder("references");
+    Path[] dexPaths = {GenerateProguardKeepRuleActionTest.getDexPath("Test.dex")};
+    DexReferenceIndex built = DexReferenceIndex.getIndex(dexPaths, cacheDir).get();
+
+    // The index is written asynchronously
+    long deadline = System.currentTimeMillis() + 10_000;
+    File[] files;
+    while ((files = cacheDir.listFiles((dir, name) -> name.endsWith(".idx"))).length == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(files).hasLength(1);
+
+    DexReferenceIndex.clearHeapCache();
+    DexReferenceIndex loaded = DexReferenceIndex.getIndex(dexPaths, cacheDir).get();
+    assertThat(loaded).isNotSameAs(built);
+    ClassDef testClass = findClass(myDexFile, "LTest;");
+    Reference superclass = new ImmutableTypeReference(testClass.getSuperclass());
+    assertThat(loaded.getReferrers(superclass)).containsExactlyElementsIn(built.getReferrers(superclass));
+  }
+
+  @Test
+  public void buildsReferenceTree() {
+    Reference reference = findReferencedItems(myDexFile).iterator().next();
+
+    DexElementNode root = new ShowReferencesAction.ReferenceTreeBuilder(myIndex).createReferenceTree(reference);
+    assertThat(root.getChildCount()).isEqualTo(myIndex.getReferrers(reference).size());
+    for (int i = 0; i < root.getChildCount(); i++) {
+      DexElementNode child = (DexElementNode)root.getChildAt(i);
+      assertThat(myIndex.getReferrers(reference)).contains(ImmutableReferenceFactory.of(child.getReference()));
+      // The referrers of the children are loaded, so they can be expanded
+      assertThat(child.getChildCount()).isEqualTo(myIndex.getReferrers(child.getReference()).size());
+    }
+  }
+
+  /**
+   * Returns the classes, fields and methods referenced by the classes, fields and methods of the given dex file. Array types are
+   * replaced by the type of their elements and primitive types are left out, since they are not indexed.
+   */
+  @NotNull
+  private static Set<Reference> findReferencedItems(@NotNull DexBackedDexFile dexFile) {
+    Set<Reference> references = new LinkedHashSet<>();
+    for (ClassDef classDef : dexFile.getClasses()) {
+      if (classDef.getSuperclass() != null) {
+        addReference(references, new ImmutableTypeReference(classDef.getSuperclass()));
+      }
+      for (String type : classDef.getInterfaces()) {
+        addReference(references, new ImmutableTypeReference(type));
+      }
+      for (Field field : classDef.getFields()) {
+        addReference(references, new ImmutableTypeReference(field.getType()));
+      }
+      for (Method method : classDef.getMethods()) {
+        addReference(references, new ImmutableTypeReference(method.getReturnType()));
+        for (CharSequence type : method.getParameterTypes()) {
+          addReference(references, new ImmutableTypeReference(type.toString()));
+        }
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation == null) {
+          continue;
+        }
+        for (Instruction instruction : implementation.getInstructions()) {
+          if (instruction instanceof ReferenceInstruction) {
+            addReference(references, ((ReferenceInstruction)instruction).getReference());
+          }
+        }
+      }
+    }
+    return references;
+  }
+
+  private static void addReference(@NotNull Set<Reference> references, @NotNull Reference reference) {
+    if (reference instanceof TypeReference) {
+      String type = ((TypeReference)reference).getType().replace("[", "");
+      if (type.length() > 1) {
+        references.add(new ImmutableTypeReference(type));
+      }
+    }
+    else if (reference instanceof MethodReference || reference instanceof FieldReference) {
+      references.add(ImmutableReferenceFactory.of(reference));
+    }
+  }
+
+  @NotNull
+  private static ClassDef findClass(@NotNull DexBackedDexFile dexFile, @NotNull String type) {
+    for (ClassDef classDef : dexFile.getClasses()) {
+      if (classDef.getType().equals(type)) {
+        return classDef;
+      }
+    }
+    throw new AssertionError("Class " + type + " not found");
+  }
+}
@@ -17,6 +17,8 @@ package com.android.tools.idea.configurations;
 
 import com.android.ide.common.resources.ResourceRepository;
 import com.android.ide.common.resources.ResourceResolver;
+import com.android.ide.common.resources.ResourceValueMap;
+import com.android.resources.ResourceType;
 import com.android.sdklib.devices.Device;
 import com.android.sdklib.devices.Screen;
 import com.android.tools.idea.res.LocalResourceRepository;
@@ -24,17 +26,23 @@ import com.android.tools.idea.res.ModuleResourceRepository;
 import com.google.common.collect.Iterables;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTagValue;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.sdk.FrameworkResourceLoader;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Ignore;
 
+import java.util.Map;
+
 public class ResourceResolverCacheTest extends AndroidTestCase {
 
   public void test() throws Exception {
@@ -174,4 +182,47 @@ public class ResourceResolverCacheTest extends AndroidTestCase {
     // We've only changed the theme so the resource maps won't change. They are indexed per device config.
     assertDoesntContain(cache.myResolverMap.keySet(), customResolverMapKey);
   }
+
+  public void testValueEditOnlyRecomputesModifiedTypes() {
+    VirtualFile layout = myFixture.copyFileToProject("render/layout1.xml", "res/layout/layout1.xml");
+    VirtualFile strings = myFixture.copyFileToProject("javadoc/strings/strings.xml", "res/values/strings.xml");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(strings);
+    assertNotNull(psiFile);
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    Document document = documentManager.getDocument(psiFile);
+    assertNotNull(document);
+    Configuration configuration = ConfigurationManager.getOrCreateInstance(myModule).getConfiguration(layout);
+    ResourceResolverCache cache = configuration.getConfigurationManager().getResolverCache();
+    assertEquals("Cancel", configuration.getResourceResolver().findResValue("@string/cancel", false).getValue());
+
+    // The first edit of the file rescans it, which invalidates everything
+    replaceText(document, "Cancel", "Cancel2");
+    UIUtil.dispatchAllInvocationEvents();
+    ResourceResolver resolver = configuration.getResourceResolver();
+    assertEquals("Cancel2", resolver.findResValue("@string/cancel", false).getValue());
+    Map<ResourceType, ResourceValueMap> appResources = Iterables.getOnlyElement(cache.myAppResourceMap.values());
+
+    // Further edits of the value only recompute the string resources, in a new map that replaces the old one
+    replaceText(document, "Cancel2", "Cancel3");
+    UIUtil.dispatchAllInvocationEvents();
+    ResourceResolver newResolver = configuration.getResourceResolver();
+    assertEquals("Cancel3", newResolver.findResValue("@string/cancel", false).getValue());
+    Map<ResourceType, ResourceValueMap> newAppResources = Iterables.getOnlyElement(cache.myAppResourceMap.values());
+    assertNotSame(appResources, newAppResources);
+    assertNotSame(appResources.get(ResourceType.STRING), newAppResources.get(ResourceType.STRING));
+    assertSame(appResources.get(ResourceType.LAYOUT), newAppResources.get(ResourceType.LAYOUT));
+
+    // The maps in use by the previous resolver are left unchanged
+    assertEquals("Cancel2", resolver.findResValue("@string/cancel", false).getValue());
+    assertSame(newResolver, configuration.getResourceResolver());
+  }
+
+  private void replaceText(@NotNull Document document, @NotNull String oldText, @NotNull String newText) {
+    int offset = document.getText().indexOf(oldText);
+    assertTrue(offset >= 0);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.replaceString(offset, offset + oldText.length(), newText);
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+  }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.CodeAnalysisMain;
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.fixtures.JavaCodeInsightTestFixture;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+public class CallgraphBuilderTest extends AndroidTestCase {
+  public void testConcurrentBuildMatchesSequentialBuild() {
+    PsiCFGScene scene = analyzeShapes(myFixture);
+    Callgraph concurrent = scene.getCallGraph();
+    assertTrue(concurrent.getCompactGraph().getCallSiteCount() > 0);
+
+    CallgraphBuilder builder = new CallgraphBuilder(scene, scene.analysisUtil);
+    builder.build(false);
+    Callgraph sequential = builder.getCallGraph();
+
+    assertEquals(getSiteTargets(sequential.getCompactGraph()), getSiteTargets(concurrent.getCompactGraph()));
+    assertEquals(getMethodCallees(sequential.getCompactGraph()), getMethodCallees(concurrent.getCompactGraph()));
+    assertEquals(sequential.getAllMethods(), concurrent.getAllMethods());
+  }
+
+  public void testIncrementalUpdateAddsCall() {
+    checkIncrementalUpdate("src/p1/Square.java", "return mSide * mSide;", "return new Circle(mSide).area() / Math.PI;");
+  }
+
+  public void testIncrementalUpdateRemovesCall() {
+    checkIncrementalUpdate("src/p1/Shapes.java", " + totalArea(shapes);", ";");
+  }
+
+  public void testIncrementalUpdateRetargetsCall() {
+    checkIncrementalUpdate("src/p1/Circle.java", "\"Circle \" + super.describe()", "\"Circle \" + area()");
+  }
+
+  /**
+   * Edit a method body of the shapes, update the call graph incrementally and check that it matches both a call graph built from
+   * the updated CFGs and the call graph of a fresh analysis.
+   */
+  private void checkIncrementalUpdate(@NotNull String path, @NotNull String oldText, @NotNull String newText) {
+    Project project = getProject();
+    PsiCFGScene scene = analyzeShapes(myFixture);
+    SetMultimap<String, String> calleesBefore = getMethodCalleeNames(scene.getCallGraph().getCompactGraph());
+
+    VirtualFile file = myFixture.findFileInTempDir(path);
+    assertNotNull(file);
+    Document document = FileDocumentManager.getInstance().getDocument(file);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(project, () -> {
+      int offset = document.getText().indexOf(oldText);
+      assertTrue(offset >= 0);
+      document.replaceString(offset, offset + oldText.length(), newText);
+      PsiDocumentManager.getInstance(project).commitDocument(document);
+    });
+
+    CodeAnalysisMain.getInstance(project).analyze(new AnalysisScope(project));
+    assertSame("Only a method body changed, so the scene is updated in place", scene, PsiCFGScene.getInstance(project));
+    CompactCallgraph incremental = scene.getCallGraph().getCompactGraph();
+    assertFalse(calleesBefore.equals(getMethodCalleeNames(incremental)));
+
+    CallgraphBuilder builder = new CallgraphBuilder(scene, scene.analysisUtil);
+    builder.build(false);
+    CompactCallgraph rebuilt = builder.getCallGraph().getCompactGraph();
+    assertEquals(getSiteTargets(rebuilt), getSiteTargets(incremental));
+    assertEquals(getMethodCallees(rebuilt), getMethodCallees(incremental));
+
+    PsiCFGScene.createFreshInstance(project);
+    CodeAnalysisMain.getInstance(project).analyze(new AnalysisScope(project));
+    PsiCFGScene freshScene = PsiCFGScene.getInstance(project);
+    assertNotSame(scene, freshScene);
+    assertEquals(getMethodCalleeNames(freshScene.getCallGraph().getCompactGraph()), getMethodCalleeNames(incremental));
+  }
+
+  @NotNull
+  private static SetMultimap<String, String> getMethodCalleeNames(@NotNull CompactCallgraph graph) {
+    SetMultimap<String, String> methodCallees = HashMultimap.create();
+    for (int i = 0; i < graph.getMethodCount(); i++) {
+      PsiCFGMethod method = graph.getMethod(i);
+      for (PsiCFGMethod callee : graph.getCalleeMethods(method)) {
+        methodCallees.put(getQualifiedName(method), getQualifiedName(callee));
+      }
+    }
+    return methodCallees;
+  }
+
+  @NotNull
+  private static String getQualifiedName(@NotNull PsiCFGMethod method) {
+    return method.getDeclaringClass().getQualifiedClassName() + "." + method.getName();
+  }
+
+  @NotNull
+  static SetMultimap<GraphNode, PsiCFGMethod> getSiteTargets(@NotNull CompactCallgraph graph) {
+    SetMultimap<GraphNode, PsiCFGMethod> siteTargets = HashMultimap.create();
+    for (int i = 0; i < graph.getCallSiteCount(); i++) {
+      siteTargets.putAll(graph.getCallSite(i), Arrays.asList(graph.getTargetMethods(graph.getCallSite(i))));
+    }
+    return siteTargets;
+  }
+
+  @NotNull
+  static SetMultimap<PsiCFGMethod, PsiCFGMethod> getMethodCallees(@NotNull CompactCallgraph graph) {
+    SetMultimap<PsiCFGMethod, PsiCFGMethod> methodCallees = HashMultimap.create();
+    for (int i = 0; i < graph.getMethodCount(); i++) {
+      methodCallees.putAll(graph.getMethod(i), Arrays.asList(graph.getCalleeMethods(graph.getMethod(i))));
+    }
+    return methodCallees;
+  }
+
+  /**
+   * Add a few classes with virtual calls to the project and build their call graph.
+   */
+  @NotNull
+  static PsiCFGScene analyzeShapes(@NotNull JavaCodeInsightTestFixture fixture) {
+    fixture.addFileToProject("src/p1/Shape.java",
+                               "package p1;\n" +
+                               "public abstract class Shape {\n" +
+                               "  public abstract double area();\n" +
+                               "  public String describe() { return getClass().getName() + area(); }\n" +
+                               "}\n");
+    fixture.addFileToProject("src/p1/Square.java",
+                               "package p1;\n" +
+                               "public class Square extends Shape {\n" +
+                               "  private final double mSide;\n" +
+                               "  public Square(double side) { mSide = side; }\n" +
+                               "  @Override public double area() { return mSide * mSide; }\n" +
+                               "}\n");
+    fixture.addFileToProject("src/p1/Circle.java",
+                               "package p1;\n" +
+                               "public class Circle extends Shape {\n" +
+                               "  private final double mRadius;\n" +
+                               "  public Circle(double radius) { mRadius = radius; }\n" +
+                               "  @Override public double area() { return Math.PI * square(mRadius); }\n" +
+                               "  @Override public String describe() { return \"Circle \" + super.describe(); }\n" +
+                               "  private static double square(double value) { return value * value; }\n" +
+                               "}\n");
+    fixture.addFileToProject("src/p1/Shapes.java",
+                               "package p1;\n" +
+                               "public class Shapes {\n" +
+                               "  public static double totalArea(Shape[] shapes) {\n" +
+                               "    double total = 0;\n" +
+                               "    for (Shape shape : shapes) { total += shape.area(); }\n" +
+                               "    return total;\n" +
+                               "  }\n" +
+                               "  public static String run() {\n" +
+                               "    Shape[] shapes = new Shape[] { new Square(2), new Circle(1) };\n" +
+                               "    return shapes[0].describe() + shapes[1].describe() + totalArea(shapes);\n" +
+                               "  }\n" +
+                               "}\n");
+
+    Project project = fixture.getProject();
+    CodeAnalysisMain.getInstance(project).analyze(new AnalysisScope(project));
+    return PsiCFGScene.getInstance(project);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.*;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static com.android.tools.idea.experimental.codeanalysis.callgraph.CallgraphBuilderTest.analyzeShapes;
+
+public class CompactCallgraphTest extends AndroidTestCase {
+  /**
+   * Compare the compact graph with the call graph kept in hash multimaps, the way it was stored before it was compacted.
+   */
+  public void testMatchesMultimapGraph() {
+    PsiCFGScene scene = analyzeShapes(myFixture);
+    CallgraphBuilder builder = new CallgraphBuilder(scene, scene.analysisUtil);
+    SetMultimap<GraphNode, PsiCFGMethod> siteTargets = HashMultimap.create();
+    SetMultimap<PsiCFGMethod, PsiCFGMethod> methodCallees = HashMultimap.create();
+    for (GraphNode site : scene.getAllInvocationNode()) {
+      Set<PsiCFGMethod> targets = builder.resolveSingleInvocation(site);
+      siteTargets.putAll(site, targets);
+      PsiCFGMethod callerMethod = builder.retrieveParentMethod(site);
+      if (callerMethod != null) {
+        methodCallees.putAll(callerMethod, targets);
+      }
+    }
+    SetMultimap<PsiCFGMethod, GraphNode> targetSites = Multimaps.invertFrom(siteTargets, HashMultimap.create());
+    SetMultimap<PsiCFGMethod, PsiCFGMethod> methodCallers = Multimaps.invertFrom(methodCallees, HashMultimap.create());
+    assertFalse(methodCallees.isEmpty());
+
+    Callgraph callgraph = scene.getCallGraph();
+    CompactCallgraph compactGraph = callgraph.getCompactGraph();
+    assertEquals(siteTargets.keySet().size(), compactGraph.getCallSiteCount());
+    for (GraphNode site : siteTargets.keySet()) {
+      assertEquals(siteTargets.get(site), ImmutableSet.copyOf(compactGraph.getTargetMethods(site)));
+      assertEquals(siteTargets.get(site), ImmutableSet.copyOf(callgraph.findCalleeMethodForGraphNode(site)));
+    }
+
+    Set<PsiCFGMethod> allMethods = Sets.union(methodCallees.keySet(), methodCallers.keySet());
+    assertEquals(allMethods, callgraph.getAllMethods());
+    for (PsiCFGMethod method : Sets.union(allMethods, targetSites.keySet())) {
+      assertTrue(compactGraph.containsMethod(method));
+      assertEquals(method, compactGraph.getMethod(compactGraph.getMethodIndex(method)));
+      assertEquals(methodCallees.get(method), ImmutableSet.copyOf(compactGraph.getCalleeMethods(method)));
+      assertEquals(methodCallers.get(method), ImmutableSet.copyOf(compactGraph.getCallerMethods(method)));
+      assertEquals(methodCallers.get(method), ImmutableSet.copyOf(callgraph.findCalleeForMethod(method)));
+      assertEquals(targetSites.get(method), ImmutableSet.copyOf(compactGraph.getCallerNodes(method)));
+      // Kept as it was before the compact graph
+      assertEquals(0, callgraph.findCallerForMethod(method).length);
+
+      assertEquals(computeClosure(method, methodCallees), toMethods(compactGraph, compactGraph.computeReachableMethods(
+        Collections.singleton(method))));
+      assertEquals(computeClosure(method, methodCallers), toMethods(compactGraph, compactGraph.computeMethodsReaching(
+        Collections.singleton(method))));
+    }
+  }
+
+  /**
+   * Check that edges can still be removed and added once the graph was compacted.
+   */
+  public void testUpdateAfterCompaction() {
+    PsiCFGScene scene = analyzeShapes(myFixture);
+    Callgraph callgraph = scene.getCallGraph();
+    CompactCallgraph compactGraph = callgraph.getCompactGraph();
+    SetMultimap<GraphNode, PsiCFGMethod> siteTargets = CallgraphBuilderTest.getSiteTargets(compactGraph);
+    SetMultimap<PsiCFGMethod, PsiCFGMethod> methodCallees = CallgraphBuilderTest.getMethodCallees(compactGraph);
+
+    PsiCFGMethod callerMethod = methodCallees.keySet().iterator().next();
+    List<GraphNode> callerSites = new ArrayList<>();
+    for (GraphNode site : siteTargets.keySet()) {
+      if (callerMethod.equals(callgraph.getNodesParentMethod(site))) {
+        callerSites.add(site);
+      }
+    }
+    callgraph.removeCallSites(callerMethod, callerSites);
+    assertEquals(0, callgraph.getCompactGraph().getCalleeMethods(callerMethod).length);
+
+    for (GraphNode site : callerSites) {
+      for (PsiCFGMethod target : siteTargets.get(site)) {
+        callgraph.addEdge(site, callerMethod, target);
+      }
+    }
+    assertEquals(siteTargets, CallgraphBuilderTest.getSiteTargets(callgraph.getCompactGraph()));
+    assertEquals(methodCallees, CallgraphBuilderTest.getMethodCallees(callgraph.getCompactGraph()));
+  }
+
+  @NotNull
+  private static Set<PsiCFGMethod> computeClosure(@NotNull PsiCFGMethod root, @NotNull Multimap<PsiCFGMethod, PsiCFGMethod> edges) {
+    Set<PsiCFGMethod> visited = new HashSet<>();
+    Deque<PsiCFGMethod> queue = new ArrayDeque<>();
+    visited.add(root);
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      for (PsiCFGMethod next : edges.get(queue.removeFirst())) {
+        if (visited.add(next)) {
+          queue.add(next);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @NotNull
+  private static Set<PsiCFGMethod> toMethods(@NotNull CompactCallgraph graph, @NotNull BitSet indices) {
+    Set<PsiCFGMethod> methods = new HashSet<>();
+    for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+      methods.add(graph.getMethod(i));
+    }
+    return methods;
+  }
+}
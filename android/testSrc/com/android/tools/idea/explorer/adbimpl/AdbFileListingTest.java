@@ -354,6 +354,80 @@ public class AdbFileListingTest {
     assertDirectoryLink(fileListing, rootEntries, "vendor", true);
   }
 
+  @Test
+  public void test_EmulatorApi25_IsDirectoryLinkResolvesDirectoryLinksTogether() throws Exception {
+    // Prepare
+    TestShellCommands commands = new TestShellCommands();
+    TestDevices.addEmulatorApi25Commands(commands);
+    IDevice device = commands.createMockDevice();
+    Executor taskExecutor = PooledThreadExecutor.INSTANCE;
+    AdbFileListing fileListing = new AdbFileListing(device, new AdbDeviceCapabilities(device), taskExecutor);
+
+    // Act
+    AdbFileListingEntry root = waitForFuture(fileListing.getRoot());
+    List<AdbFileListingEntry> rootEntries = waitForFuture(fileListing.getChildren(root));
+    for (AdbFileListingEntry entry : rootEntries) {
+      waitForFuture(fileListing.isDirectoryLink(entry));
+    }
+    assertDirectoryLink(fileListing, rootEntries, "d", true);
+
+    // Assert
+    assertThat(getLinkCommandCount(commands)).isEqualTo(1);
+  }
+
+  @Test
+  public void isDirectoryLinkReusesLinksUntilDirectoryIsModified() throws Exception {
+    // Prepare
+    TestShellCommands commands = new TestShellCommands();
+    commands.add("ls -l /sdcard/dir/" + COMMAND_ERROR_CHECK_SUFFIX,
+                 "lrwxrwxrwx 1 root root 4 2018-01-10 12:56 config -> /etc\n" +
+                 "lrwxrwxrwx 1 root root 9 2018-01-10 12:56 init -> /sbin/init\n");
+    commands.add("echo LS-LD-LS-LD:0; ls -l -d /sdcard/dir/config/; echo LS-LD-LS-LD:1; ls -l -d /sdcard/dir/init/",
+                 "LS-LD-LS-LD:0\n" +
+                 "drwxr-xr-x 7 root root 4096 2016-11-14 14:08 /sdcard/dir/config/\n" +
+                 "LS-LD-LS-LD:1\n" +
+                 "ls: /sdcard/dir/init/: Not a directory\n");
+    IDevice device = commands.createMockDevice();
+    AdbDeviceCapabilities capabilities = new AdbDeviceCapabilities(device) {
+      @Override
+      public synchronized boolean supportsSuRootCommand() {
+        return false;
+      }
+
+      @Override
+      synchronized boolean hasEscapingLs() {
+        return false;
+      }
+    };
+    AdbFileListing fileListing = new AdbFileListing(device, capabilities, PooledThreadExecutor.INSTANCE);
+
+    // Act
+    List<AdbFileListingEntry> entries = waitForFuture(fileListing.getChildren(createDirectoryEntry("/sdcard/dir", "12:56")));
+    assertDirectoryLink(fileListing, entries, "config", true);
+    assertDirectoryLink(fileListing, entries, "init", false);
+
+    entries = waitForFuture(fileListing.getChildren(createDirectoryEntry("/sdcard/dir", "12:56")));
+    assertDirectoryLink(fileListing, entries, "config", true);
+    int unmodifiedCount = getLinkCommandCount(commands);
+
+    entries = waitForFuture(fileListing.getChildren(createDirectoryEntry("/sdcard/dir", "12:58")));
+    assertDirectoryLink(fileListing, entries, "init", false);
+    int modifiedCount = getLinkCommandCount(commands);
+
+    // Assert
+    assertThat(unmodifiedCount).isEqualTo(1);
+    assertThat(modifiedCount).isEqualTo(2);
+  }
+
+  @NotNull
+  private static AdbFileListingEntry createDirectoryEntry(@NotNull String path, @NotNull String time) {
+    return new AdbFileListingEntry(path, EntryKind.DIRECTORY, "drwxrwx--x", "root", "sdcard_rw", "2018-01-10", time, "4096", null);
+  }
+
+  private static int getLinkCommandCount(@NotNull TestShellCommands commands) {
+    return (int)commands.getExecutedCommands().stream().filter(x -> x.contains("ls -l -d ")).count();
+  }
+
   private static void assertDirectoryLink(@NotNull AdbFileListing fileListing,
                                           @NotNull List<AdbFileListingEntry> entries,
                                           @NotNull String name,
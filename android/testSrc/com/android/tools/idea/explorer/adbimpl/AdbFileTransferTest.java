@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl;
+
+import com.android.tools.idea.explorer.fs.FileTransferProgress;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.ide.PooledThreadExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class AdbFileTransferTest {
+  private static final long TIMEOUT_MILLISECONDS = 30_000;
+  private static final String PACKAGE_NAME = "com.example.rpaquay.myapplication";
+  private static final String PACKAGE_PATH = "/data/data/" + PACKAGE_NAME;
+
+  @ClassRule
+  public static DebugLoggerFactoryRule ourLoggerFactoryRule = new DebugLoggerFactoryRule();
+
+  private MockDdmlibDevice myMockDevice;
+  private AdbFileTransfer myFileTransfer;
+  private File myLocalDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    myMockDevice = new MockDdmlibDevice();
+    AdbDeviceCapabilities capabilities = new AdbDeviceCapabilities(myMockDevice.getIDevice()) {
+      @Override
+      public synchronized boolean supportsSuRootCommand() {
+        return false;
+      }
+
+      @Override
+      public synchronized boolean supportsTouchCommand() {
+        return true;
+      }
+
+      @Override
+      public synchronized boolean supportsCpCommand() {
+        return true;
+      }
+
+      @Override
+      public synchronized boolean supportsRmForceFlag() {
+        return true;
+      }
+    };
+    AdbFileOperations fileOperations = new AdbFileOperations(myMockDevice.getIDevice(), capabilities, PooledThreadExecutor.INSTANCE);
+    myFileTransfer = new AdbFileTransfer(myMockDevice.getIDevice(), fileOperations, MoreExecutors.directExecutor(),
+                                         PooledThreadExecutor.INSTANCE);
+    myLocalDirectory = FileUtil.createTempDirectory("adbFileTransfer", null);
+
+    UniqueFileNameGenerator.setInstanceOverride(new UniqueFileNameGenerator() {
+      private int myNextId;
+
+      @NotNull
+      @Override
+      public synchronized String getUniqueFileName(@NotNull String prefix, @NotNull String suffix) {
+        return String.format("%s%d%s", prefix, myNextId++, suffix);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    UniqueFileNameGenerator.setInstanceOverride(null);
+    FileUtil.delete(myLocalDirectory);
+  }
+
+  @Test
+  public void downloadsFilesInBatches() throws Exception {
+    // Prepare: 20 files, copied by 2 shell commands and deleted by 2 more
+    int fileCount = 20;
+    // The command length limits a batch to 15 files
+    addCopyCommand(0, 15, "");
+    addCopyCommand(15, fileCount, "");
+    addDeleteCommand(0, 15);
+    addDeleteCommand(15, fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      myMockDevice.addRemoteFile(getTempPath(i), 1000 + i);
+    }
+    List<AtomicLong> totalBytes = new ArrayList<>();
+    List<AdbFileTransfer.FileDownload> downloads = new ArrayList<>();
+    for (int i = 0; i < fileCount; i++) {
+      AtomicLong total = new AtomicLong(-1);
+      totalBytes.add(total);
+      downloads.add(new AdbFileTransfer.FileDownload(getSourcePath(i), 1000 + i, getLocalPath(i), createProgress(total, false)));
+    }
+
+    // Act
+    List<ListenableFuture<Void>> results = myFileTransfer.downloadFilesViaTempLocation(downloads, PACKAGE_NAME);
+
+    // Assert
+    assertThat(results).hasSize(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      assertThat(results.get(i).get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)).isNull();
+      assertThat(getLocalPath(i).toFile().length()).isEqualTo(1000 + i);
+      assertThat(totalBytes.get(i).get()).isEqualTo(1000 + i);
+    }
+    waitForCommandCount(4);
+    assertThat(myMockDevice.getShellCommands().getExecutedCommands()).hasSize(4);
+  }
+
+  @Test
+  public void copiesAtMostTwoBatchesAhead() throws Exception {
+    // Prepare: 40 files, copied in 3 batches
+    int fileCount = 40;
+    int[] batchStarts = {0, 15, 30, fileCount};
+    for (int i = 0; i + 1 < batchStarts.length; i++) {
+      addCopyCommand(batchStarts[i], batchStarts[i + 1], "");
+      addDeleteCommand(batchStarts[i], batchStarts[i + 1]);
+    }
+    List<AdbFileTransfer.FileDownload> downloads = new ArrayList<>();
+    for (int i = 0; i < fileCount; i++) {
+      myMockDevice.addRemoteFile(getTempPath(i), 100);
+      downloads.add(new AdbFileTransfer.FileDownload(getSourcePath(i), 100, getLocalPath(i), createProgress(new AtomicLong(), false)));
+    }
+
+    // Act
+    List<ListenableFuture<Void>> results = myFileTransfer.downloadFilesViaTempLocation(downloads, PACKAGE_NAME);
+
+    // Assert: the third batch is only copied once the temporary files of the first batch are deleted
+    for (ListenableFuture<Void> result : results) {
+      assertThat(result.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)).isNull();
+    }
+    waitForCommandCount(6);
+    List<String> commands = myMockDevice.getShellCommands().getExecutedCommands();
+    assertThat(commands.indexOf(getCopyCommand(30, fileCount))).isGreaterThan(commands.indexOf(getDeleteCommand(0, 15)));
+    assertThat(commands.indexOf(getCopyCommand(15, 30))).isGreaterThan(commands.indexOf(getCopyCommand(0, 15)));
+  }
+
+  @Test
+  public void reportsFailedCopiesPerFile() throws Exception {
+    // Prepare: the copy of the second file fails
+    addCopyCommand(0, 2, "cp: " + getSourcePath(1) + ": Permission denied\nCP-ERR-CP-ERR:1\n");
+    addDeleteCommand(0, 2);
+    myMockDevice.addRemoteFile(getTempPath(0), 100);
+    List<AdbFileTransfer.FileDownload> downloads = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      downloads.add(new AdbFileTransfer.FileDownload(getSourcePath(i), 100, getLocalPath(i), createProgress(new AtomicLong(), false)));
+    }
+
+    // Act
+    List<ListenableFuture<Void>> results = myFileTransfer.downloadFilesViaTempLocation(downloads, PACKAGE_NAME);
+
+    // Assert
+    assertThat(results.get(0).get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(getLocalPath(0).toFile().length()).isEqualTo(100);
+    try {
+      results.get(1).get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+      fail("The download of a file that could not be copied should fail");
+    }
+    catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(AdbShellCommandException.class);
+    }
+    // The temporary files are deleted even if a copy failed
+    waitForCommandCount(2);
+  }
+
+  @Test
+  public void cancelledDownloadsDoNotRunCommands() throws Exception {
+    // Prepare
+    List<AdbFileTransfer.FileDownload> downloads = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      downloads.add(new AdbFileTransfer.FileDownload(getSourcePath(i), 100, getLocalPath(i), createProgress(new AtomicLong(), true)));
+    }
+
+    // Act
+    List<ListenableFuture<Void>> results = myFileTransfer.downloadFilesViaTempLocation(downloads, PACKAGE_NAME);
+
+    // Assert
+    for (ListenableFuture<Void> result : results) {
+      try {
+        result.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+        fail("A cancelled download should not complete");
+      }
+      catch (CancellationException expected) {
+      }
+    }
+    assertThat(myMockDevice.getShellCommands().getExecutedCommands()).isEmpty();
+  }
+
+  private void addCopyCommand(int start, int end, @NotNull String output) {
+    myMockDevice.getShellCommands().add(getCopyCommand(start, end), output);
+  }
+
+  @NotNull
+  private static String getCopyCommand(int start, int end) {
+    StringBuilder command = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      if (i > start) {
+        command.append("; ");
+      }
+      command.append(String.format("touch %s && run-as %s sh -c 'cp %s %s' || echo CP-ERR-CP-ERR:%d",
+                                   getTempPath(i), PACKAGE_NAME, getSourcePath(i), getTempPath(i), i - start));
+    }
+    return command.toString();
+  }
+
+  private void addDeleteCommand(int start, int end) {
+    myMockDevice.getShellCommands().add(getDeleteCommand(start, end), "");
+  }
+
+  @NotNull
+  private static String getDeleteCommand(int start, int end) {
+    StringBuilder command = new StringBuilder("rm -f");
+    for (int i = start; i < end; i++) {
+      command.append(" ").append(getTempPath(i));
+    }
+    return command + TestDevices.COMMAND_ERROR_CHECK_SUFFIX;
+  }
+
+  private void waitForCommandCount(int count) throws InterruptedException {
+    // The temporary files are deleted after the downloads complete
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLISECONDS;
+    while (myMockDevice.getShellCommands().getExecutedCommands().size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(myMockDevice.getShellCommands().getExecutedCommands()).hasSize(count);
+  }
+
+  @NotNull
+  private static String getSourcePath(int index) {
+    return PACKAGE_PATH + "/files/file" + index;
+  }
+
+  @NotNull
+  private static String getTempPath(int index) {
+    return AdbPathUtil.DEVICE_TEMP_DIRECTORY + "/temp" + index;
+  }
+
+  @NotNull
+  private Path getLocalPath(int index) {
+    return new File(myLocalDirectory, "file" + index).toPath();
+  }
+
+  @NotNull
+  private static FileTransferProgress createProgress(@NotNull AtomicLong totalBytes, boolean cancelled) {
+    return new FileTransferProgress() {
+      @Override
+      public void progress(long currentBytes, long total) {
+        totalBytes.set(total);
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return cancelled;
+      }
+    };
+  }
+}
@@ -598,6 +598,22 @@ public class TestDevices {
     shellCommands.add("su 0 sh -c 'ls -l -d /tombstones/'", "ls: /tombstones/: No such file or directory\n");
     shellCommands.add("su 0 sh -c 'ls -l -d /system/'", "drwxr-xr-x 16 root root 4096 1969-12-31 16:00 /system/\n");
     shellCommands.add("su 0 sh -c 'ls -l -d /vendor/'", "drwxr-xr-x 3 root shell 4096 2016-11-14 14:01 /vendor/\n");
+    shellCommands.add("su 0 sh -c '" +
+                      "echo LS-LD-LS-LD:0; ls -l -d /charger/; " +
+                      "echo LS-LD-LS-LD:1; ls -l -d /d/; " +
+                      "echo LS-LD-LS-LD:2; ls -l -d /etc/; " +
+                      "echo LS-LD-LS-LD:3; ls -l -d /sdcard/; " +
+                      "echo LS-LD-LS-LD:4; ls -l -d /vendor/'",
+                      "LS-LD-LS-LD:0\n" +
+                      "ls: /charger/: Not a directory\n" +
+                      "LS-LD-LS-LD:1\n" +
+                      "drwx------ 14 root root 0 2017-03-06 21:15 /d/\n" +
+                      "LS-LD-LS-LD:2\n" +
+                      "drwxr-xr-x 7 root root 4096 2016-11-14 14:08 /etc/\n" +
+                      "LS-LD-LS-LD:3\n" +
+                      "drwxrwx--x 13 root sdcard_rw 4096 2017-03-06 23:30 /sdcard/\n" +
+                      "LS-LD-LS-LD:4\n" +
+                      "drwxr-xr-x 3 root shell 4096 2016-11-14 14:01 /vendor/\n");
     addCommand(shellCommands, "touch /data/local/tmp/device-explorer/.__temp_touch_test_file__.tmp", "");
     addCommand(shellCommands, "rm /data/local/tmp/device-explorer/.__temp_touch_test_file__.tmp", "");
     addFailedCommand(shellCommands, "touch /system/build.prop", "touch: '/system/build.prop': Read-only file system\n");
@@ -22,12 +22,16 @@ import com.intellij.util.containers.HashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class TestShellCommands {
   @NotNull private static final Logger LOGGER = Logger.getInstance(TestShellCommands.class);
 
   @NotNull private final Map<String, TestShellCommandResult> myCommands = new HashMap<>();
+  @NotNull private final List<String> myExecutedCommands = Collections.synchronizedList(new ArrayList<>());
   @NotNull private String myDescription = "[MockDevice]";
 
   public void setDescription(@NotNull String description) {
@@ -46,11 +50,22 @@ public class TestShellCommands {
     return myCommands.get(command);
   }
 
+  /**
+   * Returns the commands executed so far, in the order they were executed.
+   */
+  @NotNull
+  public List<String> getExecutedCommands() {
+    synchronized (myExecutedCommands) {
+      return new ArrayList<>(myExecutedCommands);
+    }
+  }
+
   public IDevice createMockDevice() throws Exception {
     return new MockDdmlibDevice().setName(myDescription).setShellCommands(this).getIDevice();
   }
 
   public void executeShellCommand(String command, IShellOutputReceiver receiver) throws Exception {
+    myExecutedCommands.add(command);
     TestShellCommandResult commandResult = this.get(command);
     if (commandResult == null) {
       UnsupportedOperationException error = new UnsupportedOperationException(
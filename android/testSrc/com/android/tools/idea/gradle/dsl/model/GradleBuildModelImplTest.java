@@ -18,11 +18,19 @@ package com.android.tools.idea.gradle.dsl.model;
 import com.android.tools.idea.gradle.dsl.api.BuildScriptModel;
 import com.android.tools.idea.gradle.dsl.api.GradleBuildModel;
 import com.android.tools.idea.gradle.dsl.api.repositories.RepositoryModel;
+import com.android.tools.idea.gradle.dsl.parser.elements.GradleDslElement;
+import com.android.tools.idea.gradle.dsl.parser.files.GradleDslFile;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.intellij.openapi.command.WriteCommandAction.runWriteCommandAction;
 
 /**
  * Tests for {@link GradleBuildModelImpl}.
@@ -102,4 +110,125 @@ public class GradleBuildModelImplTest extends GradleFileModelTestCase {
     repositories = buildModel.repositories().repositories();
     assertThat(repositories).hasSize(0);
   }
+
+  public void testReparseKeepsUnchangedElements() throws IOException {
+    String text = "ext.supportVersion = '22.1.1'\n" +
+                  "android {\n" +
+                  "  compileSdkVersion 23\n" +
+                  "}\n" +
+                  "dependencies {\n" +
+                  "  compile \"com.android.support:appcompat-v7:$supportVersion\"\n" +
+                  "}";
+    writeToBuildFile(text);
+    GradleBuildModel buildModel = getGradleBuildModel();
+    GradleDslFile dslFile = ((GradleBuildModelImpl)buildModel).myGradleDslFile;
+    GradleDslElement ext = dslFile.getPropertyElement("ext");
+    GradleDslElement android = dslFile.getPropertyElement("android");
+    GradleDslElement dependencies = dslFile.getPropertyElement("dependencies");
+
+    buildModel.dependencies().addArtifact("compile", "com.google.guava:guava:18.0");
+    applyChangesAndReparse(buildModel);
+
+    assertThat(dslFile.getPropertyElement("ext")).isSameAs(ext);
+    assertThat(dslFile.getPropertyElement("android")).isSameAs(android);
+    assertThat(dslFile.getPropertyElement("dependencies")).isNotSameAs(dependencies);
+    assertThat(buildModel.dependencies().artifacts()).hasSize(2);
+    assertEquals(dump(getGradleBuildModel()), dump(buildModel));
+  }
+
+  public void testReparseMatchesFullParse() throws IOException {
+    String text = "def supportVersion = '22.1.1'\n" +
+                  "apply plugin: 'com.android.application'\n" +
+                  "android {\n" +
+                  "  compileSdkVersion 23\n" +
+                  "}\n" +
+                  "ext {\n" +
+                  "  minSdk = 15\n" +
+                  "}\n" +
+                  "dependencies {\n" +
+                  "  compile \"com.android.support:appcompat-v7:$supportVersion\"\n" +
+                  "}\n" +
+                  "android {\n" +
+                  "  buildToolsVersion '23.0.0'\n" +
+                  "}\n" +
+                  "sourceCompatibility = 1.6";
+    writeToBuildFile(text);
+    GradleBuildModel buildModel = getGradleBuildModel();
+    GradleDslFile dslFile = ((GradleBuildModelImpl)buildModel).myGradleDslFile;
+    GradleDslElement ext = dslFile.getPropertyElement("ext");
+
+    // Both android blocks are parsed again
+    replaceInBuildFile(buildModel, "compileSdkVersion 23", "compileSdkVersion 25");
+    buildModel.reparse();
+    assertThat(dslFile.getPropertyElement("ext")).isSameAs(ext);
+    assertEquals(dump(getGradleBuildModel()), dump(buildModel));
+    GradleDslElement android = dslFile.getPropertyElement("android");
+
+    // Statements are removed and added before the others
+    replaceInBuildFile(buildModel, "def supportVersion = '22.1.1'\n", "repositories {\n  jcenter()\n}\n");
+    buildModel.reparse();
+    assertThat(dslFile.getPropertyElement("android")).isSameAs(android);
+    assertNull(dslFile.getVariableElement("supportVersion"));
+    assertEquals(dump(getGradleBuildModel()), dump(buildModel));
+
+    // Properties stored under another name
+    replaceInBuildFile(buildModel, "sourceCompatibility = 1.6", "targetCompatibility = 1.7");
+    buildModel.reparse();
+    assertThat(dslFile.getPropertyElement("android")).isSameAs(android);
+    assertEquals(dump(getGradleBuildModel()), dump(buildModel));
+  }
+
+  public void testReparseWithAllprojectsBlockMatchesFullParse() throws IOException {
+    String text = "allprojects {\n" +
+                  "  repositories {\n" +
+                  "    jcenter()\n" +
+                  "  }\n" +
+                  "}\n" +
+                  "repositories {\n" +
+                  "  google()\n" +
+                  "}";
+    writeToBuildFile(text);
+    GradleBuildModel buildModel = getGradleBuildModel();
+
+    replaceInBuildFile(buildModel, "google()", "mavenCentral()");
+    buildModel.reparse();
+    assertThat(buildModel.repositories().repositories()).hasSize(2);
+    assertEquals(dump(getGradleBuildModel()), dump(buildModel));
+  }
+
+  private void replaceInBuildFile(@NotNull GradleBuildModel buildModel, @NotNull String oldText, @NotNull String newText) {
+    runWriteCommandAction(myProject, () -> {
+      PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(myProject);
+      Document document = psiDocumentManager.getDocument((PsiFile)((GradleBuildModelImpl)buildModel).getPsiElement());
+      assertNotNull(document);
+      int offset = document.getText().indexOf(oldText);
+      assertThat(offset).isAtLeast(0);
+      document.replaceString(offset, offset + oldText.length(), newText);
+      psiDocumentManager.commitDocument(document);
+    });
+  }
+
+  /**
+   * Returns the elements of the given model, in order, with the text of their PSI elements.
+   */
+  @NotNull
+  private static String dump(@NotNull GradleBuildModel buildModel) {
+    StringBuilder builder = new StringBuilder();
+    for (GradleDslElement element : ((GradleBuildModelImpl)buildModel).myGradleDslFile.getChildren()) {
+      dump(element, "", builder);
+    }
+    return builder.toString();
+  }
+
+  private static void dump(@NotNull GradleDslElement element, @NotNull String indent, @NotNull StringBuilder builder) {
+    PsiElement psiElement = element.getPsiElement();
+    if (psiElement != null) {
+      assertTrue(psiElement.isValid());
+    }
+    builder.append(indent).append(element.getName()).append(' ').append(element.getClass().getSimpleName()).append(' ')
+      .append(psiElement != null ? psiElement.getText() : null).append('\n');
+    for (GradleDslElement child : element.getChildren()) {
+      dump(child, indent + "  ", builder);
+    }
+  }
 }
@@ -23,6 +23,8 @@ import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
@@ -34,6 +36,7 @@ import org.jetbrains.plugins.groovy.lang.psi.api.statements.expressions.path.GrM
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.function.BiConsumer;
 
 import static com.android.SdkConstants.*;
@@ -294,6 +297,128 @@ public class GradleFilesTest extends AndroidGradleTestCase {
     assertFalse(myGradleFiles.areGradleFilesModified());
   }
 
+  public void testModifiedWhenChangedOnDisk() throws Exception {
+    loadSimpleApplication();
+    VirtualFile buildFile = getAppBuildFile();
+    String text = VfsUtilCore.loadText(buildFile);
+
+    // e.g. switching to a branch where the build file is different
+    saveText(buildFile, text + "\nandroid {}\n");
+    assertTrue(myGradleFiles.areGradleFilesModified());
+    assertThat(myGradleFiles.getModifiedFiles()).containsExactly(buildFile);
+
+    // e.g. switching back
+    saveText(buildFile, text);
+    assertFalse(myGradleFiles.areGradleFilesModified());
+    assertThat(myGradleFiles.getModifiedFiles()).isEmpty();
+  }
+
+  public void testNotModifiedWhenLineSeparatorsChangeOnDisk() throws Exception {
+    loadSimpleApplication();
+    VirtualFile buildFile = getAppBuildFile();
+    String text = VfsUtilCore.loadText(buildFile);
+
+    saveText(buildFile, text.replace("\n", "\r\n"));
+    assertFalse(myGradleFiles.areGradleFilesModified());
+  }
+
+  public void testModifiedWhenChangedWhileProjectWasClosed() throws Exception {
+    loadSimpleApplication();
+    GradleFiles.SyncedFileHashes state = myGradleFiles.getState();
+    VirtualFile buildFile = getAppBuildFile();
+    assertThat(state.fileHashes).containsKey(buildFile.getUrl());
+
+    saveText(buildFile, VfsUtilCore.loadText(buildFile) + "\nandroid {}\n");
+    GradleFiles reopened = reopen(state);
+    assertTrue(reopened.areGradleFilesModified());
+    assertThat(reopened.getModifiedFiles()).containsExactly(buildFile);
+  }
+
+  public void testNotModifiedWhenUnchangedWhileProjectWasClosed() throws Exception {
+    loadSimpleApplication();
+    GradleFiles reopened = reopen(myGradleFiles.getState());
+    assertFalse(reopened.areGradleFilesModified());
+  }
+
+  public void testModifiedAfterReopeningWhenLastSyncFailed() throws Exception {
+    loadSimpleApplication();
+    VirtualFile buildFile = getAppBuildFile();
+    saveText(buildFile, VfsUtilCore.loadText(buildFile) + "\nandroid {}\n");
+    myGradleFiles.getSyncListener().syncStarted(getProject(), false, false);
+    myGradleFiles.getSyncListener().syncFailed(getProject(), "Failed");
+
+    // Only the hashes of the last successful sync are stored with the project
+    GradleFiles reopened = reopen(myGradleFiles.getState());
+    assertThat(reopened.getModifiedFiles()).containsExactly(buildFile);
+  }
+
+  public void testModifiedWhenLastSyncFailed() throws Exception {
+    loadSimpleApplication();
+    VirtualFile buildFile = getAppBuildFile();
+    saveText(buildFile, VfsUtilCore.loadText(buildFile) + "\nandroid {}\n");
+    myGradleFiles.getSyncListener().syncStarted(getProject(), false, false);
+    assertFalse(myGradleFiles.areGradleFilesModified());
+    myGradleFiles.getSyncListener().syncFailed(getProject(), "Failed");
+
+    // The files are compared with the last successful sync again
+    assertTrue(myGradleFiles.areGradleFilesModified());
+    assertThat(myGradleFiles.getModifiedFiles()).containsExactly(buildFile);
+  }
+
+  public void testModifiedWhenDeletedWhileProjectWasClosed() throws Exception {
+    loadSimpleApplication();
+    GradleFiles.SyncedFileHashes state = myGradleFiles.getState();
+    VirtualFile buildFile = getAppBuildFile();
+    VirtualFile folder = buildFile.getParent();
+    String name = buildFile.getName();
+    String url = buildFile.getUrl();
+    String text = VfsUtilCore.loadText(buildFile);
+    ApplicationManager.getApplication().runWriteAction(() -> {
+      try {
+        buildFile.delete(this);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+
+    GradleFiles reopened = reopen(state);
+    assertTrue(reopened.areGradleFilesModified());
+    assertThat(reopened.getDeletedFileUrls()).containsExactly(url);
+
+    // e.g. switching back to a branch with the same build file
+    VirtualFile restored = ApplicationManager.getApplication().runWriteAction((Computable<VirtualFile>)() -> {
+      try {
+        return folder.createChildData(this, name);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    saveText(restored, text);
+    assertFalse(reopened.areGradleFilesModified());
+    assertThat(reopened.getDeletedFileUrls()).isEmpty();
+  }
+
+  @NotNull
+  private GradleFiles reopen(@NotNull GradleFiles.SyncedFileHashes state) {
+    GradleFiles gradleFiles = new GradleFiles(getProject());
+    gradleFiles.loadState(state);
+    gradleFiles.initializeFileHashes();
+    return gradleFiles;
+  }
+
+  private static void saveText(@NotNull VirtualFile file, @NotNull String text) {
+    ApplicationManager.getApplication().runWriteAction(() -> {
+      try {
+        VfsUtil.saveText(file, text);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
   @NotNull
   private VirtualFile getAppBuildFile() {
     Module appModule = myModules.getAppModule();
@@ -20,13 +20,13 @@ import com.android.utils.XmlUtils;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.xml.XmlFile;
 import org.jetbrains.android.AndroidTestCase;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.*;
 
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -60,6 +60,36 @@ public class DomPsiConverterTest extends AndroidTestCase {
     assertEquals("@drawable/icon", elementsByTagName.item(0).getAttributes().getNamedItemNS(ANDROID_URI, "icon").getNodeValue());
   }
 
+  public void testRangesAndAttributes() {
+    String text = "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                  "    android:orientation=\"vertical\">\n" +
+                  "  <Button android:text=\"Hello\" style=\"@style/Button\"/>\n" +
+                  "</LinearLayout>";
+    XmlFile xmlFile = (XmlFile)myFixture.addFileToProject("res/layout/layout.xml", text);
+    Document domDocument = DomPsiConverter.convert(xmlFile);
+    assertNotNull(domDocument);
+
+    Element root = domDocument.getDocumentElement();
+    TextRange rootRange = DomPsiConverter.getTextRange(root);
+    assertEquals("LinearLayout", rootRange.substring(text));
+
+    Element button = (Element)root.getElementsByTagName("Button").item(0);
+    assertEquals("Button", DomPsiConverter.getTextRange(button).substring(text));
+
+    NamedNodeMap attributes = button.getAttributes();
+    assertEquals(2, attributes.getLength());
+    Node textAttribute = attributes.getNamedItemNS(ANDROID_URI, "text");
+    assertNotNull(textAttribute);
+    assertSame(textAttribute, attributes.item(0));
+    assertSame(textAttribute, button.getAttributeNodeNS(ANDROID_URI, "text"));
+    assertEquals("android:text", DomPsiConverter.getTextNameRange(textAttribute).substring(text));
+    assertEquals("Hello", DomPsiConverter.getTextValueRange(textAttribute).substring(text));
+    assertEquals("@style/Button", button.getAttribute("style"));
+    assertNull(attributes.getNamedItem("android:text"));
+    assertNull(attributes.getNamedItemNS(ANDROID_URI, "style"));
+    assertNull(attributes.item(2));
+  }
+
   public void testAsyncAccess() throws InterruptedException {
     VirtualFile file = myFixture.copyFileToProject("AndroidManifest.xml", "AndroidManifest.xml");
     assertNotNull(file);
@@ -120,12 +120,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceConnected(mockDevice);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     verify(mockDevice, times(2)).isOnline();
     verify(mockDevice, times(2)).getClientName(1493);
     verify(mockDevice, times(1)).getName();
     verify(mockDevice, times(1)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(1)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -139,12 +141,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.addListener(mockDevice, myLogcatListener, true);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     verify(mockDevice, times(1)).isOnline();
     verify(mockDevice, times(2)).getClientName(1493);
     verify(mockDevice, times(1)).getName();
     verify(mockDevice, times(1)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(1)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -159,12 +163,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.addListener(mockDevice, myLogcatListener, true);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
 
     myLogcatListener.assertAllReceived();
     verify(mockDevice, times(2)).isOnline();
     verify(mockDevice, times(2)).getClientName(1493);
     verify(mockDevice, times(1)).getName();
     verify(mockDevice, times(1)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(1)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -177,6 +183,7 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceConnected(mockDevice);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     when(mockDevice.isOnline()).thenReturn(false);
@@ -189,12 +196,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceConnected(mockDevice);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     verify(mockDevice, times(3)).isOnline();
     verify(mockDevice, times(4)).getClientName(1493);
     verify(mockDevice, times(2)).getName();
     verify(mockDevice, times(2)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(2)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -205,6 +214,7 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceConnected(mockDevice);
     myLogcatService.addListener(mockDevice, myLogcatListener, true);
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     myExecuteShellCommandLatch = new CountDownLatch(1);
@@ -215,12 +225,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceChanged(mockDevice, 0);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     verify(mockDevice, times(4)).isOnline();
     verify(mockDevice, times(4)).getClientName(1493);
     verify(mockDevice, times(2)).getName();
     verify(mockDevice, times(2)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(2)).getVersion();
 
     verifyNoMoreInteractions(mockDevice);
   }
@@ -231,6 +243,7 @@ public class AndroidLogcatServiceTest {
     myLogcatService.deviceConnected(mockDevice);
     myLogcatService.addListener(mockDevice, myLogcatListener, true);
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     myLogcatService.removeListener(mockDevice, myLogcatListener);
@@ -246,6 +259,7 @@ public class AndroidLogcatServiceTest {
     myLogcatService.addListener(mockDevice, otherListener);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     otherListener.assertAllReceived();
     myLogcatListener.assertNothingReceived();
 
@@ -253,6 +267,7 @@ public class AndroidLogcatServiceTest {
     verify(mockDevice, times(4)).getClientName(1493);
     verify(mockDevice, times(2)).getName();
     verify(mockDevice, times(2)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(2)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -267,6 +282,7 @@ public class AndroidLogcatServiceTest {
     myLogcatService.addListener(mockDevice, myLogcatListener, true);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     myLogcatService.removeListener(mockDevice, myLogcatListener);
@@ -275,12 +291,14 @@ public class AndroidLogcatServiceTest {
     myLogcatService.addListener(mockDevice, myLogcatListener, false);
 
     myExecuteShellCommandLatch.await();
+    myLogcatService.waitForPendingMessages(mockDevice);
     myLogcatListener.assertAllReceived();
 
     verify(mockDevice, times(3)).isOnline();
     verify(mockDevice, times(4)).getClientName(1493);
     verify(mockDevice, times(1)).getName();
     verify(mockDevice, times(2)).executeShellCommand(any(), any(), anyLong(), any());
+    verify(mockDevice, times(2)).getVersion();
     verifyNoMoreInteractions(mockDevice);
   }
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log.LogLevel;
+import org.easymock.EasyMock;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BinaryLogcatReceiverTest {
+  /** 01-23 12:34:56 UTC */
+  private static final int SECONDS = 1516710896;
+
+  private FormattedLogcatReceiver myLogcatListener;
+  private AndroidLogcatReceiver myReceiver;
+  private BinaryLogcatReceiver myBinaryReceiver;
+
+  @Before
+  public void setUp() {
+    IDevice device = EasyMock.createMock(IDevice.class);
+    EasyMock.expect(device.getClientName(1493)).andStubReturn("dummy.client.name");
+    EasyMock.expect(device.getClientName(EasyMock.anyInt())).andStubReturn(null);
+    EasyMock.expect(device.getProperty("persist.sys.timezone")).andStubReturn("UTC");
+    EasyMock.replay(device);
+
+    myLogcatListener = new FormattedLogcatReceiver() {
+      private final StringBuilder myBuilder = new StringBuilder();
+
+      @Override
+      protected void receiveFormattedLogLine(@NotNull String line) {
+        myBuilder
+          .append(line)
+          .append('\n');
+      }
+
+      @Override
+      public String toString() {
+        return myBuilder.toString();
+      }
+    };
+    myReceiver = new AndroidLogcatReceiver(device, myLogcatListener);
+    myBinaryReceiver = new BinaryLogcatReceiver(device, myReceiver);
+  }
+
+  @Test
+  public void decodesEntries() {
+    byte[] data = concat(entry(28, 4, 1493, 1595, 789_000_000, "EDMNativeHelper", "EDMNativeHelperService is published"),
+                         entry(0, 2, 99, 99, 0, "UnknownClient", "Line 1\nLine 2\r\n\n"));
+    myBinaryReceiver.addOutput(data, 0, data.length);
+
+    assertThat(myBinaryReceiver.isCorrupted()).isFalse();
+    assertThat(myBinaryReceiver.getEntryCount()).isEqualTo(2);
+    assertThat(myLogcatListener.toString()).isEqualTo(
+      "01-23 12:34:56.789 1493-1595/dummy.client.name W/EDMNativeHelper: EDMNativeHelperService is published\n" +
+      "01-23 12:34:56.000 99-99/? V/UnknownClient: Line 1\n" +
+      "+ Line 2\n");
+  }
+
+  @Test
+  public void decodesEntriesSplitAcrossChunks() {
+    byte[] data = concat(entry(24, 6, 1493, 1, 0, "Tag", "First"), entry(24, 6, 1493, 2, 0, "Tag", "Second"));
+    for (int i = 0; i < data.length; i += 7) {
+      myBinaryReceiver.addOutput(data, i, Math.min(7, data.length - i));
+    }
+
+    assertThat(myBinaryReceiver.getEntryCount()).isEqualTo(2);
+    assertThat(myLogcatListener.toString()).isEqualTo(
+      "01-23 12:34:56.000 1493-1/dummy.client.name E/Tag: First\n" +
+      "01-23 12:34:56.000 1493-2/dummy.client.name E/Tag: Second\n");
+  }
+
+  @Test
+  public void stopsOnTextOutput() {
+    byte[] data = "[ 08-18 16:39:11.439 1493:1595 W/EDMNativeHelper     ]\r\n".getBytes(StandardCharsets.UTF_8);
+    myBinaryReceiver.addOutput(data, 0, data.length);
+
+    assertThat(myBinaryReceiver.isCorrupted()).isTrue();
+    assertThat(myBinaryReceiver.isCancelled()).isTrue();
+    assertThat(myLogcatListener.toString()).isEmpty();
+  }
+
+  @Test
+  public void logLevels() {
+    assertThat(BinaryLogcatReceiver.getLogLevel((byte)0)).isEqualTo(LogLevel.VERBOSE);
+    assertThat(BinaryLogcatReceiver.getLogLevel((byte)3)).isEqualTo(LogLevel.DEBUG);
+    assertThat(BinaryLogcatReceiver.getLogLevel((byte)7)).isEqualTo(LogLevel.ASSERT);
+    assertThat(BinaryLogcatReceiver.getLogLevel((byte)8)).isEqualTo(LogLevel.ASSERT);
+  }
+
+  @NotNull
+  private static byte[] entry(int headerSize, int priority, int pid, int tid, int nanos, @NotNull String tag, @NotNull String message) {
+    byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+    byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+    int payloadSize = 1 + tagBytes.length + 1 + messageBytes.length + 1;
+    int actualHeaderSize = headerSize == 0 ? 20 : headerSize;
+
+    ByteBuffer buffer = ByteBuffer.allocate(actualHeaderSize + payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putShort((short)payloadSize);
+    buffer.putShort((short)headerSize);
+    buffer.putInt(pid);
+    buffer.putInt(tid);
+    buffer.putInt(SECONDS);
+    buffer.putInt(nanos);
+    // The fields of the newer header versions are ignored
+    buffer.position(actualHeaderSize);
+    buffer.put((byte)priority);
+    buffer.put(tagBytes);
+    buffer.put((byte)0);
+    buffer.put(messageBytes);
+    buffer.put((byte)0);
+    return buffer.array();
+  }
+
+  @NotNull
+  private static byte[] concat(@NotNull byte[]... arrays) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      stream.write(array, 0, array.length);
+    }
+    return stream.toByteArray();
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatHeader;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.android.ddmlib.logcat.LogCatTimestamp;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LogcatRingBufferTest {
+  private static final LogCatTimestamp TIMESTAMP = LogCatTimestamp.fromString("08-18 16:39:11.439");
+
+  @Test
+  public void replayKeepsMessagesTogether() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(-1);
+    addMessage(buffer, LogLevel.WARN, 1493, "DummyFirst", "com.example", "First Line1", "First Line2");
+    addMessage(buffer, LogLevel.INFO, 1493, "DummySecond", "com.example", "Second Line1");
+
+    List<LogCatMessage> messages = new ArrayList<>();
+    buffer.forEach(messages::add);
+    assertThat(toStrings(messages)).containsExactly(
+      "08-18 16:39:11.439: W/DummyFirst(1493): First Line1",
+      "08-18 16:39:11.439: W/DummyFirst(1493): First Line2",
+      "08-18 16:39:11.439: I/DummySecond(1493): Second Line1").inOrder();
+    assertThat(messages.get(0).getHeader()).isSameAs(messages.get(1).getHeader());
+    assertThat(messages.get(0).getHeader().getAppName()).isEqualTo("com.example");
+  }
+
+  @Test
+  public void oldestLinesAreDroppedToStayUnderTheLimit() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(10_000);
+    for (int i = 0; i < 5_000; i++) {
+      addMessage(buffer, LogLevel.DEBUG, i % 7, "Tag" + i % 3, "com.example", "Message " + i);
+    }
+    assertThat(buffer.getBytes()).isAtMost(10_000L);
+    assertThat(buffer.size()).isLessThan(5_000);
+
+    List<LogCatMessage> messages = new ArrayList<>();
+    buffer.forEach(messages::add);
+    assertThat(messages).hasSize(buffer.size());
+    assertThat(messages.get(messages.size() - 1).getMessage()).isEqualTo("Message 4999");
+    assertThat(messages.get(0).getMessage()).isEqualTo("Message " + (5_000 - buffer.size()));
+
+    // The indexes only return lines which are still stored
+    List<LogCatMessage> matching = new ArrayList<>();
+    buffer.forEachMatching(new DefaultAndroidLogcatFilter.Builder("pid").setPid(3).build(), matching::add);
+    assertThat(matching).isNotEmpty();
+    for (LogCatMessage message : matching) {
+      assertThat(message.getHeader().getPid()).isEqualTo(3);
+      assertThat(Integer.parseInt(message.getMessage().substring("Message ".length()))).isAtLeast(5_000 - buffer.size());
+    }
+  }
+
+  @Test
+  public void internedStringsOfDroppedLinesAreReleased() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(10_000);
+    for (int i = 0; i < 5_000; i++) {
+      addMessage(buffer, LogLevel.DEBUG, 1, "Tag" + i, "com.example" + i, "Message " + i);
+    }
+    // The tags and app names count against the limit, and only the ones of stored lines are kept once the buffer wrapped
+    assertThat(buffer.getBytes()).isAtMost(10_000L);
+    assertThat(buffer.getStringCount()).isLessThan(500);
+
+    // The tag index uses the renumbered tags
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("tag").setTagPattern(Pattern.compile("^Tag4999$")).build()))
+      .containsExactly("Message 4999");
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("app").setPackagePattern(Pattern.compile("^com.example4998$")).build()))
+      .containsExactly("Message 4998");
+  }
+
+  @Test
+  public void filterByLevelPidAndTag() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(-1);
+    addMessage(buffer, LogLevel.DEBUG, 1, "Network", "com.example", "connecting");
+    addMessage(buffer, LogLevel.ERROR, 1, "Network", "com.example", "failed");
+    addMessage(buffer, LogLevel.ERROR, 2, "Database", "com.other", "locked");
+    addMessage(buffer, LogLevel.INFO, 2, "NetworkStats", "com.other", "sent 10 bytes");
+
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("level").setLogLevel(LogLevel.WARN).build()))
+      .containsExactly("failed", "locked").inOrder();
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("pid").setPid(2).build()))
+      .containsExactly("locked", "sent 10 bytes").inOrder();
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("tag").setTagPattern(Pattern.compile("^Network")).build()))
+      .containsExactly("connecting", "failed", "sent 10 bytes").inOrder();
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("all")
+      .setTagPattern(Pattern.compile("Network"))
+      .setPackagePattern(Pattern.compile("example"))
+      .setLogLevel(LogLevel.ERROR)
+      .build()))
+      .containsExactly("failed");
+    assertThat(messages(buffer, new DefaultAndroidLogcatFilter.Builder("no pid").setPid("01").build())).isEmpty();
+  }
+
+  @Test
+  public void messagePatternAcceptsWholeMessage() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(-1);
+    addMessage(buffer, LogLevel.ERROR, 1, "AndroidRuntime", "com.example", "FATAL EXCEPTION: main", "java.lang.NullPointerException");
+    addMessage(buffer, LogLevel.ERROR, 1, "AndroidRuntime", "com.example", "unrelated");
+
+    DefaultAndroidLogcatFilter filter = new DefaultAndroidLogcatFilter.Builder("message")
+      .setMessagePattern(Pattern.compile("NullPointer"))
+      .build();
+    assertThat(messages(buffer, filter)).containsExactly("FATAL EXCEPTION: main", "java.lang.NullPointerException").inOrder();
+
+    // Other filters get the same treatment
+    AndroidLogcatFilter customFilter = new AndroidLogcatFilter() {
+      @NotNull
+      @Override
+      public String getName() {
+        return "custom";
+      }
+
+      @Override
+      public boolean isApplicable(@NotNull String message, @NotNull String tag, @NotNull String pkg, int pid, @NotNull LogLevel logLevel) {
+        return message.startsWith("java.");
+      }
+    };
+    assertThat(messages(buffer, customFilter)).containsExactly("FATAL EXCEPTION: main", "java.lang.NullPointerException").inOrder();
+  }
+
+  private static void addMessage(@NotNull LogcatRingBuffer buffer,
+                                 @NotNull LogLevel level,
+                                 int pid,
+                                 @NotNull String tag,
+                                 @NotNull String appName,
+                                 @NotNull String... lines) {
+    LogCatHeader header = new LogCatHeader(level, pid, 1, appName, tag, TIMESTAMP);
+    for (String line : lines) {
+      buffer.addMessage(new LogCatMessage(header, line));
+    }
+  }
+
+  @NotNull
+  private static List<String> messages(@NotNull LogcatRingBuffer buffer, @NotNull AndroidLogcatFilter filter) {
+    List<String> messages = new ArrayList<>();
+    buffer.forEachMatching(filter, message -> messages.add(message.getMessage()));
+    return messages;
+  }
+
+  @NotNull
+  private static List<String> toStrings(@NotNull List<LogCatMessage> messages) {
+    List<String> strings = new ArrayList<>();
+    for (LogCatMessage message : messages) {
+      strings.add(message.toString());
+    }
+    return strings;
+  }
+}
@@ -142,6 +142,123 @@ public class ImagePoolTest {
     gc();
   }
 
+  @Test
+  public void testMemoryBudget() {
+    // Every image will be allocated in the 100x100 bucket and use 40000 bytes. The pool can only hold one of them.
+    ImagePool.MemoryBudget budget = new ImagePool.MemoryBudget(60_000);
+    ImagePool pool = new ImagePool(new int[]{100, 200}, (w, h) -> (type) -> 10, budget);
+    try {
+      ImagePool.ImageImpl image1 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePool.ImageImpl image2 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage internalPtr2 = image2.myBuffer;
+      assertEquals(0, pool.getHitCount());
+      assertEquals(2, pool.getMissCount());
+
+      image1.dispose();
+      assertEquals(40_000, budget.getBytes());
+      assertEquals(40_000, pool.getPooledBytes());
+      // Returning the second image exceeds the budget so the least recently used one is evicted
+      image2.dispose();
+      assertEquals(40_000, budget.getBytes());
+      assertEquals(40_000, pool.getPooledBytes());
+      assertEquals(1, pool.getEvictionCount());
+
+      assertEquals(internalPtr2, pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+      assertEquals(1, pool.getHitCount());
+      assertEquals(0, budget.getBytes());
+      assertEquals(0, pool.getPooledBytes());
+      pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      assertEquals(3, pool.getMissCount());
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
+  @Test
+  public void testSharedMemoryBudget() {
+    ImagePool.MemoryBudget budget = new ImagePool.MemoryBudget(60_000);
+    ImagePool pool1 = new ImagePool(new int[]{100, 200}, (w, h) -> (type) -> 10, budget);
+    ImagePool pool2 = new ImagePool(new int[]{100, 200}, (w, h) -> (type) -> 10, budget);
+    try {
+      ImagePool.ImageImpl image1 = pool1.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePool.ImageImpl image2 = pool2.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage internalPtr1 = image1.myBuffer;
+      BufferedImage internalPtr2 = image2.myBuffer;
+
+      image1.dispose();
+      // The image returned to the second pool evicts the one in the first pool
+      image2.dispose();
+      assertEquals(40_000, budget.getBytes());
+      assertEquals(1, pool1.getEvictionCount());
+      assertEquals(0, pool2.getEvictionCount());
+      assertEquals(0, pool1.getPooledBytes());
+      assertEquals(40_000, pool2.getPooledBytes());
+      ImagePool.ImageImpl image3 = pool1.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePool.ImageImpl image4 = pool2.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      assertNotEquals(internalPtr1, image3.myBuffer);
+      assertEquals(internalPtr2, image4.myBuffer);
+      assertEquals(0, budget.getBytes());
+
+      // Disposing a pool releases its share of the budget
+      image3.dispose();
+      assertEquals(40_000, budget.getBytes());
+      pool1.dispose();
+      assertEquals(0, budget.getBytes());
+    }
+    finally {
+      pool1.dispose();
+      pool2.dispose();
+    }
+  }
+
+  @Test
+  public void testCollectedImagesAreNotCounted() {
+    ImagePool.MemoryBudget budget = new ImagePool.MemoryBudget(100_000);
+    ImagePool pool = new ImagePool(new int[]{100, 200}, (w, h) -> (type) -> 10, budget);
+    try {
+      ImagePool.ImageImpl image1 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePool.ImageImpl image2 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage internalPtr1 = image1.myBuffer;
+      BufferedImage internalPtr2 = image2.myBuffer;
+      image1.dispose();
+      image2.dispose();
+      assertEquals(80_000, budget.getBytes());
+
+      budget.clearPooledImages();
+      assertEquals(0, budget.getBytes());
+      assertEquals(0, pool.getPooledBytes());
+      BufferedImage newPtr = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer;
+      assertNotEquals(internalPtr1, newPtr);
+      assertNotEquals(internalPtr2, newPtr);
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
+  @Test
+  public void testBucketLimit() {
+    ImagePool.MemoryBudget budget = new ImagePool.MemoryBudget(1_000_000);
+    ImagePool pool = new ImagePool(new int[]{100, 200}, (w, h) -> (type) -> 1, budget);
+    try {
+      ImagePool.ImageImpl image1 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePool.ImageImpl image2 = pool.create(60, 60, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage internalPtr1 = image1.myBuffer;
+
+      image1.dispose();
+      // The bucket is full so the second image is discarded
+      image2.dispose();
+      assertEquals(1, pool.getEvictionCount());
+      assertEquals(40_000, budget.getBytes());
+      assertEquals(40_000, pool.getPooledBytes());
+      assertEquals(internalPtr1, pool.create(70, 70, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
   @Test
   public void testDefaultPooling() throws InterruptedException {
     // Small images won't be pooled
@@ -16,6 +16,7 @@
 package com.android.tools.idea.rendering;
 
 import com.android.resources.ResourceFolderType;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
@@ -26,12 +27,16 @@ import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.StringReader;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -297,6 +302,110 @@ public class LayoutPsiPullParserTest extends AndroidTestCase {
     assertEquals("Button1", parser.myRoot.children.get(0).getAttribute("text"));
   }
 
+  public void testIncrementalSnapshot() {
+    XmlFile xmlFile = createLargeLayout(10);
+    LayoutPsiPullParser parser = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule));
+    TagSnapshot first = parser.myRoot;
+    assertNotNull(first);
+
+    XmlTag rootTag = xmlFile.getRootTag();
+    assertNotNull(rootTag);
+    XmlTag edited = rootTag.getSubTags()[3].getSubTags()[2];
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> edited.setAttribute(ATTR_TEXT, ANDROID_URI, "Edited"));
+
+    parser = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule));
+    TagSnapshot second = parser.myRoot;
+    assertNotNull(second);
+    assertNotSame(first, second);
+    // Unchanged subtrees are shared with the previous snapshot
+    assertSame(first.children.get(0), second.children.get(0));
+    assertNotSame(first.children.get(3), second.children.get(3));
+    assertSame(first.children.get(3).children.get(0), second.children.get(3).children.get(0));
+    assertEquals("Edited", second.children.get(3).children.get(2).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertEquals("Button 2", first.children.get(3).children.get(2).getAttribute(ATTR_TEXT, ANDROID_URI));
+
+    // The incremental snapshot must match a snapshot created from scratch
+    assertEquals(TagSnapshot.createTagSnapshot(rootTag, null).toString(), second.toString());
+  }
+
+  public void testIncrementalSnapshotOfLargeLayout() {
+    // 100 groups of 20 buttons: 2000 views
+    XmlFile xmlFile = createLargeLayout(100);
+    XmlTag rootTag = xmlFile.getRootTag();
+    assertNotNull(rootTag);
+    TagSnapshot previous = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule)).myRoot;
+
+    XmlTag[] groups = rootTag.getSubTags();
+    for (int i = 0; i < 100; i++) {
+      XmlTag edited = groups[i].getSubTags()[i % 20];
+      String text = "Edited " + i;
+      WriteCommandAction.runWriteCommandAction(getProject(), () -> edited.setAttribute(ATTR_TEXT, ANDROID_URI, text));
+      TagSnapshot snapshot = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule)).myRoot;
+      assertEquals(text, snapshot.children.get(i).children.get(i % 20).getAttribute(ATTR_TEXT, ANDROID_URI));
+      // The root, the group and the edited button are created, and the previous button is copied to link it to the new one
+      assertTrue(countNewSnapshots(previous, snapshot) <= 4);
+      previous = snapshot;
+    }
+  }
+
+  public void testIncrementalSnapshotAfterNamespaceChange() {
+    XmlFile xmlFile = createLargeLayout(2);
+    XmlTag rootTag = xmlFile.getRootTag();
+    assertNotNull(rootTag);
+    TagSnapshot first = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule)).myRoot;
+    assertEquals("Button 0", first.children.get(0).children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+
+    // Only the root tag is modified, but the namespace of the attributes of all its descendants changes
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> rootTag.setAttribute("xmlns:android", "http://example.com/android"));
+    TagSnapshot second = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule)).myRoot;
+    assertNotSame(first.children.get(0), second.children.get(0));
+    assertNull(second.children.get(0).children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertEquals(TagSnapshot.createTagSnapshot(rootTag, null).toString(), second.toString());
+  }
+
+  /**
+   * Returns the number of snapshots in the hierarchy of {@code current} which are not shared with the hierarchy of {@code previous}
+   */
+  private static int countNewSnapshots(@NotNull TagSnapshot previous, @NotNull TagSnapshot current) {
+    Set<TagSnapshot> previousSnapshots = Collections.newSetFromMap(new IdentityHashMap<>());
+    collectSnapshots(previous, previousSnapshots);
+    Set<TagSnapshot> currentSnapshots = Collections.newSetFromMap(new IdentityHashMap<>());
+    collectSnapshots(current, currentSnapshots);
+    currentSnapshots.removeAll(previousSnapshots);
+    return currentSnapshots.size();
+  }
+
+  private static void collectSnapshots(@NotNull TagSnapshot snapshot, @NotNull Set<TagSnapshot> snapshots) {
+    snapshots.add(snapshot);
+    for (TagSnapshot child : snapshot.children) {
+      collectSnapshots(child, snapshots);
+    }
+  }
+
+  /**
+   * Creates a layout with {@code groupCount} vertical LinearLayouts of 20 buttons each
+   */
+  @NotNull
+  private XmlFile createLargeLayout(int groupCount) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n")
+      .append("    android:layout_width=\"match_parent\"\n")
+      .append("    android:layout_height=\"match_parent\">\n");
+    for (int i = 0; i < groupCount; i++) {
+      sb.append("  <LinearLayout android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\"")
+        .append(" android:orientation=\"vertical\">\n");
+      for (int j = 0; j < 20; j++) {
+        sb.append("    <Button android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:text=\"Button ")
+          .append(j).append("\"/>\n");
+      }
+      sb.append("  </LinearLayout>\n");
+    }
+    sb.append("</LinearLayout>\n");
+    PsiFile psiFile = myFixture.addFileToProject("res/layout/large_layout.xml", sb.toString());
+    assertTrue(psiFile instanceof XmlFile);
+    return (XmlFile)psiFile;
+  }
+
   public void testToolsAttributes() throws Exception {
     @Language("XML")
     final String content = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
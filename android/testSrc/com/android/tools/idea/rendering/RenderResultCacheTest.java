@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.tools.idea.configurations.Configuration;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.android.AndroidTestCase;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static com.android.SdkConstants.ANDROID_URI;
+import static com.android.SdkConstants.ATTR_TEXT;
+
+public class RenderResultCacheTest extends AndroidTestCase {
+  private static final String LAYOUT = "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                       "    android:layout_width=\"match_parent\"\n" +
+                                       "    android:layout_height=\"match_parent\">\n" +
+                                       "  <Button android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\"\n" +
+                                       "      android:text=\"Hello\"/>\n" +
+                                       "</LinearLayout>";
+
+  private File myCacheDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = FileUtil.createTempDirectory("render_result_cache", null);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myCacheDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testKey() {
+    XmlFile file = (XmlFile)myFixture.addFileToProject("res/layout/layout.xml", LAYOUT);
+    XmlFile strings = (XmlFile)myFixture.addFileToProject("res/values/strings.xml",
+                                                          "<resources><string name=\"hello\">Hello</string></resources>");
+    Configuration configuration = RenderTestUtil.getConfiguration(myModule, file.getVirtualFile());
+
+    String key = RenderResultCache.computeKey(myFacet, file, configuration);
+    assertNotNull(key);
+    assertEquals(key, RenderResultCache.computeKey(myFacet, file, configuration));
+
+    // A different configuration produces a different key
+    String theme = configuration.getTheme();
+    configuration.setTheme("@android:style/Theme.Holo.Light");
+    assertFalse(key.equals(RenderResultCache.computeKey(myFacet, file, configuration)));
+    configuration.setTheme(theme);
+    assertEquals(key, RenderResultCache.computeKey(myFacet, file, configuration));
+
+    // Changing the layout produces a different key
+    XmlTag button = file.getRootTag().getSubTags()[0];
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> button.setAttribute(ATTR_TEXT, ANDROID_URI, "World"));
+    assertFalse(key.equals(RenderResultCache.computeKey(myFacet, file, configuration)));
+
+    // Reverting the change goes back to the original key
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> button.setAttribute(ATTR_TEXT, ANDROID_URI, "Hello"));
+    assertEquals(key, RenderResultCache.computeKey(myFacet, file, configuration));
+
+    // Changing other resources produces a different key, and reverting them goes back to the original key
+    XmlTag string = strings.getRootTag().getSubTags()[0];
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> string.getValue().setText("World"));
+    assertFalse(key.equals(RenderResultCache.computeKey(myFacet, file, configuration)));
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> string.getValue().setText("Hello"));
+    assertEquals(key, RenderResultCache.computeKey(myFacet, file, configuration));
+  }
+
+  public void testHeapAndDiskCache() throws Exception {
+    XmlFile file = (XmlFile)myFixture.addFileToProject("res/layout/layout.xml", LAYOUT);
+    RenderResultCache cache = new RenderResultCache(myCacheDir);
+    assertNull(cache.get("key"));
+
+    //noinspection UndesirableClassUsage
+    BufferedImage image = new BufferedImage(100, 200, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.RED);
+    g.fillRect(10, 10, 50, 50);
+    g.dispose();
+    ViewInfo root = new ViewInfo("android.widget.LinearLayout", new Object(), 0, 0, 100, 200);
+    root.setChildren(Collections.singletonList(new ViewInfo("android.widget.Button", new Object(), 10, 10, 60, 60)));
+    RenderResult result = RenderResult.createFromCache(file, myModule,
+                                                       new RenderResultCache.CachedRender(image, Collections.singletonList(root)),
+                                                       new ImagePool());
+    cache.put("key", result);
+
+    RenderResultCache.CachedRender cached = cache.get("key");
+    assertNotNull(cached);
+    checkCachedRender(cached, image);
+
+    // Now read it back from disk
+    cache.flushToDisk();
+    cache.clearHeapCache();
+    cached = cache.get("key");
+    assertNotNull(cached);
+    checkCachedRender(cached, image);
+    assertNull(cache.get("otherKey"));
+  }
+
+  private static void checkCachedRender(RenderResultCache.CachedRender cached, BufferedImage expectedImage) {
+    assertEquals(expectedImage.getWidth(), cached.getImage().getWidth());
+    assertEquals(expectedImage.getHeight(), cached.getImage().getHeight());
+    assertEquals(expectedImage.getRGB(20, 20), cached.getImage().getRGB(20, 20));
+    assertEquals(expectedImage.getRGB(80, 80), cached.getImage().getRGB(80, 80));
+
+    List<ViewInfo> views = cached.getRootViews();
+    assertEquals(1, views.size());
+    assertEquals("android.widget.LinearLayout", views.get(0).getClassName());
+    // Cookies are not cached
+    assertNull(views.get(0).getCookie());
+    assertEquals(200, views.get(0).getBottom());
+    assertEquals(1, views.get(0).getChildren().size());
+    ViewInfo button = views.get(0).getChildren().get(0);
+    assertEquals("android.widget.Button", button.getClassName());
+    assertEquals(10, button.getLeft());
+    assertEquals(60, button.getRight());
+  }
+}
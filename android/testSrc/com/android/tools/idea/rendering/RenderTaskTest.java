@@ -185,6 +185,31 @@ public class RenderTaskTest extends AndroidTestCase {
     task.dispose().get(5, TimeUnit.SECONDS);
   }
 
+  public void testExtendedViewInfo() throws Exception {
+    VirtualFile file = myFixture.addFileToProject("res/layout/layout.xml", SIMPLE_LAYOUT).getVirtualFile();
+    Configuration configuration = RenderTestUtil.getConfiguration(myModule, file);
+    RenderLogger logger = mock(RenderLogger.class);
+
+    // By default, margins and baselines are not collected
+    RenderTask task = RenderTestUtil.createRenderTask(myModule, file, configuration, logger);
+    assertFalse(task.isExtendedViewInfoEnabled());
+    long basicSessions = ExtendedViewInfoMetrics.getSessionsWithoutExtendedViewInfo();
+    RenderResult result = task.inflate();
+    checkSimpleLayoutResult(result);
+    assertEquals(basicSessions + 1, ExtendedViewInfoMetrics.getSessionsWithoutExtendedViewInfo());
+    assertEquals(Integer.MIN_VALUE, result.getRootViews().get(0).getChildren().get(0).getTopMargin());
+    task.dispose().get(5, TimeUnit.SECONDS);
+
+    task = RenderTestUtil.createRenderTask(myModule, file, configuration, logger);
+    task.setEnableExtendedViewInfo(true);
+    long extendedSessions = ExtendedViewInfoMetrics.getSessionsWithExtendedViewInfo();
+    result = task.inflate();
+    checkSimpleLayoutResult(result);
+    assertEquals(extendedSessions + 1, ExtendedViewInfoMetrics.getSessionsWithExtendedViewInfo());
+    assertEquals(0, result.getRootViews().get(0).getChildren().get(0).getTopMargin());
+    task.dispose().get(5, TimeUnit.SECONDS);
+  }
+
   public void testAsyncCallAndDispose()
     throws IOException, ExecutionException, InterruptedException, BrokenBarrierException, TimeoutException {
     VirtualFile layoutFile = myFixture.addFileToProject("res/layout/foo.xml", "").getVirtualFile();
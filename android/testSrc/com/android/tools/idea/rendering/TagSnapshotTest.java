@@ -19,6 +19,8 @@ import com.intellij.psi.xml.XmlTag;
 import junit.framework.TestCase;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.android.SdkConstants.*;
@@ -91,4 +93,47 @@ public class TagSnapshotTest extends TestCase {
                  "}",
                  root.toString());
   }
-}
\ No newline at end of file
+
+  public void testIncrementalSnapshot() {
+    XmlTag linearLayout = newBuilder("LinearLayout")
+      .setAttribute(ATTR_ORIENTATION, VALUE_VERTICAL)
+      .addChild(newBuilder("Button").setAttribute(ATTR_TEXT, "first"))
+      .addChild(newBuilder("Button").setAttribute(ATTR_TEXT, "second"))
+      .addChild(newBuilder("Button").setAttribute(ATTR_TEXT, "third"))
+      .build();
+    XmlTag[] buttons = linearLayout.getSubTags();
+
+    Map<XmlTag, Long> stamps = new HashMap<>();
+    AtomicInteger callCount = new AtomicInteger(0);
+    TagSnapshot first = TagSnapshot.createTagSnapshot(linearLayout, (tag) -> callCount.incrementAndGet(), null,
+                                                      (tag) -> stamps.getOrDefault(tag, 0L));
+    assertEquals(4, callCount.get());
+
+    // Nothing changed, only the root is recreated
+    callCount.set(0);
+    TagSnapshot second = TagSnapshot.createTagSnapshot(linearLayout, (tag) -> callCount.incrementAndGet(), first,
+                                                       (tag) -> stamps.getOrDefault(tag, 0L));
+    assertEquals(1, callCount.get());
+    assertNotSame(first, second);
+    for (int i = 0; i < 3; i++) {
+      assertSame(first.children.get(i), second.children.get(i));
+    }
+
+    // Modify the last button
+    stamps.put(linearLayout, 1L);
+    stamps.put(buttons[2], 1L);
+    callCount.set(0);
+    TagSnapshot third = TagSnapshot.createTagSnapshot(linearLayout, (tag) -> callCount.incrementAndGet(), second,
+                                                      (tag) -> stamps.getOrDefault(tag, 0L));
+    assertEquals(2, callCount.get());
+    assertSame(second.children.get(0), third.children.get(0));
+    // The second button is copied since its next sibling is different
+    assertNotSame(second.children.get(1), third.children.get(1));
+    assertEquals("second", third.children.get(1).getAttribute(ATTR_TEXT));
+    assertSame(third.children.get(2), third.children.get(1).getNextSibling());
+    assertNotSame(second.children.get(2), third.children.get(2));
+    // The previous hierarchy is not modified
+    assertSame(second.children.get(2), second.children.get(1).getNextSibling());
+    assertEquals(second.toString(), third.toString());
+  }
+}
@@ -1354,6 +1354,10 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
       }
     });
     assertTrue(generation2 < resources.getModificationCount());
+    // Only the string resources were modified
+    assertEquals(resources.getModificationCount(), resources.getModificationCount(ResourceType.STRING));
+    assertTrue(resources.getModificationCount(ResourceType.INTEGER) <= generation2);
+    assertTrue(resources.getModificationCount(ResourceType.STYLE) <= generation2);
     resourceValue = slideLabel.getResourceValue(false);
     assertNotNull(resourceValue);
     assertEquals("Scrn Slide", resourceValue.getValue());
@@ -27,8 +27,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @SuppressWarnings("StaticMethodReferencedViaSubclass")
 public class InstalledApkCacheTest extends TestCase {
@@ -38,6 +43,7 @@ public class InstalledApkCacheTest extends TestCase {
   private File myFile;
   private String myPkgName;
   private String myDumpSysOutput;
+  private int myShellCommandCount;
 
   @Override
   public void setUp() throws Exception {
@@ -65,6 +71,7 @@ public class InstalledApkCacheTest extends TestCase {
       @Override
       protected String executeShellCommand(@NotNull IDevice device, @NotNull String cmd, long timeout, @NotNull TimeUnit timeUnit)
         throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
+        myShellCommandCount++;
         return myDumpSysOutput;
       }
     };
@@ -137,6 +144,54 @@ public class InstalledApkCacheTest extends TestCase {
     assertFalse(myService.isInstalled(myDevice1, myFile, myPkgName, 1));
   }
 
+  public void testZipEntryDelta() throws Exception {
+    writeApk(myFile, "classes.dex", "dex", "res/layout/main.xml", "<LinearLayout/>", "lib/x86/libfoo.so", "native");
+    assertNull(myService.getDelta(myDevice1, myFile, myPkgName));
+    myService.setInstalled(myDevice1, myFile, myPkgName);
+    assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+    assertTrue(myService.getDelta(myDevice1, myFile, myPkgName).isEmpty());
+
+    // Rewriting the same entries gives the same fingerprint
+    writeApk(myFile, "classes.dex", "dex", "res/layout/main.xml", "<LinearLayout/>", "lib/x86/libfoo.so", "native");
+    assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+
+    writeApk(myFile, "classes.dex", "new dex", "classes2.dex", "more dex", "lib/x86/libfoo.so", "native");
+    assertFalse(myService.isInstalled(myDevice1, myFile, myPkgName, null));
+    ApkDelta delta = myService.getDelta(myDevice1, myFile, myPkgName);
+    assertNotNull(delta);
+    assertEquals(Collections.singletonList("classes2.dex"), delta.getAddedEntries());
+    assertEquals(Collections.singletonList("classes.dex"), delta.getChangedEntries());
+    assertEquals(Collections.singletonList("res/layout/main.xml"), delta.getRemovedEntries());
+    assertFalse(delta.onlyAffects(ApkDelta.Kind.DEX));
+    assertTrue(delta.onlyAffects(ApkDelta.Kind.DEX, ApkDelta.Kind.RESOURCES));
+    assertEquals("2 dex and 1 resources entries changed", delta.getDescription());
+  }
+
+  public void testCheckQueriesDeviceOnce() throws Exception {
+    writeApk(myFile, "classes.dex", "dex", "res/layout/main.xml", "<LinearLayout/>");
+    myService.setInstalled(myDevice1, myFile, myPkgName);
+
+    writeApk(myFile, "classes.dex", "new dex", "res/layout/main.xml", "<LinearLayout/>");
+    myShellCommandCount = 0;
+    InstalledApkCache.InstallCheck check = myService.check(myDevice1, myFile, myPkgName, null);
+    assertFalse(check.isInstalled());
+    assertNotNull(check.getDelta());
+    assertEquals(Collections.singletonList("classes.dex"), check.getDelta().getChangedEntries());
+    assertEquals(1, myShellCommandCount);
+  }
+
+  private static void writeApk(@NotNull File file, @NotNull String... namesAndContents) throws IOException {
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        ZipEntry entry = new ZipEntry(namesAndContents[i]);
+        entry.setTime(0);
+        zip.putNextEntry(entry);
+        zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+  }
+
   public void testDumpsysParser() {
     myDumpSysOutput = "Packages:\n" +
                     "  Package [com.foo.bar] (423123d0):\n" +
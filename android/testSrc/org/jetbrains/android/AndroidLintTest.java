@@ -30,6 +30,8 @@ import com.intellij.codeInsight.daemon.impl.ShowIntentionsPass;
 import com.intellij.codeInsight.intention.IntentionAction;
 import com.intellij.codeInspection.CommonProblemDescriptor;
 import com.intellij.codeInspection.QuickFix;
+import com.intellij.codeInspection.ex.GlobalInspectionToolWrapper;
+import com.intellij.codeInspection.ex.InspectionToolWrapper;
 import com.intellij.codeInspection.reference.RefEntity;
 import com.intellij.codeInspection.ui.util.SynchronizedBidiMultiMap;
 import com.intellij.ide.projectView.ProjectView;
@@ -41,13 +43,18 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import com.intellij.testFramework.InspectionTestUtil;
+import com.intellij.testFramework.InspectionsKt;
+import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.testFramework.ProjectViewTestUtil;
 import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
 import com.intellij.testFramework.fixtures.TestFixtureBuilder;
+import com.intellij.testFramework.fixtures.impl.GlobalInspectionContextForTests;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.facet.AndroidRootUtil;
 import org.jetbrains.android.inspections.lint.AndroidAddStringResourceQuickFix;
@@ -62,6 +69,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +83,7 @@ import static com.google.common.truth.Truth.assertThat;
 public class AndroidLintTest extends AndroidTestCase {
   @NonNls private static final String BASE_PATH = "/lint/";
   @NonNls private static final String BASE_PATH_GLOBAL = BASE_PATH + "global/";
+  private static final int MULTI_MODULE_LIBRARY_COUNT = 6;
 
   @Override
   public void setUp() throws Exception {
@@ -92,6 +101,10 @@ public class AndroidLintTest extends AndroidTestCase {
       addModuleWithAndroidFacet(projectBuilder, modules, "module2", PROJECT_TYPE_LIBRARY);
     } else if ("testAppCompatMethod".equals(getName()) || "testExtendAppCompatWidgets".equals(getName())) {
       addModuleWithAndroidFacet(projectBuilder, modules, "appcompat", PROJECT_TYPE_APP);
+    } else if ("testMultiModuleBatchAnalysisPerformance".equals(getName())) {
+      for (int i = 0; i < MULTI_MODULE_LIBRARY_COUNT; i++) {
+        addModuleWithAndroidFacet(projectBuilder, modules, "lib" + i, PROJECT_TYPE_LIBRARY);
+      }
     }
   }
 
@@ -873,6 +886,52 @@ public class AndroidLintTest extends AndroidTestCase {
     doGlobalInspectionTest(new AndroidLintNewApiInspection(), testDir, new AnalysisScope(getProject()));
   }
 
+  public void testMultiModuleBatchAnalysisPerformance() throws Exception {
+    // The app and every library depend on lib0, so it would be analyzed by each of their drivers if dependencies were not
+    // only referenced.
+    Module common = getAdditionalModuleByName("lib0");
+    List<String> roots = Lists.newArrayList("");
+    for (Module module : myAdditionalModules) {
+      if (module != common) {
+        ModuleRootModificationUtil.addDependency(module, common);
+      }
+      roots.add(getAdditionalModulePath(module.getName()) + "/");
+    }
+    int layoutsPerModule = 20;
+    for (String root : roots) {
+      for (int i = 0; i < layoutsPerModule; i++) {
+        myFixture.addFileToProject(root + "res/layout/hardcoded" + i + ".xml",
+                                   "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                   "    android:layout_width=\"match_parent\"\n" +
+                                   "    android:layout_height=\"match_parent\">\n" +
+                                   "  <Button android:layout_width=\"wrap_content\"\n" +
+                                   "      android:layout_height=\"wrap_content\"\n" +
+                                   "      android:text=\"Hardcoded " + i + "\"/>\n" +
+                                   "</LinearLayout>\n");
+      }
+    }
+
+    AndroidLintHardcodedTextInspection inspection = new AndroidLintHardcodedTextInspection();
+    myFixture.enableInspections(inspection);
+    GlobalInspectionToolWrapper wrapper = new GlobalInspectionToolWrapper(inspection);
+    AnalysisScope scope = new AnalysisScope(getProject());
+    int[] problemCount = new int[1];
+    PlatformTestUtil.startPerformanceTest("lint batch analysis of an app with shared libraries", 15000, () -> {
+      scope.invalidate();
+      GlobalInspectionContextForTests context =
+        InspectionsKt.createGlobalContextForTool(scope, getProject(), Arrays.<InspectionToolWrapper<?, ?>>asList(wrapper));
+      InspectionTestUtil.runTool(wrapper, scope, context);
+      SynchronizedBidiMultiMap<RefEntity, CommonProblemDescriptor> problems = context.getPresentation(wrapper).getProblemElements();
+      problemCount[0] = 0;
+      for (RefEntity refEntity : problems.keys()) {
+        problemCount[0] += problems.get(refEntity).length;
+      }
+    }).attempts(2).usesAllCPUCores().assertTiming();
+
+    // Each hardcoded text is reported once, by the driver of the module that owns it
+    assertEquals(roots.size() * layoutsPerModule, problemCount[0]);
+  }
+
   public void testDisabledTestsEnabledOnTheFly() throws Exception {
     // If this changes test no longer applies; pick different disabled issue
     assertThat(CommentDetector.STOP_SHIP.isEnabledByDefault()).isFalse();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.google.common.collect.ImmutableMap;
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+public class AndroidLintGlobalInspectionContextTest extends TestCase {
+  private ExecutorService myExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newFixedThreadPool(4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRunInDependencyOrder() throws Exception {
+    Map<String, List<String>> dependencies = ImmutableMap.<String, List<String>>builder()
+      .put("app", asList("lib1", "lib2"))
+      .put("lib1", asList("lib2"))
+      .put("lib2", emptyList())
+      .put("other", emptyList())
+      .put("wear", asList("shared"))
+      .put("tv", asList("shared"))
+      .put("shared", asList("lib2"))
+      .build();
+
+    // "shared" is not analyzed but "wear" and "tv" still wait for "lib2"
+    Set<String> completed = ConcurrentHashMap.newKeySet();
+    List<String> modules = asList("lib2", "wear", "app", "other", "tv", "lib1");
+    List<Future<Set<String>>> futures =
+      AndroidLintGlobalInspectionContext.runInDependencyOrder(modules, dependencies::get, myExecutor, module -> {
+        Set<String> completedBefore = new HashSet<>(completed);
+        completed.add(module);
+        return completedBefore;
+      });
+
+    assertEquals(modules.size(), futures.size());
+    assertTrue(futures.get(modules.indexOf("app")).get().containsAll(asList("lib1", "lib2")));
+    assertTrue(futures.get(modules.indexOf("lib1")).get().contains("lib2"));
+    assertTrue(futures.get(modules.indexOf("wear")).get().contains("lib2"));
+    assertTrue(futures.get(modules.indexOf("tv")).get().contains("lib2"));
+    assertEquals(new HashSet<>(modules), completed);
+  }
+
+  public void testSharedLibraryDoesNotSerializeModules() throws Exception {
+    // 40 apps, each one with its own library, all depending on a common library
+    Map<String, List<String>> dependencies = new HashMap<>();
+    List<String> modules = new ArrayList<>();
+    dependencies.put("common", emptyList());
+    modules.add("common");
+    for (int i = 0; i < 40; i++) {
+      dependencies.put("app" + i, asList("lib" + i));
+      dependencies.put("lib" + i, asList("common"));
+      modules.add("app" + i);
+      modules.add("lib" + i);
+    }
+
+    // Apps only complete in pairs, which can only happen if they run at the same time
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    List<Future<String>> futures = AndroidLintGlobalInspectionContext.runInDependencyOrder(modules, dependencies::get, myExecutor, module -> {
+      if (module.startsWith("app")) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return module;
+    });
+
+    for (int i = 0; i < modules.size(); i++) {
+      assertEquals(modules.get(i), futures.get(i).get(30, TimeUnit.SECONDS));
+    }
+  }
+
+  public void testCycles() throws Exception {
+    Map<String, List<String>> dependencies = ImmutableMap.<String, List<String>>builder()
+      .put("a", asList("b"))
+      .put("b", asList("c"))
+      .put("c", asList("a"))
+      .put("d", asList("a"))
+      .build();
+
+    List<String> modules = asList("a", "b", "c", "d");
+    List<Future<String>> futures = AndroidLintGlobalInspectionContext.runInDependencyOrder(modules, dependencies::get, myExecutor, m -> m);
+    for (int i = 0; i < modules.size(); i++) {
+      assertEquals(modules.get(i), futures.get(i).get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  public void testFailedDependency() throws Exception {
+    Map<String, List<String>> dependencies = ImmutableMap.of("app", asList("lib"), "lib", emptyList());
+
+    List<Future<String>> futures = AndroidLintGlobalInspectionContext.runInDependencyOrder(asList("app", "lib"), dependencies::get, myExecutor, module -> {
+      if (module.equals("lib")) {
+        throw new IllegalStateException(module);
+      }
+      return module;
+    });
+
+    assertEquals("app", futures.get(0).get(10, TimeUnit.SECONDS));
+    try {
+      futures.get(1).get(10, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+}
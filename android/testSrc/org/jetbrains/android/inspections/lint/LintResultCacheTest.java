@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.AndroidLintHardcodedTextInspection;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.TypographyDetector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.android.AndroidTestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class LintResultCacheTest extends AndroidTestCase {
+  private static final String PATH = "/project/app/src/main/res/layout/layout.xml";
+  private static final String CONTENT = "<TextView android:text=\"Hello\"/>";
+  private static final String VERSION = "1.0";
+  private static final String LAYOUT =
+    "<TextView xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+    "    android:layout_width=\"wrap_content\"\n" +
+    "    android:layout_height=\"wrap_content\"\n" +
+    "    android:text=\"Hello\"/>\n";
+
+  private File myCacheDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = FileUtil.createTempDirectory("lint_result_cache", null);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myCacheDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testKey() {
+    Set<Issue> issues = ImmutableSet.of(HardcodedValuesDetector.ISSUE, TypographyDetector.DASHES);
+    String key = computeKey(PATH, CONTENT, issues, "resources").getHash();
+    assertEquals(key, computeKey(PATH, CONTENT, issues, "resources").getHash());
+    // The order of the issues does not matter
+    assertEquals(key, computeKey(PATH, CONTENT, ImmutableSet.of(TypographyDetector.DASHES, HardcodedValuesDetector.ISSUE),
+                                 "resources").getHash());
+
+    assertFalse(key.equals(computeKey(PATH, CONTENT + " ", issues, "resources").getHash()));
+    assertFalse(key.equals(computeKey(PATH + ".bak", CONTENT, issues, "resources").getHash()));
+    assertFalse(key.equals(computeKey(PATH, CONTENT, ImmutableSet.of(HardcodedValuesDetector.ISSUE), "resources").getHash()));
+    assertFalse(key.equals(computeKey(PATH, CONTENT, issues, "other resources").getHash()));
+    assertFalse(key.equals(LintResultCache.computeKey(myModule, PATH, CONTENT, issues, "2.0", "resources", 0, true).getHash()));
+  }
+
+  public void testHeapAndDiskCache() throws Exception {
+    LintResultCache cache = new LintResultCache(myCacheDir, VERSION);
+    LintResultCache.CacheKey key = computeKey(PATH, CONTENT, ImmutableSet.of(HardcodedValuesDetector.ISSUE), "resources");
+    assertNull(cache.get(key));
+
+    List<ProblemData> problems = Arrays.asList(
+      new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"Hello\"", new TextRange(10, 30), null, null),
+      new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"World\"", new TextRange(40, 60), Severity.ERROR, null));
+    cache.put(key, problems);
+    checkProblems(cache.get(key));
+
+    // Now read it back from disk
+    cache.waitForPendingWrites();
+    cache.clearHeapCache();
+    checkProblems(cache.get(key));
+
+    // Keys that depend on the session are not written to disk
+    LintResultCache.CacheKey sessionKey = LintResultCache.computeKey(myModule, PATH, CONTENT, ImmutableSet.of(HardcodedValuesDetector.ISSUE),
+                                                                     VERSION, "resources", 1, false);
+    cache.put(sessionKey, problems);
+    cache.waitForPendingWrites();
+    cache.clearHeapCache();
+    assertNull(cache.get(sessionKey));
+  }
+
+  public void testResultsOfOtherVersionsAreNotReused() throws Exception {
+    VirtualFile file = myFixture.addFileToProject("res/layout/layout.xml", LAYOUT).getVirtualFile();
+    Set<Issue> issues = ImmutableSet.of(HardcodedValuesDetector.ISSUE);
+    LintResultCache cache = new LintResultCache(myCacheDir, VERSION);
+    cache.put(cache.computeKey(myModule, file, LAYOUT, issues), Arrays.asList(
+      new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"Hello\"", new TextRange(10, 30), null, null),
+      new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"World\"", new TextRange(40, 60), Severity.ERROR, null)));
+    cache.waitForPendingWrites();
+
+    // The results written by the same version are found in the next session, not the ones of another version
+    LintResultCache sameVersion = new LintResultCache(myCacheDir, VERSION);
+    checkProblems(sameVersion.get(sameVersion.computeKey(myModule, file, LAYOUT, issues)));
+    LintResultCache otherVersion = new LintResultCache(myCacheDir, "2.0");
+    assertNull(otherVersion.get(otherVersion.computeKey(myModule, file, LAYOUT, issues)));
+  }
+
+  public void testEditorReusesCachedResult() {
+    myFixture.enableInspections(new AndroidLintHardcodedTextInspection());
+    PsiFile psiFile = myFixture.addFileToProject("res/layout/layout.xml", LAYOUT);
+    myFixture.configureFromExistingVirtualFile(psiFile.getVirtualFile());
+    assertTrue(hasWarning(myFixture.doHighlighting(HighlightSeverity.WARNING), "Hardcoded string \"Hello\""));
+
+    // The problems found by the lint run are cached; change them to check that the next highlighting uses the cache
+    LintResultCache cache = LintResultCache.getInstance();
+    Set<Issue> issues = AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), psiFile);
+    LintResultCache.CacheKey key = cache.computeKey(myModule, psiFile.getVirtualFile(), psiFile.getText(), issues);
+    List<ProblemData> problems = cache.get(key);
+    assertNotNull(problems);
+    assertEquals(1, problems.size());
+    ProblemData problem = problems.get(0);
+    cache.put(key, Collections.singletonList(
+      new ProblemData(problem.getIssue(), "Cached problem", problem.getTextRange(), problem.getConfiguredSeverity(), null)));
+
+    List<HighlightInfo> highlights = myFixture.doHighlighting(HighlightSeverity.WARNING);
+    assertTrue(hasWarning(highlights, "Cached problem"));
+    assertFalse(hasWarning(highlights, "Hardcoded string \"Hello\""));
+  }
+
+  private static boolean hasWarning(List<HighlightInfo> highlights, String description) {
+    return highlights.stream().anyMatch(info -> info.getDescription() != null && info.getDescription().contains(description));
+  }
+
+  private LintResultCache.CacheKey computeKey(String path, String content, Set<Issue> issues, String moduleFingerprint) {
+    return LintResultCache.computeKey(myModule, path, content, issues, VERSION, moduleFingerprint, 0, true);
+  }
+
+  private static void checkProblems(List<ProblemData> problems) {
+    assertNotNull(problems);
+    assertEquals(2, problems.size());
+    assertSame(HardcodedValuesDetector.ISSUE, problems.get(0).getIssue());
+    assertEquals("Hardcoded string \"Hello\"", problems.get(0).getMessage());
+    assertEquals(new TextRange(10, 30), problems.get(0).getTextRange());
+    assertNull(problems.get(0).getConfiguredSeverity());
+    assertEquals(Severity.ERROR, problems.get(1).getConfiguredSeverity());
+    assertEquals(new TextRange(40, 60), problems.get(1).getTextRange());
+  }
+}
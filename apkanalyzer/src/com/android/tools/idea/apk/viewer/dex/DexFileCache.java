@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.android.tools.apk.analyzer.dex.DexFiles;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Parsed dex files shared by the views of the APK analyzer, keyed by a hash of the contents of the
+ * dex files. The package tree, the references view and the disassembly of a dex file all use the
+ * same {@link DexBackedDexFile}, the files of a multidex APK are loaded in parallel, and identical
+ * dex files in different archives, e.g. in a rebuilt APK, are parsed once.
+ *
+ * The hash of a dex file inside an archive is remembered for its zip entry, identified by the path
+ * and modification time of the archive and by the path, CRC and size of the entry, so finding a
+ * cached file again does not require reading it. The parsed files are softly referenced, so they
+ * are dropped under memory pressure.
+ */
+public final class DexFileCache {
+  private static final Cache<String, DexBackedDexFile> ourDexFiles = CacheBuilder.newBuilder().softValues().build();
+  /** Content keys of the dex files read from archives, by {@link #getZipEntryKey zip entry key} */
+  private static final Cache<String, String> ourContentKeys = CacheBuilder.newBuilder().maximumSize(1000).build();
+  private static final ListeningExecutorService ourExecutor = MoreExecutors.listeningDecorator(
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("Dex file loader", Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+
+  private DexFileCache() {
+  }
+
+  /**
+   * Loads the given dex files in parallel.
+   *
+   * @return a future with the parsed files, in the order of {@code dexFiles}
+   */
+  @NotNull
+  public static ListenableFuture<Map<Path, DexBackedDexFile>> getDexFiles(@NotNull Path[] dexFiles) {
+    List<ListenableFuture<DexBackedDexFile>> futures = new ArrayList<>(dexFiles.length);
+    for (Path path : dexFiles) {
+      futures.add(ourExecutor.submit(() -> getDexFile(path)));
+    }
+    return Futures.transform(Futures.allAsList(futures), (Function<List<DexBackedDexFile>, Map<Path, DexBackedDexFile>>)files -> {
+      assert files != null;
+      Map<Path, DexBackedDexFile> result = new LinkedHashMap<>();
+      for (int i = 0; i < dexFiles.length; i++) {
+        result.put(dexFiles[i], files.get(i));
+      }
+      return result;
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Returns the parsed dex file at the given path, parsing it only if no file with the same
+   * contents was loaded before.
+   */
+  @NotNull
+  public static DexBackedDexFile getDexFile(@NotNull Path dexFile) throws IOException {
+    String entryKey = getZipEntryKey(dexFile);
+    String key = entryKey != null ? ourContentKeys.getIfPresent(entryKey) : null;
+    byte[] contents = null;
+    if (key == null) {
+      contents = Files.readAllBytes(dexFile);
+      key = getContentKey(contents);
+      if (entryKey != null) {
+        ourContentKeys.put(entryKey, key);
+      }
+    }
+
+    byte[] readContents = contents;
+    try {
+      // Concurrent requests for the same contents wait for a single load
+      return ourDexFiles.get(key, () -> DexFiles.getDexFile(readContents != null ? readContents : Files.readAllBytes(dexFile)));
+    }
+    catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns a key which identifies the contents of the given dex file. A file in an archive is only
+   * read if its key is not known yet.
+   */
+  @NotNull
+  public static String getContentKey(@NotNull Path dexFile) throws IOException {
+    String entryKey = getZipEntryKey(dexFile);
+    String key = entryKey != null ? ourContentKeys.getIfPresent(entryKey) : null;
+    if (key == null) {
+      key = getContentKey(Files.readAllBytes(dexFile));
+      if (entryKey != null) {
+        ourContentKeys.put(entryKey, key);
+      }
+    }
+    return key;
+  }
+
+  @NotNull
+  private static String getContentKey(@NotNull byte[] contents) {
+    return "hash:" + Hashing.murmur3_128().hashBytes(contents) + ":" + contents.length;
+  }
+
+  /**
+   * Returns a key made of the path and modification time of the archive, and of the path, CRC and
+   * size of the zip entry for the given path, or null if the path is not in a zip file system. It
+   * is only used to remember the content key of the entry.
+   */
+  @VisibleForTesting
+  @Nullable
+  static String getZipEntryKey(@NotNull Path path) {
+    if (!path.getFileSystem().supportedFileAttributeViews().contains("zip")) {
+      return null;
+    }
+    try {
+      Path archive = getArchivePath(path);
+      if (archive == null) {
+        return null;
+      }
+      Map<String, Object> attributes = Files.readAttributes(path, "zip:crc,size");
+      Object crc = attributes.get("crc");
+      Object size = attributes.get("size");
+      if (crc instanceof Long && size instanceof Long) {
+        return "zip:" + archive + ":" + Files.getLastModifiedTime(archive).toMillis() + "!" + path.toAbsolutePath() + ":" +
+               Long.toHexString((Long)crc) + ":" + size;
+      }
+    }
+    catch (IOException | UnsupportedOperationException | IllegalArgumentException ignored) {
+    }
+    return null;
+  }
+
+  /**
+   * Returns the path of the archive containing the given path, from its {@code jar:} URI.
+   */
+  @Nullable
+  private static Path getArchivePath(@NotNull Path path) {
+    URI uri = path.toUri();
+    if (!"jar".equals(uri.getScheme())) {
+      return null;
+    }
+    String spec = uri.getRawSchemeSpecificPart();
+    int separator = spec.indexOf("!/");
+    if (separator < 0) {
+      return null;
+    }
+    try {
+      return Paths.get(new URI(spec.substring(0, separator)));
+    }
+    catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  static void clear() {
+    ourDexFiles.invalidateAll();
+    ourContentKeys.invalidateAll();
+  }
+
+  @VisibleForTesting
+  static long size() {
+    return ourDexFiles.size();
+  }
+}
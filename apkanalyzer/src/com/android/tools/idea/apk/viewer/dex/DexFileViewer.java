@@ -29,7 +29,6 @@ import com.android.tools.proguard.ProguardSeedsMap;
 import com.android.tools.proguard.ProguardUsagesMap;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
-import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.*;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
@@ -80,7 +79,7 @@ public class DexFileViewer implements ApkFileEditorComponent {
 
   @Nullable private ProguardMappings myProguardMappings;
   private boolean myDeobfuscateNames;
-  private ListenableFuture<DexReferences> myDexReferences;
+  private ListenableFuture<DexReferenceIndex> myReferenceIndex;
 
 
   public DexFileViewer(@NotNull Project project, @NotNull Path[] dexFiles, @NotNull VirtualFile apkFolder) {
@@ -183,6 +182,8 @@ public class DexFileViewer implements ApkFileEditorComponent {
       .installPopupHandler(myTree, group, ActionPlaces.UNKNOWN, ActionManager.getInstance());
 
     initDex();
+    // Index the references in the background, so that they are ready when the user looks for them
+    getReferenceIndex();
   }
 
   @NotNull
@@ -272,13 +273,7 @@ public class DexFileViewer implements ApkFileEditorComponent {
 
   public void initDex() {
     ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture = pooledThreadExecutor.submit(() -> {
-      Map<Path, DexBackedDexFile> dexFiles = Maps.newHashMapWithExpectedSize(myDexFiles.length);
-      for (int i = 0; i < myDexFiles.length; i++) {
-        dexFiles.put(myDexFiles[i], DexFiles.getDexFile(myDexFiles[i]));
-      }
-      return dexFiles;
-    });
+    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture = DexFileCache.getDexFiles(myDexFiles);
 
     ListenableFuture<DexPackageNode> treeNodeFuture =
       Futures.transform(dexFileFuture, new Function<Map<Path, DexBackedDexFile>, DexPackageNode>() {
@@ -387,27 +382,12 @@ public class DexFileViewer implements ApkFileEditorComponent {
     return myDeobfuscateNames;
   }
 
-  @Nullable
-  ListenableFuture<DexReferences> getDexReferences() {
-    if (myDexReferences == null) {
-      ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-      ListenableFuture<DexBackedDexFile[]> dexFileFuture = pooledThreadExecutor.submit(() -> {
-        DexBackedDexFile[] files = new DexBackedDexFile[myDexFiles.length];
-        for (int i = 0; i < files.length; i++) {
-          files[i] = DexFiles.getDexFile(myDexFiles[i]);
-        }
-        return files;
-      });
-      myDexReferences = Futures.transform(dexFileFuture, new Function<DexBackedDexFile[], DexReferences>() {
-        @Override
-        public DexReferences apply(@Nullable DexBackedDexFile[] inputs) {
-          assert inputs != null;
-          return new DexReferences(inputs);
-        }
-      }, pooledThreadExecutor);
+  @NotNull
+  ListenableFuture<DexReferenceIndex> getReferenceIndex() {
+    if (myReferenceIndex == null) {
+      myReferenceIndex = DexReferenceIndex.getIndex(myDexFiles);
     }
-
-    return myDexReferences;
+    return myReferenceIndex;
   }
 
   private static class DexTreeNodeRenderer extends ColoredTreeCellRenderer {
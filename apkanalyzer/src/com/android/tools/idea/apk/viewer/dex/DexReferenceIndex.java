@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.android.tools.idea.io.LruCacheDirectory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableReference;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An index from the types, fields and methods referenced by a set of dex files to the classes,
+ * fields and methods which reference them:
+ * <ul>
+ *   <li>a class references its superclass and the interfaces it implements,</li>
+ *   <li>a field references its type,</li>
+ *   <li>a method references its return and parameter types, and the types, fields and methods
+ *   used by its instructions.</li>
+ * </ul>
+ *
+ * The index is built once in the background and stored on disk under a key computed from the
+ * contents of the dex files, so that opening the same APK again does not walk the dex files.
+ */
+public final class DexReferenceIndex {
+  private static final Logger LOG = Logger.getInstance(DexReferenceIndex.class);
+
+  private static final String CACHE_DIRECTORY = "apk_analyzer_references";
+  private static final String INDEX_EXTENSION = ".idx";
+  private static final int FORMAT_VERSION = 1;
+  private static final long MAX_DISK_BYTES = 64 * 1024 * 1024;
+
+  private static final int KIND_TYPE = 0;
+  private static final int KIND_FIELD = 1;
+  private static final int KIND_METHOD = 2;
+
+  private static final Cache<String, DexReferenceIndex> ourHeapCache = CacheBuilder.newBuilder().softValues().build();
+  private static final ListeningExecutorService ourExecutor =
+    MoreExecutors.listeningDecorator(AppExecutorUtil.createBoundedApplicationPoolExecutor("Dex reference index", 1));
+  private static final ExecutorService ourDiskExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("Dex reference index disk writer", 1);
+
+  /** The classes, fields and methods which reference something. */
+  @NotNull private final ImmutableReference[] myReferrers;
+  /** The reference string of a type, field or method to the indexes in {@link #myReferrers} of what references it. */
+  @NotNull private final Map<String, int[]> myReferences;
+
+  private DexReferenceIndex(@NotNull ImmutableReference[] referrers, @NotNull Map<String, int[]> references) {
+    myReferrers = referrers;
+    myReferences = references;
+  }
+
+  /**
+   * Returns the index of the given dex files, from memory or disk if it was built before, or
+   * builds it in the background otherwise.
+   */
+  @NotNull
+  public static ListenableFuture<DexReferenceIndex> getIndex(@NotNull Path[] dexFiles) {
+    return getIndex(dexFiles, new File(PathManager.getSystemPath(), CACHE_DIRECTORY));
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static ListenableFuture<DexReferenceIndex> getIndex(@NotNull Path[] dexFiles, @Nullable File diskCacheDir) {
+    LruCacheDirectory diskCache = diskCacheDir != null ? new LruCacheDirectory(diskCacheDir, MAX_DISK_BYTES) : null;
+    ListenableFuture<String> keyFuture = ourExecutor.submit(() -> computeKey(dexFiles));
+    return Futures.transformAsync(keyFuture, key -> {
+      assert key != null;
+      DexReferenceIndex index = ourHeapCache.getIfPresent(key);
+      if (index == null && diskCache != null) {
+        index = readFromDisk(diskCache, key);
+      }
+      if (index != null) {
+        ourHeapCache.put(key, index);
+        return Futures.immediateFuture(index);
+      }
+      ListenableFuture<Map<Path, DexBackedDexFile>> filesFuture = DexFileCache.getDexFiles(dexFiles);
+      return Futures.transform(filesFuture, (Function<Map<Path, DexBackedDexFile>, DexReferenceIndex>)files -> {
+        assert files != null;
+        DexReferenceIndex built = build(files.values());
+        ourHeapCache.put(key, built);
+        if (diskCache != null) {
+          ourDiskExecutor.execute(() -> diskCache.write(key + INDEX_EXTENSION, out -> built.write(new DataOutputStream(out))));
+        }
+        return built;
+      }, ourExecutor);
+    }, MoreExecutors.directExecutor());
+  }
+
+  @NotNull
+  private static String computeKey(@NotNull Path[] dexFiles) throws IOException {
+    List<String> keys = new ArrayList<>(dexFiles.length);
+    for (Path dexFile : dexFiles) {
+      keys.add(DexFileCache.getContentKey(dexFile));
+    }
+    // The index does not depend on the order of the files
+    Collections.sort(keys);
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    for (String key : keys) {
+      hasher.putString(key, StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Walks the given dex files to build their index.
+   */
+  @NotNull
+  public static DexReferenceIndex build(@NotNull Collection<? extends DexBackedDexFile> dexFiles) {
+    Builder builder = new Builder();
+    for (DexBackedDexFile dexFile : dexFiles) {
+      for (ClassDef classDef : dexFile.getClasses()) {
+        int classId = builder.addReferrer(new ImmutableTypeReference(classDef.getType()));
+        String superclass = classDef.getSuperclass();
+        if (superclass != null) {
+          builder.addTypeReference(superclass, classId);
+        }
+        for (String type : classDef.getInterfaces()) {
+          builder.addTypeReference(type, classId);
+        }
+
+        for (Field field : classDef.getFields()) {
+          int fieldId = builder.addReferrer(ImmutableFieldReference.of(field));
+          builder.addTypeReference(field.getType(), fieldId);
+        }
+
+        for (Method method : classDef.getMethods()) {
+          int methodId = builder.addReferrer(ImmutableMethodReference.of(method));
+          builder.addTypeReference(method.getReturnType(), methodId);
+          for (CharSequence type : method.getParameterTypes()) {
+            builder.addTypeReference(type.toString(), methodId);
+          }
+          MethodImplementation implementation = method.getImplementation();
+          if (implementation == null) {
+            continue;
+          }
+          for (Instruction instruction : implementation.getInstructions()) {
+            if (instruction instanceof ReferenceInstruction) {
+              builder.addReference(((ReferenceInstruction)instruction).getReference(), methodId);
+            }
+          }
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the classes, fields and methods which reference the given type, field or method.
+   */
+  @NotNull
+  public List<ImmutableReference> getReferrers(@NotNull Reference reference) {
+    String key = getKey(reference);
+    int[] ids = key != null ? myReferences.get(key) : null;
+    if (ids == null) {
+      return Collections.emptyList();
+    }
+    List<ImmutableReference> referrers = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      referrers.add(myReferrers[id]);
+    }
+    return referrers;
+  }
+
+  public boolean hasReferrers(@NotNull Reference reference) {
+    String key = getKey(reference);
+    return key != null && myReferences.containsKey(key);
+  }
+
+  /**
+   * Returns the string used to look up the given reference, or null for references which are not
+   * indexed, such as strings.
+   */
+  @Nullable
+  private static String getKey(@NotNull Reference reference) {
+    if (reference instanceof TypeReference) {
+      return getElementType(((TypeReference)reference).getType());
+    }
+    if (reference instanceof FieldReference || reference instanceof MethodReference) {
+      return ReferenceUtil.getReferenceString(reference);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the type of the elements of an array type, or the given type if it is not an array.
+   * Returns null for primitive types, which are not indexed.
+   */
+  @Nullable
+  private static String getElementType(@NotNull String type) {
+    int start = 0;
+    while (start < type.length() && type.charAt(start) == '[') {
+      start++;
+    }
+    return type.length() - start > 1 ? type.substring(start) : null;
+  }
+
+  private static final class Builder {
+    private final List<ImmutableReference> myReferrers = new ArrayList<>();
+    private final Map<String, Set<Integer>> myReferences = new HashMap<>();
+
+    int addReferrer(@NotNull ImmutableReference referrer) {
+      myReferrers.add(referrer);
+      return myReferrers.size() - 1;
+    }
+
+    void addReference(@NotNull Reference reference, int referrerId) {
+      String key = getKey(reference);
+      if (key != null) {
+        myReferences.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(referrerId);
+      }
+    }
+
+    void addTypeReference(@NotNull String type, int referrerId) {
+      addReference(new ImmutableTypeReference(type), referrerId);
+    }
+
+    @NotNull
+    DexReferenceIndex build() {
+      Map<String, int[]> references = new HashMap<>(myReferences.size());
+      for (Map.Entry<String, Set<Integer>> entry : myReferences.entrySet()) {
+        references.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+      }
+      return new DexReferenceIndex(myReferrers.toArray(new ImmutableReference[0]), references);
+    }
+  }
+
+  @Nullable
+  private static DexReferenceIndex readFromDisk(@NotNull LruCacheDirectory diskCache, @NotNull String key) {
+    File file = diskCache.findFile(key + INDEX_EXTENSION);
+    if (file == null) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return read(in);
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.debug("Unable to read dex reference index " + key, e);
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  void write(@NotNull DataOutputStream out) throws IOException {
+    // All the names and types are written once, and referred to by their index
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    for (ImmutableReference referrer : myReferrers) {
+      for (String string : getStrings(referrer)) {
+        strings.putIfAbsent(string, strings.size());
+      }
+    }
+    for (String key : myReferences.keySet()) {
+      strings.putIfAbsent(key, strings.size());
+    }
+
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(strings.size());
+    for (String string : strings.keySet()) {
+      out.writeUTF(string);
+    }
+
+    out.writeInt(myReferrers.length);
+    for (ImmutableReference referrer : myReferrers) {
+      List<String> referrerStrings = getStrings(referrer);
+      out.writeByte(referrer instanceof TypeReference ? KIND_TYPE : referrer instanceof FieldReference ? KIND_FIELD : KIND_METHOD);
+      if (referrer instanceof MethodReference) {
+        out.writeShort(referrerStrings.size() - 3);
+      }
+      for (String string : referrerStrings) {
+        out.writeInt(strings.get(string));
+      }
+    }
+
+    out.writeInt(myReferences.size());
+    for (Map.Entry<String, int[]> entry : myReferences.entrySet()) {
+      out.writeInt(strings.get(entry.getKey()));
+      int[] ids = entry.getValue();
+      out.writeInt(ids.length);
+      for (int id : ids) {
+        out.writeInt(id);
+      }
+    }
+  }
+
+  /**
+   * Returns the strings making up the given referrer: the type of a class; the defining class,
+   * name and type of a field; or the defining class, name, return type and parameter types of a
+   * method.
+   */
+  @NotNull
+  private static List<String> getStrings(@NotNull ImmutableReference referrer) {
+    if (referrer instanceof TypeReference) {
+      return Collections.singletonList(((TypeReference)referrer).getType());
+    }
+    if (referrer instanceof FieldReference) {
+      FieldReference field = (FieldReference)referrer;
+      return Arrays.asList(field.getDefiningClass(), field.getName(), field.getType());
+    }
+    MethodReference method = (MethodReference)referrer;
+    List<String> strings = new ArrayList<>();
+    strings.add(method.getDefiningClass());
+    strings.add(method.getName());
+    strings.add(method.getReturnType());
+    for (CharSequence type : method.getParameterTypes()) {
+      strings.add(type.toString());
+    }
+    return strings;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static DexReferenceIndex read(@NotNull DataInputStream in) throws IOException {
+    if (in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Unsupported dex reference index version");
+    }
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    ImmutableReference[] referrers = new ImmutableReference[in.readInt()];
+    for (int i = 0; i < referrers.length; i++) {
+      int kind = in.readByte();
+      switch (kind) {
+        case KIND_TYPE:
+          referrers[i] = new ImmutableTypeReference(strings[in.readInt()]);
+          break;
+        case KIND_FIELD:
+          referrers[i] = new ImmutableFieldReference(strings[in.readInt()], strings[in.readInt()], strings[in.readInt()]);
+          break;
+        case KIND_METHOD:
+          int parameterCount = in.readShort();
+          String definingClass = strings[in.readInt()];
+          String name = strings[in.readInt()];
+          String returnType = strings[in.readInt()];
+          List<String> parameterTypes = new ArrayList<>(parameterCount);
+          for (int j = 0; j < parameterCount; j++) {
+            parameterTypes.add(strings[in.readInt()]);
+          }
+          referrers[i] = new ImmutableMethodReference(definingClass, name, parameterTypes, returnType);
+          break;
+        default:
+          throw new IOException("Unknown referrer kind " + kind);
+      }
+    }
+
+    int referenceCount = in.readInt();
+    Map<String, int[]> references = new HashMap<>(referenceCount);
+    for (int i = 0; i < referenceCount; i++) {
+      String key = strings[in.readInt()];
+      int[] ids = new int[in.readInt()];
+      for (int j = 0; j < ids.length; j++) {
+        ids[j] = in.readInt();
+        if (ids[j] < 0 || ids[j] >= referrers.length) {
+          throw new IOException("Invalid referrer " + ids[j]);
+        }
+      }
+      references.put(key, ids);
+    }
+    return new DexReferenceIndex(referrers, references);
+  }
+
+  @VisibleForTesting
+  static void clearHeapCache() {
+    ourHeapCache.invalidateAll();
+  }
+}
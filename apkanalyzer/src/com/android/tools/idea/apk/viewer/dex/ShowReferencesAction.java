@@ -42,6 +42,11 @@ import org.jf.dexlib2.iface.reference.FieldReference;
 import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.iface.reference.Reference;
 import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableReference;
+import org.jf.dexlib2.immutable.reference.ImmutableReferenceFactory;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
 
 import javax.swing.*;
 import javax.swing.event.TreeExpansionEvent;
@@ -50,6 +55,9 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.ExpandVetoException;
 import javax.swing.tree.TreePath;
 import java.awt.*;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 public class ShowReferencesAction extends AnAction {
   @NotNull private final Tree myTree;
@@ -81,12 +89,11 @@ public class ShowReferencesAction extends AnAction {
     assert node != null; // action should've been disabled in this case
     Project project = getEventProject(e);
 
-    ListenableFuture<DexReferences> references = myDexFileViewer.getDexReferences();
-    assert references != null;
-
-    Futures.addCallback(references, new FutureCallback<DexReferences>() {
+    ListenableFuture<DexReferenceIndex> index = myDexFileViewer.getReferenceIndex();
+    Futures.addCallback(index, new FutureCallback<DexReferenceIndex>() {
       @Override
-      public void onSuccess(@Nullable DexReferences result) {
+      public void onSuccess(@Nullable DexReferenceIndex result) {
+        assert result != null;
         showReferenceTree(e, node, project, result);
       }
 
@@ -97,27 +104,22 @@ public class ShowReferencesAction extends AnAction {
     }, EdtExecutor.INSTANCE);
   }
 
-  private void showReferenceTree(AnActionEvent e, DexElementNode node, Project project, DexReferences references) {
+  private void showReferenceTree(AnActionEvent e, DexElementNode node, Project project, DexReferenceIndex index) {
     ProguardMappings proguardMappings = myDexFileViewer.getProguardMappings();
     final ProguardMap proguardMap = proguardMappings != null ? proguardMappings.map : null;
     final ProguardSeedsMap seedsMap = proguardMappings != null ? proguardMappings.seeds : null;
     final boolean deobfuscate = myDexFileViewer.isDeobfuscateNames();
 
     assert node.getReference() != null;
-    Tree tree = new Tree(new DefaultTreeModel(references.getReferenceTreeFor(node.getReference(), true)));
+    ReferenceTreeBuilder treeBuilder = new ReferenceTreeBuilder(index);
+    Tree tree = new Tree(new DefaultTreeModel(treeBuilder.createReferenceTree(node.getReference())));
     tree.setShowsRootHandles(true);
     tree.addTreeWillExpandListener(new TreeWillExpandListener() {
       @Override
       public void treeWillExpand(TreeExpansionEvent event) throws ExpandVetoException {
         TreePath path = event.getPath();
         if (path.getLastPathComponent() instanceof DexElementNode) {
-          DexElementNode node = (DexElementNode) path.getLastPathComponent();
-          if (!DexReferences.isAlreadyLoaded(node)){
-            node.removeAllChildren();
-            assert node.getReference() != null;
-            references.addReferencesForNode(node, true);
-            node.sort(DexReferences.NODE_COMPARATOR);
-          }
+          treeBuilder.expand((DexElementNode)path.getLastPathComponent());
         }
       }
 
@@ -181,6 +183,64 @@ public class ShowReferencesAction extends AnAction {
     popup.showInBestPositionFor(e.getDataContext());
   }
 
+  /**
+   * Builds the tree of the references to a node from a {@link DexReferenceIndex}: the children of
+   * a node are what references it. The referrers of a node are only looked up when its parent is
+   * expanded, since references can be cyclic.
+   */
+  @VisibleForTesting
+  static class ReferenceTreeBuilder {
+    @NotNull private final DexReferenceIndex myIndex;
+    @NotNull private final Set<DexElementNode> myLoadedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    ReferenceTreeBuilder(@NotNull DexReferenceIndex index) {
+      myIndex = index;
+    }
+
+    @NotNull
+    DexElementNode createReferenceTree(@NotNull Reference reference) {
+      DexElementNode root = createNode(ImmutableReferenceFactory.of(reference));
+      addReferrers(root);
+      expand(root);
+      return root;
+    }
+
+    /**
+     * Looks up the referrers of the children of the given node, so they can be expanded in turn.
+     */
+    void expand(@NotNull DexElementNode node) {
+      for (int i = 0; i < node.getChildCount(); i++) {
+        addReferrers((DexElementNode)node.getChildAt(i));
+      }
+    }
+
+    private void addReferrers(@NotNull DexElementNode node) {
+      Reference reference = node.getReference();
+      if (reference == null || !myLoadedNodes.add(node)) {
+        return;
+      }
+      for (ImmutableReference referrer : myIndex.getReferrers(reference)) {
+        node.add(createNode(referrer));
+      }
+      node.sort(DexReferences.NODE_COMPARATOR);
+    }
+
+    @NotNull
+    private static DexElementNode createNode(@NotNull ImmutableReference reference) {
+      if (reference instanceof ImmutableMethodReference) {
+        ImmutableMethodReference method = (ImmutableMethodReference)reference;
+        return new DexMethodNode(PackageTreeCreator.decodeMethodName(method, null) + PackageTreeCreator.decodeMethodParams(method, null),
+                                 method);
+      }
+      if (reference instanceof ImmutableFieldReference) {
+        ImmutableFieldReference field = (ImmutableFieldReference)reference;
+        return new DexFieldNode(PackageTreeCreator.decodeFieldName(field, null), field);
+      }
+      ImmutableTypeReference type = (ImmutableTypeReference)reference;
+      return new DexClassNode(PackageTreeCreator.decodeClassName(type.getType(), null), type);
+    }
+  }
+
   @Nullable
   private DexElementNode getSelectedNode() {
     TreePath path = myTree.getSelectionPath();
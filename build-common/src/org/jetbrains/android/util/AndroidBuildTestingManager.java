@@ -3,6 +3,7 @@ package org.jetbrains.android.util;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.Map;
 
 /**
@@ -14,6 +15,8 @@ public class AndroidBuildTestingManager {
 
   private final MyCommandExecutor myCommandExecutor;
 
+  private File myBuildCacheDir;
+
   private AndroidBuildTestingManager(@NotNull MyCommandExecutor executor) {
     myCommandExecutor = executor;
   }
@@ -46,6 +49,19 @@ public class AndroidBuildTestingManager {
     return myCommandExecutor;
   }
 
+  /**
+   * Returns the directory where the outputs of the tools (pre-dexed jars, crunched images) are
+   * cached, or null if they shouldn't be cached.
+   */
+  @Nullable
+  public File getBuildCacheDir() {
+    return myBuildCacheDir;
+  }
+
+  public void setBuildCacheDir(@Nullable File buildCacheDir) {
+    myBuildCacheDir = buildCacheDir;
+  }
+
   public interface MyCommandExecutor {
     @NotNull
     Process createProcess(@NotNull String[] args, @NotNull Map<? extends String, ? extends String> environment);
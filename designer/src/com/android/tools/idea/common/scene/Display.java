@@ -49,6 +49,7 @@ public class Display {
       needsRebuild = scene.layout(mTime, sceneContext);
       myDisplayList.clear();
       scene.buildDisplayList(myDisplayList, mTime, sceneContext);
+      scene.setRepaintOnMouseMove(myDisplayList.isMouseDependent());
       myDisplayListVersion = scene.getDisplayListVersion();
       if (needsRebuild) {
         scene.needsRebuildList();
@@ -77,6 +77,7 @@ public class Scene implements SelectionListener, Disposable {
 
   @SwingCoordinate
   private static final int DRAG_THRESHOLD = JBUI.scale(10);
+  private static final int DAMAGE_MARGIN = 32;
 
   private final DesignSurface myDesignSurface;
   private final SceneManager mySceneManager;
@@ -89,6 +90,15 @@ public class Scene implements SelectionListener, Disposable {
   public static final int IMMEDIATE_LAYOUT = 1;
   public static final int ANIMATED_LAYOUT = 2;
   private long myDisplayListVersion = 1;
+  private long myHitRegionsVersion = 1;
+  private long myDisplayListResetVersion = 1;
+  /**
+   * Area that needs to be repainted after the components passed to {@link #needsRebuildList(SceneComponent)} changed, or null if the
+   * whole surface needs to be repainted.
+   */
+  @AndroidDpCoordinate private Rectangle myDamagedArea = null;
+  private boolean myFullDamage = true;
+  private boolean myRepaintOnMouseMove = false;
   private Target myOverTarget;
   private Target mySnapTarget;
   private SceneComponent myCurrentComponent;
@@ -106,7 +116,6 @@ public class Scene implements SelectionListener, Disposable {
   @NotNull private final SceneHitListener myHoverListener;
   @NotNull private final SceneHitListener myHitListener;
   @NotNull private final SceneHitListener myFindListener;
-  @NotNull private final SceneHitListener mySnapListener;
   private Target myHitTarget = null;
   private Cursor myMouseCursor;
   private SceneComponent myHitComponent;
@@ -129,7 +138,6 @@ public class Scene implements SelectionListener, Disposable {
     myHoverListener = new SceneHitListener(selectionModel);
     myHitListener = new SceneHitListener(selectionModel);
     myFindListener = new SceneHitListener(selectionModel);
-    mySnapListener = new SceneHitListener(selectionModel);
     selectionModel.addListener(this);
 
     Disposer.register(sceneManager, this);
@@ -337,6 +345,8 @@ public class Scene implements SelectionListener, Disposable {
     if (myRoot != null) {
       markSelection(myRoot, model);
     }
+    // The selection affects how the connections between components are drawn
+    needsRebuildList();
   }
 
   /**
@@ -378,8 +388,26 @@ public class Scene implements SelectionListener, Disposable {
     buildDisplayList(displayList, time, SceneContext.get());
   }
 
+  /**
+   * Repaints the area damaged since the last call or the whole surface if the damage could not be limited to the components passed to
+   * {@link #needsRebuildList(SceneComponent)}.
+   */
   public void repaint() {
-    myDesignSurface.repaint();
+    Rectangle damagedArea = myDamagedArea;
+    boolean fullDamage = myFullDamage;
+    myDamagedArea = null;
+    myFullDamage = false;
+    if (fullDamage || damagedArea == null) {
+      myDesignSurface.repaint();
+      return;
+    }
+    // Some draw commands, like the constraint anchors or the resize handles, are painted slightly outside the component bounds
+    int margin = JBUI.scale(DAMAGE_MARGIN);
+    for (SceneView sceneView : mySceneManager.getSceneViews()) {
+      Rectangle swingArea = Coordinates.getSwingRectDip(sceneView, damagedArea);
+      swingArea.grow(margin, margin);
+      myDesignSurface.repaintArea(swingArea);
+    }
   }
 
   /**
@@ -411,6 +439,8 @@ public class Scene implements SelectionListener, Disposable {
    */
   public boolean layout(long time, SceneContext sceneContext) {
     boolean needsToRebuildDisplayList = false;
+    // Targets might have moved even if they do not require a display list rebuild
+    invalidateHitRegions();
     if (myRoot != null) {
       needsToRebuildDisplayList = myRoot.layout(sceneContext, time);
       if (needsToRebuildDisplayList) {
@@ -529,31 +559,42 @@ public class Scene implements SelectionListener, Disposable {
   /////////////////////////////////////////////////////////////////////////////
 
   /**
-   * Supports hover
+   * Supports hover. The surface is only repainted if the hover state changes or if the current display list depends on the mouse
+   * position (see {@link #setRepaintOnMouseMove(boolean)}).
    *
    * @param x
    * @param y
    */
   public void mouseHover(@NotNull SceneContext transform, @AndroidDpCoordinate int x, @AndroidDpCoordinate int y) {
+    mouseHover(transform, x, y, myRepaintOnMouseMove);
+  }
+
+  private void mouseHover(@NotNull SceneContext transform,
+                          @AndroidDpCoordinate int x,
+                          @AndroidDpCoordinate int y,
+                          boolean forceRepaint) {
     myLastMouseX = x;
     myLastMouseY = y;
     if (myRoot != null) {
       myHoverListener.find(transform, myRoot, x, y);
-      mySnapListener.find(transform, myRoot, x, y);
     }
-    repaint();
+    boolean hoverChanged = false;
+    // Components whose display lists have to be rebuilt because the hover state of them or their targets changed
+    Set<SceneComponent> changedComponents = new HashSet<>();
     Target closestTarget = myHoverListener.getClosestTarget();
     if (myOverTarget != closestTarget) {
       if (myOverTarget != null) {
         myOverTarget.setMouseHovered(false);
+        addTargetComponent(changedComponents, myOverTarget);
         myOverTarget = null;
-        needsRebuildList();
+        hoverChanged = true;
       }
       if (closestTarget != null) {
         closestTarget.setMouseHovered(true);
         transform.setToolTip(closestTarget.getToolTipText());
+        addTargetComponent(changedComponents, closestTarget);
         myOverTarget = closestTarget;
-        needsRebuildList();
+        hoverChanged = true;
       }
     }
     if (closestTarget != null) {
@@ -561,14 +602,16 @@ public class Scene implements SelectionListener, Disposable {
       if (snapTarget != mySnapTarget) {
         if (mySnapTarget != null) {
           mySnapTarget.setMouseHovered(false);
+          addTargetComponent(changedComponents, mySnapTarget);
           mySnapTarget = null;
-          needsRebuildList();
+          hoverChanged = true;
         }
         if (snapTarget != null) {
           snapTarget.setMouseHovered(true);
           transform.setToolTip(closestTarget.getToolTipText());
+          addTargetComponent(changedComponents, snapTarget);
           mySnapTarget = closestTarget;
-          needsRebuildList();
+          hoverChanged = true;
         }
       }
     }
@@ -576,18 +619,35 @@ public class Scene implements SelectionListener, Disposable {
     if (myCurrentComponent != closestComponent) {
       if (myCurrentComponent != null) {
         myCurrentComponent.setDrawState(SceneComponent.DrawState.NORMAL);
+        changedComponents.add(myCurrentComponent);
         myCurrentComponent = null;
       }
       if (closestComponent != null) {
         closestComponent.setDrawState(SceneComponent.DrawState.HOVER);
+        changedComponents.add(closestComponent);
         myCurrentComponent = closestComponent;
       }
-      needsRebuildList();
+      hoverChanged = true;
+    }
+    if (hoverChanged) {
+      for (SceneComponent component : changedComponents) {
+        needsRebuildList(component);
+      }
+    }
+    if (hoverChanged || forceRepaint) {
+      repaint();
     }
 
     setCursor(transform, x, y);
   }
 
+  private static void addTargetComponent(@NotNull Set<SceneComponent> components, @NotNull Target target) {
+    SceneComponent component = target.getComponent();
+    if (component != null) {
+      components.add(component);
+    }
+  }
+
   private void setCursor(@NotNull SceneContext transform, @AndroidDpCoordinate int x, @AndroidDpCoordinate int y) {
     myMouseCursor = Cursor.getDefaultCursor();
     if (myCurrentComponent != null && myCurrentComponent.isDragging()) {
@@ -686,7 +746,7 @@ public class Scene implements SelectionListener, Disposable {
     mNeedsLayout = NO_LAYOUT;
     myLastMouseX = x;
     myLastMouseY = y;
-    myFilterTarget = FilterType.NONE;
+    setFilterTarget(FilterType.NONE);
     if (myRoot == null) {
       return;
     }
@@ -697,17 +757,19 @@ public class Scene implements SelectionListener, Disposable {
     if (myHitTarget != null) {
       if (myHitTarget instanceof AnchorTarget) {
         AnchorTarget anchor = (AnchorTarget)myHitTarget;
-        if (anchor.isHorizontalAnchor()) {
-          myFilterTarget = FilterType.HORIZONTAL_ANCHOR;
+        if (anchor.getType() == AnchorTarget.Type.BASELINE) {
+          setFilterTarget(FilterType.BASELINE_ANCHOR);
         }
-        else {
-          myFilterTarget = FilterType.VERTICAL_ANCHOR;
+        else if (anchor.isHorizontalAnchor()) {
+          setFilterTarget(FilterType.HORIZONTAL_ANCHOR);
         }
-        if (anchor.getType() == AnchorTarget.Type.BASELINE) {
-          myFilterTarget = FilterType.BASELINE_ANCHOR;
+        else {
+          setFilterTarget(FilterType.VERTICAL_ANCHOR);
         }
       }
       myHitTarget.mouseDown(x, y);
+      // Targets are free to modify their state or geometry when handling the event
+      needsRebuildList();
       if (myHitTarget instanceof MultiComponentTarget) {
         delegateMouseDownToSelection(x, y, myHitTarget.getComponent());
       }
@@ -739,8 +801,10 @@ public class Scene implements SelectionListener, Disposable {
         delegateMouseDragToSelection(x, y, myHitListener.getClosestTarget(), myHitTarget.getComponent());
       }
       myHitListener.skipTarget(null);
+      // The dragged target might have changed its state without moving the component
+      needsRebuildList(myHitTarget.getComponent());
     }
-    mouseHover(transform, x, y);
+    mouseHover(transform, x, y, true);
     checkRequestLayoutStatus();
   }
 
@@ -786,8 +850,9 @@ public class Scene implements SelectionListener, Disposable {
       if (myHitTarget instanceof MultiComponentTarget) {
         delegateMouseReleaseToSelection(x, y, myHitListener.getClosestTarget(), myHitTarget.getComponent());
       }
+      needsRebuildList();
     }
-    myFilterTarget = FilterType.NONE;
+    setFilterTarget(FilterType.NONE);
     myNewSelectedComponentsOnRelease.clear();
     if (myHitComponent != null && myHitListener.getClosestComponent() == myHitComponent
         && !myNewSelectedComponentsOnRelease.contains(myHitComponent)) {
@@ -874,10 +939,85 @@ public class Scene implements SelectionListener, Disposable {
     return myDisplayListVersion;
   }
 
+  /**
+   * Returns a version number that changes every time all the display lists cached by the components need to be rebuilt.
+   */
+  long getDisplayListResetVersion() {
+    return myDisplayListResetVersion;
+  }
+
   // TODO: reduce visibility? Probably the modified SceneComponents should do this rather than
   // requiring it to be done explicitly by the code that's modifying them.
   public void needsRebuildList() {
     myDisplayListVersion++;
+    myHitRegionsVersion++;
+    myDisplayListResetVersion++;
+    myFullDamage = true;
+  }
+
+  /**
+   * Notifies the scene that the given component changed in a way that only affects how it and its descendants are drawn. Only the
+   * display lists of the component and its ancestors are rebuilt and, on the next {@link #repaint()}, only the previous and current
+   * areas of the component and of the decorations drawn for it, like the constraint connections, are repainted.
+   */
+  public void needsRebuildList(@Nullable SceneComponent component) {
+    if (component == null || !mySceneManager.supportsIncrementalDisplayList()) {
+      needsRebuildList();
+      return;
+    }
+    component.invalidateDisplayList();
+    myDisplayListVersion++;
+    myHitRegionsVersion++;
+
+    if (component.getParent() == null) {
+      myFullDamage = true;
+      return;
+    }
+    // The previous and current areas of the component and its connections
+    Rectangle area = component.fillDamageRect(System.currentTimeMillis(), null);
+    area.add(component.fillRect(null));
+    Rectangle lastDrawnRect = component.getLastDrawnRect();
+    if (!lastDrawnRect.isEmpty()) {
+      area.add(lastDrawnRect);
+    }
+    if (myDamagedArea == null) {
+      myDamagedArea = area;
+    }
+    else {
+      myDamagedArea.add(area);
+    }
+  }
+
+  /**
+   * Returns a version number that changes every time the hit regions of the components or targets might have changed. Hit
+   * detection uses it to decide whether the regions collected for a previous lookup can be reused.
+   */
+  public long getHitRegionsVersion() {
+    return myHitRegionsVersion;
+  }
+
+  /**
+   * Notifies the scene that the hit regions of the components or targets might have changed, for example because their
+   * position or the targets allowed by {@link #allowsTarget(Target)} changed.
+   */
+  public void invalidateHitRegions() {
+    myHitRegionsVersion++;
+  }
+
+  /**
+   * Sets whether the current display list contains elements that depend on the mouse position, in which case the surface needs
+   * to be repainted on every mouse move and not only when the hover state changes.
+   */
+  public void setRepaintOnMouseMove(boolean repaintOnMouseMove) {
+    myRepaintOnMouseMove = repaintOnMouseMove;
+  }
+
+  private void setFilterTarget(@NotNull FilterType filterTarget) {
+    if (myFilterTarget != filterTarget) {
+      myFilterTarget = filterTarget;
+      // Targets not allowed by the filter are not drawn either
+      needsRebuildList();
+    }
   }
 
   //endregion
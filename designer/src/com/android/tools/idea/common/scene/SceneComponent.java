@@ -17,6 +17,7 @@ package com.android.tools.idea.common.scene;
 
 import com.android.SdkConstants;
 import com.android.annotations.VisibleForTesting;
+import com.android.tools.adtui.common.SwingCoordinate;
 import com.android.tools.idea.common.model.AndroidDpCoordinate;
 import com.android.tools.idea.common.model.Coordinates;
 import com.android.tools.idea.common.model.NlComponent;
@@ -38,6 +39,8 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Stream;
 
@@ -93,6 +96,13 @@ public class SceneComponent {
 
   private Notch.Provider myNotchProvider;
 
+  /**
+   * Display lists built for this component and its descendants, for each {@link SceneContext} this component has been painted in.
+   * See {@link #buildDisplayList(long, DisplayList, SceneContext)}.
+   */
+  private final Map<SceneContext, CachedDisplayList> myCachedDisplayLists = new WeakHashMap<>();
+  @AndroidDpCoordinate private final Rectangle myLastDrawnRect = new Rectangle();
+
   @AndroidDpCoordinate
   public int getCenterX() {
     return myCurrentLeft + (myCurrentRight - myCurrentLeft) / 2;
@@ -398,7 +408,7 @@ public class SceneComponent {
         NlComponentHelperKt.setX(myNlComponent, Coordinates.dpToPx(myScene.getDesignSurface(), dx));
         NlComponentHelperKt.setY(myNlComponent, Coordinates.dpToPx(myScene.getDesignSurface(), dy));
       }
-      myScene.needsRebuildList();
+      myScene.needsRebuildList(this);
     }
   }
 
@@ -439,7 +449,7 @@ public class SceneComponent {
         NlComponentHelperKt.setW(myNlComponent, Coordinates.dpToPx(myScene.getDesignSurface(), width));
         NlComponentHelperKt.setH(myNlComponent, Coordinates.dpToPx(myScene.getDesignSurface(), height));
       }
-      myScene.needsRebuildList();
+      myScene.needsRebuildList(this);
     }
   }
 
@@ -503,7 +513,10 @@ public class SceneComponent {
   }
 
   public void setToolLocked(boolean locked) {
-    myIsToolLocked = locked;
+    if (myIsToolLocked != locked) {
+      myIsToolLocked = locked;
+      myScene.needsRebuildList(this);
+    }
   }
 
   public boolean isToolLocked() {
@@ -525,6 +538,7 @@ public class SceneComponent {
     }
     if (oldState != myDrawState) {
       DecoratorUtilities.setTimeChange(myNlComponent, DecoratorUtilities.VIEW, DecoratorUtilities.mapState(drawState));
+      myScene.needsRebuildList(this);
     }
   }
 
@@ -547,11 +561,13 @@ public class SceneComponent {
     for (Target target : getTargets()) {
       target.onComponentSelectionChanged(myIsSelected);
     }
+    myScene.invalidateHitRegions();
   }
 
   public void setDragging(boolean dragging) {
-    if (!getNlComponent().isRoot()) {
+    if (!getNlComponent().isRoot() && myDragging != dragging) {
       myDragging = dragging;
+      myScene.needsRebuildList(this);
     }
   }
 
@@ -687,12 +703,14 @@ public class SceneComponent {
       myCachedTargetList = null;
       myTargets.add(target);
     }
+    myScene.needsRebuildList(this);
   }
 
   public void addChild(@NotNull SceneComponent child) {
     child.removeFromParent();
     child.setParent(this);
     myChildren.add(child);
+    myScene.needsRebuildList(this);
   }
 
   public void removeFromParent() {
@@ -705,6 +723,7 @@ public class SceneComponent {
   private void remove(@NotNull SceneComponent component) {
     if (myChildren.remove(component)) {
       component.myParent = null;
+      myScene.needsRebuildList(this);
     }
   }
 
@@ -720,10 +739,10 @@ public class SceneComponent {
     int right = left + myAnimatedDrawWidth.getValue(time);
     int bottom = top + myAnimatedDrawHeight.getValue(time);
 
-    needsRebuildDisplayList |= (myCurrentLeft != left);
-    needsRebuildDisplayList |= (myCurrentTop != top);
-    needsRebuildDisplayList |= (myCurrentRight != right);
-    needsRebuildDisplayList |= (myCurrentBottom != bottom);
+    boolean boundsChanged = myCurrentLeft != left || myCurrentTop != top || myCurrentRight != right || myCurrentBottom != bottom;
+    // If the change has already been notified via Scene#needsRebuildList(SceneComponent), the cached display lists of this
+    // component and its ancestors have been dropped and only those need to be rebuilt.
+    needsRebuildDisplayList |= boundsChanged && !myCachedDisplayLists.isEmpty();
 
     myCurrentLeft = left;
     myCurrentTop = top;
@@ -738,11 +757,17 @@ public class SceneComponent {
 
     needsRebuildDisplayList |= animating;
 
+    boolean targetsChanged = false;
     ImmutableList<Target> targets = getTargets();
     int num = targets.size();
     for (int i = 0; i < num; i++) {
       Target target = targets.get(i);
-      needsRebuildDisplayList |= target.layout(sceneTransform, myCurrentLeft, myCurrentTop, myCurrentRight, myCurrentBottom);
+      targetsChanged |= target.layout(sceneTransform, myCurrentLeft, myCurrentTop, myCurrentRight, myCurrentBottom);
+    }
+    needsRebuildDisplayList |= targetsChanged;
+    if (boundsChanged || targetsChanged) {
+      // The cached display lists were built for the previous bounds, drop them so that the next frame is not painted from them
+      invalidateDisplayList();
     }
     int childCount = myChildren.size();
     for (int i = 0; i < childCount; i++) {
@@ -788,8 +813,80 @@ public class SceneComponent {
     }
   }
 
+  /**
+   * Adds the draw commands for this component and its descendants to the given list. The commands are cached and reused until either
+   * {@link Scene#needsRebuildList()} is called or {@link Scene#needsRebuildList(SceneComponent)} is called for this component or any of
+   * its descendants.
+   */
   public void buildDisplayList(long time, @NotNull DisplayList list, SceneContext sceneContext) {
-    myDecorator.buildList(list, time, sceneContext, this);
+    long version = myScene.getDisplayListResetVersion();
+    CachedDisplayList cached = myCachedDisplayLists.get(sceneContext);
+    if (cached == null || !cached.isValid(version, sceneContext)) {
+      DisplayList componentList = new DisplayList();
+      myDecorator.buildList(componentList, time, sceneContext, this);
+      fillDamageRect(time, myLastDrawnRect);
+      cached = new CachedDisplayList(componentList, version, sceneContext);
+      myCachedDisplayLists.put(sceneContext, cached);
+    }
+    list.addAll(cached.myDisplayList);
+  }
+
+  /**
+   * Returns the {@link #fillDamageRect(long, Rectangle)} area of this component the last time its display list was built.
+   */
+  @AndroidDpCoordinate
+  @NotNull
+  Rectangle getLastDrawnRect() {
+    return myLastDrawnRect;
+  }
+
+  /**
+   * Fills the given rectangle with the area painted for this component at the given time: its bounds and the decorations its parent
+   * draws for it, like the connections from and to this component.
+   */
+  @AndroidDpCoordinate
+  @NotNull
+  Rectangle fillDamageRect(long time, @Nullable @AndroidDpCoordinate Rectangle rect) {
+    rect = fillDrawRect(time, rect);
+    if (myParent != null) {
+      myParent.myDecorator.addChildDecorationBounds(myParent, this, time, rect);
+    }
+    return rect;
+  }
+
+  /**
+   * Drops the cached display lists of this component and all its ancestors.
+   */
+  void invalidateDisplayList() {
+    for (SceneComponent component = this; component != null; component = component.myParent) {
+      component.myCachedDisplayLists.clear();
+    }
+  }
+
+  private static class CachedDisplayList {
+    @NotNull private final DisplayList myDisplayList;
+    private final long myVersion;
+    private final boolean myShowOnlySelection;
+    private final double myScale;
+    @SwingCoordinate private final int myOriginX;
+    @SwingCoordinate private final int myOriginY;
+
+    private CachedDisplayList(@NotNull DisplayList displayList, long version, @NotNull SceneContext sceneContext) {
+      myDisplayList = displayList;
+      myVersion = version;
+      myShowOnlySelection = sceneContext.showOnlySelection();
+      myScale = sceneContext.getScale();
+      myOriginX = sceneContext.getSwingXDip(0);
+      myOriginY = sceneContext.getSwingYDip(0);
+    }
+
+    private boolean isValid(long version, @NotNull SceneContext sceneContext) {
+      return myVersion == version &&
+             myShowOnlySelection == sceneContext.showOnlySelection() &&
+             myScale == sceneContext.getScale() &&
+             myOriginX == sceneContext.getSwingXDip(0) &&
+             myOriginY == sceneContext.getSwingYDip(0);
+    }
   }
 
   //endregion
@@ -855,6 +952,7 @@ public class SceneComponent {
       myCachedTargetList = null;
       myTargets.clear();
     }
+    myScene.needsRebuildList(this);
 
     // update the Targets created by parent's TargetProvider
     SceneComponent parent = myParent;
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.common.scene;
 
+import com.android.tools.adtui.common.SwingCoordinate;
 import com.android.tools.idea.common.model.AndroidDpCoordinate;
 import com.android.tools.idea.common.model.NlComponent;
 import com.android.tools.idea.common.model.SelectionModel;
@@ -26,6 +27,9 @@ import java.util.List;
 
 /**
  * Hit listener implementation (used for hover / click detection)
+ * <p>
+ * The hit regions collected from the {@link SceneComponent} tree are kept between lookups and only collected again when
+ * {@link Scene#getHitRegionsVersion()} or the {@link SceneContext} transform change.
  */
 class SceneHitListener implements ScenePicker.HitElementListener {
   @NotNull private SelectionModel mySelectionModel;
@@ -36,6 +40,14 @@ class SceneHitListener implements ScenePicker.HitElementListener {
   ArrayList<Target> myHitTargets = new ArrayList<>();
   Target mySkipTarget = null;
 
+  // State used to build the current content of myPicker. As long as it does not change, the picker can be reused for new lookups.
+  private SceneComponent myPickerRoot;
+  private SceneContext myPickerTransform;
+  private long myPickerHitRegionsVersion = -1;
+  private double myPickerScale;
+  @SwingCoordinate private int myPickerOriginX;
+  @SwingCoordinate private int myPickerOriginY;
+
   SceneHitListener(@NotNull SelectionModel selectionModel) {
     mySelectionModel = selectionModel;
     myPicker.setSelectListener(this);
@@ -53,8 +65,21 @@ class SceneHitListener implements ScenePicker.HitElementListener {
     myHitTargets.clear();
     myClosestComponentDistance = Double.MAX_VALUE;
     myClosestTargetDistance = Double.MAX_VALUE;
-    myPicker.reset();
-    root.addHit(transform, myPicker);
+    long hitRegionsVersion = root.getScene().getHitRegionsVersion();
+    double scale = transform.getScale();
+    int originX = transform.getSwingXDip(0);
+    int originY = transform.getSwingYDip(0);
+    if (root != myPickerRoot || transform != myPickerTransform || hitRegionsVersion != myPickerHitRegionsVersion ||
+        scale != myPickerScale || originX != myPickerOriginX || originY != myPickerOriginY) {
+      myPicker.reset();
+      root.addHit(transform, myPicker);
+      myPickerRoot = root;
+      myPickerTransform = transform;
+      myPickerHitRegionsVersion = hitRegionsVersion;
+      myPickerScale = scale;
+      myPickerOriginX = originX;
+      myPickerOriginY = originY;
+    }
     myPicker.find(transform.getSwingXDip(x), transform.getSwingYDip(y));
   }
 
@@ -97,11 +97,28 @@ abstract public class SceneManager implements Disposable {
     return mySceneView;
   }
 
+  /**
+   * Returns all the {@link SceneView}s displaying the {@link Scene} of this manager.
+   */
+  @NotNull
+  public ImmutableList<SceneView> getSceneViews() {
+    return ImmutableList.of(mySceneView);
+  }
+
   @NotNull
   public ImmutableList<Layer> getLayers() {
     return mySceneView.getLayers();
   }
 
+  /**
+   * Returns whether the display list built by each {@link SceneComponent} only depends on the state of the component and its
+   * descendants. In that case, {@link Scene#needsRebuildList(SceneComponent)} only rebuilds the part of the display list that
+   * belongs to the given component and its ancestors. Otherwise, any change rebuilds the whole display list.
+   */
+  public boolean supportsIncrementalDisplayList() {
+    return true;
+  }
+
   @Override
   public void dispose() {
     getLayers().forEach(Disposer::dispose);
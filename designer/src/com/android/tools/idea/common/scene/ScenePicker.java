@@ -18,12 +18,17 @@ package com.android.tools.idea.common.scene;
 import java.util.Arrays;
 
 /**
- * This class provides efficient detection of many objects
+ * This class provides efficient detection of many objects.
+ * When many objects are added, the lookups use a quadtree over their bounding boxes.
  */
 public class ScenePicker {
   private final static int MAX_DATA_SIZE = 10;
   private final static int INITAL_OBJECT_STORE = 30;
   private final static double EPSILON = 0.00001;
+  /** Below this number of objects, a linear search is faster than building the index */
+  private final static int INDEX_THRESHOLD = 32;
+  private final static int MAX_NODE_OBJECTS = 8;
+  private final static int MAX_NODE_DEPTH = 12;
   private double[] mObjectData = new double[100];
   private int mObjectDataUsed = 0;
   private int[] mObjectOffset = new int[INITAL_OBJECT_STORE];
@@ -31,6 +36,10 @@ public class ScenePicker {
   private int[] mRect = new int[INITAL_OBJECT_STORE * 4];
   private Object[] mObjects = new Object[INITAL_OBJECT_STORE];
   HitElementListener mHitElementListener;
+  /** Spatial index over the bounding boxes of the objects. Built lazily by {@link #find(int, int)}, null when objects change */
+  private QuadNode mIndex;
+  private int[] mCandidates = new int[INITAL_OBJECT_STORE];
+  private int mCandidateCount = 0;
 
   private int mObjectCount = 0;
   private final static int OBJECT_LINE = 0;
@@ -60,18 +69,63 @@ public class ScenePicker {
    * @param y location y
    */
   public void find(int x, int y) {
+    if (mObjectCount < INDEX_THRESHOLD) {
+      for (int i = 0; i < mObjectCount; i++) {
+        notifyIfInRange(i, x, y);
+      }
+      return;
+    }
+    if (mIndex == null) {
+      buildIndex();
+    }
+    mCandidateCount = 0;
+    mIndex.collect(x, y);
+    // Listeners depend on the objects being reported in the order they were added (later objects are on top)
+    Arrays.sort(mCandidates, 0, mCandidateCount);
+    for (int i = 0; i < mCandidateCount; i++) {
+      notifyIfInRange(mCandidates[i], x, y);
+    }
+  }
+
+  private void notifyIfInRange(int i, int x, int y) {
+    int p = i * 4;
+    int x1 = mRect[p++];
+    int y1 = mRect[p++];
+    int x2 = mRect[p++];
+    int y2 = mRect[p];
+    if (inRect(x, y, x1, y1, x2, y2)) {
+      SelectionEngine selector = myEngines[mTypes[i]];
+      if (selector.inRange(i, x, y)) {
+        mHitElementListener.over(mObjects[i], selector.distance());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of objects added since the last {@link #reset()}
+   */
+  public int getObjectCount() {
+    return mObjectCount;
+  }
+
+  /**
+   * Builds the quadtree over the bounding boxes of all the added objects
+   */
+  private void buildIndex() {
+    int x1 = Integer.MAX_VALUE;
+    int y1 = Integer.MAX_VALUE;
+    int x2 = Integer.MIN_VALUE;
+    int y2 = Integer.MIN_VALUE;
     for (int i = 0; i < mObjectCount; i++) {
       int p = i * 4;
-      int x1 = mRect[p++];
-      int y1 = mRect[p++];
-      int x2 = mRect[p++];
-      int y2 = mRect[p];
-      if (inRect(x, y, x1, y1, x2, y2)) {
-        SelectionEngine selector = myEngines[mTypes[i]];
-        if (selector.inRange(i, x, y)) {
-          mHitElementListener.over(mObjects[i], selector.distance());
-        }
-      }
+      x1 = Math.min(x1, mRect[p]);
+      y1 = Math.min(y1, mRect[p + 1]);
+      x2 = Math.max(x2, mRect[p + 2]);
+      y2 = Math.max(y2, mRect[p + 3]);
+    }
+    mIndex = new QuadNode(x1, y1, x2, y2, 0);
+    for (int i = 0; i < mObjectCount; i++) {
+      mIndex.insert(i);
     }
   }
 
@@ -114,6 +168,7 @@ public class ScenePicker {
   public void reset() {
     mObjectCount = 0;
     mObjectDataUsed = 0;
+    mIndex = null;
     Arrays.fill(mObjects, null);// delete references
   }
 
@@ -204,6 +259,112 @@ public class ScenePicker {
     mCurve.add(e, range, x1, y1, x2, y2, x3, y3, x4, y4);
   }
 
+  /*-----------------------------------------------------------------------*/
+  // Spatial index
+  /*-----------------------------------------------------------------------*/
+
+  /**
+   * Quadtree node. Objects are stored in the deepest node whose bounds fully contain their bounding box so
+   * finding the candidates for a given point only requires visiting the nodes along the path to that point.
+   */
+  private class QuadNode {
+    private final int mX1;
+    private final int mY1;
+    private final int mX2;
+    private final int mY2;
+    private final int mDepth;
+    private int[] mItems = new int[MAX_NODE_OBJECTS];
+    private int mItemCount = 0;
+    private QuadNode[] mChildren;
+
+    QuadNode(int x1, int y1, int x2, int y2, int depth) {
+      mX1 = x1;
+      mY1 = y1;
+      mX2 = x2;
+      mY2 = y2;
+      mDepth = depth;
+    }
+
+    void insert(int object) {
+      if (mChildren == null) {
+        if (mItemCount < MAX_NODE_OBJECTS || mDepth >= MAX_NODE_DEPTH || mX2 - mX1 < 2 || mY2 - mY1 < 2) {
+          addItem(object);
+          return;
+        }
+        split();
+      }
+      QuadNode child = findChild(object);
+      if (child != null) {
+        child.insert(object);
+      }
+      else {
+        addItem(object);
+      }
+    }
+
+    private void split() {
+      int midX = mX1 + (mX2 - mX1) / 2;
+      int midY = mY1 + (mY2 - mY1) / 2;
+      mChildren = new QuadNode[]{
+        new QuadNode(mX1, mY1, midX, midY, mDepth + 1),
+        new QuadNode(midX + 1, mY1, mX2, midY, mDepth + 1),
+        new QuadNode(mX1, midY + 1, midX, mY2, mDepth + 1),
+        new QuadNode(midX + 1, midY + 1, mX2, mY2, mDepth + 1)
+      };
+      int[] items = mItems;
+      int count = mItemCount;
+      mItems = new int[MAX_NODE_OBJECTS];
+      mItemCount = 0;
+      for (int i = 0; i < count; i++) {
+        QuadNode child = findChild(items[i]);
+        if (child != null) {
+          child.insert(items[i]);
+        }
+        else {
+          addItem(items[i]);
+        }
+      }
+    }
+
+    /**
+     * Returns the child that fully contains the bounding box of the given object or null if it overlaps several children
+     */
+    private QuadNode findChild(int object) {
+      int p = object * 4;
+      for (QuadNode child : mChildren) {
+        if (mRect[p] >= child.mX1 && mRect[p + 1] >= child.mY1 && mRect[p + 2] <= child.mX2 && mRect[p + 3] <= child.mY2) {
+          return child;
+        }
+      }
+      return null;
+    }
+
+    private void addItem(int object) {
+      if (mItemCount == mItems.length) {
+        mItems = Arrays.copyOf(mItems, mItems.length * 2);
+      }
+      mItems[mItemCount++] = object;
+    }
+
+    /**
+     * Adds to {@link #mCandidates} all the objects whose bounding box might contain the given point
+     */
+    void collect(int x, int y) {
+      if (mCandidateCount + mItemCount > mCandidates.length) {
+        mCandidates = Arrays.copyOf(mCandidates, Math.max(mCandidates.length * 2, mCandidateCount + mItemCount));
+      }
+      System.arraycopy(mItems, 0, mCandidates, mCandidateCount, mItemCount);
+      mCandidateCount += mItemCount;
+      if (mChildren != null) {
+        for (QuadNode child : mChildren) {
+          if (inRect(x, y, child.mX1, child.mY1, child.mX2, child.mY2)) {
+            child.collect(x, y);
+          }
+        }
+      }
+    }
+  }
+
   /*-----------------------------------------------------------------------*/
   // Support point Selection
   /*-----------------------------------------------------------------------*/
@@ -218,6 +379,7 @@ public class ScenePicker {
     protected int mDataOffset;
 
     protected void addRect(int x1, int y1, int x2, int y2) {
+      mIndex = null;
       int off = mObjectCount * 4;
       mRect[off++] = x1;
       mRect[off++] = y1;
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.common.scene.decorator;
 
+import com.android.tools.idea.common.model.AndroidDpCoordinate;
 import com.android.tools.idea.common.scene.SceneComponent;
 import com.android.tools.idea.common.scene.SceneContext;
 import com.android.tools.idea.common.scene.draw.DisplayList;
@@ -125,6 +126,21 @@ public class SceneDecorator {
     }
   }
 
+  /**
+   * Adds to the given bounds the area covered by the decorations drawn by this decorator for the given child of the component, outside
+   * of the child bounds. The generic decorator does not draw any.
+   *
+   * @param component the component decorated by this decorator
+   * @param child     a child of the component
+   * @param time      the time used to compute the animated bounds of the components
+   * @param bounds    the bounds to extend
+   */
+  public void addChildDecorationBounds(@NotNull SceneComponent component,
+                                       @NotNull SceneComponent child,
+                                       long time,
+                                       @AndroidDpCoordinate @NotNull Rectangle bounds) {
+  }
+
   /**
    * This is responsible for building the targets of this component
    *
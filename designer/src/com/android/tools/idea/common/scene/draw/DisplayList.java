@@ -25,6 +25,7 @@ import com.android.tools.idea.uibuilder.handlers.constraint.draw.DrawConnection;
 import com.android.tools.idea.uibuilder.handlers.constraint.draw.DrawConnectionUtils; // TODO: remove
 import com.android.tools.idea.uibuilder.scene.draw.DrawResize;
 import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
@@ -44,9 +45,18 @@ import java.util.function.Function;
 public class DisplayList {
   private final static boolean DEBUG = false;
   private ArrayList<DrawCommand> myCommands = new ArrayList<>();
+  private boolean myIsMouseDependent;
 
   public void clear() {
     myCommands.clear();
+    myIsMouseDependent = false;
+  }
+
+  /**
+   * Returns whether any of the commands in the list depends on the mouse position. See {@link DrawCommand#isMouseDependent()}.
+   */
+  public boolean isMouseDependent() {
+    return myIsMouseDependent;
   }
 
   public ArrayList<DrawCommand> getCommands() {
@@ -312,6 +322,15 @@ public class DisplayList {
 
   public void add(DrawCommand cmd) {
     myCommands.add(cmd);
+    myIsMouseDependent |= cmd.isMouseDependent();
+  }
+
+  /**
+   * Adds all the commands of the given list to this list
+   */
+  public void addAll(@NotNull DisplayList list) {
+    myCommands.addAll(list.myCommands);
+    myIsMouseDependent |= list.myIsMouseDependent;
   }
 
   public UNClip addClip(SceneContext context, @AndroidDpCoordinate Rectangle r) {
@@ -111,6 +111,11 @@ public class DrawAction extends DrawRegion {
     return super.serialize() + "," + myMode;
   }
 
+  @Override
+  public boolean isMouseDependent() {
+    return true;
+  }
+
   public static void add(DisplayList list,
                          SceneContext transform,
                          @AndroidDpCoordinate float left,
@@ -42,6 +42,15 @@ public interface DrawCommand extends Comparable {
   void paint(Graphics2D g, SceneContext sceneContext);
   String serialize();
 
+  /**
+   * Returns whether the output of {@link #paint(Graphics2D, SceneContext)} depends on the mouse position returned by
+   * {@link SceneContext#getMouseX()} and {@link SceneContext#getMouseY()}. If true, the surface needs to be repainted on
+   * every mouse move.
+   */
+  default boolean isMouseDependent() {
+    return false;
+  }
+
   @Override
   default int compareTo(@NotNull Object o) {
     return Integer.compare(getLevel(), ((DrawCommand)o).getLevel());
@@ -684,6 +684,13 @@ public abstract class DesignSurface extends EditorDesignSurface implements Dispo
     return myLayeredPane;
   }
 
+  /**
+   * Repaints only the given area of the surface contents. The area is given in the coordinates used by the {@link SceneView}s.
+   */
+  public void repaintArea(@SwingCoordinate @NotNull Rectangle area) {
+    myLayeredPane.repaint(area);
+  }
+
   private void notifySelectionListeners(@NotNull List<NlComponent> newSelection) {
     List<DesignSurfaceListener> listeners = Lists.newArrayList(myListeners);
     for (DesignSurfaceListener listener : listeners) {
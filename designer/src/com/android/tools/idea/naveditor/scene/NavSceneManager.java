@@ -413,6 +413,12 @@ public class NavSceneManager extends SceneManager {
     return myDecoratorFactory;
   }
 
+  @Override
+  public boolean supportsIncrementalDisplayList() {
+    // Actions are drawn by their source component but also depend on the bounds of their destination
+    return false;
+  }
+
   @Override
   public Map<Object, PropertiesMap> getDefaultProperties() {
     return ImmutableMap.of();
@@ -62,6 +62,11 @@ public class DrawActionHandleDrag extends NavBaseDrawCommand {
     return DrawCommandSerializationHelperKt.buildString(getClass().getSimpleName(), myX, myY, myRadius);
   }
 
+  @Override
+  public boolean isMouseDependent() {
+    return true;
+  }
+
   @Override
   protected void onPaint(@NotNull Graphics2D g, @NotNull SceneContext sceneContext) {
     g.setColor(sceneContext.getColorSet().getSelectedFrames());
@@ -24,6 +24,7 @@ import com.android.tools.idea.common.model.NlComponent;
 import com.android.tools.idea.common.scene.ComponentProvider;
 import com.android.tools.idea.common.scene.Scene;
 import com.android.tools.idea.common.scene.SceneComponent;
+import com.android.tools.idea.common.scene.SceneManager;
 import com.android.tools.idea.common.scene.target.ActionTarget;
 import com.android.tools.idea.common.scene.target.LassoTarget;
 import com.android.tools.idea.common.scene.target.Target;
@@ -39,6 +40,7 @@ import com.android.tools.idea.uibuilder.handlers.constraint.drawing.WidgetDraw;
 import com.android.tools.idea.uibuilder.handlers.constraint.drawing.decorator.WidgetDecorator;
 import com.android.tools.idea.uibuilder.handlers.constraint.targets.*;
 import com.android.tools.idea.uibuilder.model.NlComponentHelperKt;
+import com.android.tools.idea.uibuilder.scene.LayoutlibSceneManager;
 import com.android.tools.idea.uibuilder.scene.target.ResizeBaseTarget;
 import com.android.tools.idea.uibuilder.scout.Scout;
 import com.android.tools.idea.uibuilder.surface.NlDesignSurface;
@@ -420,6 +422,12 @@ public class ConstraintLayoutHandler extends ViewGroupHandler implements Compone
     int baseline = NlComponentHelperKt.getBaseline(childComponent.getNlComponent());
     ViewInfo info = NlComponentHelperKt.getViewInfo(childComponent.getNlComponent());
     if (baseline <= 0 && info != null) {
+      SceneManager sceneManager = childComponent.getScene().getSceneManager();
+      if (sceneManager instanceof LayoutlibSceneManager && !((LayoutlibSceneManager)sceneManager).hasExtendedViewInfo()) {
+        // The baseline is only available in the view info when the render collected the extended view info. Request it; the
+        // targets will be recreated once the new render is done.
+        ((LayoutlibSceneManager)sceneManager).requestExtendedViewInfo();
+      }
       baseline = info.getBaseLine();
     }
     if (baseline > 0) {
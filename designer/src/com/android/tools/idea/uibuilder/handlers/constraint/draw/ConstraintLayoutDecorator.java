@@ -16,6 +16,7 @@
 package com.android.tools.idea.uibuilder.handlers.constraint.draw;
 
 import com.android.SdkConstants;
+import com.android.tools.idea.common.model.AndroidDpCoordinate;
 import com.android.tools.idea.common.model.NlComponent;
 import com.android.tools.idea.common.scene.Scene;
 import com.android.tools.idea.common.scene.SceneComponent;
@@ -213,6 +214,43 @@ public class ConstraintLayoutDecorator extends SceneDecorator {
     }
   }
 
+  @Override
+  public void addChildDecorationBounds(@NotNull SceneComponent component,
+                                       @NotNull SceneComponent child,
+                                       long time,
+                                       @AndroidDpCoordinate @NotNull Rectangle bounds) {
+    Rectangle rect = new Rectangle();
+    Rectangle parentRect = component.fillDrawRect(time, null);
+    // Connections of the child, as cached by the last call to buildListChildren
+    for (int i = 0; i < ourDirections.length; i++) {
+      Object destination = child.myCache.get(ourDirections[i]);
+      if (destination == component) {
+        // Connections to the parent go straight to one of its edges
+        if (isLeftRight[i]) {
+          bounds.add(parentRect.x, bounds.y);
+          bounds.add(parentRect.x + parentRect.width, bounds.y);
+        }
+        else {
+          bounds.add(bounds.x, parentRect.y);
+          bounds.add(bounds.x, parentRect.y + parentRect.height);
+        }
+      }
+      else if (destination instanceof SceneComponent) {
+        bounds.add(((SceneComponent)destination).fillDrawRect(time, rect));
+      }
+    }
+    Object baselineDestination = child.myCache.get(BASELINE);
+    if (baselineDestination instanceof SceneComponent) {
+      bounds.add(((SceneComponent)baselineDestination).fillDrawRect(time, rect));
+    }
+    // Connections of the siblings to the child
+    for (SceneComponent sibling : component.getChildren()) {
+      if (sibling != child && sibling.myCache.containsValue(child)) {
+        bounds.add(sibling.fillDrawRect(time, rect));
+      }
+    }
+  }
+
   /**
    * This is used to extract the connection status from nlcomponents
    */
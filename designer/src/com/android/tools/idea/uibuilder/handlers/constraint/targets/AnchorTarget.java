@@ -128,7 +128,7 @@ public class AnchorTarget extends BaseTarget {
     if (over != mIsOver) {
       changeState(mIsOver, over);
       mIsOver = over;
-      myComponent.getScene().needsRebuildList();
+      myComponent.getScene().needsRebuildList(myComponent);
       myComponent.getScene().repaint();
     }
   }
@@ -117,6 +117,19 @@ public class LayoutlibSceneManager extends SceneManager {
   private String myPreviousTheme;
   @AndroidCoordinate private static final int VISUAL_EMPTY_COMPONENT_SIZE = 1;
   private long myElapsedFrameTimeMs = -1;
+  /** Key in the {@link RenderResultCache} of the render currently displayed */
+  private String myDisplayedRenderKey;
+  /** Key in the {@link RenderResultCache} of the last render stored in the cache */
+  private String myStoredRenderKey;
+  /** Result created from the {@link RenderResultCache} displayed until the real render completes, if any */
+  private RenderResult myCachedRenderResult;
+  /** Whether the render tasks should collect view margins and baselines. Set the first time they are requested. */
+  private volatile boolean myExtendedViewInfoRequested = false;
+  /**
+   * Whether {@link #myRenderTask} collects view margins and baselines. Kept apart so that it can be read from the UI thread without
+   * waiting for {@link #myRenderingTaskLock}, which is held for the whole duration of a render.
+   */
+  private volatile boolean myHasExtendedViewInfo = false;
   private final LinkedList<Runnable> myRenderCallbacks = new LinkedList<>();
   private final Semaphore myUpdateHierarchyLock = new Semaphore(1);
 
@@ -205,6 +218,7 @@ public class LayoutlibSceneManager extends SceneManager {
           myRenderTask.dispose();
           myRenderTask = null;
         }
+        myHasExtendedViewInfo = false;
       }
       myRenderResultLock.writeLock().lock();
       try {
@@ -282,6 +296,12 @@ public class LayoutlibSceneManager extends SceneManager {
     return mySecondarySceneView;
   }
 
+  @NotNull
+  @Override
+  public ImmutableList<SceneView> getSceneViews() {
+    return mySecondarySceneView != null ? ImmutableList.of(getSceneView(), mySecondarySceneView) : super.getSceneViews();
+  }
+
   @Override
   protected void updateFromComponent(SceneComponent sceneComponent) {
     super.updateFromComponent(sceneComponent);
@@ -718,6 +738,7 @@ public class LayoutlibSceneManager extends SceneManager {
       if (myRenderTask != null) {
         myRenderTask.getLayoutlibCallback()
           .setAdaptiveIconMaskPath(getDesignSurface().getAdaptiveIconShape().getPathDescription());
+        myRenderTask.setEnableExtendedViewInfo(myExtendedViewInfoRequested);
         result = myRenderTask.inflate();
         if (result == null || !result.getRenderResult().isSuccess()) {
           myRenderTask.dispose();
@@ -730,12 +751,14 @@ public class LayoutlibSceneManager extends SceneManager {
       }
 
       resultTask = myRenderTask;
+      myHasExtendedViewInfo = myRenderTask != null && myRenderTask.isExtendedViewInfoEnabled();
     }
 
     updateHierarchy(result);
     myRenderResultLock.writeLock().lock();
     try {
       myRenderResult = result;
+      disposeCachedRenderResult(result);
     }
     finally {
       myRenderResultLock.writeLock().unlock();
@@ -810,6 +833,11 @@ public class LayoutlibSceneManager extends SceneManager {
     NlModel.ChangeType changeType = getModel().getLastChangeType();
     getModel().resetLastChange();
     long renderStartTimeMs = System.currentTimeMillis();
+    // The key only depends on the files and the configuration, so the cached render can be shown while the layout is inflated
+    String cacheKey = RenderResultCache.computeKey(getModel().getFacet(), getModel().getFile(), configuration);
+    if (cacheKey != null) {
+      showCachedRender(cacheKey);
+    }
     boolean inflated = inflate(false);
     long elapsedFrameTimeMs = myElapsedFrameTimeMs;
 
@@ -825,6 +853,13 @@ public class LayoutlibSceneManager extends SceneManager {
     }
 
     RenderResult result = Futures.getUnchecked(futureResult);
+    if (result != null && cacheKey != null) {
+      if (!cacheKey.equals(myStoredRenderKey)) {
+        RenderResultCache.getInstance().put(cacheKey, result);
+        myStoredRenderKey = cacheKey;
+      }
+      myDisplayedRenderKey = cacheKey;
+    }
     // When the layout was inflated in this same call, we do not have to update the hierarchy again
     if (result != null && !inflated) {
       updateHierarchy(result);
@@ -832,6 +867,7 @@ public class LayoutlibSceneManager extends SceneManager {
     myRenderResultLock.writeLock().lock();
     try {
       myRenderResult = result;
+      disposeCachedRenderResult(result);
       // Downgrade the write lock to read lock
       myRenderResultLock.readLock().lock();
     }
@@ -855,6 +891,81 @@ public class LayoutlibSceneManager extends SceneManager {
     fireRenderListeners();
   }
 
+  /**
+   * Returns whether the current render result contains the view margins and baselines.
+   */
+  public boolean hasExtendedViewInfo() {
+    return myHasExtendedViewInfo;
+  }
+
+  /**
+   * Requests the view margins and baselines to be collected for this model. Renders do not collect them by default since they are
+   * expensive to compute; the first time this is called, the model is inflated again with extended view info enabled and all
+   * subsequent renders will include it.
+   */
+  public void requestExtendedViewInfo() {
+    if (myExtendedViewInfoRequested) {
+      return;
+    }
+    myExtendedViewInfoRequested = true;
+    UIUtil.invokeLaterIfNeeded(() -> {
+      if (!Disposer.isDisposed(this)) {
+        requestModelUpdate();
+      }
+    });
+  }
+
+  /**
+   * If the given key does not correspond to the render currently displayed, displays the render stored in the {@link RenderResultCache}
+   * for it, if any, until the real render completes.
+   */
+  private void showCachedRender(@NotNull String cacheKey) {
+    if (cacheKey.equals(myDisplayedRenderKey)) {
+      return;
+    }
+    RenderResultCache.CachedRender cachedRender = RenderResultCache.getInstance().get(cacheKey);
+    if (cachedRender == null) {
+      return;
+    }
+    NlModel model = getModel();
+    RenderResult cachedResult =
+      RenderResult.createFromCache(model.getFile(), model.getModule(), cachedRender,
+                                   RenderService.getInstance(model.getFacet()).getImagePool());
+    myRenderResultLock.writeLock().lock();
+    try {
+      myRenderResult = cachedResult;
+      disposeCachedRenderResult(cachedResult);
+      myCachedRenderResult = cachedResult;
+    }
+    finally {
+      myRenderResultLock.writeLock().unlock();
+    }
+    myDisplayedRenderKey = cacheKey;
+    UIUtil.invokeLaterIfNeeded(() -> {
+      if (!Disposer.isDisposed(this)) {
+        getDesignSurface().repaint();
+      }
+    });
+  }
+
+  /**
+   * Disposes the image of the result created from the {@link RenderResultCache}, if any, now that it has been replaced by the given one.
+   * Must be called while holding the {@link #myRenderResultLock} write lock.
+   */
+  private void disposeCachedRenderResult(@Nullable RenderResult replacement) {
+    RenderResult cachedResult = myCachedRenderResult;
+    if (cachedResult == null || cachedResult == replacement) {
+      return;
+    }
+    myCachedRenderResult = null;
+    if (replacement == null || !replacement.hasImage()) {
+      // The surface keeps painting the last image available, leave it to the image pool to reclaim it
+      return;
+    }
+    // Dispose it after any pending paint of the surface, which uses the new result from now on
+    UIUtil.invokeLaterIfNeeded(() -> cachedResult.getRenderedImage().dispose());
+  }
+
   public void setElapsedFrameTimeMs(long ms) {
     myElapsedFrameTimeMs = ms;
   }
@@ -17,6 +17,7 @@ package com.android.tools.idea.common.scene
 
 import com.android.SdkConstants.*
 import com.android.tools.idea.common.fixtures.ModelBuilder
+import com.android.tools.idea.common.scene.draw.DisplayList
 import com.android.tools.idea.uibuilder.LayoutTestUtilities
 import com.android.tools.idea.uibuilder.scene.SceneTest
 import org.mockito.Mockito
@@ -54,6 +55,54 @@ open class SceneComponentTest: SceneTest() {
     assertEquals(parent, sceneComponent.parent)
   }
 
+  fun testIncrementalDisplayList() {
+    val child = myScene.getSceneComponent("child")!!
+    val context = SceneContext.get()
+
+    val displayList = DisplayList()
+    myScene.buildDisplayList(displayList, 0, context)
+    val original = displayList.serialize()
+
+    // Only the moved component and its ancestors are rebuilt, the result must match a full rebuild
+    child.setPosition(10, 20)
+    displayList.clear()
+    myScene.buildDisplayList(displayList, 0, context)
+    val incremental = displayList.serialize()
+    assertFalse(original == incremental)
+
+    myScene.needsRebuildList()
+    displayList.clear()
+    myScene.buildDisplayList(displayList, 0, context)
+    assertEquals(incremental, displayList.serialize())
+  }
+
+  fun testLayoutInvalidatesMovedComponent() {
+    val child = myScene.getSceneComponent("child")!!
+    val context = SceneContext.get()
+
+    val displayList = DisplayList()
+    myScene.root!!.layout(context, 0)
+    myScene.buildDisplayList(displayList, 0, context)
+    val original = displayList.serialize()
+
+    // The new position is only picked up by the layout, which must drop the display lists built for the previous bounds
+    child.setPositionTarget(10, 20, 0, false)
+    val time = 10000L
+    myScene.root!!.layout(context, time)
+    displayList.clear()
+    myScene.buildDisplayList(displayList, time, context)
+    val moved = displayList.serialize()
+    assertFalse(original == moved)
+    assertEquals(10, child.getDrawX(time))
+    assertEquals(20, child.getDrawY(time))
+    assertTrue(child.lastDrawnRect.contains(child.fillRect(null)))
+
+    myScene.needsRebuildList()
+    displayList.clear()
+    myScene.buildDisplayList(displayList, time, context)
+    assertEquals(moved, displayList.serialize())
+  }
+
   override fun createModel(): ModelBuilder {
     return model("scene_component_test.xml",
         component(LINEAR_LAYOUT)
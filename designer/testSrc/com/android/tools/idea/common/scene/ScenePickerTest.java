@@ -20,6 +20,10 @@ import junit.framework.TestCase;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Test ScenePicker
@@ -342,4 +346,48 @@ public class ScenePickerTest extends TestCase {
       scenePicker.find((int)x, (int)y);
     }
   }
+
+  public void testManyObjects() {
+    ScenePicker scenePicker = new ScenePicker();
+    scenePicker.reset();
+    // Grid of 20x20 non overlapping rectangles plus a big rectangle containing all of them and a line across the grid
+    scenePicker.addRect("background", 0, 0, 0, 2000, 2000);
+    for (int i = 0; i < 400; i++) {
+      int x = (i % 20) * 100;
+      int y = (i / 20) * 100;
+      scenePicker.addRect(i, 0, x + 10, y + 10, x + 90, y + 90);
+    }
+    scenePicker.addLine("line", 5, 0, 1020, 2000, 1020);
+    assertEquals(402, scenePicker.getObjectCount());
+
+    List<Object> found = new ArrayList<>();
+    scenePicker.setSelectListener((obj, dist) -> found.add(obj));
+
+    scenePicker.find(150, 250);
+    // Objects must be reported in the order they were added
+    assertEquals(Arrays.asList("background", 41), found);
+
+    found.clear();
+    scenePicker.find(195, 250);
+    assertEquals(Collections.singletonList("background"), found);
+
+    found.clear();
+    scenePicker.find(1050, 1022);
+    assertEquals(Arrays.asList("background", 210, "line"), found);
+
+    found.clear();
+    scenePicker.find(3000, 3000);
+    assertTrue(found.isEmpty());
+
+    // Adding new objects must be taken into account in the next lookup
+    scenePicker.addPoint("point", 10, 150, 250);
+    found.clear();
+    scenePicker.find(150, 250);
+    assertEquals(Arrays.asList("background", 41, "point"), found);
+
+    scenePicker.reset();
+    found.clear();
+    scenePicker.find(150, 250);
+    assertTrue(found.isEmpty());
+  }
 }
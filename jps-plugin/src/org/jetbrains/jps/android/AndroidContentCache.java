@@ -0,0 +1,224 @@
+package org.jetbrains.jps.android;
+
+import com.android.sdklib.BuildToolInfo;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.android.model.JpsAndroidDexCompilerConfiguration;
+import org.jetbrains.jps.android.model.JpsAndroidExtensionService;
+import org.jetbrains.jps.incremental.Utils;
+import org.jetbrains.jps.model.JpsProject;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Outputs of the Android tools, stored under a key made of the contents of the input file and of
+ * the settings of the tool. The stores are shared by all the projects built by the build process,
+ * so a file is only processed again when its contents or the settings change, not when the output
+ * of the project is cleaned or when the project is built from another directory.
+ */
+class AndroidContentCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidContentCache");
+
+  @NonNls private static final String CACHE_DIR_NAME = "android_build_cache";
+  @NonNls private static final String PRE_DEX_DIR_NAME = "pre_dex";
+  @NonNls private static final String CRUNCH_DIR_NAME = "crunch";
+
+  private final File myDir;
+  private final String mySettingsKey;
+  private final String myExtension;
+  private final long myMaxDiskBytes;
+
+  private AndroidContentCache(@NotNull File dir, @NotNull String settingsKey, @NotNull String extension, long maxDiskBytes) {
+    myDir = dir;
+    mySettingsKey = settingsKey;
+    myExtension = extension;
+    myMaxDiskBytes = maxDiskBytes;
+  }
+
+  /**
+   * Returns the store for jars dexed with the given platform and the dx settings of the project, or
+   * null if there is no store.
+   */
+  @Nullable
+  static AndroidContentCache getPreDexCache(@NotNull AndroidPlatform platform, @NotNull JpsProject project) {
+    final File root = getCacheRoot();
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+
+    if (root == null || buildToolInfo == null) {
+      return null;
+    }
+    final StringBuilder settings = new StringBuilder(getToolKey(buildToolInfo.getPath(BuildToolInfo.PathId.DX_JAR)));
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+
+    if (configuration != null) {
+      settings.append(':').append(configuration.isOptimize())
+        .append(':').append(configuration.isForceJumbo())
+        .append(':').append(configuration.isCoreLibrary());
+    }
+    return new AndroidContentCache(new File(root, PRE_DEX_DIR_NAME), settings.toString(), ".jar", 1024L * 1024 * 1024);
+  }
+
+  /**
+   * Returns the store for images crunched by the aapt of the given platform, or null if there is
+   * no store.
+   */
+  @Nullable
+  static AndroidContentCache getCrunchCache(@NotNull AndroidPlatform platform) {
+    final File root = getCacheRoot();
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+
+    if (root == null || buildToolInfo == null) {
+      return null;
+    }
+    final String settings = getToolKey(buildToolInfo.getPath(BuildToolInfo.PathId.AAPT));
+    return new AndroidContentCache(new File(root, CRUNCH_DIR_NAME), settings, ".png", 512L * 1024 * 1024);
+  }
+
+  @Nullable
+  private static File getCacheRoot() {
+    final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
+
+    if (testingManager != null) {
+      return testingManager.getBuildCacheDir();
+    }
+    return new File(Utils.getSystemRoot(), CACHE_DIR_NAME);
+  }
+
+  @NotNull
+  private static String getToolKey(@NotNull String toolPath) {
+    final File tool = new File(toolPath);
+    return tool.getPath() + ':' + tool.length() + ':' + tool.lastModified();
+  }
+
+  /**
+   * Returns the key under which the output for the given file is stored.
+   */
+  @NotNull
+  String computeKey(@NotNull File srcFile) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    digest.update(mySettingsKey.getBytes("UTF-8"));
+    final InputStream in = new BufferedInputStream(new FileInputStream(srcFile));
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int n;
+
+      while ((n = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return String.format("%064x", new BigInteger(1, digest.digest()));
+  }
+
+  /**
+   * Copies the output stored under the given key to {@code outputFile}.
+   *
+   * @return false if there is no such output in the store
+   */
+  boolean restore(@NotNull String key, @NotNull File outputFile) {
+    final File cachedFile = getFile(key);
+
+    if (!cachedFile.isFile()) {
+      return false;
+    }
+    try {
+      FileUtil.copy(cachedFile, outputFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot restore " + outputFile.getPath() + " from " + cachedFile.getPath(), e);
+      return false;
+    }
+    // mark the entry as recently used, so it is not the first one to be trimmed
+    //noinspection ResultOfMethodCallIgnored
+    cachedFile.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Stores a copy of the given output under the given key.
+   */
+  void store(@NotNull String key, @NotNull File outputFile) {
+    if (!outputFile.isFile()) {
+      return;
+    }
+    final File cachedFile = getFile(key);
+    final File tmpFile = new File(myDir, key + ".tmp" + Thread.currentThread().getId());
+
+    try {
+      if (!myDir.isDirectory() && !myDir.mkdirs()) {
+        throw new IOException("Cannot create directory " + myDir.getPath());
+      }
+      FileUtil.copy(outputFile, tmpFile);
+
+      // another build may have stored the same output in the meantime
+      if (!tmpFile.renameTo(cachedFile)) {
+        FileUtil.delete(tmpFile);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store " + outputFile.getPath(), e);
+      FileUtil.delete(tmpFile);
+    }
+  }
+
+  /**
+   * Removes the least recently used outputs until the store fits in its size limit.
+   */
+  void trim() {
+    final File[] files = myDir.listFiles();
+
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+
+    for (File file : files) {
+      size += file.length();
+    }
+    if (size <= myMaxDiskBytes) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        final long t1 = f1.lastModified();
+        final long t2 = f2.lastModified();
+        return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+      }
+    });
+
+    for (File file : files) {
+      if (size <= myMaxDiskBytes) {
+        break;
+      }
+      final long length = file.length();
+
+      if (FileUtil.delete(file)) {
+        size -= length;
+      }
+    }
+  }
+
+  @NotNull
+  private File getFile(@NotNull String key) {
+    return new File(myDir, key + myExtension);
+  }
+}
@@ -46,6 +46,7 @@ import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.cmdline.ClasspathBootstrap;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.ExternalProcessUtil;
+import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.StopBuildException;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
@@ -255,9 +256,66 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
                                @NotNull String builderName,
                                @NotNull String srcTargetName,
                                @Nullable JpsModule module) throws IOException {
+    final File outFile = doRunDex(platform, outFilePath, compileTargets, context, context, project, builderName, srcTargetName, module);
+
+    if (outFile == null) {
+      return false;
+    }
+    final List<String> srcFiles = new ArrayList<String>();
+
+    for (String compileTargetPath : compileTargets) {
+      final File compileTarget = new File(compileTargetPath);
+
+      if (compileTarget.isFile()) {
+        srcFiles.add(compileTargetPath);
+      }
+      else if(compileTarget.isDirectory()) {
+        AndroidJpsUtil.processClassFilesAndJarsRecursively(compileTarget, new Processor<File>() {
+          @Override
+          public boolean process(File file) {
+            if (file.isFile()) {
+              srcFiles.add(file.getPath());
+            }
+            return true;
+          }
+        });
+      }
+    }
+    outputConsumer.registerOutputFile(outFile, srcFiles);
+    return true;
+  }
+
+  /**
+   * Runs dx without registering its output, so that it can be called from a pooled thread. Messages are reported to {@code messages}
+   * instead of the context.
+   */
+  static boolean runDex(@NotNull AndroidPlatform platform,
+                        @NotNull String outFilePath,
+                        @NotNull String[] compileTargets,
+                        @NotNull CompileContext context,
+                        @NotNull MessageHandler messages,
+                        @NotNull JpsProject project,
+                        @NotNull String builderName,
+                        @NotNull String srcTargetName) throws IOException {
+    return doRunDex(platform, outFilePath, compileTargets, context, messages, project, builderName, srcTargetName, null) != null;
+  }
+
+  /**
+   * @return the dex file, or the output directory in the multi-dex mode, or null if dx failed
+   */
+  @Nullable
+  private static File doRunDex(@NotNull AndroidPlatform platform,
+                               @NotNull String outFilePath,
+                               @NotNull String[] compileTargets,
+                               @NotNull CompileContext context,
+                               @NotNull MessageHandler messages,
+                               @NotNull JpsProject project,
+                               @NotNull String builderName,
+                               @NotNull String srcTargetName,
+                               @Nullable JpsModule module) throws IOException {
     BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
     if (buildToolInfo == null) {
-      return false;
+      return null;
     }
 
     final String dxJarPath = FileUtil.toSystemDependentName(buildToolInfo.getPath(BuildToolInfo.PathId.DX_JAR));
@@ -265,9 +323,9 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     final File dxJar = new File(dxJarPath);
     if (testingManager == null && !dxJar.isFile()) {
-      context.processMessage(
+      messages.processMessage(
         new CompilerMessage(builderName, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.cannot.find.file", dxJarPath)));
-      return false;
+      return null;
     }
 
     boolean multiDex = false;
@@ -329,13 +387,13 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     final File outFile = new File(outFilePath);
     if (outFile.exists() && !outFile.isDirectory() && !outFile.delete()) {
-      context.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
-                                                 AndroidJpsBundle.message("android.jps.cannot.delete.file", outFilePath)));
+      messages.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
+                                                  AndroidJpsBundle.message("android.jps.cannot.delete.file", outFilePath)));
     }
-    final String javaExecutable = getJavaExecutable(platform, context, builderName);
+    final String javaExecutable = getJavaExecutable(platform, context, messages, builderName);
 
     if (javaExecutable == null) {
-      return false;
+      return null;
     }
     final List<String> commandLine = ExternalProcessUtil
       .buildJavaCommandLine(javaExecutable, AndroidDxRunner.class.getName(),
@@ -353,50 +411,28 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     else {
       process = Runtime.getRuntime().exec(commands);
     }
-    final HashMap<AndroidCompilerMessageKind, List<String>> messages = new HashMap<AndroidCompilerMessageKind, List<String>>(3);
-    messages.put(AndroidCompilerMessageKind.ERROR, new ArrayList<String>());
-    messages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<String>());
-    messages.put(AndroidCompilerMessageKind.INFORMATION, new ArrayList<String>());
+    final HashMap<AndroidCompilerMessageKind, List<String>> toolMessages = new HashMap<AndroidCompilerMessageKind, List<String>>(3);
+    toolMessages.put(AndroidCompilerMessageKind.ERROR, new ArrayList<String>());
+    toolMessages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<String>());
+    toolMessages.put(AndroidCompilerMessageKind.INFORMATION, new ArrayList<String>());
 
-    AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, messages, multiDex);
+    AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, toolMessages, multiDex);
 
-    AndroidJpsUtil.addMessages(context, messages, builderName, srcTargetName);
-    final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).isEmpty();
-
-    if (success) {
-      final List<String> srcFiles = new ArrayList<String>();
-
-      for (String compileTargetPath : compileTargets) {
-        final File compileTarget = new File(compileTargetPath);
-
-        if (compileTarget.isFile()) {
-          srcFiles.add(compileTargetPath);
-        }
-        else if(compileTarget.isDirectory()) {
-          AndroidJpsUtil.processClassFilesAndJarsRecursively(compileTarget, new Processor<File>() {
-            @Override
-            public boolean process(File file) {
-              if (file.isFile()) {
-                srcFiles.add(file.getPath());
-              }
-              return true;
-            }
-          });
-        }
-      }
-      outputConsumer.registerOutputFile(outFile, srcFiles);
-    }
-    return success;
+    AndroidJpsUtil.addMessages(messages, toolMessages, builderName, srcTargetName);
+    return toolMessages.get(AndroidCompilerMessageKind.ERROR).isEmpty() ? outFile : null;
   }
 
   @Nullable
-  private static String getJavaExecutable(@NotNull AndroidPlatform platform, @NotNull CompileContext context, @NotNull String builderName) {
+  private static String getJavaExecutable(@NotNull AndroidPlatform platform,
+                                          @NotNull CompileContext context,
+                                          @NotNull MessageHandler messages,
+                                          @NotNull String builderName) {
     final JpsSdk<JpsSimpleElement<JpsAndroidSdkProperties>> sdk = platform.getSdk();
     final String jdkName = sdk.getSdkProperties().getData().getJdkName();
     final JpsLibrary javaSdk = context.getProjectDescriptor().getModel().getGlobal().getLibraryCollection().findLibrary(jdkName);
     if (javaSdk == null || !javaSdk.getType().equals(JpsJavaSdkType.INSTANCE)) {
-      context.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.ERROR,
-                                                 AndroidJpsBundle.message("android.jps.errors.java.sdk.not.specified", jdkName)));
+      messages.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.ERROR,
+                                                  AndroidJpsBundle.message("android.jps.errors.java.sdk.not.specified", jdkName)));
       return null;
     }
     return JpsJavaSdkType.getJavaExecutable((JpsSdk<?>)javaSdk.getProperties());
@@ -432,7 +468,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
       return null;
     }
 
-    final String javaExecutable = getJavaExecutable(platform, context, PRO_GUARD_BUILDER_NAME);
+    final String javaExecutable = getJavaExecutable(platform, context, context, PRO_GUARD_BUILDER_NAME);
     if (javaExecutable == null) {
       return null;
     }
@@ -0,0 +1,297 @@
+package org.jetbrains.jps.android;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.MessageHandler;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the external tools invoked by the Android builders (aidl, llvm-rs-cc, aapt, dx)
+ * concurrently, on a pool bounded by the number of cores unless a lower limit is given.
+ *
+ * Tasks only run the tools: they must not report to the compile context directly (but may report
+ * to a {@link MessageBuffer}), so that the builder can report their messages and register their
+ * outputs afterwards, on its own thread and in the order the tasks were added. This keeps the
+ * diagnostics and the build state the same as when the tools ran one after another.
+ *
+ * The tasks of a runner are the ones of a single module chunk: JPS calls the builders for each
+ * chunk in turn, so tools for modules of different chunks never run together.
+ */
+class AndroidGenerationTaskRunner {
+  private static final int MAX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  private final List<Task> myTasks = new ArrayList<Task>();
+  private final int myMaxThreads;
+
+  AndroidGenerationTaskRunner() {
+    this(MAX_THREADS);
+  }
+
+  /**
+   * Creates a runner which runs at most the given number of tasks at once, for tools which need
+   * more resources than a core each.
+   */
+  AndroidGenerationTaskRunner(int maxThreads) {
+    myMaxThreads = Math.max(1, Math.min(maxThreads, MAX_THREADS));
+  }
+
+  /**
+   * Adds a task. Its dependencies may be added before or after it.
+   */
+  void add(@NotNull Task task) {
+    myTasks.add(task);
+  }
+
+  /**
+   * Runs all the tasks and waits for them to finish. The outcome of each task is then available
+   * from {@link Task#getError()}.
+   */
+  void runAll() throws InterruptedException {
+    if (myTasks.isEmpty()) {
+      return;
+    }
+    if (myTasks.size() == 1 || myMaxThreads == 1) {
+      for (Task task : sortByDependencies()) {
+        task.run();
+      }
+      return;
+    }
+
+    ExecutorService executor = SharedThreadPool.getInstance().createBoundedExecutor("Android source generation", myMaxThreads);
+    try {
+      runAll(executor);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs all the tasks on the given executor, starting each one once its dependencies finished,
+   * and waits for them to finish. Dependencies on tasks which were not added to this runner, or
+   * which close a cycle, are ignored.
+   */
+  void runAll(@NotNull Executor executor) throws InterruptedException {
+    final Scheduler scheduler = new Scheduler(removeCycles(), executor);
+    scheduler.start(myTasks);
+    scheduler.await();
+  }
+
+  /**
+   * Returns the tasks ordered so that each task comes after its dependencies, apart from the ones
+   * closing a cycle.
+   */
+  @NotNull
+  private List<Task> sortByDependencies() {
+    final Map<Task, Set<Task>> dependencies = removeCycles();
+    final List<Task> result = new ArrayList<Task>(myTasks.size());
+    final Set<Task> visited = new HashSet<Task>();
+
+    for (Task task : myTasks) {
+      addAfterDependencies(task, dependencies, visited, result);
+    }
+    return result;
+  }
+
+  private static void addAfterDependencies(@NotNull Task task,
+                                           @NotNull Map<Task, Set<Task>> dependencies,
+                                           @NotNull Set<Task> visited,
+                                           @NotNull List<Task> result) {
+    if (!visited.add(task)) {
+      return;
+    }
+    for (Task dependency : dependencies.get(task)) {
+      addAfterDependencies(dependency, dependencies, visited, result);
+    }
+    result.add(task);
+  }
+
+  /**
+   * Returns the dependencies of each task on the tasks of this runner, without the ones closing a
+   * cycle.
+   */
+  @NotNull
+  private Map<Task, Set<Task>> removeCycles() {
+    final Set<Task> added = new HashSet<Task>(myTasks);
+    final Map<Task, Set<Task>> dependencies = new HashMap<Task, Set<Task>>();
+
+    for (Task task : myTasks) {
+      final Set<Task> taskDependencies = new LinkedHashSet<Task>(task.myDependencies);
+      taskDependencies.retainAll(added);
+      taskDependencies.remove(task);
+      dependencies.put(task, taskDependencies);
+    }
+    final Set<Task> visited = new HashSet<Task>();
+
+    for (Task task : myTasks) {
+      removeCycles(task, dependencies, visited, new HashSet<Task>());
+    }
+    return dependencies;
+  }
+
+  private static void removeCycles(@NotNull Task task,
+                                   @NotNull Map<Task, Set<Task>> dependencies,
+                                   @NotNull Set<Task> visited,
+                                   @NotNull Set<Task> path) {
+    if (!visited.add(task)) {
+      return;
+    }
+    path.add(task);
+    final Set<Task> taskDependencies = dependencies.get(task);
+
+    for (Task dependency : new ArrayList<Task>(taskDependencies)) {
+      if (path.contains(dependency)) {
+        taskDependencies.remove(dependency);
+      }
+      else {
+        removeCycles(dependency, dependencies, visited, path);
+      }
+    }
+    path.remove(task);
+  }
+
+  /**
+   * Submits each task once all its dependencies finished. The dependencies must be acyclic.
+   */
+  private static class Scheduler {
+    private final Executor myExecutor;
+    private final Map<Task, AtomicInteger> myPendingDependencies = new HashMap<Task, AtomicInteger>();
+    private final Map<Task, List<Task>> myDependents = new HashMap<Task, List<Task>>();
+    private final CountDownLatch myRemaining;
+
+    Scheduler(@NotNull Map<Task, Set<Task>> dependencies, @NotNull Executor executor) {
+      myExecutor = executor;
+      myRemaining = new CountDownLatch(dependencies.size());
+
+      for (Map.Entry<Task, Set<Task>> entry : dependencies.entrySet()) {
+        myPendingDependencies.put(entry.getKey(), new AtomicInteger(entry.getValue().size()));
+
+        for (Task dependency : entry.getValue()) {
+          List<Task> dependents = myDependents.get(dependency);
+          if (dependents == null) {
+            dependents = new ArrayList<Task>();
+            myDependents.put(dependency, dependents);
+          }
+          dependents.add(entry.getKey());
+        }
+      }
+    }
+
+    void start(@NotNull List<Task> tasks) {
+      for (Task task : tasks) {
+        if (myPendingDependencies.get(task).get() == 0) {
+          submit(task);
+        }
+      }
+    }
+
+    void await() throws InterruptedException {
+      myRemaining.await();
+    }
+
+    private void submit(@NotNull final Task task) {
+      myExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          }
+          finally {
+            finished(task);
+          }
+        }
+      });
+    }
+
+    private void finished(@NotNull Task task) {
+      myRemaining.countDown();
+      final List<Task> dependents = myDependents.get(task);
+
+      if (dependents != null) {
+        // A task still runs if one of its dependencies failed, as it did when the tools ran one after another
+        for (Task dependent : dependents) {
+          if (myPendingDependencies.get(dependent).decrementAndGet() == 0) {
+            submit(dependent);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the messages reported while preparing or running a task, so that they can be passed on
+   * when the task is finished, in the order they would have been reported if the tasks ran one
+   * after another. Progress messages should be reported to the compile context right away instead.
+   */
+  static class MessageBuffer implements MessageHandler {
+    private final List<BuildMessage> myMessages = Collections.synchronizedList(new ArrayList<BuildMessage>());
+
+    @Override
+    public void processMessage(BuildMessage message) {
+      myMessages.add(message);
+    }
+
+    void flush(@NotNull CompileContext context) {
+      synchronized (myMessages) {
+        for (BuildMessage message : myMessages) {
+          context.processMessage(message);
+        }
+        myMessages.clear();
+      }
+    }
+  }
+
+  abstract static class Task implements Runnable {
+    private final List<Task> myDependencies = new ArrayList<Task>();
+    @Nullable private volatile Throwable myError;
+
+    /**
+     * Makes this task wait for the given one to finish before it starts.
+     */
+    void dependsOn(@NotNull Task dependency) {
+      myDependencies.add(dependency);
+    }
+
+    /**
+     * Runs the tool, possibly on a pooled thread.
+     */
+    protected abstract void execute() throws Exception;
+
+    @Override
+    public final void run() {
+      try {
+        execute();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        myError = e;
+      }
+      catch (Throwable t) {
+        myError = t;
+      }
+    }
+
+    /**
+     * Returns what the tool threw, or null if it completed.
+     */
+    @Nullable
+    Throwable getError() {
+      return myError;
+    }
+  }
+}
@@ -112,7 +112,7 @@ public class AndroidJpsUtil {
     return JpsPathUtil.urlToFile(contentRoots.get(0));
   }
 
-  public static void addMessages(@NotNull CompileContext context,
+  public static void addMessages(@NotNull MessageHandler context,
                                  @NotNull Map<AndroidCompilerMessageKind, List<String>> messages,
                                  @NotNull String builderName,
                                  @NotNull String entryName) {
@@ -182,7 +182,7 @@ public class AndroidJpsUtil {
   }
 
   @Nullable
-  public static File createDirIfNotExist(@NotNull File dir, @NotNull CompileContext context, @NotNull String compilerName) {
+  public static File createDirIfNotExist(@NotNull File dir, @NotNull MessageHandler context, @NotNull String compilerName) {
     if (!dir.exists()) {
       if (!dir.mkdirs()) {
         context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR,
@@ -431,7 +431,7 @@ public class AndroidJpsUtil {
     }
   }
 
-  public static void reportExceptionError(@NotNull CompileContext context,
+  public static void reportExceptionError(@NotNull MessageHandler context,
                                           @Nullable String filePath,
                                           @NotNull Exception exception,
                                           @NotNull String builderName) {
@@ -34,6 +34,12 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
 
   @NonNls private static final String BUILDER_NAME = "Android Pre Dex";
 
+  /**
+   * Maximum number of dx processes run at once. Each one is a JVM started with the heap size of
+   * the project's dx settings, so running one per core could exhaust the memory of the machine.
+   */
+  private static final int MAX_DX_PROCESSES = 4;
+
   protected AndroidPreDexBuilder() {
     super(Collections.singletonList(AndroidPreDexBuildTarget.MyTargetType.INSTANCE));
   }
@@ -66,7 +72,7 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
   private static boolean doBuild(@NotNull AndroidPreDexBuildTarget target,
                                  @NotNull DirtyFilesHolder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> holder,
                                  @NotNull BuildOutputConsumer outputConsumer,
-                                 @NotNull CompileContext context) throws IOException, ProjectBuildException {
+                                 @NotNull final CompileContext context) throws IOException, ProjectBuildException {
     final List<Pair<File, String>> filesToPreDex = new ArrayList<Pair<File, String>>();
 
     holder.processDirtyFiles(new FileProcessor<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget>() {
@@ -91,46 +97,115 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
     if (platform == null) {
       return false;
     }
-    if (!filesToPreDex.isEmpty()) {
-      final File outputDir = target.getOutputFile(context);
+    if (filesToPreDex.isEmpty()) {
+      return true;
+    }
+    final File outputDir = target.getOutputFile(context);
+    final AndroidContentCache cache = AndroidContentCache.getPreDexCache(platform, project);
+    // the jars which are not in the cache are dexed concurrently, each one by its own dx process
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner(MAX_DX_PROCESSES);
+    final List<PreDexRun> runs = new ArrayList<PreDexRun>();
+
+    for (Pair<File, String> pair : filesToPreDex) {
+      context.checkCanceled();
+
+      final File srcFile = pair.getFirst();
+      final String moduleName = pair.getSecond();
+      final String srcFilePath = srcFile.getAbsolutePath();
+      final File outputFile;
+
+      if (moduleName != null) {
+        context.processMessage(new ProgressMessage("Pre-dex [" + moduleName + "]"));
+        outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+      }
+      else {
+        context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
+        final String outputFileName = getOutputFileNameForExternalJar(srcFile);
+
+        if (outputFileName == null) {
+          context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
+                                                     "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
+          return false;
+        }
+        outputFile = new File(outputDir, outputFileName);
+      }
 
-      for (Pair<File, String> pair : filesToPreDex) {
-        context.checkCanceled();
+      if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+        return false;
+      }
+      final PreDexRun run = new PreDexRun(srcFile, outputFile);
+      runs.add(run);
 
-        final File srcFile = pair.getFirst();
-        final String moduleName = pair.getSecond();
-        final String srcFilePath = srcFile.getAbsolutePath();
-        final File outputFile;
+      if (cache != null) {
+        run.myKey = cache.computeKey(srcFile);
 
-        if (moduleName != null) {
-          context.processMessage(new ProgressMessage("Pre-dex [" + moduleName + "]"));
-          outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+        if (cache.restore(run.myKey, outputFile)) {
+          continue;
         }
-        else {
-          context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
-          final String outputFileName = getOutputFileNameForExternalJar(srcFile);
-
-          if (outputFileName == null) {
-            context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
-                                                       "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
-            return false;
-          }
-          outputFile = new File(outputDir, outputFileName);
+      }
+      final AndroidPlatform finalPlatform = platform;
+      run.myTask = new AndroidGenerationTaskRunner.Task() {
+        @Override
+        protected void execute() throws Exception {
+          run.mySuccess = AndroidDexBuilder.runDex(finalPlatform, outputFile.getPath(), new String[]{srcFilePath}, context,
+                                                   run.myMessages, project, BUILDER_NAME, srcFile.getName());
         }
+      };
+      runner.add(run.myTask);
+    }
+    try {
+      runner.runAll();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProjectBuildException(e);
+    }
 
-        if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
-          return false;
-        }
+    for (PreDexRun run : runs) {
+      run.myMessages.flush(context);
+
+      if (run.myTask != null) {
+        final Throwable error = run.myTask.getError();
 
-        if (!AndroidDexBuilder.runDex(platform, outputFile.getPath(), new String[]{srcFilePath}, context,
-          project, outputConsumer, BUILDER_NAME, srcFile.getName(), null)) {
+        if (error instanceof IOException) {
+          throw (IOException)error;
+        }
+        if (error instanceof RuntimeException) {
+          throw (RuntimeException)error;
+        }
+        if (error != null) {
+          throw new ProjectBuildException(error);
+        }
+        if (!run.mySuccess) {
           return false;
         }
+        if (cache != null && run.myKey != null) {
+          cache.store(run.myKey, run.myOutputFile);
+        }
       }
+      outputConsumer.registerOutputFile(run.myOutputFile, Collections.singletonList(run.mySrcFile.getAbsolutePath()));
+    }
+
+    if (cache != null) {
+      cache.trim();
     }
     return true;
   }
 
+  private static class PreDexRun {
+    final File mySrcFile;
+    final File myOutputFile;
+    final AndroidGenerationTaskRunner.MessageBuffer myMessages = new AndroidGenerationTaskRunner.MessageBuffer();
+    @Nullable String myKey;
+    @Nullable AndroidGenerationTaskRunner.Task myTask;
+    volatile boolean mySuccess;
+
+    PreDexRun(@NotNull File srcFile, @NotNull File outputFile) {
+      mySrcFile = srcFile;
+      myOutputFile = outputFile;
+    }
+  }
+
   public static boolean canBePreDexed(@NotNull File file) {
     return "jar".equals(FileUtilRt.getExtension(file.getName()));
   }
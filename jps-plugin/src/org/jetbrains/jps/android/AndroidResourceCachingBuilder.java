@@ -2,37 +2,41 @@ package org.jetbrains.jps.android;
 
 import com.android.sdklib.IAndroidTarget;
 import com.android.tools.idea.jps.AndroidTargetBuilder;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.HashMap;
 import org.jetbrains.android.compiler.tools.AndroidApt;
+import org.jetbrains.android.util.AndroidCommonUtils;
 import org.jetbrains.android.util.AndroidCompilerMessageKind;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.android.builder.AndroidResourceCachingBuildTarget;
 import org.jetbrains.jps.android.model.JpsAndroidModuleExtension;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.FSOperations;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.StopBuildException;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.model.module.JpsModule;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 
 /**
  * @author Eugene.Kudelevsky
  */
 public class AndroidResourceCachingBuilder extends AndroidTargetBuilder<BuildRootDescriptor, AndroidResourceCachingBuildTarget> {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidResourceCachingBuilder");
+
   @NonNls private static final String BUILDER_NAME = "Android Resource Caching";
+  @NonNls private static final String CRUNCH_STATE_FILE_NAME = "crunch_state";
 
   protected AndroidResourceCachingBuilder() {
     super(Collections.singletonList(AndroidResourceCachingBuildTarget.MyTargetType.INSTANCE));
@@ -101,6 +105,11 @@ public class AndroidResourceCachingBuilder extends AndroidTargetBuilder<BuildRoo
         inputDirs.add(f.getPath());
       }
     }
+    final AndroidContentCache cache = AndroidContentCache.getCrunchCache(platform);
+
+    if (cache != null) {
+      return runIncrementalPngCaching(target, context, outputConsumer, androidTarget, inputDirs, resCacheDir, cache);
+    }
     final Map<AndroidCompilerMessageKind, List<String>> messages =
       AndroidApt.crunch(androidTarget, inputDirs,resCacheDir.getPath());
     AndroidJpsUtil.addMessages(context, messages, BUILDER_NAME, module.getName());
@@ -136,6 +145,287 @@ public class AndroidResourceCachingBuilder extends AndroidTargetBuilder<BuildRoo
     return success;
   }
 
+  /**
+   * Crunches only the images which changed since the previous build, taking the images crunched before from the cache when they can be
+   * found there. The remaining images are crunched in batches, by concurrent aapt processes.
+   */
+  private static boolean runIncrementalPngCaching(@NotNull AndroidResourceCachingBuildTarget target,
+                                                  @NotNull CompileContext context,
+                                                  @NotNull BuildOutputConsumer outputConsumer,
+                                                  @NotNull final IAndroidTarget androidTarget,
+                                                  @NotNull List<String> inputDirs,
+                                                  @NotNull final File resCacheDir,
+                                                  @NotNull AndroidContentCache cache) throws IOException {
+    // the first resource directory overrides the following ones, as in the combined directory passed to aapt otherwise
+    final Map<String, File> pngFiles = new LinkedHashMap<String, File>();
+
+    for (String inputDir : inputDirs) {
+      final File dir = new File(inputDir);
+
+      FileUtil.processFilesRecursively(dir, new Processor<File>() {
+        @Override
+        public boolean process(File file) {
+          if (file.isFile() && FileUtilRt.extensionEquals(file.getName(), AndroidCommonUtils.PNG_EXTENSION)) {
+            final String relativePath = FileUtil.getRelativePath(dir, file);
+
+            if (relativePath != null) {
+              final String key = FileUtil.toSystemIndependentName(relativePath);
+
+              if (!pngFiles.containsKey(key)) {
+                pngFiles.put(key, file);
+              }
+            }
+          }
+          return true;
+        }
+      });
+    }
+    final File stateFile =
+      new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), CRUNCH_STATE_FILE_NAME);
+    final MyCrunchState oldState = MyCrunchState.load(stateFile);
+    final MyCrunchState newState = new MyCrunchState();
+
+    // outputs of images which were removed, or which were crunched by the whole-directory mode
+    FileUtil.processFilesRecursively(resCacheDir, new Processor<File>() {
+      @Override
+      public boolean process(File file) {
+        if (file.isFile()) {
+          final String relativePath = FileUtil.getRelativePath(resCacheDir, file);
+
+          if (relativePath != null && !pngFiles.containsKey(FileUtil.toSystemIndependentName(relativePath))) {
+            FileUtil.delete(file);
+          }
+        }
+        return true;
+      }
+    });
+    final List<MyCrunchedFile> filesToCrunch = new ArrayList<MyCrunchedFile>();
+
+    for (Map.Entry<String, File> entry : pngFiles.entrySet()) {
+      final String relativePath = entry.getKey();
+      final File srcFile = entry.getValue();
+      final long length = srcFile.length();
+      final long timestamp = FSOperations.lastModified(srcFile);
+      final MyCrunchState.Entry oldEntry = oldState.get(relativePath);
+      final String key = oldEntry != null && oldEntry.myLength == length && oldEntry.myTimestamp == timestamp
+                         ? oldEntry.myKey
+                         : cache.computeKey(srcFile);
+      final File outputFile = new File(resCacheDir, FileUtil.toSystemDependentName(relativePath));
+      final MyCrunchedFile crunchedFile = new MyCrunchedFile(relativePath, srcFile, outputFile, key);
+
+      if (oldEntry != null && oldEntry.myKey.equals(key) && (oldEntry.myCrunched ? outputFile.isFile() : !outputFile.exists())) {
+        newState.put(relativePath, length, timestamp, key, oldEntry.myCrunched);
+      }
+      else if (cache.restore(key, outputFile)) {
+        newState.put(relativePath, length, timestamp, key, true);
+        outputConsumer.registerOutputFile(outputFile, Collections.singletonList(srcFile.getPath()));
+      }
+      else {
+        FileUtil.delete(outputFile);
+        filesToCrunch.add(crunchedFile);
+      }
+    }
+    boolean success = true;
+
+    if (!filesToCrunch.isEmpty()) {
+      final int batchCount = Math.min(filesToCrunch.size(), Runtime.getRuntime().availableProcessors());
+      final List<MyCrunchBatch> batches = new ArrayList<MyCrunchBatch>(batchCount);
+
+      for (int i = 0; i < batchCount; i++) {
+        batches.add(new MyCrunchBatch());
+      }
+      for (int i = 0; i < filesToCrunch.size(); i++) {
+        batches.get(i % batchCount).myFiles.add(filesToCrunch.get(i));
+      }
+      final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+
+      try {
+        for (final MyCrunchBatch batch : batches) {
+          batch.myInputDir = FileUtil.createTempDirectory("android_crunch_input", "tmp");
+          batch.myOutputDir = FileUtil.createTempDirectory("android_crunch_output", "tmp");
+
+          for (MyCrunchedFile file : batch.myFiles) {
+            FileUtil.copy(file.mySrcFile, new File(batch.myInputDir, FileUtil.toSystemDependentName(file.myRelativePath)));
+          }
+          batch.myTask = new AndroidGenerationTaskRunner.Task() {
+            @Override
+            protected void execute() throws Exception {
+              batch.myMessages = AndroidApt.crunch(androidTarget, Collections.singletonList(batch.myInputDir.getPath()),
+                                                   batch.myOutputDir.getPath());
+            }
+          };
+          runner.add(batch.myTask);
+        }
+        try {
+          runner.runAll();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        }
+
+        for (MyCrunchBatch batch : batches) {
+          final Throwable error = batch.myTask.getError();
+
+          if (error instanceof IOException) {
+            throw (IOException)error;
+          }
+          if (error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+          }
+          if (error != null) {
+            throw new IOException(error);
+          }
+          AndroidJpsUtil.addMessages(context, batch.myMessages, BUILDER_NAME, target.getModule().getName());
+
+          if (!batch.myMessages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
+            success = false;
+            continue;
+          }
+          for (MyCrunchedFile file : batch.myFiles) {
+            final File crunched = new File(batch.myOutputDir, FileUtil.toSystemDependentName(file.myRelativePath));
+            final long length = file.mySrcFile.length();
+            final long timestamp = FSOperations.lastModified(file.mySrcFile);
+
+            if (crunched.isFile()) {
+              cache.store(file.myKey, crunched);
+              FileUtil.copy(crunched, file.myOutputFile);
+              outputConsumer.registerOutputFile(file.myOutputFile, Collections.singletonList(file.mySrcFile.getPath()));
+              newState.put(file.myRelativePath, length, timestamp, file.myKey, true);
+            }
+            else {
+              // aapt does not output the images it has nothing to do with, they are packaged from the resource directory. They are
+              // recorded too, so that they are not given to aapt again until they change
+              newState.put(file.myRelativePath, length, timestamp, file.myKey, false);
+            }
+          }
+        }
+      }
+      finally {
+        for (MyCrunchBatch batch : batches) {
+          if (batch.myInputDir != null) {
+            FileUtil.delete(batch.myInputDir);
+          }
+          if (batch.myOutputDir != null) {
+            FileUtil.delete(batch.myOutputDir);
+          }
+        }
+      }
+    }
+    newState.save(stateFile);
+    cache.trim();
+    return success;
+  }
+
+  private static class MyCrunchedFile {
+    final String myRelativePath;
+    final File mySrcFile;
+    final File myOutputFile;
+    final String myKey;
+
+    MyCrunchedFile(@NotNull String relativePath, @NotNull File srcFile, @NotNull File outputFile, @NotNull String key) {
+      myRelativePath = relativePath;
+      mySrcFile = srcFile;
+      myOutputFile = outputFile;
+      myKey = key;
+    }
+  }
+
+  private static class MyCrunchBatch {
+    final List<MyCrunchedFile> myFiles = new ArrayList<MyCrunchedFile>();
+    File myInputDir;
+    File myOutputDir;
+    AndroidGenerationTaskRunner.Task myTask;
+    volatile Map<AndroidCompilerMessageKind, List<String>> myMessages;
+  }
+
+  /**
+   * The images crunched for a module: their size and timestamp, so that the images which didn't change are not read again, the key of
+   * their contents in the cache, and whether aapt output a crunched image for them.
+   */
+  private static class MyCrunchState {
+    private static final int VERSION = 2;
+
+    private final Map<String, Entry> myEntries = new HashMap<String, Entry>();
+
+    @Nullable
+    Entry get(@NotNull String relativePath) {
+      return myEntries.get(relativePath);
+    }
+
+    void put(@NotNull String relativePath, long length, long timestamp, @NotNull String key, boolean crunched) {
+      myEntries.put(relativePath, new Entry(length, timestamp, key, crunched));
+    }
+
+    @NotNull
+    static MyCrunchState load(@NotNull File file) {
+      final MyCrunchState state = new MyCrunchState();
+
+      if (!file.isFile()) {
+        return state;
+      }
+      try {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() != VERSION) {
+            return state;
+          }
+          final int count = in.readInt();
+
+          for (int i = 0; i < count; i++) {
+            final String relativePath = in.readUTF();
+            final long length = in.readLong();
+            final long timestamp = in.readLong();
+            final String key = in.readUTF();
+            state.put(relativePath, length, timestamp, key, in.readBoolean());
+          }
+        }
+        finally {
+          in.close();
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read " + file.getPath(), e);
+        return new MyCrunchState();
+      }
+      return state;
+    }
+
+    void save(@NotNull File file) throws IOException {
+      FileUtil.createParentDirs(file);
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        out.writeInt(VERSION);
+        out.writeInt(myEntries.size());
+
+        for (Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue().myLength);
+          out.writeLong(entry.getValue().myTimestamp);
+          out.writeUTF(entry.getValue().myKey);
+          out.writeBoolean(entry.getValue().myCrunched);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+
+    static class Entry {
+      final long myLength;
+      final long myTimestamp;
+      final String myKey;
+      final boolean myCrunched;
+
+      Entry(long length, long timestamp, @NotNull String key, boolean crunched) {
+        myLength = length;
+        myTimestamp = timestamp;
+        myKey = key;
+        myCrunched = crunched;
+      }
+    }
+  }
+
   @NotNull
   @Override
   public String getPresentableName() {
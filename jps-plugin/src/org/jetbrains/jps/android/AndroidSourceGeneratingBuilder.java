@@ -125,7 +125,7 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   private static ModuleLevelBuilder.ExitCode doBuild(CompileContext context,
                                                      ModuleChunk chunk,
                                                      DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder)
-    throws IOException {
+    throws IOException, InterruptedException {
     final Map<JpsModule, MyModuleData> moduleDataMap = computeModuleDatas(chunk.getModules(), context);
     if (moduleDataMap == null || moduleDataMap.isEmpty()) {
       return ExitCode.ABORT;
@@ -193,28 +193,39 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     }
     boolean didSomething = false;
 
+    // aidl, renderscript and aapt do not depend on each other's outputs, so all of their runs can be done concurrently. Their messages
+    // and outputs are then processed in the same order as if they ran one after another.
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+    final List<AidlRun> aidlRuns = prepareAidlCompiler(context, idlFilesToCompile, moduleDataMap, runner);
+    final List<RenderscriptRun> renderscriptRuns = prepareRenderscriptCompiler(context, rsFilesToCompile, moduleDataMap, runner);
+    final List<AaptRun> aaptRuns = prepareAaptCompiler(context, moduleDataMap, runner);
+    runner.runAll();
+
     if (!idlFilesToCompile.isEmpty()) {
-      if (!runAidlCompiler(context, idlFilesToCompile, moduleDataMap)) {
+      if (!finishAll(context, aidlRuns)) {
         success = false;
       }
       didSomething = true;
     }
 
     if (!rsFilesToCompile.isEmpty()) {
-      if (!runRenderscriptCompiler(context, rsFilesToCompile, moduleDataMap)) {
+      if (!finishAll(context, renderscriptRuns)) {
         success = false;
       }
       didSomething = true;
     }
-    MyExitStatus status = runAaptCompiler(context, moduleDataMap);
 
-    if (status == MyExitStatus.FAIL) {
+    if (!finishAll(context, aaptRuns)) {
       success = false;
     }
-    else if (status == MyExitStatus.OK) {
-      didSomething = true;
+    else {
+      for (AaptRun run : aaptRuns) {
+        if (run.myDidSomething) {
+          didSomething = true;
+        }
+      }
     }
-    status = runBuildConfigGeneration(context, moduleDataMap);
+    MyExitStatus status = runBuildConfigGeneration(context, moduleDataMap);
 
     if (status == MyExitStatus.FAIL) {
       success = false;
@@ -680,26 +691,130 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     }
   }
 
-  private static boolean runAidlCompiler(@NotNull final CompileContext context,
-                                         @NotNull Map<File, ModuleBuildTarget> files,
-                                         @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
-    if (!files.isEmpty()) {
-      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
+  /**
+   * One run of aidl, llvm-rs-cc or aapt. It is prepared on the build thread, runs as a task of an
+   * {@link AndroidGenerationTaskRunner} and is then finished on the build thread, in the order the
+   * runs were prepared. The messages reported while preparing are kept until it is finished, so
+   * that they are reported in the same order as if the tools ran one after another.
+   */
+  private abstract static class GeneratorRun {
+    final AndroidGenerationTaskRunner.MessageBuffer myMessages = new AndroidGenerationTaskRunner.MessageBuffer();
+    @Nullable AndroidGenerationTaskRunner.Task myTask;
+    boolean myFailed;
+
+    /**
+     * Reports the messages and registers the outputs of the run.
+     *
+     * @return false if the run failed
+     */
+    final boolean finish(@NotNull CompileContext context) throws IOException {
+      myMessages.flush(context);
+      if (myFailed) {
+        return false;
+      }
+      if (myTask == null) {
+        try {
+          return finishWithoutRunning(context);
+        }
+        catch (IOException e) {
+          return handleIOException(context, e);
+        }
+      }
+      final Throwable error = myTask.getError();
+      if (error != null) {
+        if (error instanceof IOException) {
+          return handleIOException(context, (IOException)error);
+        }
+        if (error instanceof RuntimeException) {
+          throw (RuntimeException)error;
+        }
+        if (error instanceof Error) {
+          throw (Error)error;
+        }
+        throw new IOException(error);
+      }
+      return doFinish(context);
     }
 
+    /**
+     * Finishes a run for which the tool did not have to run.
+     *
+     * @return false if the run failed
+     */
+    protected boolean finishWithoutRunning(@NotNull CompileContext context) throws IOException {
+      return true;
+    }
+
+    protected abstract boolean handleIOException(@NotNull CompileContext context, @NotNull IOException e);
+
+    protected abstract boolean doFinish(@NotNull CompileContext context) throws IOException;
+  }
+
+  private static boolean finishAll(@NotNull CompileContext context, @NotNull List<? extends GeneratorRun> runs) throws IOException {
     boolean success = true;
 
+    for (GeneratorRun run : runs) {
+      if (!run.finish(context)) {
+        success = false;
+      }
+    }
+    return success;
+  }
+
+  private static class AidlRun extends GeneratorRun {
+    private ModuleBuildTarget myBuildTarget;
+    private String myFilePath;
+    private File myOutputFile;
+    private Map<AndroidCompilerMessageKind, List<String>> myToolMessages;
+
+    @Override
+    protected boolean handleIOException(@NotNull CompileContext context, @NotNull IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, myFilePath, e, ANDROID_IDL_COMPILER);
+      return false;
+    }
+
+    @Override
+    protected boolean doFinish(@NotNull CompileContext context) throws IOException {
+      addMessages(context, myToolMessages, myFilePath, ANDROID_IDL_COMPILER);
+
+      if (!myToolMessages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
+        return false;
+      }
+      else if (myOutputFile.exists()) {
+        final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(myBuildTarget);
+        sourceToOutputMap.setOutput(myFilePath, myOutputFile.getPath());
+        FSOperations.markDirty(context, CompilationRound.CURRENT, myOutputFile);
+      }
+      return true;
+    }
+  }
+
+  @NotNull
+  private static List<AidlRun> prepareAidlCompiler(@NotNull CompileContext context,
+                                                   @NotNull Map<File, ModuleBuildTarget> files,
+                                                   @NotNull Map<JpsModule, MyModuleData> moduleDataMap,
+                                                   @NotNull AndroidGenerationTaskRunner runner) {
+    if (!files.isEmpty()) {
+      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
+    }
+    final List<AidlRun> runs = new ArrayList<AidlRun>(files.size());
+
     for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
+      final AidlRun run = new AidlRun();
+      runs.add(run);
+
       final File file = entry.getKey();
       final ModuleBuildTarget buildTarget = entry.getValue();
       final String filePath = file.getPath();
+      run.myBuildTarget = buildTarget;
+      run.myFilePath = filePath;
 
       final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
 
       if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(
+        run.myMessages.processMessage(
           new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
+        run.myFailed = true;
         continue;
       }
       final File generatedSourcesDir =
@@ -707,10 +822,10 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
       final File aidlOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AIDL_GENERATED_SOURCE_ROOT_NAME);
 
       if (!aidlOutputDirectory.exists() && !aidlOutputDirectory.mkdirs()) {
-        context.processMessage(
+        run.myMessages.processMessage(
           new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
                               AndroidJpsBundle.message("android.jps.cannot.create.directory", aidlOutputDirectory.getPath())));
-        success = false;
+        run.myFailed = true;
         continue;
       }
 
@@ -722,55 +837,114 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
         final String packageName = computePackageForFile(context, file);
 
         if (packageName == null) {
-          context.processMessage(new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
-                                                     AndroidJpsBundle.message("android.jps.errors.cannot.compute.package", filePath)));
-          success = false;
+          run.myMessages.processMessage(new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
+                                                            AndroidJpsBundle.message("android.jps.errors.cannot.compute.package", filePath)));
+          run.myFailed = true;
           continue;
         }
 
         final File outputFile = new File(aidlOutputDirectory, packageName.replace('.', File.separatorChar) +
                                                               File.separator + FileUtil.getNameWithoutExtension(file) + ".java");
         final String outputFilePath = outputFile.getPath();
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
+        run.myOutputFile = outputFile;
+        run.myTask = new AndroidGenerationTaskRunner.Task() {
+          @Override
+          protected void execute() throws Exception {
+            run.myToolMessages = AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
+          }
+        };
+        runner.add(run.myTask);
+      }
+      catch (final IOException e) {
+        AndroidJpsUtil.reportExceptionError(run.myMessages, filePath, e, ANDROID_IDL_COMPILER);
+        run.myFailed = true;
+      }
+    }
+    return runs;
+  }
 
-        addMessages(context, messages, filePath, ANDROID_IDL_COMPILER);
+  private static class RenderscriptRun extends GeneratorRun {
+    private ModuleBuildTarget myBuildTarget;
+    private String myFilePath;
+    private File myFile;
+    private File myRsOutputDirectory;
+    private File myRawDir;
+    private File myTmpOutputDirectory;
+    private Map<AndroidCompilerMessageKind, List<String>> myToolMessages;
+
+    @Override
+    protected boolean handleIOException(@NotNull CompileContext context, @NotNull IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, myFilePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+      deleteTmpOutputDirectory();
+      return false;
+    }
 
-        if (!messages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
-          success = false;
+    @Override
+    protected boolean doFinish(@NotNull CompileContext context) throws IOException {
+      try {
+        addMessages(context, myToolMessages, myFilePath, ANDROID_RENDERSCRIPT_COMPILER);
+
+        if (!myToolMessages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
+          return false;
         }
-        else if (outputFile.exists()) {
-          final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutput(filePath, outputFilePath);
-          FSOperations.markDirty(context, CompilationRound.CURRENT, outputFile);
+        final List<File> newFiles = new ArrayList<File>();
+        AndroidCommonUtils.moveAllFiles(myTmpOutputDirectory, myRsOutputDirectory, newFiles);
+
+        final File bcFile = new File(myRawDir, FileUtil.getNameWithoutExtension(myFile) + ".bc");
+        if (bcFile.exists()) {
+          newFiles.add(bcFile);
         }
+        final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
+
+        final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(myBuildTarget);
+        sourceToOutputMap.setOutputs(myFilePath, newFilePaths);
+
+        for (File newFile : newFiles) {
+          FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
+        }
+        return true;
       }
-      catch (final IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_IDL_COMPILER);
-        success = false;
+      catch (IOException e) {
+        AndroidJpsUtil.reportExceptionError(context, myFilePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+        return false;
+      }
+      finally {
+        deleteTmpOutputDirectory();
+      }
+    }
+
+    private void deleteTmpOutputDirectory() {
+      if (myTmpOutputDirectory != null) {
+        FileUtil.delete(myTmpOutputDirectory);
       }
     }
-    return success;
   }
 
-  private static boolean runRenderscriptCompiler(@NotNull final CompileContext context,
-                                                 @NotNull Map<File, ModuleBuildTarget> files,
-                                                 @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
+  @NotNull
+  private static List<RenderscriptRun> prepareRenderscriptCompiler(@NotNull CompileContext context,
+                                                                   @NotNull Map<File, ModuleBuildTarget> files,
+                                                                   @NotNull Map<JpsModule, MyModuleData> moduleDataMap,
+                                                                   @NotNull AndroidGenerationTaskRunner runner) {
     if (!files.isEmpty()) {
       context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.renderscript")));
     }
-
-    boolean success = true;
+    final List<RenderscriptRun> runs = new ArrayList<RenderscriptRun>(files.size());
 
     for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
+      final RenderscriptRun run = new RenderscriptRun();
+      runs.add(run);
+
       final File file = entry.getKey();
       final ModuleBuildTarget buildTarget = entry.getValue();
+      run.myFile = file;
+      run.myBuildTarget = buildTarget;
+      run.myFilePath = file.getPath();
 
       final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
       if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
+        run.myMessages.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                          AndroidJpsBundle.message("android.jps.internal.error")));
+        run.myFailed = true;
         continue;
       }
 
@@ -778,249 +952,297 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
       final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
       final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
       if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
+        run.myMessages.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
           .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
-        success = false;
+        run.myFailed = true;
         continue;
       }
+      run.myRsOutputDirectory = rsOutputDirectory;
 
       final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
       final File rawDir = new File(generatedResourcesDir, "raw");
 
       if (!rawDir.exists() && !rawDir.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
-        success = false;
+        run.myMessages.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                          AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
+        run.myFailed = true;
         continue;
       }
+      run.myRawDir = rawDir;
 
       final AndroidPlatform platform = moduleData.getPlatform();
       final IAndroidTarget target = platform.getTarget();
       final String sdkLocation = platform.getSdk().getHomePath();
       final String filePath = file.getPath();
 
-      File tmpOutputDirectory = null;
-
       try {
-        tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
+        // Each file is compiled in its own directory, so that the files compiled concurrently do not see each other's outputs
+        final File tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
+        run.myTmpOutputDirectory = tmpOutputDirectory;
         final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
 
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
+        run.myTask = new AndroidGenerationTaskRunner.Task() {
+          @Override
+          protected void execute() throws Exception {
+            run.myToolMessages =
+              AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
+          }
+        };
+        runner.add(run.myTask);
+      }
+      catch (IOException e) {
+        AndroidJpsUtil.reportExceptionError(run.myMessages, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+        run.myFailed = true;
+        run.deleteTmpOutputDirectory();
+      }
+    }
+    return runs;
+  }
 
-        addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
+  private static class AaptRun extends GeneratorRun {
+    private String myModuleName;
+    private AndroidAptStateStorage myStorage;
+    private AndroidAptValidityState myNewState;
+    private File myAptOutputDirectory;
+    private File myTmpOutputDir;
+    private Map<AndroidCompilerMessageKind, List<String>> myToolMessages;
+    /** Whether aapt was run, or had to be run but could not be. */
+    private boolean myDidSomething;
+    /** The modules whose R.txt files aapt reads, so it has to run after them. */
+    private Collection<JpsModule> myDependencyModules = Collections.emptyList();
+    /** The output directory of a module which has nothing for aapt to compile, to clear once finished. */
+    @Nullable private File myOutputDirectoryToClear;
+
+    @Override
+    protected boolean finishWithoutRunning(@NotNull CompileContext context) throws IOException {
+      return myOutputDirectoryToClear == null || clearDirectoryIfNotEmpty(myOutputDirectoryToClear, context, ANDROID_APT_COMPILER);
+    }
+
+    @Override
+    protected boolean handleIOException(@NotNull CompileContext context, @NotNull IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_APT_COMPILER);
+      deleteTmpOutputDir();
+      return false;
+    }
 
-        if (!messages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
-          success = false;
-        }
-        else {
-          final List<File> newFiles = new ArrayList<File>();
-          AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
+    @Override
+    protected boolean doFinish(@NotNull CompileContext context) throws IOException {
+      try {
+        AndroidJpsUtil.addMessages(context, myToolMessages, ANDROID_APT_COMPILER, myModuleName);
 
-          final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
-          if (bcFile.exists()) {
-            newFiles.add(bcFile);
+        if (!myToolMessages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
+          myStorage.update(myModuleName, null);
+          return false;
+        }
+        if (!AndroidCommonUtils.directoriesContainSameContent(myTmpOutputDir, myAptOutputDirectory, JAVA_FILE_FILTER)) {
+          if (!deleteAndMarkRecursively(myAptOutputDirectory, context, ANDROID_APT_COMPILER)) {
+            return false;
           }
-          final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
-
-          final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutputs(filePath, newFilePaths);
-
-          for (File newFile : newFiles) {
-            FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
+          final File parent = myAptOutputDirectory.getParentFile();
+          if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message(
+              "android.jps.cannot.create.directory", parent.getPath())));
+            return false;
           }
+          // we use copyDir instead of moveDirWithContent here, because tmp directory may be located on other disk and
+          // moveDirWithContent doesn't work for such case
+          FileUtil.copyDir(myTmpOutputDir, myAptOutputDirectory);
+          markDirtyRecursively(myAptOutputDirectory, context, ANDROID_APT_COMPILER, true);
         }
+        myStorage.update(myModuleName, myNewState);
+        return true;
       }
       catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
-        success = false;
+        AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_APT_COMPILER);
+        return false;
       }
       finally {
-        if (tmpOutputDirectory != null) {
-          FileUtil.delete(tmpOutputDirectory);
-        }
+        deleteTmpOutputDir();
+      }
+    }
+
+    private void deleteTmpOutputDir() {
+      if (myTmpOutputDir != null) {
+        FileUtil.delete(myTmpOutputDir);
       }
     }
-    return success;
   }
 
-  private static MyExitStatus runAaptCompiler(@NotNull final CompileContext context,
-                                              @NotNull Map<JpsModule, MyModuleData> moduleDataMap)
-    throws IOException {
-    boolean success = true;
-    boolean didSomething = false;
+  @NotNull
+  private static List<AaptRun> prepareAaptCompiler(@NotNull CompileContext context,
+                                                   @NotNull Map<JpsModule, MyModuleData> moduleDataMap,
+                                                   @NotNull AndroidGenerationTaskRunner runner) {
+    final List<AaptRun> runs = new ArrayList<AaptRun>(moduleDataMap.size());
+    final Map<JpsModule, AndroidGenerationTaskRunner.Task> moduleTasks = new HashMap<JpsModule, AndroidGenerationTaskRunner.Task>();
 
     for (Map.Entry<JpsModule, MyModuleData> entry : moduleDataMap.entrySet()) {
+      final AaptRun run = new AaptRun();
+      runs.add(run);
       final JpsModule module = entry.getKey();
-      final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
-      final AndroidAptStateStorage storage =
-        context.getProjectDescriptor().dataManager.getStorage(
-          moduleTarget, AndroidAptStateStorage.PROVIDER);
-
-      final MyModuleData moduleData = entry.getValue();
-      final JpsAndroidModuleExtension extension = moduleData.getAndroidExtension();
-
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
-      final File aptOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AAPT_GENERATED_SOURCE_ROOT_NAME);
-      final IAndroidTarget target = moduleData.getPlatform().getTarget();
 
       try {
-        final String[] resPaths = AndroidJpsUtil.collectResourceDirsForCompilation(extension, false, context, true);
-        if (resPaths.length == 0) {
-          // there is no resources in the module
-          if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-            success = false;
-          }
-          continue;
-        }
-        final String packageName = moduleData.getPackage();
-        final File manifestFile;
-
-        if (extension.isLibrary() || !extension.isManifestMergingEnabled()) {
-          manifestFile = moduleData.getManifestFileForCompiler();
-        }
-        else {
-          manifestFile = new File(AndroidJpsUtil.getPreprocessedManifestDirectory(module, context.
-            getProjectDescriptor().dataManager.getDataPaths()), SdkConstants.FN_ANDROID_MANIFEST_XML);
-        }
+        prepareAaptCompiler(context, module, entry.getValue(), run);
+      }
+      catch (IOException e) {
+        AndroidJpsUtil.reportExceptionError(run.myMessages, null, e, ANDROID_APT_COMPILER);
+        run.myFailed = true;
+        run.deleteTmpOutputDir();
+        continue;
+      }
+      if (run.myTask != null) {
+        runner.add(run.myTask);
+        moduleTasks.put(module, run.myTask);
+      }
+    }
 
-        if (isLibraryWithBadCircularDependency(extension)) {
-          if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-            success = false;
-          }
-          continue;
-        }
-        final Map<JpsModule, String> packageMap = getDepLibPackages(module);
-        packageMap.put(module, packageName);
-
-        final JpsModule circularDepLibWithSamePackage = findCircularDependencyOnLibraryWithSamePackage(extension, packageMap);
-        if (circularDepLibWithSamePackage != null && !extension.isLibrary()) {
-          final String message = "Generated fields in " +
-                                 packageName +
-                                 ".R class in module '" +
-                                 module.getName() +
-                                 "' won't be final, because of circular dependency on module '" +
-                                 circularDepLibWithSamePackage.getName() +
-                                 "'";
-          context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.WARNING, message));
+    // The tasks of all the modules are created before they are wired, since the libraries are not necessarily prepared first
+    for (AaptRun run : runs) {
+      if (run.myTask == null) {
+        continue;
+      }
+      for (JpsModule dependencyModule : run.myDependencyModules) {
+        final AndroidGenerationTaskRunner.Task dependency = moduleTasks.get(dependencyModule);
+        if (dependency != null && dependency != run.myTask) {
+          run.myTask.dependsOn(dependency);
         }
-        final boolean generateNonFinalFields = extension.isLibrary() || circularDepLibWithSamePackage != null;
+      }
+    }
+    return runs;
+  }
 
-        AndroidAptValidityState oldState;
+  private static void prepareAaptCompiler(@NotNull CompileContext context,
+                                          @NotNull JpsModule module,
+                                          @NotNull MyModuleData moduleData,
+                                          @NotNull final AaptRun run) throws IOException {
+    final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    final AndroidAptStateStorage storage =
+      context.getProjectDescriptor().dataManager.getStorage(
+        moduleTarget, AndroidAptStateStorage.PROVIDER);
+
+    final JpsAndroidModuleExtension extension = moduleData.getAndroidExtension();
+
+    final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
+    final File aptOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AAPT_GENERATED_SOURCE_ROOT_NAME);
+    final IAndroidTarget target = moduleData.getPlatform().getTarget();
+
+    final String[] resPaths = AndroidJpsUtil.collectResourceDirsForCompilation(extension, false, context, true);
+    if (resPaths.length == 0) {
+      // there is no resources in the module
+      run.myOutputDirectoryToClear = aptOutputDirectory;
+      return;
+    }
+    final String packageName = moduleData.getPackage();
+    final File manifestFile;
 
-        try {
-          oldState = storage.getState(module.getName());
-        }
-        catch (IOException e) {
-          LOG.info(e);
-          oldState = null;
-        }
-        final Map<String, ResourceFileData> resources = new HashMap<String, ResourceFileData>();
-        final TObjectLongHashMap<String> valueResFilesTimestamps = new TObjectLongHashMap<String>();
-        collectResources(resPaths, resources, valueResFilesTimestamps, oldState);
+    if (extension.isLibrary() || !extension.isManifestMergingEnabled()) {
+      manifestFile = moduleData.getManifestFileForCompiler();
+    }
+    else {
+      manifestFile = new File(AndroidJpsUtil.getPreprocessedManifestDirectory(module, context.
+        getProjectDescriptor().dataManager.getDataPaths()), SdkConstants.FN_ANDROID_MANIFEST_XML);
+    }
 
-        final List<ResourceEntry> manifestElements = collectManifestElements(manifestFile);
-        final List<Pair<String, String>> libRTextFilesAndPackages = new ArrayList<Pair<String, String>>(packageMap.size());
+    if (isLibraryWithBadCircularDependency(extension)) {
+      run.myOutputDirectoryToClear = aptOutputDirectory;
+      return;
+    }
+    final Map<JpsModule, String> packageMap = getDepLibPackages(module);
+    packageMap.put(module, packageName);
 
-        for (Map.Entry<JpsModule, String> entry1 : packageMap.entrySet()) {
-          final String libPackage = entry1.getValue();
+    final JpsModule circularDepLibWithSamePackage = findCircularDependencyOnLibraryWithSamePackage(extension, packageMap);
+    if (circularDepLibWithSamePackage != null && !extension.isLibrary()) {
+      final String message = "Generated fields in " +
+                             packageName +
+                             ".R class in module '" +
+                             module.getName() +
+                             "' won't be final, because of circular dependency on module '" +
+                             circularDepLibWithSamePackage.getName() +
+                             "'";
+      run.myMessages.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.WARNING, message));
+    }
+    final boolean generateNonFinalFields = extension.isLibrary() || circularDepLibWithSamePackage != null;
 
-          if (!packageName.equals(libPackage)) {
-            final String libRTxtFilePath = new File(new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(
-              context, entry1.getKey()), R_TXT_OUTPUT_DIR_NAME), SdkConstants.FN_RESOURCE_TEXT).getPath();
-            libRTextFilesAndPackages.add(Pair.create(libRTxtFilePath, libPackage));
-          }
-        }
-        AndroidJpsUtil.collectRTextFilesFromAarDeps(module, libRTextFilesAndPackages);
+    AndroidAptValidityState oldState;
 
-        final File outputDirForArtifacts = AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module);
-        final String proguardOutputCfgFilePath;
+    try {
+      oldState = storage.getState(module.getName());
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      oldState = null;
+    }
+    final Map<String, ResourceFileData> resources = new HashMap<String, ResourceFileData>();
+    final TObjectLongHashMap<String> valueResFilesTimestamps = new TObjectLongHashMap<String>();
+    collectResources(resPaths, resources, valueResFilesTimestamps, oldState);
 
-        if (AndroidJpsUtil.getProGuardConfigIfShouldRun(context, extension) != null) {
-          if (AndroidJpsUtil.createDirIfNotExist(outputDirForArtifacts, context, BUILDER_NAME) == null) {
-            success = false;
-            continue;
-          }
-          proguardOutputCfgFilePath = new File(outputDirForArtifacts, AndroidCommonUtils.PROGUARD_CFG_OUTPUT_FILE_NAME).getPath();
-        }
-        else {
-          proguardOutputCfgFilePath = null;
-        }
-        String rTxtOutDirOsPath = null;
+    final List<ResourceEntry> manifestElements = collectManifestElements(manifestFile);
+    final List<Pair<String, String>> libRTextFilesAndPackages = new ArrayList<Pair<String, String>>(packageMap.size());
 
-        if (extension.isLibrary() || !libRTextFilesAndPackages.isEmpty()) {
-          final File rTxtOutDir = new File(outputDirForArtifacts, R_TXT_OUTPUT_DIR_NAME);
+    for (Map.Entry<JpsModule, String> entry1 : packageMap.entrySet()) {
+      final String libPackage = entry1.getValue();
 
-          if (AndroidJpsUtil.createDirIfNotExist(rTxtOutDir, context, BUILDER_NAME) == null) {
-            success = false;
-            continue;
-          }
-          rTxtOutDirOsPath = rTxtOutDir.getPath();
-        }
-        final AndroidAptValidityState newState =
-          new AndroidAptValidityState(resources, valueResFilesTimestamps, manifestElements, libRTextFilesAndPackages,
-                                      packageName, proguardOutputCfgFilePath, rTxtOutDirOsPath, extension.isLibrary());
+      if (!packageName.equals(libPackage)) {
+        final String libRTxtFilePath = new File(new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(
+          context, entry1.getKey()), R_TXT_OUTPUT_DIR_NAME), SdkConstants.FN_RESOURCE_TEXT).getPath();
+        libRTextFilesAndPackages.add(Pair.create(libRTxtFilePath, libPackage));
+      }
+    }
+    AndroidJpsUtil.collectRTextFilesFromAarDeps(module, libRTextFilesAndPackages);
 
-        if (newState.equalsTo(oldState)) {
-          // we need to update state, because it also contains myValueResFilesTimestamps not taking into account by equalsTo()
-          storage.update(module.getName(), newState);
-          continue;
-        }
-        didSomething = true;
-        context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aapt", module.getName())));
+    final File outputDirForArtifacts = AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module);
+    final String proguardOutputCfgFilePath;
 
-        File tmpOutputDir = null;
-        try {
-          tmpOutputDir = FileUtil.createTempDirectory("android_apt_output", "tmp");
-          final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidApt.compile(
-            target, -1, manifestFile.getPath(), packageName, tmpOutputDir.getPath(), resPaths, libRTextFilesAndPackages,
-            generateNonFinalFields, proguardOutputCfgFilePath, rTxtOutDirOsPath, !extension.isLibrary());
+    if (AndroidJpsUtil.getProGuardConfigIfShouldRun(context, extension) != null) {
+      if (AndroidJpsUtil.createDirIfNotExist(outputDirForArtifacts, run.myMessages, BUILDER_NAME) == null) {
+        run.myFailed = true;
+        return;
+      }
+      proguardOutputCfgFilePath = new File(outputDirForArtifacts, AndroidCommonUtils.PROGUARD_CFG_OUTPUT_FILE_NAME).getPath();
+    }
+    else {
+      proguardOutputCfgFilePath = null;
+    }
+    String rTxtOutDirOsPath = null;
 
-          AndroidJpsUtil.addMessages(context, messages, ANDROID_APT_COMPILER, module.getName());
+    if (extension.isLibrary() || !libRTextFilesAndPackages.isEmpty()) {
+      final File rTxtOutDir = new File(outputDirForArtifacts, R_TXT_OUTPUT_DIR_NAME);
 
-          if (!messages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
-            success = false;
-            storage.update(module.getName(), null);
-          }
-          else {
-            if (!AndroidCommonUtils.directoriesContainSameContent(tmpOutputDir, aptOutputDirectory, JAVA_FILE_FILTER)) {
-              if (!deleteAndMarkRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-                success = false;
-                continue;
-              }
-              final File parent = aptOutputDirectory.getParentFile();
-              if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message(
-                  "android.jps.cannot.create.directory", parent.getPath())));
-                success = false;
-                continue;
-              }
-              // we use copyDir instead of moveDirWithContent here, because tmp directory may be located on other disk and
-              // moveDirWithContent doesn't work for such case
-              FileUtil.copyDir(tmpOutputDir, aptOutputDirectory);
-              markDirtyRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER, true);
-            }
-            storage.update(module.getName(), newState);
-          }
-        }
-        finally {
-          if (tmpOutputDir != null) {
-            FileUtil.delete(tmpOutputDir);
-          }
-        }
-      }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_APT_COMPILER);
-        success = false;
+      if (AndroidJpsUtil.createDirIfNotExist(rTxtOutDir, run.myMessages, BUILDER_NAME) == null) {
+        run.myFailed = true;
+        return;
       }
+      rTxtOutDirOsPath = rTxtOutDir.getPath();
     }
-    if (!success) {
-      return MyExitStatus.FAIL;
-    }
-    else if (didSomething) {
-      return MyExitStatus.OK;
+    final AndroidAptValidityState newState =
+      new AndroidAptValidityState(resources, valueResFilesTimestamps, manifestElements, libRTextFilesAndPackages,
+                                  packageName, proguardOutputCfgFilePath, rTxtOutDirOsPath, extension.isLibrary());
+
+    if (newState.equalsTo(oldState)) {
+      // we need to update state, because it also contains myValueResFilesTimestamps not taking into account by equalsTo()
+      storage.update(module.getName(), newState);
+      return;
     }
-    return MyExitStatus.NOTHING_CHANGED;
+    run.myDidSomething = true;
+    context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aapt", module.getName())));
+
+    run.myModuleName = module.getName();
+    run.myStorage = storage;
+    run.myNewState = newState;
+    run.myAptOutputDirectory = aptOutputDirectory;
+    final File tmpOutputDir = FileUtil.createTempDirectory("android_apt_output", "tmp");
+    run.myTmpOutputDir = tmpOutputDir;
+
+    final String finalRTxtOutDirOsPath = rTxtOutDirOsPath;
+    // aapt reads the R.txt files of the libraries, so it has to wait for the libraries of this chunk to be processed first
+    run.myDependencyModules = new ArrayList<JpsModule>(packageMap.keySet());
+    run.myTask = new AndroidGenerationTaskRunner.Task() {
+      @Override
+      protected void execute() throws Exception {
+        run.myToolMessages = AndroidApt.compile(
+          target, -1, manifestFile.getPath(), packageName, tmpOutputDir.getPath(), resPaths, libRTextFilesAndPackages,
+          generateNonFinalFields, proguardOutputCfgFilePath, finalRTxtOutDirOsPath, !extension.isLibrary());
+      }
+    };
   }
 
   private static boolean clearDirectory(File dir, CompileContext context, String compilerName) throws IOException {
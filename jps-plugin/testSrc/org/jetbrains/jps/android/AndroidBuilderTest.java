@@ -11,6 +11,7 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.ArrayUtilRt;
 import com.intellij.util.io.TestFileSystemBuilder;
 import com.intellij.util.io.TestFileSystemItem;
+import org.jetbrains.android.compiler.tools.AndroidDxRunner;
 import org.jetbrains.android.util.AndroidBuildTestingManager;
 import org.jetbrains.android.util.AndroidCommonUtils;
 import org.jetbrains.annotations.NotNull;
@@ -45,10 +46,12 @@ import org.jetbrains.jps.util.JpsPathUtil;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -558,6 +561,80 @@ public class AndroidBuilderTest extends JpsBuildTestCase {
     checkMakeUpToDate(executor);
   }
 
+  public void testCrunchCache() throws Exception {
+    final List<String> crunchedFiles = new ArrayList<String>();
+    final MyExecutor executor = new MyExecutor("com.example.simple") {
+      @NotNull
+      @Override
+      protected Process doCreateProcess(@NotNull String[] args, @NotNull Map<? extends String, ? extends String> environment)
+        throws Exception {
+        if (args[0].endsWith(SdkConstants.FN_AAPT) && "crunch".equals(args[1])) {
+          final File inputDir = new File(args[3]);
+          final File outputDir = new File(args[args.length - 1]);
+
+          for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.png"), inputDir)) {
+            final String relativePath = FileUtil.getRelativePath(inputDir, file);
+            assert relativePath != null;
+            crunchedFiles.add(FileUtil.toSystemIndependentName(relativePath));
+            final String content = FileUtil.loadFile(file);
+
+            // like aapt, output nothing for the images which don't need crunching
+            if (!content.startsWith("not_crunched")) {
+              createTextFile(new File(outputDir, relativePath).getPath(), "crunched_" + content);
+            }
+          }
+          return new MyProcess(0, "", "");
+        }
+        return super.doCreateProcess(args, environment);
+      }
+    };
+    setUpSimpleAndroidStructure(ArrayUtil.EMPTY_STRING_ARRAY, executor, null, "6").getFirst();
+    setUpBuildCache();
+
+    final File resCacheDir = new File(myDataStorageRoot, "android/res_cache/module");
+    final File launcherIcon = new File(resCacheDir, "drawable/ic_launcher.png");
+    final File launcherIcon1 = new File(resCacheDir, "drawable/ic_launcher1.png");
+
+    rebuildAndroidProject();
+    assertSameElements(crunchedFiles, "drawable/ic_launcher.png", "drawable/ic_launcher1.png");
+    final String crunchedIcon = FileUtil.loadFile(launcherIcon);
+    assertEquals("crunched_" + FileUtil.loadFile(new File(getProjectPath("res/drawable/ic_launcher.png"))), crunchedIcon);
+
+    // the output is cleaned on rebuild, but the images didn't change, so they are taken from the cache
+    crunchedFiles.clear();
+    rebuildAndroidProject();
+    assertEmpty(crunchedFiles);
+    assertEquals(crunchedIcon, FileUtil.loadFile(launcherIcon));
+
+    // only the changed image is crunched again
+    change(getProjectPath("res/drawable/ic_launcher1.png"), "changed_image");
+    buildAndroidProject().assertSuccessful();
+    assertSameElements(crunchedFiles, "drawable/ic_launcher1.png");
+    assertEquals("crunched_changed_image", FileUtil.loadFile(launcherIcon1));
+    assertEquals(crunchedIcon, FileUtil.loadFile(launcherIcon));
+
+    // aapt outputs nothing for the image, its stale output is removed
+    crunchedFiles.clear();
+    change(getProjectPath("res/drawable/ic_launcher1.png"), "not_crunched_image");
+    buildAndroidProject().assertSuccessful();
+    assertSameElements(crunchedFiles, "drawable/ic_launcher1.png");
+    assertFalse(launcherIcon1.exists());
+
+    // the image which was not crunched is not given to aapt again while it doesn't change
+    crunchedFiles.clear();
+    change(getProjectPath("res/drawable/ic_launcher.png"), "changed_icon");
+    buildAndroidProject().assertSuccessful();
+    assertSameElements(crunchedFiles, "drawable/ic_launcher.png");
+    assertEquals("crunched_changed_icon", FileUtil.loadFile(launcherIcon));
+    assertFalse(launcherIcon1.exists());
+
+    crunchedFiles.clear();
+    assertTrue(FileUtil.delete(new File(getProjectPath("res/drawable/ic_launcher1.png"))));
+    buildAndroidProject().assertSuccessful();
+    assertEmpty(crunchedFiles);
+    assertFalse(launcherIcon1.exists());
+  }
+
   public void test7() throws Exception {
     final boolean[] class1Deleted = {false};
 
@@ -1240,6 +1317,61 @@ public class AndroidBuilderTest extends JpsBuildTestCase {
     checkBuildLog(executor, "expected_log_4");
   }
 
+  public void testPreDexCache() throws Exception {
+    final MyExecutor executor = new MyExecutor("com.example.simple");
+
+    final JpsSdk<JpsSimpleElement<JpsAndroidSdkProperties>> androidSdk = addJdkAndAndroidSdk();
+    addPathPatterns(executor, androidSdk);
+    final File cacheDir = setUpBuildCache();
+
+    final JpsModule appModule = addAndroidModule("app", new String[]{"src"}, "app", "app", androidSdk, "preDexing").getFirst();
+    final JpsLibrary lib = appModule.addModuleLibrary("ext_lib", JpsJavaLibraryType.INSTANCE);
+    lib.addRoot(new File(getProjectPath("app/libs/external_jar.jar")), JpsOrderRootType.COMPILED);
+    appModule.getDependenciesList().addLibraryDependency(lib);
+
+    rebuildAndroidProject();
+    assertEquals(1, countPreDexRuns(executor.getLog()));
+    final List<File> preDexedJars = FileUtil.findFilesByMask(Pattern.compile("external_jar\\.jar"), myDataStorageRoot);
+    assertEquals(1, preDexedJars.size());
+    final String preDexedContent = FileUtil.loadFile(preDexedJars.get(0));
+    final File preDexCacheDir = new File(cacheDir, "pre_dex");
+    assertEquals(1, preDexCacheDir.list().length);
+
+    // the output is cleaned on rebuild, but the jar didn't change, so it is taken from the cache
+    executor.clear();
+    rebuildAndroidProject();
+    assertEquals(0, countPreDexRuns(executor.getLog()));
+    assertEquals(preDexedContent, FileUtil.loadFile(preDexedJars.get(0)));
+    assertEquals(1, preDexCacheDir.list().length);
+  }
+
+  /**
+   * Makes the builders use a new temporary build cache directory, and returns it. The testing manager must be set up already.
+   */
+  private static File setUpBuildCache() throws IOException {
+    final File cacheDir = FileUtil.createTempDirectory("build_cache", null);
+    final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
+    assert testingManager != null;
+    testingManager.setBuildCacheDir(cacheDir);
+    return cacheDir;
+  }
+
+  /**
+   * Returns the number of dx runs writing to the directory of pre-dexed jars.
+   */
+  private static int countPreDexRuns(String log) {
+    final String[] lines = log.split("\n");
+    int count = 0;
+
+    for (int i = 0; i + 2 < lines.length; i++) {
+      if (lines[i].equals(AndroidDxRunner.class.getName()) &&
+          lines[i + 2].contains(AndroidPreDexBuildTarget.PRE_DEXED_LIBS_DIRECTORY_NAME)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   private void checkMakeUpToDate(MyExecutor executor) {
     executor.clear();
     buildAndroidProject().assertUpToDate();
@@ -0,0 +1,149 @@
+package org.jetbrains.jps.android;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AndroidGenerationTaskRunnerTest extends TestCase {
+  private ExecutorService myExecutor;
+  private List<String> myLog;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newFixedThreadPool(4);
+    myLog = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testDependenciesAddedAfterDependent() throws Exception {
+    final CountDownLatch independentStarted = new CountDownLatch(1);
+    final AndroidGenerationTaskRunner.Task app = new LoggingTask("app");
+    final AndroidGenerationTaskRunner.Task lib = new AndroidGenerationTaskRunner.Task() {
+      @Override
+      protected void execute() throws Exception {
+        // The task which does not depend on the library runs at the same time
+        assertTrue(independentStarted.await(10, TimeUnit.SECONDS));
+        myLog.add("lib");
+      }
+    };
+    final AndroidGenerationTaskRunner.Task independent = new AndroidGenerationTaskRunner.Task() {
+      @Override
+      protected void execute() {
+        independentStarted.countDown();
+      }
+    };
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+    runner.add(app);
+    runner.add(lib);
+    runner.add(independent);
+    app.dependsOn(lib);
+    runner.runAll(myExecutor);
+
+    assertEquals(Arrays.asList("lib", "app"), myLog);
+    assertNull(app.getError());
+    assertNull(lib.getError());
+    assertNull(independent.getError());
+  }
+
+  public void testChain() throws Exception {
+    final AndroidGenerationTaskRunner.Task first = new LoggingTask("first");
+    final AndroidGenerationTaskRunner.Task second = new LoggingTask("second");
+    final AndroidGenerationTaskRunner.Task third = new LoggingTask("third");
+    third.dependsOn(second);
+    second.dependsOn(first);
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+    runner.add(third);
+    runner.add(second);
+    runner.add(first);
+    runner.runAll(myExecutor);
+
+    assertEquals(Arrays.asList("first", "second", "third"), myLog);
+  }
+
+  public void testCycle() throws Exception {
+    final AndroidGenerationTaskRunner.Task a = new LoggingTask("a");
+    final AndroidGenerationTaskRunner.Task b = new LoggingTask("b");
+    a.dependsOn(b);
+    b.dependsOn(a);
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+    runner.add(a);
+    runner.add(b);
+    runner.runAll(myExecutor);
+
+    assertEquals(2, myLog.size());
+  }
+
+  public void testFailedDependency() throws Exception {
+    final IOException exception = new IOException("lib failed");
+    final AndroidGenerationTaskRunner.Task lib = new AndroidGenerationTaskRunner.Task() {
+      @Override
+      protected void execute() throws Exception {
+        throw exception;
+      }
+    };
+    final AndroidGenerationTaskRunner.Task app = new LoggingTask("app");
+    app.dependsOn(lib);
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner();
+    runner.add(app);
+    runner.add(lib);
+    runner.runAll(myExecutor);
+
+    assertSame(exception, lib.getError());
+    assertNull(app.getError());
+    assertEquals(Collections.singletonList("app"), myLog);
+  }
+
+  public void testSingleTaskLimit() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AndroidGenerationTaskRunner runner = new AndroidGenerationTaskRunner(1);
+
+    for (final String name : Arrays.asList("a", "b", "c")) {
+      runner.add(new AndroidGenerationTaskRunner.Task() {
+        @Override
+        protected void execute() {
+          maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+          myLog.add(name);
+          running.decrementAndGet();
+        }
+      });
+    }
+    runner.runAll();
+
+    assertEquals(Arrays.asList("a", "b", "c"), myLog);
+    assertEquals(1, maxRunning.get());
+  }
+
+  private class LoggingTask extends AndroidGenerationTaskRunner.Task {
+    private final String myName;
+
+    LoggingTask(@NotNull String name) {
+      myName = name;
+    }
+
+    @Override
+    protected void execute() {
+      myLog.add(myName);
+    }
+  }
+}